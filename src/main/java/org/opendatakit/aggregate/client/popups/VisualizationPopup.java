@@ -22,6 +22,7 @@ import java.util.HashMap;
 import org.opendatakit.aggregate.client.AggregateUI;
 import org.opendatakit.aggregate.client.FilterSubTab;
 import org.opendatakit.aggregate.client.SecureGWT;
+import org.opendatakit.aggregate.client.filter.FilterGroup;
 import org.opendatakit.aggregate.client.form.KmlSettings;
 import org.opendatakit.aggregate.client.submission.Column;
 import org.opendatakit.aggregate.client.submission.SubmissionUI;
@@ -125,6 +126,7 @@ public final class VisualizationPopup extends AbstractPopupBase {
   private boolean chartApiLoaded;
 
   private final String formId;
+  private final FilterGroup filterGroup;
 
   private final AggregateButton executeButton;
   private final SimplePanel chartPanel;
@@ -140,7 +142,8 @@ public final class VisualizationPopup extends AbstractPopupBase {
   public VisualizationPopup(FilterSubTab filterSubTab) {
     super();
 
-    formId = filterSubTab.getDisplayedFilterGroup().getFormId();
+    filterGroup = filterSubTab.getDisplayedFilterGroup();
+    formId = filterGroup.getFormId();
     headers = filterSubTab.getSubmissionTable().getHeaders();
     submissions = filterSubTab.getSubmissionTable().getSubmissions();
 
@@ -276,7 +279,7 @@ public final class VisualizationPopup extends AbstractPopupBase {
         + SUM_COLUMNS_END);
   }
 
-  private DataTable createDataTable() {
+  private DataTable createDataTable(HashMap<String, Double> aggregation) {
     Column firstDataValue = columnList.getSelectedColumn();
     Column secondDataValue = dataList.getSelectedColumn();
 
@@ -290,6 +293,29 @@ public final class VisualizationPopup extends AbstractPopupBase {
       data.addColumn(ColumnType.NUMBER, "Sum of " + secondDataValue.getDisplayHeader());
     }
 
+    // output table
+    int i = 0;
+    for (String s : aggregation.keySet()) {
+      data.addRow();
+      data.setValue(i, 0, s);
+      data.setValue(i, 1, aggregation.get(s));
+      i++;
+    }
+
+    return data;
+  }
+
+  /**
+   * Tabulate the submissions shown in the submission table.
+   *
+   * @return
+   */
+  private HashMap<String, Double> tabulateSubmissions() {
+    Column firstDataValue = columnList.getSelectedColumn();
+    Column secondDataValue = dataList.getSelectedColumn();
+
+    boolean tally = tallyOccurRadio.getValue();
+
     int firstIndex = 0;
     int secondIndex = 0;
     int index = 0;
@@ -325,16 +351,55 @@ public final class VisualizationPopup extends AbstractPopupBase {
       }
     }
 
-    // output table
-    int i = 0;
-    for (String s : aggregation.keySet()) {
-      data.addRow();
-      data.setValue(i, 0, s);
-      data.setValue(i, 1, aggregation.get(s));
-      i++;
+    return aggregation;
+  }
+
+  /**
+   * Tabulate the occurrences of each value of the selected column, counted by
+   * the server across all the submissions matching the filter. The chart is
+   * then created from the counts. Columns the server cannot count are tallied
+   * from the submissions shown in the submission table, as are sums.
+   */
+  private void tabulateAndShowChart(final ChartType type) {
+    if (!tallyOccurRadio.getValue()) {
+      showChart(type, tabulateSubmissions());
+      return;
     }
 
-    return data;
+    SecureGWT.getSubmissionService().getSubmissionValueCounts(filterGroup,
+        columnList.getSelectedColumn(), new AsyncCallback<HashMap<String, Long>>() {
+          public void onFailure(Throwable caught) {
+            AggregateUI.getUI().reportError(caught);
+          }
+
+          public void onSuccess(HashMap<String, Long> result) {
+            if (result == null) {
+              showChart(type, tabulateSubmissions());
+              return;
+            }
+            HashMap<String, Double> aggregation = new HashMap<String, Double>();
+            for (String label : result.keySet()) {
+              aggregation.put(label, result.get(label).doubleValue());
+            }
+            showChart(type, aggregation);
+          }
+        });
+  }
+
+  private void showChart(ChartType type, HashMap<String, Double> aggregation) {
+    Widget chart;
+    switch (type) {
+    case PIE_CHART:
+      chart = createPieChart(aggregation);
+      break;
+    case BAR_GRAPH:
+      chart = createBarChart(aggregation);
+      break;
+    default:
+      chart = null;
+    }
+    chartPanel.clear();
+    chartPanel.add(chart);
   }
 
   /**
@@ -342,8 +407,8 @@ public final class VisualizationPopup extends AbstractPopupBase {
    *
    * @return
    */
-  private PieChart createPieChart() {
-    DataTable data = createDataTable();
+  private PieChart createPieChart(HashMap<String, Double> aggregation) {
+    DataTable data = createDataTable(aggregation);
     PieOptions options = PieChart.createPieOptions();
     options.setWidth(chartPanel.getOffsetWidth());
     options.setHeight(chartPanel.getOffsetHeight());
@@ -356,8 +421,8 @@ public final class VisualizationPopup extends AbstractPopupBase {
    *
    * @return
    */
-  private BarChart createBarChart() {
-    DataTable data = createDataTable();
+  private BarChart createBarChart(HashMap<String, Double> aggregation) {
+    DataTable data = createDataTable(aggregation);
     Options options = Options.create();
     options.setWidth(chartPanel.getOffsetWidth());
     options.setHeight(chartPanel.getOffsetHeight());
@@ -551,22 +616,13 @@ public final class VisualizationPopup extends AbstractPopupBase {
         return;
       }
 
-      Widget chart;
-      switch (chartType.getSelectedEnumValue()) {
-      case MAP:
-        chart = createMap();
-        break;
-      case PIE_CHART:
-        chart = createPieChart();
-        break;
-      case BAR_GRAPH:
-        chart = createBarChart();
-        break;
-      default:
-        chart = null;
+      ChartType type = chartType.getSelectedEnumValue();
+      if (type.equals(ChartType.MAP)) {
+        chartPanel.clear();
+        chartPanel.add(createMap());
+      } else {
+        tabulateAndShowChart(type);
       }
-      chartPanel.clear();
-      chartPanel.add(chart);
     }
 
   }
@@ -16,6 +16,8 @@
 
 package org.opendatakit.aggregate.client.submission;
 
+import java.util.HashMap;
+
 import org.opendatakit.aggregate.client.exception.FormNotAvailableException;
 import org.opendatakit.aggregate.client.exception.RequestFailureException;
 import org.opendatakit.aggregate.client.filter.FilterGroup;
@@ -32,4 +34,11 @@ public interface SubmissionService extends RemoteService {
   
   SubmissionUISummary getRepeatSubmissions(String keyString) throws AccessDeniedException, FormNotAvailableException, RequestFailureException, DatastoreFailureException;
   
+  /**
+   * Counts the submissions matching the filter for each (formatted) value of
+   * the column. Returns null if the column's values cannot be counted by the
+   * datastore; they must then be tallied from the retrieved submissions.
+   */
+  HashMap<String, Long> getSubmissionValueCounts(FilterGroup filter, Column column) throws AccessDeniedException, FormNotAvailableException, RequestFailureException, DatastoreFailureException;
+  
 }
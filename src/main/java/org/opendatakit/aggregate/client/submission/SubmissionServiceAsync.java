@@ -16,6 +16,8 @@
 
 package org.opendatakit.aggregate.client.submission;
 
+import java.util.HashMap;
+
 import org.opendatakit.aggregate.client.filter.FilterGroup;
 
 import com.google.gwt.user.client.rpc.AsyncCallback;
@@ -26,4 +28,7 @@ public interface SubmissionServiceAsync {
 
   void getRepeatSubmissions(String keyString, AsyncCallback<SubmissionUISummary> callback);
 
+  void getSubmissionValueCounts(FilterGroup filter, Column column,
+      AsyncCallback<HashMap<String, Long>> callback);
+
 }
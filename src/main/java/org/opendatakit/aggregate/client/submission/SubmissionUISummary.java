@@ -43,6 +43,8 @@ public class SubmissionUISummary implements Serializable {
   
   private boolean hasPriorResults;
 
+  private long totalCount;
+
   private String formTitle;
   
   public SubmissionUISummary() {
@@ -129,5 +131,17 @@ public class SubmissionUISummary implements Serializable {
   public void setHasPriorResults(boolean hasPriorResults) {
     this.hasPriorResults = hasPriorResults;
   }
+
+  /**
+   * @return the number of submissions matching the filter, across all pages,
+   *         or -1 if the datastore could not count them.
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  public void setTotalCount(long totalCount) {
+    this.totalCount = totalCount;
+  }
   
 }
@@ -26,6 +26,8 @@ import com.google.gwt.user.client.ui.SimplePanel;
 public class SubmissionPaginationNavBar extends SimplePanel {
 
 
+  private static final String TOTAL_COUNT_TXT = " submissions";
+
   private final FlexTable controls;
 
   public SubmissionPaginationNavBar() {
@@ -44,7 +46,12 @@ public class SubmissionPaginationNavBar extends SimplePanel {
     // create previous button
     controls.setWidget(0, 0, new CursorAdvancementButton(summary, group, false));
 
-    controls.setHTML(0, 1, "<h2 id=\"form_name\">" + summary.getFormTitle() + "</h2>");
+    // the total count is -1 if the datastore could not count the submissions
+    String title = summary.getFormTitle();
+    if (summary.getTotalCount() >= 0) {
+      title += " (" + summary.getTotalCount() + TOTAL_COUNT_TXT + ")";
+    }
+    controls.setHTML(0, 1, "<h2 id=\"form_name\">" + title + "</h2>");
 
     // create next button
     controls.setWidget(0, 2, new CursorAdvancementButton(summary, group, true));
@@ -59,6 +59,12 @@ public final class ParserConsts {
    */
   public final static int FILE_SIZE_MAX = 5000000;
 
+  /**
+   * Attachments larger than this are written to a temporary file as they are
+   * received rather than held in memory (where the environment permits it)
+   */
+  public final static int MULTIPART_SPILL_THRESHOLD = 262144;
+
   /**
    * Namespace of ODK extensions to the OpenRosa standards
    */
@@ -17,7 +17,9 @@ package org.opendatakit.aggregate.datamodel;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.opendatakit.aggregate.constants.common.FormElementNamespace;
 import org.opendatakit.aggregate.form.IForm;
@@ -61,6 +63,8 @@ public final class FormElementModel {
   private final Metadata type;
   private final FormDataModel fdm;
   private final List<FormElementModel> children = new ArrayList<FormElementModel>();
+  // the first child with each element name; used by findElementByName.
+  private final Map<String, FormElementModel> childrenByName = new HashMap<String, FormElementModel>();
   private final FormElementModel parent;
 
   FormElementModel(FormElementModel parent, Metadata type) {
@@ -106,6 +110,12 @@ public final class FormElementModel {
     default:
       throw new IllegalStateException("Unexpectedly traversing hidden datatypes");
     }
+
+    for (FormElementModel m : children) {
+      if (!childrenByName.containsKey(m.getElementName())) {
+        childrenByName.put(m.getElementName(), m);
+      }
+    }
   }
 
   private final void addChildHelper(FormDataModel f) {
@@ -395,12 +405,7 @@ public final class FormElementModel {
       throw new IllegalArgumentException("null elementName passed in!");
     }
 
-    for (FormElementModel m : children) {
-      if (m.getElementName().equals(elementName)) {
-        return m;
-      }
-    }
-    return null;
+    return childrenByName.get(elementName);
   }
 
   // //////////////////////////////////////////////////////////////////////////////
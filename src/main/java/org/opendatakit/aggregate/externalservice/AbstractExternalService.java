@@ -109,6 +109,12 @@ public abstract class AbstractExternalService implements ExternalService{
 
   protected static final int SOCKET_ESTABLISHMENT_TIMEOUT_MILLISECONDS = 60000;
 
+  /**
+   * Number of submissions sent at once by publishers whose sendSubmission is
+   * thread-safe.
+   */
+  protected static final int MAX_CONCURRENT_SUBMISSIONS = 4;
+
   protected static final Charset UTF_CHARSET = Charset.forName(HtmlConsts.UTF8_ENCODE);
 
   protected AbstractExternalService(IForm form, FormServiceCursor formServiceCursor, ElementFormatter formatter, HeaderFormatter headerFormatter, CallingContext cc) {
@@ -130,6 +136,11 @@ public abstract class AbstractExternalService implements ExternalService{
   public boolean canBatchSubmissions() {
     return false;
   }
+
+  @Override
+  public int getMaxConcurrentSubmissions() {
+    return 1;
+  }
   
   @Override
   public void sendSubmissions(List<Submission> submissions, boolean streaming, CallingContext cc) throws ODKExternalServiceException {
@@ -277,7 +288,11 @@ public abstract class AbstractExternalService implements ExternalService{
       ds.putEntities(repeats, user);
     }
     ds.putEntity(serviceEntity, user);
-    ds.putEntity(fsc, user);
+    // concurrent sends may persist a bad-credentials status while the
+    // publisher is saving its progress.
+    synchronized (fsc) {
+      ds.putEntity(fsc, user);
+    }
   }
 
   @Override
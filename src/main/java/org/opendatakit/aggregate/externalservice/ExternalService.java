@@ -33,6 +33,14 @@ import org.opendatakit.common.web.CallingContext;
 public interface ExternalService {
 
   public boolean canBatchSubmissions();
+
+  /**
+   * The number of sendSubmission calls that may be in progress at once when
+   * the publisher cannot batch submissions.
+   *
+   * @return 1 if sendSubmission must not be called concurrently.
+   */
+  public int getMaxConcurrentSubmissions();
   
   public void sendSubmission(Submission submission, CallingContext cc) throws ODKExternalServiceException;
 
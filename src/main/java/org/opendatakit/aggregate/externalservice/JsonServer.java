@@ -163,6 +163,14 @@ public class JsonServer extends AbstractExternalService implements ExternalServi
         && (fsc == null ? (other.fsc == null) : (other.fsc != null && fsc.equals(other.fsc)));
   }
 
+  /**
+   * insertData builds and sends each request independently.
+   */
+  @Override
+  public int getMaxConcurrentSubmissions() {
+    return MAX_CONCURRENT_SUBMISSIONS;
+  }
+
   @Override
   protected void insertData(Submission submission, CallingContext cc)
       throws ODKExternalServiceException {
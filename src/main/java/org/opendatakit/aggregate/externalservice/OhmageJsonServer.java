@@ -225,6 +225,14 @@ public class OhmageJsonServer extends AbstractExternalService implements Externa
         && (fsc == null ? (other.fsc == null) : (other.fsc != null && fsc.equals(other.fsc)));
   }
 
+  /**
+   * insertData builds and sends each request independently.
+   */
+  @Override
+  public int getMaxConcurrentSubmissions() {
+    return MAX_CONCURRENT_SUBMISSIONS;
+  }
+
   @Override
   protected void insertData(Submission submission, CallingContext cc)
       throws ODKExternalServiceException {
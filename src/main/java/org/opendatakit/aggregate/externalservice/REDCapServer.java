@@ -246,6 +246,14 @@ public class REDCapServer extends AbstractExternalService implements ExternalSer
     submitPost("File import", postentity, null, cc);
   }
 
+  /**
+   * insertData builds and sends each request independently.
+   */
+  @Override
+  public int getMaxConcurrentSubmissions() {
+    return MAX_CONCURRENT_SUBMISSIONS;
+  }
+
   @Override
   protected void insertData(Submission submission, CallingContext cc)
       throws ODKExternalServiceException {
@@ -183,6 +183,7 @@ class Form implements IForm {
     if (formDefinition != null) {
       formDefinition.persistSubmissionAssociation(cc);
     }
+    FormFactory.formChanged(cc);
   }
 
   /**
@@ -193,7 +194,7 @@ class Form implements IForm {
    * @throws ODKDatastoreException
    */
   public synchronized void deleteForm(CallingContext cc) throws ODKDatastoreException {
-    FormFactory.clearForm(this);
+    FormFactory.clearForm(this, cc);
     if (formDefinition != null) {
       // delete the data model normally
       formDefinition.deleteDataModel(cc);
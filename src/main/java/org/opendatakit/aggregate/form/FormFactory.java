@@ -21,9 +21,9 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,106 +53,235 @@ public class FormFactory {
 
   private static final Log logger = LogFactory.getLog(FormFactory.class);
 
-  private static long cacheTimestamp = 0L;
-  private static final List<IForm> cache = new LinkedList<IForm>();
+  /**
+   * Interval between unconditional re-reads of the FormInfoTable. Between
+   * these, the table is only re-read if the cluster-wide form cache revision
+   * has changed.
+   */
+  private static final long FULL_REFRESH_MILLISECONDS = BackendActionsTable.HASHMAP_LIFETIME_MILLISECONDS;
+
+  /**
+   * Immutable snapshot of the form cache. Readers use whatever snapshot is
+   * current without locking; a refresh publishes a new snapshot.
+   */
+  private static final class FormCacheSnapshot {
+    /** when this snapshot was last verified against the datastore */
+    final long cacheTimestamp;
+    /** when the FormInfoTable was last read in its entirety */
+    final long fullRefreshTimestamp;
+    /** the cluster-wide form cache revision this snapshot reflects */
+    final long revision;
+    /** the forms, sorted by form title then by form id */
+    final List<IForm> forms;
+    /** the forms, keyed by the URI of their FormInfoTable row */
+    final Map<String, IForm> formsByUri;
+
+    FormCacheSnapshot(long cacheTimestamp, long fullRefreshTimestamp, long revision,
+        List<IForm> forms) {
+      this.cacheTimestamp = cacheTimestamp;
+      this.fullRefreshTimestamp = fullRefreshTimestamp;
+      this.revision = revision;
+      this.forms = Collections.unmodifiableList(forms);
+      Map<String, IForm> byUri = new HashMap<String, IForm>();
+      for (IForm f : forms) {
+        byUri.put(f.getUri(), f);
+      }
+      this.formsByUri = Collections.unmodifiableMap(byUri);
+    }
+
+    FormCacheSnapshot revalidated(long now) {
+      return new FormCacheSnapshot(now, fullRefreshTimestamp, revision, forms);
+    }
+  }
+
+  private static volatile FormCacheSnapshot snapshot = null;
+  /** held by the one thread refreshing the cache */
+  private static final ReentrantLock refreshLock = new ReentrantLock();
 
   private FormFactory() {};
 
   /**
-   * Return the list of forms in the database.
-   * If topLevelAuri is null, return all forms. Otherwise, return the form with the matching URI.
-   * This is the main interface to the cache of form objects.  The cache is refreshed as a whole
-   * every PersistConsts.MAX_SETTLE_MILLISECONDS.
+   * Return the current snapshot of the form cache, refreshing it if it is more
+   * than PersistConsts.MAX_SETTLE_MILLISECONDS old. While one thread refreshes
+   * the cache, other threads continue to use the existing snapshot; they only
+   * wait if there is no snapshot yet.
    *
-   * @param topLevelAuri
    * @param cc
    * @return
    * @throws ODKOverQuotaException
    * @throws ODKDatastoreException
    */
-  private static synchronized final List<IForm> internalGetForms(String topLevelAuri, CallingContext cc)
+  private static final FormCacheSnapshot getSnapshot(CallingContext cc)
       throws ODKOverQuotaException, ODKDatastoreException {
 
-    List<IForm> forms = new ArrayList<IForm>();
-    if ( cacheTimestamp + PersistConsts.MAX_SETTLE_MILLISECONDS > System.currentTimeMillis() ) {
-      // TODO: This cache should reside in MemCache.  Right now, different running
-      // servers might see different Form definitions for up to the settle time.
-      //
-      // Since the datastore is treated as having a settle time of MAX_SETTLE_MILLISECONDS,
-      // we should rely on the cache for that time interval.  Without MemCache-style
-      // support, this is somewhat problematic since different server instances might
-      // see different versions of the same Form.
-      //
-      logger.info("FormCache: using cached list of Forms");
+    FormCacheSnapshot current = snapshot;
+    if (current != null
+        && current.cacheTimestamp + PersistConsts.MAX_SETTLE_MILLISECONDS > System
+            .currentTimeMillis()) {
+      return current;
+    }
+
+    if (current != null) {
+      if (!refreshLock.tryLock()) {
+        // another thread is refreshing the cache -- use what we have
+        return current;
+      }
     } else {
-      // we have a fairly stale list of forms -- interrogate the database
-      // for what is really there and update the cache.
-      Map<String,IForm> oldForms = new HashMap<String,IForm>();
-      for ( IForm f : cache ) {
-        oldForms.put(f.getUri(), f);
+      refreshLock.lock();
+    }
+    try {
+      // re-test now that we hold the lock
+      current = snapshot;
+      long now = System.currentTimeMillis();
+      if (current != null && current.cacheTimestamp + PersistConsts.MAX_SETTLE_MILLISECONDS > now) {
+        return current;
+      }
+
+      long revision = BackendActionsTable.getFormCacheRevision(cc);
+      if (current != null && current.revision == revision
+          && current.fullRefreshTimestamp + FULL_REFRESH_MILLISECONDS > now) {
+        // TODO: different running servers might still see different Form
+        // definitions for up to the settle time, since the datastore is
+        // treated as having a settle time of MAX_SETTLE_MILLISECONDS.
+        logger.info("FormCache: using cached list of Forms");
+        current = current.revalidated(System.currentTimeMillis());
+      } else {
+        current = refreshSnapshot(current, revision, cc);
+        // test to see if we need to trigger the watchdog
+        BackendActionsTable.triggerWatchdog(cc);
       }
-      cache.clear();
-      logger.info("FormCache: fetching new list of Forms");
-
-      Datastore ds = cc.getDatastore();
-      User user = cc.getCurrentUser();
-
-      FormInfoTable relation = FormInfoTable.assertRelation(cc);
-      // ensure that Form table exists...
-      Query formQuery = ds.createQuery(relation, "Form.getForms", user);
-      List<? extends CommonFieldsBase> infoRows = formQuery.executeQuery();
-
-      for (CommonFieldsBase cb : infoRows) {
-        FormInfoTable infoRow = (FormInfoTable) cb;
-        IForm f = oldForms.get(infoRow.getUri());
-        // rely on the fact that a persist updates the last-update-date of the
-        // top-level FormInfoTable even if only subordinate values are updated.
-        Date infoDate = infoRow.getLastUpdateDate();
-        Date oldDate = (f == null) ? null : f.getLastUpdateDate();
-        if ( f != null &&  f.hasValidFormDefinition() &&
-            (infoRow.getCreationDate().equals(f.getCreationDate())) &&
-            ((infoDate == null && oldDate == null) ||
-             (infoDate != null && oldDate != null && infoDate.equals(oldDate))) ) {
-          cache.add(f);
-        } else {
-          logger.info("FormCache: refreshing form definition from database: " + infoRow.getStringField(FormInfoTable.FORM_ID));
-          // pull and update from the datastore
-          f = new Form(infoRow, cc);
-          cache.add(f);
-        }
+      snapshot = current;
+      return current;
+    } finally {
+      refreshLock.unlock();
+    }
+  }
+
+  /**
+   * Interrogate the database for the forms that are really there. Forms whose
+   * FormInfoTable row has not changed since they were cached are retained;
+   * only new or changed forms are re-read from the datastore.
+   *
+   * @param old
+   *          the existing snapshot (may be null)
+   * @param revision
+   *          the form cache revision read before querying the forms
+   * @param cc
+   * @return the new snapshot
+   * @throws ODKOverQuotaException
+   * @throws ODKDatastoreException
+   */
+  private static final FormCacheSnapshot refreshSnapshot(FormCacheSnapshot old, long revision,
+      CallingContext cc) throws ODKOverQuotaException, ODKDatastoreException {
+    Map<String, IForm> oldForms = (old == null) ? Collections.<String, IForm> emptyMap()
+        : old.formsByUri;
+    logger.info("FormCache: fetching new list of Forms");
+
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+
+    FormInfoTable relation = FormInfoTable.assertRelation(cc);
+    // ensure that Form table exists...
+    Query formQuery = ds.createQuery(relation, "Form.getForms", user);
+    List<? extends CommonFieldsBase> infoRows = formQuery.executeQuery();
+
+    List<IForm> forms = new ArrayList<IForm>();
+    for (CommonFieldsBase cb : infoRows) {
+      FormInfoTable infoRow = (FormInfoTable) cb;
+      IForm f = oldForms.get(infoRow.getUri());
+      // rely on the fact that a persist updates the last-update-date of the
+      // top-level FormInfoTable even if only subordinate values are updated.
+      Date infoDate = infoRow.getLastUpdateDate();
+      Date oldDate = (f == null) ? null : f.getLastUpdateDate();
+      if ( f != null &&  f.hasValidFormDefinition() &&
+          (infoRow.getCreationDate().equals(f.getCreationDate())) &&
+          ((infoDate == null && oldDate == null) ||
+           (infoDate != null && oldDate != null && infoDate.equals(oldDate))) ) {
+        forms.add(f);
+      } else {
+        logger.info("FormCache: refreshing form definition from database: " + infoRow.getStringField(FormInfoTable.FORM_ID));
+        // pull and update from the datastore
+        f = new Form(infoRow, cc);
+        forms.add(f);
       }
+    }
+
+    // sort by form title then by form id
+    Collections.sort(forms, new Comparator<IForm>() {
 
-      // sort by form title then by form id
-      Collections.sort(forms, new Comparator<IForm>() {
+      @Override
+      public int compare(IForm o1, IForm o2) {
+        int ref = o1.getViewableName().compareToIgnoreCase(o2.getViewableName());
+        if ( ref != 0 ) return ref;
+        return o1.getFormId().compareToIgnoreCase(o2.getFormId());
+      }});
 
-        @Override
-        public int compare(IForm o1, IForm o2) {
-          int ref = o1.getViewableName().compareToIgnoreCase(o2.getViewableName());
-          if ( ref != 0 ) return ref;
-          return o1.getFormId().compareToIgnoreCase(o2.getFormId());
-        }});
+    // the timestamps are established after all the datastore accesses -- if the
+    // datastore is very slow, this will space out the updates.
+    long now = System.currentTimeMillis();
+    return new FormCacheSnapshot(now, now, revision, forms);
+  }
 
-      // update cacheTimestamp -- note that if the datastore is very slow, this will
-      // space out the updates because the cacheTimestamp is established after all
-      // the datastore accesses.
-      cacheTimestamp = System.currentTimeMillis();
+  /**
+   * Return the list of forms in the database.
+   * If topLevelAuri is null, return all forms. Otherwise, return the form with the matching URI.
+   * This is the main interface to the cache of form objects.
+   *
+   * @param topLevelAuri
+   * @param cc
+   * @return
+   * @throws ODKOverQuotaException
+   * @throws ODKDatastoreException
+   */
+  private static final List<IForm> internalGetForms(String topLevelAuri, CallingContext cc)
+      throws ODKOverQuotaException, ODKDatastoreException {
 
-      // test to see if we need to trigger the watchdog
-      BackendActionsTable.triggerWatchdog(cc);
+    FormCacheSnapshot current = getSnapshot(cc);
+    if (topLevelAuri == null) {
+      return new ArrayList<IForm>(current.forms);
+    }
+    List<IForm> forms = new ArrayList<IForm>();
+    IForm f = current.formsByUri.get(topLevelAuri);
+    if (f != null) {
+      forms.add(f);
     }
+    return forms;
+  }
 
-    for (IForm v : cache) {
-      if ( topLevelAuri == null || v.getUri().equals(topLevelAuri) ) {
-        forms.add(v);
+  /**
+   * Remove the form from the cache on this server and force the caches on all
+   * server instances to re-read the FormInfoTable.
+   *
+   * @param match
+   * @param cc
+   */
+  public static void clearForm(IForm match, CallingContext cc) {
+    refreshLock.lock();
+    try {
+      FormCacheSnapshot current = snapshot;
+      if (current != null) {
+        List<IForm> forms = new ArrayList<IForm>(current.forms);
+        forms.remove(match);
+        // NOTE: delays refresh of the forms list by the settle time.
+        // The full refresh timestamp is cleared so that the next refresh
+        // re-reads the FormInfoTable.
+        snapshot = new FormCacheSnapshot(System.currentTimeMillis(), 0L, current.revision, forms);
       }
+    } finally {
+      refreshLock.unlock();
     }
-    return forms;
+    BackendActionsTable.bumpFormCacheRevision(cc);
   }
 
-  public static synchronized void clearForm(IForm match) {
-    // NOTE: delays refresh of the forms list by the settle time.
-    cache.remove(match);
-    cacheTimestamp = System.currentTimeMillis();
+  /**
+   * Called when a form definition has been created or updated. Forces the
+   * caches on all server instances to re-read the FormInfoTable once the
+   * settle time has elapsed.
+   *
+   * @param cc
+   */
+  public static void formChanged(CallingContext cc) {
+    BackendActionsTable.bumpFormCacheRevision(cc);
   }
 
   /**
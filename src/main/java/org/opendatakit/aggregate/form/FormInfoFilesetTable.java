@@ -92,7 +92,7 @@ public class FormInfoFilesetTable extends DynamicBase {
 		fieldList.add(DESCRIPTION);
 		fieldList.add(DESCRIPTION_URL);
 
-		fieldValueMap.put(primaryKey, FormInfoFilesetTable.URI_FORM_ID_VALUE_FORM_INFO_FILESET);
+		setStringField(primaryKey, FormInfoFilesetTable.URI_FORM_ID_VALUE_FORM_INFO_FILESET);
 	}
 
 	/**
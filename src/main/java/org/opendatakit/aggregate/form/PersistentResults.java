@@ -15,6 +15,8 @@
  */
 package org.opendatakit.aggregate.form;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -61,6 +63,10 @@ public class PersistentResults {
 
   public static final String FORM_ID_PERSISTENT_RESULT = "aggregate.opendatakit.org:PersistentResults";
 
+  // request parameters recording the progress of an incrementally-written result file
+  private static final String RESUME_CURSOR_PARAMETER = "_resumeCursor";
+  private static final String RESUME_PART_COUNT_PARAMETER = "_resumePartCount";
+
   private final PersistentResultsTable row;
 
   private final BinaryContentManipulator bcm;
@@ -242,6 +248,10 @@ public class PersistentResults {
     if (bcm.getAttachmentCount(cc) > 1) {
       throw new IllegalStateException("Too many results attached!");
     }
+    if (bcm.getContentHash(1, cc) == null) {
+      // result file is still being written
+      return null;
+    }
     String unrootedFilename = bcm.getUnrootedFilename(1, cc);
     SubmissionKey key = getSubmissionKey();
     Map<String, String> properties = new HashMap<String, String>();
@@ -261,6 +271,36 @@ public class PersistentResults {
     return bcm.getBlob(1, cc);
   }
 
+  public String getResultFileHash(CallingContext cc) throws ODKDatastoreException {
+    if (bcm.getAttachmentCount(cc) == 0)
+      return null;
+    if (bcm.getAttachmentCount(cc) > 1) {
+      throw new IllegalStateException("Too many results attached!");
+    }
+    return bcm.getContentHash(1, cc);
+  }
+
+  /**
+   * Write a byte range of the result file to the output stream, one stored
+   * part at a time.
+   *
+   * @param offset
+   * @param length
+   *          the number of bytes to write, or -1 for the rest of the file
+   * @param os
+   * @param cc
+   * @return the number of bytes written
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public long writeResultFileContents(long offset, long length, OutputStream os,
+      CallingContext cc) throws ODKDatastoreException, IOException {
+    if (bcm.getAttachmentCount(cc) != 1) {
+      throw new IllegalStateException("Expected exactly one result attachment!");
+    }
+    return bcm.writeBlob(1, offset, length, os, cc);
+  }
+
   public void setResultFile(byte[] byteArray, String contentType,
       String unrootedFilePath, boolean overwriteOK, CallingContext cc) throws ODKDatastoreException {
     if (bcm.getAttachmentCount(cc) > 0) {
@@ -269,6 +309,81 @@ public class PersistentResults {
     bcm.setValueFromByteArray(byteArray, contentType, unrootedFilePath, overwriteOK, cc);
   }
 
+  /**
+   * Append a segment to the result file that is being written incrementally.
+   * The result file is not available until completeResultFile() is called.
+   *
+   * @param segment
+   * @param contentType
+   * @param unrootedFilePath
+   * @param partCount
+   *          the number of parts already written (see getResultFilePartCount()).
+   * @param cc
+   * @return the number of parts written after appending this segment.
+   * @throws ODKDatastoreException
+   */
+  public long appendResultFileSegment(byte[] segment, String contentType,
+      String unrootedFilePath, long partCount, CallingContext cc) throws ODKDatastoreException {
+    return bcm.appendToValue(segment, contentType, unrootedFilePath, partCount, cc);
+  }
+
+  /**
+   * Discard anything written to the incrementally-written result file after
+   * the given number of parts.
+   *
+   * @param unrootedFilePath
+   * @param partCount
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public void truncateResultFile(String unrootedFilePath, long partCount, CallingContext cc)
+      throws ODKDatastoreException {
+    bcm.truncateAppendedValue(unrootedFilePath, partCount, cc);
+  }
+
+  public void completeResultFile(String unrootedFilePath, CallingContext cc)
+      throws ODKDatastoreException {
+    bcm.completeAppendedValue(unrootedFilePath, cc);
+  }
+
+  /**
+   * @return the websafe query cursor following the last segment appended to
+   *         the result file, or null if no segment has been recorded.
+   * @throws ODKDatastoreException
+   */
+  public String getResumeCursor() throws ODKDatastoreException {
+    return getRequestParameters().get(RESUME_CURSOR_PARAMETER);
+  }
+
+  /**
+   * @return the number of result file parts written as of the resume cursor.
+   * @throws ODKDatastoreException
+   */
+  public long getResultFilePartCount() throws ODKDatastoreException {
+    String value = getRequestParameters().get(RESUME_PART_COUNT_PARAMETER);
+    return (value == null) ? 0L : Long.valueOf(value);
+  }
+
+  /**
+   * Record the progress of the incrementally-written result file so that a
+   * later attempt can continue from it. Pass a null cursor to clear it.
+   *
+   * @param websafeCursor
+   * @param partCount
+   * @throws ODKDatastoreException
+   */
+  public void setResumePoint(String websafeCursor, long partCount) throws ODKDatastoreException {
+    Map<String, String> parameters = getRequestParameters();
+    if (websafeCursor == null) {
+      parameters.remove(RESUME_CURSOR_PARAMETER);
+      parameters.remove(RESUME_PART_COUNT_PARAMETER);
+    } else {
+      parameters.put(RESUME_CURSOR_PARAMETER, websafeCursor);
+      parameters.put(RESUME_PART_COUNT_PARAMETER, Long.toString(partCount));
+    }
+    setRequestParameters(parameters);
+  }
+
   public String getUri() {
     return row.getUri();
   }
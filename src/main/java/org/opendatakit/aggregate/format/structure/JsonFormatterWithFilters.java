@@ -74,6 +74,18 @@ public class JsonFormatterWithFilters implements SubmissionFormatter, RepeatCall
     first = true;
   }
 
+  /**
+   * Used in place of beforeProcessSubmissions() when appending further
+   * segments to output that already holds the opening of the array and at
+   * least one submission (e.g., written by an earlier export attempt).
+   *
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public void resumeProcessSubmissions(CallingContext cc) throws ODKDatastoreException {
+    first = false;
+  }
+
   @Override
   public void processSubmissionSegment(List<Submission> submissions, CallingContext cc)
       throws ODKDatastoreException {
@@ -21,8 +21,10 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.logging.Log;
@@ -77,6 +79,11 @@ public class DataManager {
 
   private static final Log logger = LogFactory.getLog(DataManager.class);
 
+  /**
+   * Maximum number of rowIds in a single IN-list fetch of existing rows.
+   */
+  private static final int MAX_ROW_ID_SET_SIZE = 100;
+
   public static class WebsafeRows {
     public final List<Row> rows;
 
@@ -142,6 +149,170 @@ public class DataManager {
     return tableId;
   }
 
+  /**
+   * The committed state of the table as seen by a read that does not hold the
+   * table lock. The sequenceValue is the last SEQUENCE_VALUE logged for the
+   * committed dataETag; every change made by a later writer has a greater
+   * sequence value. It is null if no changes have been logged.
+   */
+  private static final class TableSnapshot {
+    final DbTableEntryEntity entry;
+    final String dataETag;
+    final String sequenceValue;
+    final List<DbColumnDefinitionsEntity> columns;
+    final DbTable table;
+    final DbLogTable logTable;
+
+    TableSnapshot(DbTableEntryEntity entry, String sequenceValue,
+        List<DbColumnDefinitionsEntity> columns, DbTable table, DbLogTable logTable) {
+      this.entry = entry;
+      this.dataETag = entry.getDataETag();
+      this.sequenceValue = sequenceValue;
+      this.columns = columns;
+      this.table = table;
+      this.logTable = logTable;
+    }
+  }
+
+  /**
+   * Read the committed state of the table without taking the table lock.
+   * Pending (uncommitted or abandoned) changes are not reverted here; the
+   * read paths exclude them instead, and the next writer reverts them.
+   *
+   * @param boundLogReads
+   *          true if the caller will read the DbLogTable and needs the
+   *          snapshot's sequenceValue to bound those reads. Otherwise the
+   *          sequenceValue is not looked up and is null.
+   * @return
+   * @throws ODKDatastoreException
+   * @throws InconsistentStateException
+   */
+  private TableSnapshot getTableSnapshot(boolean boundLogReads) throws ODKDatastoreException,
+      InconsistentStateException {
+    DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
+    String schemaETag = entry.getSchemaETag();
+
+    if (schemaETag == null) {
+      throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
+    }
+
+    DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(tableId, schemaETag, cc);
+    List<DbColumnDefinitionsEntity> columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
+
+    DbTable table = DbTable.getRelation(tableDefn, columns, cc);
+    DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+
+    String sequenceValue = null;
+    if (boundLogReads && entry.getDataETag() != null) {
+      try {
+        sequenceValue = getSequenceValueForDataETag(logTable, entry.getDataETag());
+      } catch (ODKEntityNotFoundException e) {
+        // the committed change set did not log any rows
+        sequenceValue = null;
+      }
+    }
+    return new TableSnapshot(entry, sequenceValue, columns, table, logTable);
+  }
+
+  /**
+   * Determine the dataETags of the changes that were pending when the snapshot
+   * was taken or that became pending while the rows were being read. Those
+   * changes may still be reverted and must not be returned to the client. This
+   * must be called after the rows have been read.
+   *
+   * @param snapshot
+   * @return
+   * @throws ODKDatastoreException
+   */
+  private Set<String> getPendingDataETags(TableSnapshot snapshot) throws ODKDatastoreException {
+    Set<String> pending = new HashSet<String>();
+    if (snapshot.entry.getPendingDataETag() != null) {
+      pending.add(snapshot.entry.getPendingDataETag());
+    }
+    DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
+    if (entry.getPendingDataETag() != null) {
+      pending.add(entry.getPendingDataETag());
+    }
+    return pending;
+  }
+
+  /**
+   * Limit a log-table query to the changes included in the snapshot.
+   */
+  private void boundToSnapshot(Query query, TableSnapshot snapshot) {
+    if (snapshot.sequenceValue != null) {
+      query.lessThanOrEqual(DbLogTable.SEQUENCE_VALUE, snapshot.sequenceValue);
+    }
+  }
+
+  /**
+   * Convert a DbTable row into the row as of its last committed change. If the
+   * row was written by a pending change, its prior state is reconstructed from
+   * the DbLogTable (the same state that revertPendingChanges would restore).
+   *
+   * @param entity
+   * @param snapshot
+   * @param pendingDataETags
+   * @return the committed row, or null if the row did not exist before the
+   *         pending change.
+   * @throws ODKDatastoreException
+   * @throws BadColumnNameException
+   */
+  private Row toCommittedRow(Entity entity, TableSnapshot snapshot, Set<String> pendingDataETags)
+      throws ODKDatastoreException, BadColumnNameException {
+    if (pendingDataETags.isEmpty()) {
+      return converter.toRow(entity, snapshot.columns);
+    }
+    try {
+      // log entries are written first, so the pending log entry exists
+      Entity logEntity;
+      if (pendingDataETags.contains(entity.getString(DbTable.DATA_ETAG_AT_MODIFICATION))) {
+        logEntity = snapshot.logTable.getEntity(entity.getString(DbTable.ROW_ETAG), cc);
+      } else if (entity.getBoolean(DbTable.DELETED)) {
+        // a delete does not update the row's DATA_ETAG_AT_MODIFICATION; only
+        // its log entry records the change set that deleted it.
+        logEntity = snapshot.logTable.getEntity(entity.getString(DbTable.ROW_ETAG), cc);
+        if (!pendingDataETags.contains(logEntity.getString(DbLogTable.DATA_ETAG_AT_MODIFICATION))) {
+          return converter.toRow(entity, snapshot.columns);
+        }
+      } else {
+        return converter.toRow(entity, snapshot.columns);
+      }
+      String priorETag = logEntity.getString(DbLogTable.PREVIOUS_ROW_ETAG);
+      if (priorETag == null) {
+        return null;
+      }
+      Entity priorLogEntity = snapshot.logTable.getEntity(priorETag, cc);
+      return converter.toRowFromLogTable(priorLogEntity, snapshot.columns);
+    } catch (ODKEntityNotFoundException e) {
+      // the pending change was reverted while we were reading
+      return null;
+    }
+  }
+
+  /**
+   * Create the sequencer for a change to the table. Must be called while
+   * holding the table lock and after any pending changes have been reverted.
+   *
+   * @param entry
+   * @param logTable
+   * @return sequencer whose values follow those of the last committed change.
+   * @throws ODKDatastoreException
+   */
+  private Sequencer newSequencer(DbTableEntryEntity entry, DbLogTable logTable)
+      throws ODKDatastoreException {
+    String priorSequenceValue = entry.getAprioriDataSequenceValue();
+    if (entry.getDataETag() != null) {
+      try {
+        priorSequenceValue = getSequenceValueForDataETag(logTable, entry.getDataETag());
+      } catch (ODKEntityNotFoundException e) {
+        logger.warn("Log entries for dataETag " + entry.getDataETag() + " of table " + tableId
+            + " were not found; ordering after the table's apriori sequence value");
+      }
+    }
+    return new Sequencer(priorSequenceValue);
+  }
+
   private void revertPendingChanges(DbTableEntryEntity entry,
       List<DbColumnDefinitionsEntity> columns, DbTable table, DbLogTable logTable)
       throws ODKDatastoreException, BadColumnNameException {
@@ -207,6 +378,46 @@ public class DataManager {
     }
   }
 
+  /**
+   * Compute the ETag of the page of rows that getRows() would return, using
+   * only the table entry. The committed rows of the table can only change
+   * when its dataETag or schemaETag changes, so this lets a client that is
+   * polling an unchanged table be answered without querying the rows.
+   *
+   * The page a user sees may be restricted by their filter scopes, so the
+   * ETag of a user without UNFILTERED_READ permission also depends on who
+   * they are.
+   *
+   * @param startCursor
+   * @param fetchLimit
+   * @return the ETag of the page of rows.
+   * @throws ODKDatastoreException
+   * @throws PermissionDeniedException
+   * @throws InconsistentStateException
+   */
+  public String getRowsETag(QueryResumePoint startCursor, int fetchLimit)
+      throws ODKDatastoreException, PermissionDeniedException, InconsistentStateException {
+
+    userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
+
+    DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
+    String schemaETag = entry.getSchemaETag();
+
+    if (schemaETag == null) {
+      throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
+    }
+
+    StringBuilder b = new StringBuilder();
+    b.append("rows|").append(appId).append("|").append(tableId);
+    b.append("|").append(schemaETag).append("|").append(entry.getDataETag());
+    b.append("|").append((startCursor == null) ? "" : startCursor.asWebsafeCursor());
+    b.append("|").append(fetchLimit);
+    if (!userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
+      b.append("|").append(userPermissions.getOdkTablesUserId());
+    }
+    return CommonFieldsBase.newMD5HashUri(b.toString());
+  }
+
   /**
    * Retrieve all current rows of the table.
    *
@@ -223,53 +434,32 @@ public class DataManager {
 
     userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
 
-    String currentDataETag = null;
-    
-    List<DbColumnDefinitionsEntity> columns = null;
-    WebsafeQueryResult result = null;
-    LockTemplate propsLock = new LockTemplate(tableId,
-        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
-    try {
-      propsLock.acquire();
-
-      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-      String schemaETag = entry.getSchemaETag();
-
-      if (schemaETag == null) {
-        throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
-      }
-
-      currentDataETag = entry.getDataETag();
-      
-      DbTableDefinitionsEntity tableDefn = DbTableDefinitions
-          .getDefinition(tableId, schemaETag, cc);
-      columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
-
-      DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
-
-      revertPendingChanges(entry, columns, table, logTable);
-
-      Query query = buildRowsQuery(table);
-      query.addSort(table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
-          (startCursor == null || startCursor.isForwardCursor()) ? Direction.ASCENDING
-              : Direction.DESCENDING);
-      // we need the filter to activate the sort...
-      query.addFilter(table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
-          org.opendatakit.common.persistence.Query.FilterOperation.GREATER_THAN, BasicConsts.EPOCH);
-      result = query.execute(startCursor, fetchLimit);
-
-    } finally {
-      propsLock.release();
-    }
-
-    if (result.entities == null || columns == null) {
+    TableSnapshot snapshot = getTableSnapshot(false);
+
+    // deleted rows are not filtered out by the query: a pending delete may
+    // still be reverted, so the deletion is only honored once the committed
+    // row has been reconstructed.
+    Query query = buildRowsQuery(snapshot.table);
+    query.addSort(snapshot.table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
+        (startCursor == null || startCursor.isForwardCursor()) ? Direction.ASCENDING
+            : Direction.DESCENDING);
+    // we need the filter to activate the sort...
+    query.addFilter(snapshot.table.getDataField(CommonFieldsBase.CREATION_DATE_COLUMN_NAME),
+        org.opendatakit.common.persistence.Query.FilterOperation.GREATER_THAN, BasicConsts.EPOCH);
+    WebsafeQueryResult result = query.execute(startCursor, fetchLimit);
+
+    if (result.entities == null) {
       throw new InconsistentStateException("Unable to retrieve rows for table " + tableId + ".");
     }
 
+    Set<String> pendingDataETags = getPendingDataETags(snapshot);
+
     ArrayList<Row> rows = new ArrayList<Row>();
     for (Entity entity : result.entities) {
-      Row row = converter.toRow(entity, columns);
+      Row row = toCommittedRow(entity, snapshot, pendingDataETags);
+      if (row == null || row.isDeleted()) {
+        continue;
+      }
       if (userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
         rows.add(row);
       } else if (userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
@@ -277,16 +467,15 @@ public class DataManager {
         rows.add(row);
       }
     }
-    return new WebsafeRows(rows, currentDataETag, result.websafeRefetchCursor, result.websafeBackwardCursor,
+    return new WebsafeRows(rows, snapshot.dataETag, result.websafeRefetchCursor, result.websafeBackwardCursor,
         result.websafeResumeCursor, result.hasMore, result.hasPrior);
   }
 
   /**
-   * @return the query for current rows in the table
+   * @return the query for the rows in the table, including deleted rows
    */
   private Query buildRowsQuery(DbTable table) {
     Query query = table.query("DataManager.buildRowsQuery", cc);
-    query.equal(DbTable.DELETED, false);
     return query;
   }
 
@@ -308,67 +497,45 @@ public class DataManager {
 
     userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
 
-    String currentDataETag = null;
-    
-    List<DbColumnDefinitionsEntity> columns = null;
-    WebsafeQueryResult result = null;
-    LockTemplate propsLock = new LockTemplate(tableId,
-        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
-    try {
-      propsLock.acquire();
-
-      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-      String schemaETag = entry.getSchemaETag();
-
-      if (schemaETag == null) {
-        throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
-      }
-
-      currentDataETag = entry.getDataETag();
-      
-      DbTableDefinitionsEntity tableDefn = DbTableDefinitions
-          .getDefinition(tableId, schemaETag, cc);
-      columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
-
-      DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+    TableSnapshot snapshot = getTableSnapshot(true);
 
-      revertPendingChanges(entry, columns, table, logTable);
-
-      String sequenceValue = null;
-      if (dataETag != null) {
-        try {
-          sequenceValue = getSequenceValueForDataETag(logTable, dataETag);
-        } catch (ODKEntityNotFoundException e) {
-          // TODO: log this as a warning -- may be returning a very large set
-          sequenceValue = null;
-        }
-      }
-
-      Query query;
-      if (sequenceValue == null) {
-        query = buildRowsFromBeginningQuery(logTable, entry, (startCursor == null ? true
-            : startCursor.isForwardCursor()));
-      } else {
-        query = buildRowsSinceQuery(logTable, sequenceValue, (startCursor == null ? true
-            : startCursor.isForwardCursor()));
+    String sequenceValue = null;
+    if (dataETag != null) {
+      try {
+        sequenceValue = getSequenceValueForDataETag(snapshot.logTable, dataETag);
+      } catch (ODKEntityNotFoundException e) {
+        // TODO: log this as a warning -- may be returning a very large set
+        sequenceValue = null;
       }
+    }
 
-      result = query.execute(startCursor, fetchLimit);
-    } finally {
-      propsLock.release();
+    Query query;
+    if (sequenceValue == null) {
+      query = buildRowsFromBeginningQuery(snapshot.logTable, snapshot.entry,
+          (startCursor == null ? true : startCursor.isForwardCursor()));
+    } else {
+      query = buildRowsSinceQuery(snapshot.logTable, sequenceValue, (startCursor == null ? true
+          : startCursor.isForwardCursor()));
     }
+    boundToSnapshot(query, snapshot);
+
+    WebsafeQueryResult result = query.execute(startCursor, fetchLimit);
 
-    if (result.entities == null || columns == null) {
+    if (result.entities == null) {
       throw new InconsistentStateException("Unable to retrieve rows for table " + tableId + ".");
     }
 
+    Set<String> pendingDataETags = getPendingDataETags(snapshot);
+
     // TODO: properly handle reporting of rows that the user no longer has
     // access to because of a access / permissions change for that user and / or
     // row.
     ArrayList<Row> rows = new ArrayList<Row>();
     for (Entity entity : result.entities) {
-      Row row = converter.toRowFromLogTable(entity, columns);
+      if (pendingDataETags.contains(entity.getString(DbLogTable.DATA_ETAG_AT_MODIFICATION))) {
+        continue;
+      }
+      Row row = converter.toRowFromLogTable(entity, snapshot.columns);
       if (userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
         rows.add(row);
       } else if (userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
@@ -376,7 +543,7 @@ public class DataManager {
         rows.add(row);
       }
     }
-    return new WebsafeRows(computeDiff(rows), currentDataETag, result.websafeRefetchCursor,
+    return new WebsafeRows(computeDiff(rows), snapshot.dataETag, result.websafeRefetchCursor,
         result.websafeBackwardCursor, result.websafeResumeCursor, result.hasMore, result.hasPrior);
   }
   
@@ -408,90 +575,70 @@ public class DataManager {
 
     userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
     
-    String currentDataETag = null;
-    
-    List<DbColumnDefinitionsEntity> columns = null;
-    WebsafeQueryResult result = null;
-    LockTemplate propsLock = new LockTemplate(tableId,
-        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
-    try {
-      propsLock.acquire();
-
-      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-      String schemaETag = entry.getSchemaETag();
-
-      if (schemaETag == null) {
-        throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
-      }
-
-      currentDataETag = entry.getDataETag();
-
-      DbTableDefinitionsEntity tableDefn = DbTableDefinitions
-          .getDefinition(tableId, schemaETag, cc);
-      columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
-
-      DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
-
-      revertPendingChanges(entry, columns, table, logTable);
-
-     SimpleDateFormat sf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSSSSSSS");
-     Date startDateToCompare = null;
-      String startSequenceValue = null;
-      if (startTime != null) {
-        try {
-        startDateToCompare = sf.parse(startTime);
-          startSequenceValue = getSequenceValueForStartTime(logTable, query_col, startTime, startDateToCompare, Direction.ASCENDING);
-              //(startCursor == null || startCursor.isForwardCursor()) ? Direction.ASCENDING : Direction.DESCENDING);
-        } catch (ODKEntityNotFoundException e) {
-          // No values to display should return empty list
-          ArrayList<Row> rows = new ArrayList<Row>();
-          return new WebsafeRows(rows, currentDataETag, null, null, null, false, false);
-        }
-      } else {
-        throw new IllegalArgumentException("startTime must be specified.");
+    TableSnapshot snapshot = getTableSnapshot(true);
+    String currentDataETag = snapshot.dataETag;
+    DbLogTable logTable = snapshot.logTable;
+
+   SimpleDateFormat sf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSSSSSSS");
+   Date startDateToCompare = null;
+    String startSequenceValue = null;
+    if (startTime != null) {
+      try {
+      startDateToCompare = sf.parse(startTime);
+        startSequenceValue = getSequenceValueForStartTime(logTable, query_col, startTime, startDateToCompare, Direction.ASCENDING);
+            //(startCursor == null || startCursor.isForwardCursor()) ? Direction.ASCENDING : Direction.DESCENDING);
+      } catch (ODKEntityNotFoundException e) {
+        // No values to display should return empty list
+        ArrayList<Row> rows = new ArrayList<Row>();
+        return new WebsafeRows(rows, currentDataETag, null, null, null, false, false);
       }
-      
-      // endTime is an optional parameter
-      // and does not have to have a valid value
-     Date endDateToCompare = null;
-      String endSequenceValue = null;
-      if (endTime != null) {
-        try {
-         endDateToCompare = sf.parse(endTime);
-         // For the end time stamp we want the last one
-         endSequenceValue = getSequenceValueForEndTime(logTable, query_col, endTime, endDateToCompare, Direction.DESCENDING);
-             // (startCursor == null || startCursor.isForwardCursor()) ? Direction.DESCENDING : Direction.ASCENDING);
-        } catch (ODKEntityNotFoundException e) {
-          // If a sequence values is not found,
-          // the query should still work
-        }
-      } 
-
-      // CAL: From getRowsSince
-      Query query;
-      if (startSequenceValue == null) {
-        throw new IllegalArgumentException("No sequence value exists for the specified startTime.");
-      } else {
-        query = buildRowsIncludingQuery(logTable, startSequenceValue, endSequenceValue, (startCursor == null ? true
-            : startCursor.isForwardCursor()));
+    } else {
+      throw new IllegalArgumentException("startTime must be specified.");
+    }
+    
+    // endTime is an optional parameter
+    // and does not have to have a valid value
+   Date endDateToCompare = null;
+    String endSequenceValue = null;
+    if (endTime != null) {
+      try {
+       endDateToCompare = sf.parse(endTime);
+       // For the end time stamp we want the last one
+       endSequenceValue = getSequenceValueForEndTime(logTable, query_col, endTime, endDateToCompare, Direction.DESCENDING);
+           // (startCursor == null || startCursor.isForwardCursor()) ? Direction.DESCENDING : Direction.ASCENDING);
+      } catch (ODKEntityNotFoundException e) {
+        // If a sequence values is not found,
+        // the query should still work
       }
+    } 
 
-      result = query.execute(startCursor, fetchLimit);
-    } finally {
-      propsLock.release();
+    // CAL: From getRowsSince
+    Query query;
+    if (startSequenceValue == null) {
+      throw new IllegalArgumentException("No sequence value exists for the specified startTime.");
+    } else {
+      query = buildRowsIncludingQuery(logTable, startSequenceValue, endSequenceValue, (startCursor == null ? true
+          : startCursor.isForwardCursor()));
     }
+    boundToSnapshot(query, snapshot);
 
-    if (result.entities == null || columns == null) {
+    WebsafeQueryResult result = query.execute(startCursor, fetchLimit);
+
+    if (result.entities == null) {
       throw new InconsistentStateException("Unable to retrieve rows for table " + tableId + ".");
     }
 
+    Set<String> pendingDataETags = getPendingDataETags(snapshot);
+
     // TODO: properly handle reporting of rows that the user no longer has
     // access to because of a access / permissions change for that user and / or
     // row.
     ArrayList<Row> rows = new ArrayList<Row>();
     for (Entity entity : result.entities) {
-      Row row = converter.toRowFromLogTable(entity, columns);
+      if (pendingDataETags.contains(entity.getString(DbLogTable.DATA_ETAG_AT_MODIFICATION))) {
+        continue;
+      }
+      Row row = converter.toRowFromLogTable(entity, snapshot.columns);
       if (userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
         rows.add(row);
       } else if (userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
@@ -534,14 +681,12 @@ public class DataManager {
     
     query.addSort(DbLogTable.SEQUENCE_VALUE, Direction.DESCENDING);
 
-    List<Entity> values = query.execute();
+    // the descending sort on the sequence value ensures we get the last change for
+    // this dataETagAtModification. This assumes the client has gotten all records
+    // matching this tag, and is requesting changes *after* the tag.
+    List<Entity> values = query.execute(null, 1).entities;
     if (values == null || values.size() == 0) {
       throw new ODKEntityNotFoundException("ETag " + dataETag + " was not found in log table!");
-    } else if (values.size() != 1) {
-      // the descending sort on the sequence value ensures we get the last change for 
-      // this dataETagAtModification. This assumes the client has gotten all records
-      // matching this tag, and is requesting changes *after* the tag.
-      logger.info("Multiple records for dataETagAtModification " + dataETag + " count: " + values.size());
     }
     Entity e = values.get(0);
     return e.getString(DbLogTable.SEQUENCE_VALUE);
@@ -727,41 +872,15 @@ public class DataManager {
 
       userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
 
-      List<DbColumnDefinitionsEntity> columns = null;
-      Entity entity = null;
-      LockTemplate propsLock = new LockTemplate(tableId,
-          ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
-      try {
-        propsLock.acquire();
-
-        DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-        String schemaETag = entry.getSchemaETag();
-
-        if (schemaETag == null) {
-          throw new InconsistentStateException("Schema for table " + tableId
-              + " is not yet defined.");
-        }
-
-        DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(tableId, schemaETag,
-            cc);
-        columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
+      TableSnapshot snapshot = getTableSnapshot(false);
 
-        DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-        DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+      Entity entity = snapshot.table.getEntity(rowId, cc);
 
-        revertPendingChanges(entry, columns, table, logTable);
-
-        entity = table.getEntity(rowId, cc);
-
-      } finally {
-        propsLock.release();
+      Row row = toCommittedRow(entity, snapshot, getPendingDataETags(snapshot));
+      if (row == null) {
+        throw new ODKEntityNotFoundException("Row " + rowId + " of table " + tableId
+            + " has not yet been committed.");
       }
-
-      if (columns == null) {
-        throw new InconsistentStateException("Unable to retrieve rows for table " + tableId + ".");
-      }
-
-      Row row = converter.toRow(entity, columns);
       if (userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
         return row;
       } else if (userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
@@ -884,6 +1003,28 @@ public class DataManager {
     }
   }
 
+  /**
+   * Fetch the existing DbTable entities for the given rowIds using a few
+   * IN-list queries rather than one lookup per row.
+   *
+   * @param table
+   * @param rowIds
+   * @return map of rowId to the existing entity. Rows that do not exist are
+   *         absent from the map.
+   * @throws ODKDatastoreException
+   */
+  private Map<String, Entity> prefetchRows(DbTable table, List<String> rowIds)
+      throws ODKDatastoreException {
+    Map<String, Entity> existing = new HashMap<String, Entity>();
+    for (int i = 0; i < rowIds.size(); i += MAX_ROW_ID_SET_SIZE) {
+      List<String> chunk = rowIds.subList(i, Math.min(i + MAX_ROW_ID_SET_SIZE, rowIds.size()));
+      for (Entity entity : DbTable.query(table, chunk, cc)) {
+        existing.put(entity.getId(), entity);
+      }
+    }
+    return existing;
+  }
+
   /**
    * The tableUri of the returned rowOutcomeList is null.
    *  
@@ -920,7 +1061,6 @@ public class DataManager {
       List<DbColumnDefinitionsEntity> columns = null;
       try {
         propsLock.acquire();
-        Sequencer sequencer = new Sequencer(cc);
 
         DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
         String schemaETag = entry.getSchemaETag();
@@ -943,8 +1083,7 @@ public class DataManager {
         DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
 
         revertPendingChanges(entry, columns, table, logTable);
-
-        logger.error("Before loop Time elpased: " + (System.currentTimeMillis() - startTime));
+        Sequencer sequencer = newSequencer(entry, logTable);
 
         DataKeyValueDeepComparator dc = new DataKeyValueDeepComparator(columns);
 
@@ -959,30 +1098,35 @@ public class DataManager {
         List<Entity> logEntityList = new ArrayList<Entity>();
 
         ArrayList<BulkRowObjWrapper> rowWrapperList = new ArrayList<BulkRowObjWrapper>();
-
+        List<String> rowIds = new ArrayList<String>();
         for (Row row : rows.getRows()) {
-
           BulkRowObjWrapper rowWrapper = new BulkRowObjWrapper(row);
-
-          // and add row wrapper for bulk processing
           rowWrapperList.add(rowWrapper);
+          rowIds.add(rowWrapper.getRowId());
+        }
+
+        // fetch all the existing rows of this batch up front
+        long prefetchStartTime = System.currentTimeMillis();
+        Map<String, Entity> existingRows = prefetchRows(table, rowIds);
+        long diffStartTime = System.currentTimeMillis();
+
+        for (BulkRowObjWrapper rowWrapper : rowWrapperList) {
 
-          Entity entity = null;
-          try {
-            entity = table.getEntity(rowWrapper.getRowId(), cc);
+          Row row = rowWrapper.getRow();
+
+          Entity entity = existingRows.get(rowWrapper.getRowId());
+          if (entity != null) {
 
             if (rowWrapper.hasNewRowId()) {
               // yikes! -- generated UUID conflicts with an existing one.
               rowWrapper.setOutcome(OutcomeType.IN_CONFLICT);
-              rowWrapperList.add(rowWrapper);
               continue;
             }
 
-          } catch (ODKEntityNotFoundException e) {
+          } else {
 
             if (row.isDeleted()) {
               rowWrapper.setOutcome(OutcomeType.DENIED);
-              rowWrapperList.add(rowWrapper);
               continue;
             }
 
@@ -1041,6 +1185,8 @@ public class DataManager {
 
         }
 
+        long writeStartTime = System.currentTimeMillis();
+
         // commit the log change to the database (must be done first!)
         if (!logEntityList.isEmpty()) {
           logTable.bulkAlterEntities(logEntityList, cc);
@@ -1070,7 +1216,12 @@ public class DataManager {
           rowOutcomes.add(rowWrapper.getOutcome());
         }
 
-        logger.error("End loop Time elpased: " + (System.currentTimeMillis() - startTime));
+        logger.info("insertOrUpdateRows table " + tableId + " rows: " + rowWrapperList.size()
+            + " inserted: " + entityInsertList.size() + " updated: " + entityUpdateList.size()
+            + " setup ms: " + (prefetchStartTime - startTime) + " prefetch ms: "
+            + (diffStartTime - prefetchStartTime) + " diff ms: "
+            + (writeStartTime - diffStartTime) + " write ms: "
+            + (System.currentTimeMillis() - writeStartTime));
       } finally {
         propsLock.release();
       }
@@ -1079,12 +1230,6 @@ public class DataManager {
         throw new InconsistentStateException("Unable to retrieve rows for table " + tableId + ".");
       }
 
-      if (rows != null) {
-        long time = (System.currentTimeMillis() - startTime);
-        int numRows = rows.getRows().size();
-        logger.error("Time: " + time + " size: " + numRows + " per iteration " + (time / numRows));
-      }
-
       return new RowOutcomeList(rowOutcomes, dataETagAtModification);
     } catch (NullPointerException e) {
       e.printStackTrace();
@@ -1164,7 +1309,6 @@ public class DataManager {
           ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
       try {
         propsLock.acquire();
-        Sequencer sequencer = new Sequencer(cc);
 
         DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
         String schemaETag = entry.getSchemaETag();
@@ -1182,6 +1326,7 @@ public class DataManager {
         DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
 
         revertPendingChanges(entry, columns, table, logTable);
+        Sequencer sequencer = newSequencer(entry, logTable);
         
         DataKeyValueDeepComparator dc = new DataKeyValueDeepComparator(columns);
 
@@ -1384,7 +1529,6 @@ public class DataManager {
           ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
       try {
         propsLock.acquire();
-        Sequencer sequencer = new Sequencer(cc);
 
         DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
         String schemaETag = entry.getSchemaETag();
@@ -1403,6 +1547,7 @@ public class DataManager {
         DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
 
         revertPendingChanges(entry, columns, table, logTable);
+        Sequencer sequencer = newSequencer(entry, logTable);
 
         Entity entity = table.getEntity(rowId, cc);
 
@@ -1553,71 +1698,54 @@ public class DataManager {
 
     userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
 
-    String currentDataETag = null;
-    String retrievalSequenceValue = null;
-    
-    List<DbColumnDefinitionsEntity> columns = null;
-    List<?> result = null;
-    LockTemplate propsLock = new LockTemplate(tableId,
-        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
-    try {
-      propsLock.acquire();
-      Sequencer sequencer = new Sequencer(cc);
-      retrievalSequenceValue = sequencer.getNextSequenceValue();
+    TableSnapshot snapshot = getTableSnapshot(true);
+    String currentDataETag = snapshot.dataETag;
 
-      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-      String schemaETag = entry.getSchemaETag();
-
-      if (schemaETag == null) {
-        throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
+    String unifiedSequenceValue = null;
+    if (dataETag != null) {
+      try {
+        unifiedSequenceValue = getSequenceValueForDataETag(snapshot.logTable, dataETag);
+      } catch (ODKEntityNotFoundException e) {
+        // TODO: log this as a warning -- may be returning a very large set
+        unifiedSequenceValue = null;
       }
+    }
 
-      currentDataETag = entry.getDataETag();
-      
-      DbTableDefinitionsEntity tableDefn = DbTableDefinitions
-          .getDefinition(tableId, schemaETag, cc);
-      columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
-
-      DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
-
-      revertPendingChanges(entry, columns, table, logTable);
+    if ( sequenceValue != null && 
+        (unifiedSequenceValue == null || (unifiedSequenceValue.compareTo(sequenceValue) < 0)) ) {
+      unifiedSequenceValue = sequenceValue;
+    }
 
-      String unifiedSequenceValue = null;
-      if (dataETag != null) {
-        try {
-          unifiedSequenceValue = getSequenceValueForDataETag(logTable, dataETag);
-        } catch (ODKEntityNotFoundException e) {
-          // TODO: log this as a warning -- may be returning a very large set
-          unifiedSequenceValue = null;
-        }
-      }
+    // changes after the snapshot are reported by the next request
+    String retrievalSequenceValue = snapshot.sequenceValue;
+    if (unifiedSequenceValue != null
+        && (retrievalSequenceValue == null || retrievalSequenceValue
+            .compareTo(unifiedSequenceValue) < 0)) {
+      retrievalSequenceValue = unifiedSequenceValue;
+    }
 
-      if ( sequenceValue != null && 
-          (unifiedSequenceValue == null || (unifiedSequenceValue.compareTo(sequenceValue) < 0)) ) {
-        unifiedSequenceValue = sequenceValue;
-      }
-      
-      Query query;
-      if (unifiedSequenceValue == null) {
-        query = buildRowsFromBeginningQuery(logTable, entry, true);
-      } else {
-        query = buildRowsSinceQuery(logTable, unifiedSequenceValue, true);
-      }
-      
-      result = query.getDistinct(DbLogTable.DATA_ETAG_AT_MODIFICATION);
-    } finally {
-      propsLock.release();
+    Query query;
+    if (unifiedSequenceValue == null) {
+      query = buildRowsFromBeginningQuery(snapshot.logTable, snapshot.entry, true);
+    } else {
+      query = buildRowsSinceQuery(snapshot.logTable, unifiedSequenceValue, true);
     }
+    boundToSnapshot(query, snapshot);
+
+    List<?> result = query.getDistinct(DbLogTable.DATA_ETAG_AT_MODIFICATION);
 
     if (result == null || result.isEmpty() ) {
       return new ChangeSetList(null, currentDataETag, retrievalSequenceValue);
     }
 
+    Set<String> pendingDataETags = getPendingDataETags(snapshot);
+
     ArrayList<String> dataETags = new ArrayList<String>();
     for (Object o : result) {
       String value = (String) o;
-      dataETags.add(value);
+      if (!pendingDataETags.contains(value)) {
+        dataETags.add(value);
+      }
     }
     
     return new ChangeSetList(dataETags, currentDataETag, retrievalSequenceValue);
@@ -1645,73 +1773,53 @@ public class DataManager {
 
     userPermissions.checkPermission(appId, tableId, TablePermission.READ_ROW);
 
-    String currentDataETag = null;
-    
-    List<DbColumnDefinitionsEntity> columns = null;
+    TableSnapshot snapshot = getTableSnapshot(false);
+    DbTable table = snapshot.table;
+    DbLogTable logTable = snapshot.logTable;
     WebsafeQueryResult result = null;
-    LockTemplate propsLock = new LockTemplate(tableId,
-        ODKTablesTaskLockType.TABLES_NON_PERMISSIONS_CHANGES, cc);
-    try {
-      propsLock.acquire();
-
-      DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(tableId, cc);
-      String schemaETag = entry.getSchemaETag();
 
-      if (schemaETag == null) {
-        throw new InconsistentStateException("Schema for table " + tableId + " is not yet defined.");
+    boolean isForwardCursor = (startCursor == null ? true
+        : startCursor.isForwardCursor());
+    
+    if ( isActive ) {
+      // query is against DbTable
+      Query query = table.query("DataManager.getChangeSetRows", cc);
+      query.equal(DbTable.DATA_ETAG_AT_MODIFICATION, dataETag);
+      if (isForwardCursor) {
+        query.greaterThan(DbTable.ROW_ETAG,"");
+        query.sortAscending(DbTable.ROW_ETAG);
+      } else {
+        query.greaterThan(DbTable.ROW_ETAG,"");
+        query.sortDescending(DbTable.ROW_ETAG);
       }
 
-      currentDataETag = entry.getDataETag();
-      
-      DbTableDefinitionsEntity tableDefn = DbTableDefinitions
-          .getDefinition(tableId, schemaETag, cc);
-      columns = DbColumnDefinitions.query(tableId, schemaETag, cc);
-
-      DbTable table = DbTable.getRelation(tableDefn, columns, cc);
-      DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
-
-      revertPendingChanges(entry, columns, table, logTable);
-
-      boolean isForwardCursor = (startCursor == null ? true
-          : startCursor.isForwardCursor());
+      result = query.execute(startCursor, fetchLimit);
       
-      if ( isActive ) {
-        // query is against DbTable
-        Query query = table.query("DataManager.getChangeSetRows", cc);
-        query.equal(DbTable.DATA_ETAG_AT_MODIFICATION, dataETag);
-        if (isForwardCursor) {
-          query.greaterThan(DbTable.ROW_ETAG,"");
-          query.sortAscending(DbTable.ROW_ETAG);
-        } else {
-          query.greaterThan(DbTable.ROW_ETAG,"");
-          query.sortDescending(DbTable.ROW_ETAG);
-        }
-
-        result = query.execute(startCursor, fetchLimit);
-        
+    } else {
+      // query is against DbLogTable
+      Query query = logTable.query("DataManager.getChangeSetRows", cc);
+      query.equal(DbLogTable.DATA_ETAG_AT_MODIFICATION, dataETag);
+      if (isForwardCursor) {
+        query.greaterThan(DbLogTable.ROW_ID,"");
+        query.sortAscending(DbLogTable.ROW_ID);
       } else {
-        // query is against DbLogTable
-        Query query = logTable.query("DataManager.getChangeSetRows", cc);
-        query.equal(DbLogTable.DATA_ETAG_AT_MODIFICATION, dataETag);
-        if (isForwardCursor) {
-          query.greaterThan(DbLogTable.ROW_ID,"");
-          query.sortAscending(DbLogTable.ROW_ID);
-        } else {
-          query.greaterThan(DbLogTable.ROW_ID,"");
-          query.sortDescending(DbLogTable.ROW_ID);
-        }
-        
-        result = query.execute(startCursor, fetchLimit);
+        query.greaterThan(DbLogTable.ROW_ID,"");
+        query.sortDescending(DbLogTable.ROW_ID);
       }
-
-    } finally {
-      propsLock.release();
+      
+      result = query.execute(startCursor, fetchLimit);
     }
 
-    if (result.entities == null || columns == null) {
+    if (result.entities == null) {
       throw new InconsistentStateException("Unable to retrieve rows for table " + tableId + ".");
     }
 
+    // a change set that is still pending may yet be reverted
+    if (getPendingDataETags(snapshot).contains(dataETag)) {
+      return new WebsafeRows(new ArrayList<Row>(), snapshot.dataETag, null, null, null, false,
+          false);
+    }
+
     // TODO: properly handle reporting of rows that the user no longer has
     // access to because of a access / permissions change for that user and / or
     // row.
@@ -1719,7 +1827,7 @@ public class DataManager {
     if ( isActive ) {
       // query is against DbTable
       for (Entity entity : result.entities) {
-        Row row = converter.toRow(entity, columns);
+        Row row = converter.toRow(entity, snapshot.columns);
         if (userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
           rows.add(row);
         } else if (userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
@@ -1731,7 +1839,7 @@ public class DataManager {
     } else {
       // query is against DbLogTable
       for (Entity entity : result.entities) {
-        Row row = converter.toRowFromLogTable(entity, columns);
+        Row row = converter.toRowFromLogTable(entity, snapshot.columns);
         if (userPermissions.hasPermission(appId, tableId, TablePermission.UNFILTERED_READ)) {
           rows.add(row);
         } else if (userPermissions.hasFilterScope(appId, tableId, TablePermission.READ_ROW,
@@ -1741,7 +1849,7 @@ public class DataManager {
       }
       
     }
-    return new WebsafeRows(computeDiff(rows), currentDataETag, result.websafeRefetchCursor,
+    return new WebsafeRows(computeDiff(rows), snapshot.dataETag, result.websafeRefetchCursor,
         result.websafeBackwardCursor, result.websafeResumeCursor, result.hasMore, result.hasPrior);
   }
 }
\ No newline at end of file
@@ -127,6 +127,28 @@ public class FileManager {
   
   public FileContentInfo getFile(String odkClientVersion, String tableId, String wholePath)
       throws ODKDatastoreException, FileNotFoundException {
+    BlobEntitySet blobEntitySet = getFileBlobEntitySet(odkClientVersion, tableId, wholePath);
+
+    FileContentInfo fo = new FileContentInfo(blobEntitySet.getContentType(1, cc),
+        blobEntitySet.getContentLength(1, cc), blobEntitySet.getContentHash(1, cc),
+        blobEntitySet.getBlob(1, cc));
+    return fo;
+  }
+
+  /**
+   * Locate the stored file without retrieving its content. The file is the
+   * first (and only) blob in the returned BlobEntitySet; its content can be
+   * streamed with {@link BlobEntitySet#writeBlob}.
+   *
+   * @param odkClientVersion
+   * @param tableId
+   * @param wholePath
+   * @return the BlobEntitySet holding the file
+   * @throws ODKDatastoreException
+   * @throws FileNotFoundException
+   */
+  public BlobEntitySet getFileBlobEntitySet(String odkClientVersion, String tableId,
+      String wholePath) throws ODKDatastoreException, FileNotFoundException {
     // DbTableFileInfo.NO_TABLE_ID -- means that we are working with app-level
     if (!DbTableFileInfo.NO_TABLE_ID.equals(tableId)) {
 
@@ -159,11 +181,7 @@ public class FileManager {
     if (blobEntitySet.getAttachmentCount(cc) < 1) {
       throw new FileNotFoundException("No file found for path: " + wholePath);
     }
-
-    FileContentInfo fo = new FileContentInfo(blobEntitySet.getContentType(1, cc),
-        blobEntitySet.getContentLength(1, cc), blobEntitySet.getContentHash(1, cc),
-        blobEntitySet.getBlob(1, cc));
-    return fo;
+    return blobEntitySet;
   }
 
   public FileChangeDetail putFile(String odkClientVersion, String tableId, String filePath,
@@ -182,19 +200,7 @@ public class FileManager {
 
     // -1) clear the eTag for the manifest of this tableId
 
-    {
-      try {
-        DbManifestETagEntity etag;
-        if (DbTableFileInfo.NO_TABLE_ID.equals(tableId)) {
-          etag = DbManifestETags.getTableIdEntry(DbManifestETags.APP_LEVEL, cc);
-        } else {
-          etag = DbManifestETags.getTableIdEntry(tableId, cc);
-        }
-        etag.delete(cc);
-      } catch ( ODKEntityNotFoundException e ) {
-        // ignore...
-      }
-    }
+    clearManifestETag(tableId);
 
     // 0) Delete anything that is already stored
 
@@ -248,6 +254,10 @@ public class FileManager {
     // 3) persist the user-friendly table entry about the blob
     tableFileInfoRow.put(cc);
 
+    // 4) clear the eTag again; a manifest built while the file was being
+    // changed may have recorded an eTag for a partial manifest.
+    clearManifestETag(tableId);
+
     switch (outcome) {
     case FILE_UNCHANGED:
       return FileChangeDetail.FILE_NOT_CHANGED;
@@ -280,17 +290,7 @@ public class FileManager {
     
     if ( !entities.isEmpty() ) {
       // -1) clear the eTag for the manifest of this tableId
-      try {
-        DbManifestETagEntity etag;
-        if (DbTableFileInfo.NO_TABLE_ID.equals(tableId)) {
-          etag = DbManifestETags.getTableIdEntry(DbManifestETags.APP_LEVEL, cc);
-        } else {
-          etag = DbManifestETags.getTableIdEntry(tableId, cc);
-        }
-        etag.delete(cc);
-      } catch ( ODKEntityNotFoundException e ) {
-        // ignore...
-      }
+      clearManifestETag(tableId);
     }
     
     // 0) delete the matching entities
@@ -302,5 +302,31 @@ public class FileManager {
       entity.delete(cc);
     }
 
+    if ( !entities.isEmpty() ) {
+      // 1) clear the eTag again; a manifest built while the files were being
+      // deleted may have recorded an eTag for a partial manifest.
+      clearManifestETag(tableId);
+    }
+  }
+
+  /**
+   * Delete the manifest eTag of the tableId (or of the app-level files) so
+   * that the next manifest request rebuilds the manifest.
+   *
+   * @param tableId
+   * @throws ODKDatastoreException
+   */
+  private void clearManifestETag(String tableId) throws ODKDatastoreException {
+    try {
+      DbManifestETagEntity etag;
+      if (DbTableFileInfo.NO_TABLE_ID.equals(tableId)) {
+        etag = DbManifestETags.getTableIdEntry(DbManifestETags.APP_LEVEL, cc);
+      } else {
+        etag = DbManifestETags.getTableIdEntry(tableId, cc);
+      }
+      etag.delete(cc);
+    } catch ( ODKEntityNotFoundException e ) {
+      // ignore...
+    }
   }
 }
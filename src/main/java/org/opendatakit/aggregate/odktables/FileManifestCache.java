@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opendatakit.aggregate.odktables.rest.entity.OdkTablesFileManifest;
+import org.opendatakit.aggregate.odktables.rest.entity.OdkTablesFileManifestEntry;
+
+/**
+ * Server-wide cache of the file manifests, keyed by (appId, tableId,
+ * odkClientVersion). Each manifest is cached with the DbManifestETags value it
+ * was built under, and is only returned while the caller presents that same
+ * manifest ETag. Any change to the files deletes or replaces the
+ * DbManifestETags entry (on whichever server makes it), so a cached manifest
+ * is never served once its files have changed.
+ *
+ * The cached entries have no downloadUrl; that depends on the request and is
+ * filled in on the copy returned by get().
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public final class FileManifestCache {
+
+  private static final int MAX_ENTRIES = 1000;
+
+  private static final class Key {
+    private final String appId;
+    private final String tableId;
+    private final String odkClientVersion;
+
+    Key(String appId, String tableId, String odkClientVersion) {
+      this.appId = appId;
+      this.tableId = tableId;
+      this.odkClientVersion = odkClientVersion;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return equal(appId, other.appId) && equal(tableId, other.tableId)
+          && equal(odkClientVersion, other.odkClientVersion);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = (appId == null) ? 0 : appId.hashCode();
+      hash = 31 * hash + ((tableId == null) ? 0 : tableId.hashCode());
+      hash = 31 * hash + ((odkClientVersion == null) ? 0 : odkClientVersion.hashCode());
+      return hash;
+    }
+
+    private static boolean equal(String a, String b) {
+      return (a == null) ? (b == null) : a.equals(b);
+    }
+  }
+
+  private static final class CachedManifest {
+    private final String manifestETag;
+    private final List<OdkTablesFileManifestEntry> files;
+
+    CachedManifest(String manifestETag, List<OdkTablesFileManifestEntry> files) {
+      this.manifestETag = manifestETag;
+      this.files = files;
+    }
+  }
+
+  // access-ordered so that the eldest entry is the least recently used.
+  // all access is synchronized on the map.
+  private static final Map<Key, CachedManifest> cache = new LinkedHashMap<Key, CachedManifest>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, CachedManifest> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+
+  private FileManifestCache() {
+  }
+
+  /**
+   * Get a copy of the cached manifest, if it was built under the given
+   * manifest ETag.
+   *
+   * @param appId
+   * @param tableId
+   *          the tableId, or DbManifestETags.APP_LEVEL for the app-level files.
+   * @param odkClientVersion
+   * @param manifestETag
+   *          the current value in DbManifestETags.
+   * @return the manifest, or null if it is not cached or is out of date.
+   */
+  public static OdkTablesFileManifest get(String appId, String tableId, String odkClientVersion,
+      String manifestETag) {
+    if (manifestETag == null) {
+      return null;
+    }
+    Key key = new Key(appId, tableId, odkClientVersion);
+    CachedManifest entry;
+    synchronized (cache) {
+      entry = cache.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (!manifestETag.equals(entry.manifestETag)) {
+        cache.remove(key);
+        return null;
+      }
+    }
+    return new OdkTablesFileManifest(copyOf(entry.files));
+  }
+
+  /**
+   * Remember the manifest built under the given manifest ETag. Call this
+   * before filling in the downloadUrls.
+   *
+   * @param appId
+   * @param tableId
+   *          the tableId, or DbManifestETags.APP_LEVEL for the app-level files.
+   * @param odkClientVersion
+   * @param manifestETag
+   *          the value in DbManifestETags that corresponds to the manifest.
+   * @param manifest
+   */
+  public static void put(String appId, String tableId, String odkClientVersion,
+      String manifestETag, OdkTablesFileManifest manifest) {
+    CachedManifest entry = new CachedManifest(manifestETag, copyOf(manifest.getFiles()));
+    synchronized (cache) {
+      cache.put(new Key(appId, tableId, odkClientVersion), entry);
+    }
+  }
+
+  private static ArrayList<OdkTablesFileManifestEntry> copyOf(List<OdkTablesFileManifestEntry> files) {
+    ArrayList<OdkTablesFileManifestEntry> copy = new ArrayList<OdkTablesFileManifestEntry>(
+        files.size());
+    for (OdkTablesFileManifestEntry f : files) {
+      OdkTablesFileManifestEntry e = new OdkTablesFileManifestEntry();
+      e.filename = f.filename;
+      e.contentLength = f.contentLength;
+      e.contentType = f.contentType;
+      e.md5hash = f.md5hash;
+      copy.add(e);
+    }
+    return copy;
+  }
+}
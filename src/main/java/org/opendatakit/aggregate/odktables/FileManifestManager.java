@@ -16,21 +16,19 @@
 package org.opendatakit.aggregate.odktables;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.opendatakit.aggregate.constants.ServletConsts;
 import org.opendatakit.aggregate.odktables.impl.api.FileServiceImpl;
 import org.opendatakit.aggregate.odktables.relation.DbTableFileInfo;
 import org.opendatakit.aggregate.odktables.relation.DbTableFileInfo.DbTableFileInfoEntity;
 import org.opendatakit.aggregate.odktables.relation.DbTableFiles;
 import org.opendatakit.aggregate.odktables.rest.entity.OdkTablesFileManifest;
 import org.opendatakit.aggregate.odktables.rest.entity.OdkTablesFileManifestEntry;
-import org.opendatakit.common.ermodel.BlobEntitySet;
+import org.opendatakit.common.datamodel.BinaryContent;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.web.CallingContext;
 
@@ -92,7 +90,8 @@ public class FileManifestManager {
 
   /**
    * Get a list of entries from a query of {@link DbTableFileInfo}. The query
-   * can be of any level--app, table, or even single entry.
+   * can be of any level--app, table, or even single entry. The attachment
+   * metadata of all the files is fetched in one query.
    *
    * @param entities
    * @param DbTableFiles
@@ -102,11 +101,18 @@ public class FileManifestManager {
   private ArrayList<OdkTablesFileManifestEntry> getEntriesFromQuery(
       List<DbTableFileInfoEntity> entities, DbTableFiles dbTableFiles) throws ODKDatastoreException {
     // TODO: need to handle access control.
+    // To retrieve the actual file we need to get the uri of the file info
+    // row, which is the top-level uri of the blob tables holding the files.
+    List<String> rowUris = new ArrayList<String>();
+    for (DbTableFileInfoEntity entity : entities) {
+      // ignore deleted entities
+      if ( !entity.getDeleted() ) {
+        rowUris.add(entity.getId());
+      }
+    }
+    Map<String, List<BinaryContent>> attachmentsByRowUri = dbTableFiles.getBinaryContents(rowUris, cc);
+
     ArrayList<OdkTablesFileManifestEntry> manifestEntries = new ArrayList<OdkTablesFileManifestEntry>();
-    // A map of static url get parameters. In this case we only want to download
-    // as an attachment.
-    Map<String, String> properties = new HashMap<String, String>();
-    properties.put(ServletConsts.AS_ATTACHMENT, "true");
     for (DbTableFileInfoEntity entity : entities) {
       // ignore deleted entities
       if ( entity.getDeleted() ) {
@@ -114,22 +120,21 @@ public class FileManifestManager {
       }
       // TODO: apply filter
       OdkTablesFileManifestEntry entry = new OdkTablesFileManifestEntry();
-      // To retrieve the actual file we need to get the uri of the file info
-      // row, which is the top-level uri of the blob tables holding the files.
       String rowUri = entity.getId();
       String pathToFile = entity.getPathToFile();
-      BlobEntitySet blobEntitySet = dbTableFiles.getBlobEntitySet(rowUri, cc);
+      List<BinaryContent> attachments = attachmentsByRowUri.get(rowUri);
       // We should only ever have one.
-      if (blobEntitySet.getAttachmentCount(cc) > 1) {
-        log.error("more than one entity for appId: " + appId + ", " + ", pathToFile: " + pathToFile);
-      } else if (blobEntitySet.getAttachmentCount(cc) < 1) {
+      if (attachments == null || attachments.isEmpty()) {
         log.error("file not found for: " + appId + ", pathToFile: " + pathToFile);
         continue;
+      } else if (attachments.size() > 1) {
+        log.error("more than one entity for appId: " + appId + ", " + ", pathToFile: " + pathToFile);
       }
+      BinaryContent bc = attachments.get(0);
       entry.filename = pathToFile;
-      entry.contentLength = blobEntitySet.getContentLength(1, cc);
-      entry.contentType = blobEntitySet.getContentType(1, cc);
-      entry.md5hash = blobEntitySet.getContentHash(1, cc);
+      entry.contentLength = bc.getContentLength();
+      entry.contentType = bc.getContentType();
+      entry.md5hash = bc.getContentHash();
       manifestEntries.add(entry);
     }
     return manifestEntries;
@@ -16,11 +16,11 @@
 
 package org.opendatakit.aggregate.odktables;
 
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.lang3.StringUtils;
-import org.opendatakit.aggregate.server.ServerPreferencesProperties;
-import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
-import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
-import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.utils.WebUtils;
 
 /**
  * Impose a strict ordering on the log entries associated with a file. The
@@ -28,13 +28,16 @@ import org.opendatakit.common.web.CallingContext;
  *
  * sequenceBase.counter
  *
- * Where sequenceBase is a value that is fetched, incremented and written to the
- * datastore via
- *
- * ServerPreferencesProperties.unsafeIncOdkTablesSequencerBase(cc).
+ * Where sequenceBase is an ISO8601 timestamp (in GMT) that is handed out from
+ * an in-memory counter of this server. The sequenceBase is greater than any
+ * previously handed out by this server and greater than the sequenceBase of
+ * the last change committed to the table, so the sequence values of a table
+ * increase in the order its changes are committed even when those changes
+ * are made by different servers whose clocks disagree. No shared datastore
+ * row is updated to obtain it.
  *
- * This is obtained when the Sequencer is created, which is at the time the
- * update lock is obtained.
+ * This is obtained when the Sequencer is created, which is after the update
+ * lock is obtained and any pending changes are reverted.
  *
  * Counter is simply a counter held within this object instance to order the
  * updates occuring during the holding of the lock.
@@ -45,23 +48,57 @@ import org.opendatakit.common.web.CallingContext;
 public class Sequencer {
 
   private static final int DECIMAL_PLACES = 10;
+
+  /**
+   * The most recent sequenceBase handed out by this server, in milliseconds.
+   */
+  private static final AtomicLong lastSequenceBaseMillis = new AtomicLong(0L);
+
   private final String sequenceBase;
   private int counter;
 
   /**
-   * Obtain a sequencer from the datastore. Should be called immediately after
-   * the update lock has been obtained, and released whenever the lock is
-   * released.
+   * Obtain a sequencer. Should be called after the update lock has been
+   * obtained, and released whenever the lock is released.
    *
-   * @param cc
-   * @throws ODKEntityNotFoundException
-   * @throws ODKOverQuotaException
+   * @param priorSequenceValue
+   *          the sequence value of the last change committed to the table, or
+   *          null if there is none. All values generated by this sequencer will
+   *          compare greater than it.
    */
-  Sequencer(CallingContext cc) throws ODKEntityNotFoundException, ODKOverQuotaException {
-    sequenceBase = ServerPreferencesProperties.unsafeIncOdkTablesSequencerBase(cc);
+  Sequencer(String priorSequenceValue) {
+    long floorMillis = 0L;
+    if (priorSequenceValue != null) {
+      Date d = WebUtils.parseDate(priorSequenceValue.substring(0,
+          priorSequenceValue.lastIndexOf('.')));
+      if (d == null) {
+        throw new IllegalStateException("The sequence value " + priorSequenceValue
+            + " could not be parsed!");
+      }
+      floorMillis = d.getTime();
+    }
+    sequenceBase = WebUtils.iso8601Date(new Date(nextSequenceBaseMillis(floorMillis)));
     counter = 0;
   }
 
+  /**
+   * Obtain a sequencer for a change that does not follow any prior change
+   * (e.g., the creation of a table).
+   */
+  Sequencer() {
+    this(null);
+  }
+
+  private static long nextSequenceBaseMillis(long floorMillis) {
+    for (;;) {
+      long last = lastSequenceBaseMillis.get();
+      long next = Math.max(System.currentTimeMillis(), Math.max(last, floorMillis) + 1L);
+      if (lastSequenceBaseMillis.compareAndSet(last, next)) {
+        return next;
+      }
+    }
+  }
+
   /**
    * Generate the next sequence value.
    *
@@ -48,6 +48,7 @@ import org.opendatakit.aggregate.odktables.rest.entity.TableDefinition;
 import org.opendatakit.aggregate.odktables.rest.entity.TableEntry;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.aggregate.odktables.security.TablesPermissionCache;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
 import org.opendatakit.common.ermodel.BlobEntitySet;
 import org.opendatakit.common.ermodel.Entity;
@@ -379,7 +380,7 @@ public class TableManager {
       
       // create table. "entities" will store all of the things we will need to
       // persist into the datastore for the table to truly be created.
-      Sequencer sequencer = new Sequencer(cc);
+      Sequencer sequencer = new Sequencer();
       String aprioriDataSequenceValue = sequencer.getNextSequenceValue();
 
       tableEntry = creator.newTableEntryEntity(tableId, pendingSchemaETag,
@@ -407,6 +408,7 @@ public class TableManager {
         DbTableAclEntity ownerAcl = creator.newTableAclEntity(tableId, new Scope(Scope.Type.USER,
             userPermissions.getOdkTablesUserId()), TableRole.OWNER, cc);
         ownerAcl.put(cc);
+        TablesPermissionCache.aclChanged(tableId, cc);
       }
 
       tableEntry.put(cc);
@@ -610,6 +612,7 @@ public class TableManager {
         for (DbTableAclEntity acl : heldBack) {
           acl.delete(cc);
         }
+        TablesPermissionCache.aclChanged(tableEntry.getId(), cc);
       }
     }
   }
@@ -16,28 +16,23 @@
 
 package org.opendatakit.aggregate.odktables.entity.serialization;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 import java.nio.charset.Charset;
 
-import javax.servlet.ServletContext;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
-import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.ext.MessageBodyReader;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
 
-import org.opendatakit.aggregate.odktables.impl.api.wink.AppEngineHandlersFactory;
 import org.opendatakit.aggregate.odktables.rest.ApiConstants;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -51,16 +46,6 @@ public class SimpleJSONMessageReaderWriter<T> implements MessageBodyReader<T>,
   private static final ObjectMapper mapper = new ObjectMapper();
   private static final String DEFAULT_ENCODING = "utf-8";
 
-  public static class JSONWrapper {
-    byte[] buffer;
-    public JSONWrapper(byte[] buffer) {
-      this.buffer = buffer;
-    }
-  };
-  
-  @Context
-  ServletContext context;
-
   @Override
   public boolean isReadable(Class<?> type, Type genericType, Annotation annotations[],
       MediaType mediaType) {
@@ -102,38 +87,17 @@ public class SimpleJSONMessageReaderWriter<T> implements MessageBodyReader<T>,
         throw new IllegalArgumentException("charset for the response is not utf-8");
       }
 
-      /**
-       * This is an optimization because of the weird way Wink handles request/response
-       * processing. I'd like to do post-processing on the constructed response, but 
-       * am forced to do pre-processing. We only do this for JSON response path.
-       */
-      byte[] bytes = null;
-      {
-        Object obj = context.getAttribute(AppEngineHandlersFactory.NotModifiedHandler.jsonBufferKey);
-        if ( obj != null && obj instanceof JSONWrapper ) {
-          JSONWrapper wrapper = (JSONWrapper) obj;
-          bytes = wrapper.buffer;
-        }
-      }
-      if ( bytes == null ) {
-        // write object to a byte array
-        ByteArrayOutputStream bas = new ByteArrayOutputStream(8192);
-        OutputStreamWriter w = new OutputStreamWriter(bas,
-            Charset.forName(ApiConstants.UTF8_ENCODE));
-        mapper.writeValue(w, o);
-        // get the array
-        bytes = bas.toByteArray();
-      }
-      /**
-       * OK. At this point, bytes[] holds the serialized response entity.
-       */
+      // the headers must be set before anything is written...
       map.putSingle(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION);
       map.putSingle("Access-Control-Allow-Origin", "*");
       map.putSingle("Access-Control-Allow-Credentials", "true");
 
-      rawStream.write(bytes);
-      rawStream.flush();
-      rawStream.close();
+      // Stream the entity to the client rather than buffering it. No
+      // Content-Length is set, so the response is sent chunked (and is
+      // compressed on the fly if the ContentEncodingResponseFilter wraps it).
+      // Jackson emits UTF-8 when writing to a stream, and closes the stream
+      // when it is done.
+      mapper.writeValue(rawStream, o);
 
     } catch (Exception e) {
       throw new IOException(e);
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.odktables.impl.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.opendatakit.common.ermodel.BlobEntitySet;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.utils.HttpByteRange;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.constants.HtmlConsts;
+
+/**
+ * Writes a blob (or a byte range of it) to the response one stored part at a
+ * time, so that large files are sent using constant memory and the first bytes
+ * go out as soon as the first part has been fetched.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public class BlobStreamingOutput implements StreamingOutput {
+
+  private static final int SC_PARTIAL_CONTENT = 206;
+  private static final int SC_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
+  private final BlobEntitySet blobEntitySet;
+  private final int ordinal;
+  private final long offset;
+  private final long length;
+  private final CallingContext cc;
+
+  public BlobStreamingOutput(BlobEntitySet blobEntitySet, int ordinal, long offset, long length,
+      CallingContext cc) {
+    this.blobEntitySet = blobEntitySet;
+    this.ordinal = ordinal;
+    this.offset = offset;
+    this.length = length;
+    this.cc = cc;
+  }
+
+  @Override
+  public void write(OutputStream output) throws IOException, WebApplicationException {
+    try {
+      blobEntitySet.writeBlob(ordinal, offset, length, output, cc);
+    } catch (ODKDatastoreException e) {
+      e.printStackTrace();
+      throw new WebApplicationException(e, Status.INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  private static String getHeader(HttpHeaders httpHeaders, String name) {
+    List<String> values = httpHeaders.getRequestHeader(name);
+    return (values == null || values.isEmpty()) ? null : values.get(0);
+  }
+
+  /**
+   * Build the response for a GET of the "ordinal'th" blob, honoring any Range
+   * and If-Range request headers. The caller is responsible for handling
+   * If-None-Match and adding any protocol headers.
+   *
+   * @param httpHeaders
+   *          the request headers
+   * @param blobEntitySet
+   * @param ordinal
+   * @param contentType
+   * @param contentLength
+   * @param contentHash
+   * @param cc
+   * @return a 200, 206 or 416 response builder
+   */
+  public static ResponseBuilder buildResponse(HttpHeaders httpHeaders,
+      BlobEntitySet blobEntitySet, int ordinal, String contentType, long contentLength,
+      String contentHash, CallingContext cc) {
+
+    HttpByteRange range = null;
+    if (HttpByteRange.isIfRangeSatisfied(getHeader(httpHeaders, HtmlConsts.IF_RANGE),
+        contentHash)) {
+      range = HttpByteRange.parse(getHeader(httpHeaders, HtmlConsts.RANGE), contentLength);
+    }
+
+    ResponseBuilder rBuild;
+    if (range == HttpByteRange.UNSATISFIABLE) {
+      rBuild = Response.status(SC_REQUESTED_RANGE_NOT_SATISFIABLE).header(
+          HtmlConsts.CONTENT_RANGE, HttpByteRange.getUnsatisfiableContentRange(contentLength));
+    } else if (range != null) {
+      rBuild = Response
+          .status(SC_PARTIAL_CONTENT)
+          .entity(
+              new BlobStreamingOutput(blobEntitySet, ordinal, range.first, range.getLength(), cc))
+          .type(contentType).header(HttpHeaders.CONTENT_LENGTH, range.getLength())
+          .header(HtmlConsts.CONTENT_RANGE, range.getContentRange());
+    } else {
+      rBuild = Response
+          .ok(new BlobStreamingOutput(blobEntitySet, ordinal, 0L, contentLength, cc), contentType)
+          .header(HttpHeaders.CONTENT_LENGTH, contentLength);
+    }
+    return rBuild.header(HttpHeaders.ETAG, contentHash).header(HtmlConsts.ACCEPT_RANGES,
+        HtmlConsts.BYTES);
+  }
+}
@@ -29,6 +29,7 @@ import javax.ws.rs.core.UriInfo;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.opendatakit.aggregate.ContextFactory;
+import org.opendatakit.aggregate.odktables.FileManifestCache;
 import org.opendatakit.aggregate.odktables.FileManifestManager;
 import org.opendatakit.aggregate.odktables.api.FileManifestService;
 import org.opendatakit.aggregate.odktables.api.FileService;
@@ -82,6 +83,8 @@ public class FileManifestServiceImpl implements FileManifestService {
 
     FileManifestManager manifestManager = new FileManifestManager(appId, odkClientVersion, cc);
     OdkTablesFileManifest manifest = null;
+    boolean isCached = false;
+    String priorETag = null;
     
     // retrieve the incoming if-none-match eTag...
     List<String> eTags = httpHeaders.getRequestHeader(HttpHeaders.IF_NONE_MATCH);
@@ -101,7 +104,16 @@ public class FileManifestServiceImpl implements FileManifestService {
             .header("Access-Control-Allow-Credentials", "true").build();
       }
       // we want just the app-level files.
-      manifest = manifestManager.getManifestForAppLevelFiles();
+      if ( eTagEntity != null ) {
+        // reuse the manifest built under the current eTag, if we have it...
+        manifest = FileManifestCache.get(appId, DbManifestETags.APP_LEVEL, odkClientVersion,
+            eTagEntity.getManifestETag());
+        isCached = (manifest != null);
+      }
+      if ( manifest == null ) {
+        priorETag = (eTagEntity == null) ? null : eTagEntity.getManifestETag();
+        manifest = manifestManager.getManifestForAppLevelFiles();
+      }
     
     } catch (ODKDatastoreException e) {
       Log log = LogFactory.getLog(FileManifestServiceImpl.class);
@@ -128,6 +140,11 @@ public class FileManifestServiceImpl implements FileManifestService {
       }
       // and whatever the eTag is in that entity is the eTag we should return...
       eTag = eTagEntity.getManifestETag();
+      // only cache a rebuilt manifest that matches the eTag recorded before the
+      // rebuild; otherwise the files may have been changing while it was built.
+      if ( !isCached && newETag.equals(priorETag) ) {
+        FileManifestCache.put(appId, DbManifestETags.APP_LEVEL, odkClientVersion, eTag, manifest);
+      }
       
       UriBuilder ub = info.getBaseUriBuilder();
       ub.path(OdkTables.class, "getFilesService");
@@ -154,6 +171,8 @@ public class FileManifestServiceImpl implements FileManifestService {
 
     FileManifestManager manifestManager = new FileManifestManager(appId, odkClientVersion, cc);
     OdkTablesFileManifest manifest = null;
+    boolean isCached = false;
+    String priorETag = null;
     
     // retrieve the incoming if-none-match eTag...
     List<String> eTags = httpHeaders.getRequestHeader(HttpHeaders.IF_NONE_MATCH);
@@ -173,7 +192,16 @@ public class FileManifestServiceImpl implements FileManifestService {
             .header("Access-Control-Allow-Credentials", "true").build();
       }
       // we want just the files for the table.
-      manifest = manifestManager.getManifestForTable(tableId);
+      if ( eTagEntity != null ) {
+        // reuse the manifest built under the current eTag, if we have it...
+        manifest = FileManifestCache.get(appId, tableId, odkClientVersion,
+            eTagEntity.getManifestETag());
+        isCached = (manifest != null);
+      }
+      if ( manifest == null ) {
+        priorETag = (eTagEntity == null) ? null : eTagEntity.getManifestETag();
+        manifest = manifestManager.getManifestForTable(tableId);
+      }
     } catch (ODKDatastoreException e) {
       Log log = LogFactory.getLog(FileManifestServiceImpl.class);
       log.error("Datastore exception in getting the file manifest");
@@ -199,6 +227,11 @@ public class FileManifestServiceImpl implements FileManifestService {
       }
       // and whatever the eTag is in that entity is the eTag we should return...
       eTag = eTagEntity.getManifestETag();
+      // only cache a rebuilt manifest that matches the eTag recorded before the
+      // rebuild; otherwise the files may have been changing while it was built.
+      if ( !isCached && newETag.equals(priorETag) ) {
+        FileManifestCache.put(appId, tableId, odkClientVersion, eTag, manifest);
+      }
       
       UriBuilder ub = info.getBaseUriBuilder();
       ub.path(OdkTables.class, "getFilesService");
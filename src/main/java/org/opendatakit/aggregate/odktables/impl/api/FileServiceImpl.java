@@ -47,6 +47,7 @@ import org.opendatakit.aggregate.odktables.relation.DbTableFileInfo;
 import org.opendatakit.aggregate.odktables.rest.ApiConstants;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.common.ermodel.BlobEntitySet;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
@@ -102,8 +103,6 @@ public class FileServiceImpl implements FileService {
     String appRelativePath = constructPathFromSegments(segments);
     String tableId = FileManager.getTableIdForFilePath(appRelativePath);
 
-    FileContentInfo fi = null;
-
     // DbTableFileInfo.NO_TABLE_ID -- means that we are working with app-level
     // permissions
     if (!DbTableFileInfo.NO_TABLE_ID.equals(tableId)) {
@@ -115,23 +114,26 @@ public class FileServiceImpl implements FileService {
     String eTag = (eTags == null || eTags.isEmpty()) ? null : eTags.get(0);
 
     FileManager fm = new FileManager(appId, cc);
-    fi = fm.getFile(odkClientVersion, tableId, appRelativePath);
+    BlobEntitySet blobEntitySet = fm.getFileBlobEntitySet(odkClientVersion, tableId,
+        appRelativePath);
+    String contentType = blobEntitySet.getContentType(1, cc);
+    Long contentLength = blobEntitySet.getContentLength(1, cc);
+    String contentHash = blobEntitySet.getContentHash(1, cc);
 
     // And now prepare everything to be returned to the caller.
-    if (fi.fileBlob != null && fi.contentType != null && fi.contentLength != null
-        && fi.contentLength != 0L) {
+    if (contentType != null && contentLength != null && contentLength != 0L) {
       
       // test if we should return a NOT_MODIFIED response...
-      if ( eTag != null && eTag.equals(fi.contentHash)) {
+      if ( eTag != null && eTag.equals(contentHash)) {
         return Response.status(Status.NOT_MODIFIED).header(HttpHeaders.ETAG, eTag)
             .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
             .header("Access-Control-Allow-Origin", "*")
             .header("Access-Control-Allow-Credentials", "true").build();
       }
 
-      ResponseBuilder rBuild = Response.ok(fi.fileBlob, fi.contentType)
-          .header(HttpHeaders.CONTENT_LENGTH, fi.contentLength)
-          .header(HttpHeaders.ETAG,fi.contentHash)
+      // stream the file content (or the requested range of it)...
+      ResponseBuilder rBuild = BlobStreamingOutput
+          .buildResponse(httpHeaders, blobEntitySet, 1, contentType, contentLength, contentHash, cc)
           .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
           .header("Access-Control-Allow-Origin", "*")
           .header("Access-Control-Allow-Credentials", "true");
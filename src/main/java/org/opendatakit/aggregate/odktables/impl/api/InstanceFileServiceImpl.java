@@ -243,14 +243,12 @@ public class InstanceFileServiceImpl implements InstanceFileService {
       for (int i = 1; i <= count; ++i) {
         String path = instance.getUnrootedFilename(i, cc);
         if (path != null && path.equals(partialPath)) {
-          byte[] fileBlob = instance.getBlob(i, cc);
           String contentType = instance.getContentType(i, cc);
           String contentHash = instance.getContentHash(i, cc);
           Long contentLength = instance.getContentLength(i, cc);
 
           // And now prepare everything to be returned to the caller.
-          if (fileBlob != null && contentType != null && contentLength != null
-              && contentLength != 0L) {
+          if (contentType != null && contentLength != null && contentLength != 0L) {
             
             // test if we should return a NOT_MODIFIED response...
             if ( eTag != null && eTag.equals(contentHash) ) {
@@ -260,8 +258,9 @@ public class InstanceFileServiceImpl implements InstanceFileService {
                   .header("Access-Control-Allow-Credentials", "true").build();
             }
             
-            ResponseBuilder rBuild = Response.ok(fileBlob, contentType).header(HttpHeaders.ETAG, contentHash)
-                .header(HttpHeaders.CONTENT_LENGTH, contentLength)
+            // stream the file content (or the requested range of it)...
+            ResponseBuilder rBuild = BlobStreamingOutput
+                .buildResponse(httpHeaders, instance, i, contentType, contentLength, contentHash, cc)
                 .header(ApiConstants.OPEN_DATA_KIT_VERSION_HEADER, ApiConstants.OPEN_DATA_KIT_VERSION)
                 .header("Access-Control-Allow-Origin", "*")
                 .header("Access-Control-Allow-Credentials", "true");
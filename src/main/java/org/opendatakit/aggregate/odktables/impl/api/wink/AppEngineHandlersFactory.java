@@ -16,14 +16,13 @@
 
 package org.opendatakit.aggregate.odktables.impl.api.wink;
 
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
-import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
@@ -34,7 +33,7 @@ import org.apache.wink.server.handlers.HandlersFactory;
 import org.apache.wink.server.handlers.MessageContext;
 import org.apache.wink.server.handlers.ResponseHandler;
 import org.opendatakit.aggregate.odktables.rest.ApiConstants;
-import org.opendatakit.common.persistence.PersistenceUtils;
+import org.opendatakit.common.persistence.CommonFieldsBase;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -44,10 +43,33 @@ public class AppEngineHandlersFactory extends HandlersFactory {
     // super();
   }
 
-  public static class NotModifiedHandler implements ResponseHandler {
+  /**
+   * Discards everything written to it, accumulating the MD5 digest of the
+   * bytes instead.
+   */
+  private static final class MD5DigestOutputStream extends OutputStream {
+    private final MessageDigest md;
+
+    MD5DigestOutputStream() throws NoSuchAlgorithmException {
+      md = MessageDigest.getInstance("MD5");
+    }
 
-    public static final String jsonBufferKey = NotModifiedHandler.class.getCanonicalName()
-        + ":jsonBufferKey";
+    @Override
+    public void write(int b) {
+      md.update((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      md.update(b, off, len);
+    }
+
+    public String getMD5HashUri() {
+      return CommonFieldsBase.asMD5HashUri(md.digest());
+    }
+  }
+
+  public static class NotModifiedHandler implements ResponseHandler {
 
     private static final ObjectMapper mapper = new ObjectMapper();
 
@@ -69,18 +91,13 @@ public class AppEngineHandlersFactory extends HandlersFactory {
         // whatever the implementation is providing.
 
         if (response.getEntity() != null && !response.getMetadata().containsKey(HttpHeaders.ETAG)) {
-          // This is extremely wasteful, but I don't see a way to avoid it
-          // given the handler stack structure and its lack of flexibility.
-
-          // write it to a byte array
-          ByteArrayOutputStream bas = new ByteArrayOutputStream(8192);
-          OutputStreamWriter w = new OutputStreamWriter(bas,
-              Charset.forName(ApiConstants.UTF8_ENCODE));
-
-          mapper.writeValue(w, response.getEntity());
-          // get the array and compute md5 hash
-          byte[] bytes = bas.toByteArray();
-          eTag = PersistenceUtils.newMD5HashUri(bytes);
+          // The serialization is only digested, not retained; the
+          // SimpleJSONMessageReaderWriter serializes the entity again,
+          // streaming it to the client. Implementations that can derive
+          // their ETAG more cheaply should set it themselves.
+          MD5DigestOutputStream digest = new MD5DigestOutputStream();
+          mapper.writeValue(digest, response.getEntity());
+          eTag = digest.getMD5HashUri();
 
           // check if there is an IF_NONE_MATCH header...
           List<String> ifNoneMatchTags = context.getHttpHeaders().getRequestHeader(
@@ -98,11 +115,6 @@ public class AppEngineHandlersFactory extends HandlersFactory {
             overrideWithNotModifiedStatus = true;
           } else {
             // just add the ETAG to the response...
-
-            ServletContext sc = (ServletContext) context.getAttributes().get(
-                ServletContext.class.getCanonicalName());
-            // sc.setAttribute(jsonBufferKey, new SimpleJSONMessageReaderWriter.JSONWrapper(bytes));
-
             response.getMetadata().add(HttpHeaders.ETAG, eTag);
           }
         } else if ( response.getStatus() == HttpStatus.SC_NOT_MODIFIED ) {
@@ -36,11 +36,12 @@
  */
 package org.opendatakit.aggregate.odktables.impl.api.wink;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -67,11 +68,12 @@ import org.slf4j.LoggerFactory;
 /**
  * Copied mostly verbatim from org.apache.wink.server.internal.servlet.contentencode
  * 
- * However, that implementation did not properly recompute the Content-Length.
- * This implementation does.
- * 
- * For increased efficiency, the client and server should be converted to use 
- * the chunked Transfer-Encoding.
+ * However, that implementation did not properly handle the Content-Length.
+ * This implementation holds back any Content-Length header until the encoding
+ * is chosen, strips it if the response is encoded, and compresses the
+ * response straight through to the servlet output stream, so the encoded
+ * response is sent with the chunked Transfer-Encoding and is never held in
+ * memory.
  * 
  * @author mitchellsundt@gmail.com
  */
@@ -185,21 +187,30 @@ public class ContentEncodingResponseFilter implements Filter {
         return null;
     }
 
+    // size of the compressor's output buffer
+    private static final int BUFFER_SIZE = 8192;
+
     static abstract class EncodedOutputStream extends ServletOutputStream {
 
         private boolean              isWritten = false;
 
+        private boolean              isClosed  = false;
+
         private DeflaterOutputStream outputStream = null;
-        private ByteArrayOutputStream byteStream = null;
-        private OutputStream actualOutputStream = null;
+
+        // a Deflater supplied to the outputStream is not released by its close()
+        private Deflater             deflater = null;
 
         public EncodedOutputStream() {
         }
 
-        public void init(DeflaterOutputStream outputStream, ByteArrayOutputStream byteStream, OutputStream actualOutputStream) {
+        public void init(DeflaterOutputStream outputStream) {
+            init(outputStream, null);
+        }
+
+        public void init(DeflaterOutputStream outputStream, Deflater deflater) {
             this.outputStream = outputStream;
-            this.byteStream = byteStream;
-            this.actualOutputStream = actualOutputStream;
+            this.deflater = deflater;
         }
 
         @Override
@@ -240,12 +251,20 @@ public class ContentEncodingResponseFilter implements Filter {
 
         @Override
         public void close() throws IOException {
-            outputStream.finish();
-            outputStream.close();
-            setContentLength(byteStream.size());
-            actualOutputStream.write(byteStream.toByteArray());
-            actualOutputStream.flush();
-            actualOutputStream.close();
+            // both the message body writer and the filter close the stream
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            try {
+                // writes the trailer and closes the actual output stream
+                outputStream.close();
+            } finally {
+                // free the native zlib memory now rather than at finalization
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
         }
 
         public void finish() throws IOException {
@@ -253,8 +272,6 @@ public class ContentEncodingResponseFilter implements Filter {
         }
 
         public abstract void isFirstWrite();
-        
-        public abstract void setContentLength(int length);
     }
 
     static class GzipEncoderOutputStream extends EncodedOutputStream {
@@ -264,8 +281,7 @@ public class ContentEncodingResponseFilter implements Filter {
         public GzipEncoderOutputStream(OutputStream outputStream, 
             HttpServletResponseContentEncodingWrapperImpl response) throws IOException {
             super();
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-            init(new GZIPOutputStream(byteStream), byteStream, outputStream);
+            init(new GZIPOutputStream(outputStream, BUFFER_SIZE));
             this.response = response;
         }
 
@@ -274,11 +290,6 @@ public class ContentEncodingResponseFilter implements Filter {
             response.addHeader(HttpHeaders.CONTENT_ENCODING, "gzip"); //$NON-NLS-1$
             response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
         }
-
-        @Override
-        public void setContentLength(int length) {
-          response.privateAddContentLengthHeader(length);
-        }
     }
 
     static class DeflaterContentEncodedOutputStream extends EncodedOutputStream {
@@ -288,8 +299,8 @@ public class ContentEncodingResponseFilter implements Filter {
         public DeflaterContentEncodedOutputStream(OutputStream outputStream,
             HttpServletResponseContentEncodingWrapperImpl response) throws IOException {
             super();
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-            init(new DeflaterOutputStream(byteStream), byteStream, outputStream );
+            Deflater deflater = new Deflater();
+            init(new DeflaterOutputStream(outputStream, deflater, BUFFER_SIZE), deflater);
             this.response = response;
         }
 
@@ -298,11 +309,6 @@ public class ContentEncodingResponseFilter implements Filter {
             response.addHeader(HttpHeaders.CONTENT_ENCODING, "deflate"); //$NON-NLS-1$
             response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
         }
-
-        @Override
-        public void setContentLength(int length) {
-          response.privateAddContentLengthHeader(length);
-        }
     }
 
     static class HttpServletResponseContentEncodingWrapperImpl extends HttpServletResponseWrapper {
@@ -319,6 +325,12 @@ public class ContentEncodingResponseFilter implements Filter {
 
         private int                  varyHeaderCount = 0;
 
+        // Content-Length set before the encoding was chosen
+        private String               contentLength   = null;
+
+        // true once the response is known to be sent without an encoding
+        private boolean              isUnencoded     = false;
+
         public EncodedOutputStream getEncodedOutputStream() {
             return encodedOutputStream;
         }
@@ -338,9 +350,39 @@ public class ContentEncodingResponseFilter implements Filter {
             }
             return false;
         }
-        
-        void privateAddContentLengthHeader(int value) {
-          super.addHeader(HttpHeaders.CONTENT_LENGTH, Integer.toString(value));
+
+        private void setContentLengthHeader(String value) {
+            if (isUnencoded) {
+                super.setHeader(HttpHeaders.CONTENT_LENGTH, value);
+            } else if (encodedOutputStream == null) {
+                // the encoding is chosen when the output stream is obtained
+                contentLength = value;
+            } else {
+                // Content-Length is incorrect if we are compressing....
+                logger.trace("Content-Length {} ignored", value); //$NON-NLS-1$
+            }
+        }
+
+        private void setUnencoded() {
+            isUnencoded = true;
+            if (contentLength != null) {
+                super.setHeader(HttpHeaders.CONTENT_LENGTH, contentLength);
+                contentLength = null;
+            }
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            setContentLengthHeader(Integer.toString(len));
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthHeader(value);
+            } else {
+                super.setHeader(name, value);
+            }
         }
 
         @Override
@@ -370,12 +412,20 @@ public class ContentEncodingResponseFilter implements Filter {
                     return;
                 }
             }
-            // Content-Length is incorrect if we are compressing....
-            if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) ) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) ) {
+              setContentLengthHeader(value);
+            } else {
               super.addHeader(name, value);
             }
         }
 
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            // the writer is never encoded
+            setUnencoded();
+            return super.getWriter();
+        }
+
         @Override
         public ServletOutputStream getOutputStream() throws IOException {
             logger.trace("getOutputStream() entry"); //$NON-NLS-1$
@@ -417,6 +467,9 @@ public class ContentEncodingResponseFilter implements Filter {
                   return outputStream;
                 }
             }
+            if (encodedOutputStream == null) {
+                setUnencoded();
+            }
             log.info("no content encoding");
             logger.trace("getOutputStream() exit - returning output stream"); //$NON-NLS-1$
             return outputStream;
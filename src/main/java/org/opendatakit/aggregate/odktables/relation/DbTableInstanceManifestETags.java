@@ -90,7 +90,7 @@ public class DbTableInstanceManifestETags extends Relation {
     }
   }
 
-  public static synchronized DbTableInstanceManifestETags getRelation(String tableId, CallingContext cc) throws ODKDatastoreException {
+  public static DbTableInstanceManifestETags getRelation(String tableId, CallingContext cc) throws ODKDatastoreException {
     DbTableInstanceManifestETags relation = new DbTableInstanceManifestETags(RUtil.NAMESPACE, 
         tableId.toUpperCase(Locale.ENGLISH) + "_MFE", dataFields, cc);
     return relation;
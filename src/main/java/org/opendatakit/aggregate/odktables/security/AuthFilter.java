@@ -32,18 +32,43 @@ import org.opendatakit.common.web.CallingContext;
 
 public class AuthFilter {
 
-  private CallingContext cc;
-  private TableAclManager am;
   private TablesUserPermissions userPermissions;
   private Set<TablePermission> permissions;
 
   public AuthFilter(String appId, String tableId, TablesUserPermissions userPermissions, List<Scope> scopes, CallingContext cc) throws ODKEntityNotFoundException,
       ODKDatastoreException {
-    this.cc = cc;
+    this(userPermissions, loadPermissions(appId, tableId, userPermissions, scopes, cc));
+  }
+
+  /**
+   * Construct a filter from the already-known permissions of the user.
+   *
+   * @param userPermissions
+   * @param permissions
+   */
+  AuthFilter(TablesUserPermissions userPermissions, Set<TablePermission> permissions) {
     this.userPermissions = userPermissions;
-    this.am = new TableAclManager(appId, tableId, userPermissions, cc);
+    this.permissions = permissions;
+  }
+
+  /**
+   * Read the permissions granted to the given scopes by the table's ACLs.
+   *
+   * @param appId
+   * @param tableId
+   * @param userPermissions
+   * @param scopes
+   * @param cc
+   * @return the union of the permissions of each scope's role.
+   * @throws ODKEntityNotFoundException
+   * @throws ODKDatastoreException
+   */
+  static Set<TablePermission> loadPermissions(String appId, String tableId,
+      TablesUserPermissions userPermissions, List<Scope> scopes, CallingContext cc)
+      throws ODKEntityNotFoundException, ODKDatastoreException {
+    TableAclManager am = new TableAclManager(appId, tableId, userPermissions, cc);
 
-    permissions = new HashSet<TablePermission>();
+    Set<TablePermission> permissions = new HashSet<TablePermission>();
 
     for ( Scope scope : scopes ) {
       TableAcl def = am.getAclForTablesUserPermissions(scope);
@@ -51,6 +76,7 @@ public class AuthFilter {
         permissions.addAll(def.getRole().getPermissions());
       }
     }
+    return permissions;
   }
 
   /**
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.odktables.security;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.odktables.rest.entity.Scope;
+import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.security.spring.SecurityRevisionsTable;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Server-wide cache of the table permissions granted to each ODK Tables user,
+ * keyed by (user, appId, tableId). This lets the per-request
+ * TablesUserPermissionsImpl answer permission checks without re-reading the
+ * DbTableAcl rows.
+ *
+ * Entries expire after TIME_TO_LIVE and the least recently used entries are
+ * evicted beyond MAX_ENTRIES. ACL changes made on this server invalidate the
+ * affected table immediately. ACL, user and role-hierarchy changes made on
+ * other servers are noticed through the SecurityRevisionsTable, which is
+ * checked at most every CHECK_INTERVAL and clears the whole cache when a
+ * revision has advanced.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public final class TablesPermissionCache {
+
+  private static final Log logger = LogFactory.getLog(TablesPermissionCache.class);
+
+  private static final long TIME_TO_LIVE = 2 * 60 * 1000L; // 2 minutes
+  private static final long CHECK_INTERVAL = 1000L; // 1 second
+  private static final int MAX_ENTRIES = 10000;
+
+  private static final class Key {
+    private final String odkTablesUserId;
+    private final String appId;
+    private final String tableId;
+
+    Key(String odkTablesUserId, String appId, String tableId) {
+      this.odkTablesUserId = odkTablesUserId;
+      this.appId = appId;
+      this.tableId = tableId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return equal(odkTablesUserId, other.odkTablesUserId) && equal(appId, other.appId)
+          && equal(tableId, other.tableId);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = (odkTablesUserId == null) ? 0 : odkTablesUserId.hashCode();
+      hash = 31 * hash + ((appId == null) ? 0 : appId.hashCode());
+      hash = 31 * hash + ((tableId == null) ? 0 : tableId.hashCode());
+      return hash;
+    }
+
+    private static boolean equal(String a, String b) {
+      return (a == null) ? (b == null) : a.equals(b);
+    }
+  }
+
+  private static final class CachedPermissions {
+    private final Set<TablePermission> permissions;
+    private final long expirationMillis;
+
+    CachedPermissions(Set<TablePermission> permissions, long expirationMillis) {
+      this.permissions = permissions;
+      this.expirationMillis = expirationMillis;
+    }
+  }
+
+  // access-ordered so that the eldest entry is the least recently used.
+  // all access is synchronized on the map.
+  private static final Map<Key, CachedPermissions> cache = new LinkedHashMap<Key, CachedPermissions>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, CachedPermissions> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+
+  // incremented on every invalidation so that a permission set read from the
+  // datastore while an invalidation happens is not cached.
+  private static long invalidationCount = 0L;
+  private static long lastCheckMillis = 0L;
+  private static long lastRevisionMillis = 0L;
+
+  private TablesPermissionCache() {
+  }
+
+  /**
+   * Get the permissions the user has on the table, reading them from the
+   * DbTableAcl if they are not cached.
+   *
+   * @param appId
+   * @param tableId
+   * @param userPermissions
+   * @param scopes
+   *          the scopes in which the user participates
+   * @param cc
+   * @return unmodifiable set of the user's permissions on the table.
+   * @throws ODKDatastoreException
+   */
+  static Set<TablePermission> getPermissions(String appId, String tableId,
+      TablesUserPermissions userPermissions, List<Scope> scopes, CallingContext cc)
+      throws ODKDatastoreException {
+    checkRevisions(cc);
+
+    Key key = new Key(userPermissions.getOdkTablesUserId(), appId, tableId);
+    long count;
+    synchronized (cache) {
+      CachedPermissions entry = cache.get(key);
+      if (entry != null) {
+        if (entry.expirationMillis > System.currentTimeMillis()) {
+          return entry.permissions;
+        }
+        cache.remove(key);
+      }
+      count = invalidationCount;
+    }
+
+    Set<TablePermission> permissions = EnumSet.noneOf(TablePermission.class);
+    permissions.addAll(AuthFilter.loadPermissions(appId, tableId, userPermissions, scopes, cc));
+    permissions = Collections.unmodifiableSet(permissions);
+
+    synchronized (cache) {
+      if (count == invalidationCount) {
+        cache.put(key, new CachedPermissions(permissions, System.currentTimeMillis() + TIME_TO_LIVE));
+      }
+    }
+    return permissions;
+  }
+
+  /**
+   * Record that the ACLs of the table have changed. Discards the cached
+   * permissions of the table on this server and advances the revision that
+   * other servers check.
+   *
+   * @param tableId
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public static void aclChanged(String tableId, CallingContext cc) throws ODKDatastoreException {
+    synchronized (cache) {
+      ++invalidationCount;
+      Iterator<Key> iter = cache.keySet().iterator();
+      while (iter.hasNext()) {
+        Key key = iter.next();
+        if (tableId.equals(key.tableId)) {
+          iter.remove();
+        }
+      }
+    }
+    SecurityRevisionsTable.setLastTablesAclRevisionDate(cc.getDatastore(), cc.getCurrentUser());
+  }
+
+  private static void checkRevisions(CallingContext cc) {
+    long now = System.currentTimeMillis();
+    synchronized (cache) {
+      if (now < lastCheckMillis + CHECK_INTERVAL) {
+        return;
+      }
+      lastCheckMillis = now;
+    }
+    try {
+      Datastore ds = cc.getDatastore();
+      User user = cc.getCurrentUser();
+      long lastRevision = Math.max(SecurityRevisionsTable.getLastTablesAclRevisionDate(ds, user),
+          Math.max(SecurityRevisionsTable.getLastRegisteredUsersRevisionDate(ds, user),
+              SecurityRevisionsTable.getLastRoleHierarchyRevisionDate(ds, user)));
+      synchronized (cache) {
+        if (lastRevision > lastRevisionMillis) {
+          ++invalidationCount;
+          cache.clear();
+          lastRevisionMillis = lastRevision;
+        }
+      }
+    } catch (ODKDatastoreException e) {
+      // log it, but keep using the cached permissions until they expire...
+      logger.warn("Unable to check security revisions: " + e.toString());
+    }
+  }
+}
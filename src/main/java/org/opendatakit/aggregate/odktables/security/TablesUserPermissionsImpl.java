@@ -98,7 +98,8 @@ public class TablesUserPermissionsImpl implements TablesUserPermissions {
     }
     AuthFilter auth = authFilters.get(tableId);
     if (auth == null) {
-      auth = new AuthFilter(appId, tableId, this, getScopes(), cc);
+      auth = new AuthFilter(this, TablesPermissionCache.getPermissions(appId, tableId, this,
+          getScopes(), cc));
       authFilters.put(tableId, auth);
     }
     return auth;
@@ -17,9 +17,15 @@
 
 package org.opendatakit.aggregate.parser;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -34,7 +40,10 @@ import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.opendatakit.aggregate.constants.ParserConsts;
+import org.opendatakit.common.persistence.CommonFieldsBase;
 
 /**
  * Parses a multi part form request into a set of multiPartFormItems. The
@@ -47,6 +56,24 @@ import org.opendatakit.aggregate.constants.ParserConsts;
  */
 public class MultiPartFormData {
 
+	private static final Log logger = LogFactory.getLog(MultiPartFormData.class);
+
+	/**
+	 * Size of the buffer used to read (and write) the parts.
+	 */
+	static final int READ_BUFFER_SIZE = 8192;
+
+	/**
+	 * Set once temporary files are found to be unsupported (e.g., on
+	 * AppEngine). All parts are then held in memory.
+	 */
+	private static volatile boolean spillUnsupported = false;
+
+	/**
+	 * Temporary files holding the content of spilled parts.
+	 */
+	private final List<File> spillFiles = new ArrayList<File>();
+
 	private final Map<String, String> simpleFieldNameMap;
 	
 	private final Map<String, MultiPartFormItem> fieldNameMap;
@@ -69,6 +96,26 @@ public class MultiPartFormData {
 	 */
 	public MultiPartFormData(HttpServletRequest req)
 			throws FileUploadException, IOException {
+		this(req, -1);
+	}
+
+	/**
+	 * Construct a mult-part form data container as above, but write any part
+	 * (other than a simple form field) that is larger than spillThreshold bytes
+	 * to a temporary file as it is received. The caller must call
+	 * {@link #release()} once the items are no longer needed.
+	 * 
+	 * @param req
+	 *            an HTTP request from a multipart form
+	 * @param spillThreshold
+	 *            size above which parts are spilled to temporary files, or -1
+	 *            to hold all parts in memory.
+	 * 
+	 * @throws FileUploadException
+	 * @throws IOException
+	 */
+	public MultiPartFormData(HttpServletRequest req, int spillThreshold)
+			throws FileUploadException, IOException {
 
 		simpleFieldNameMap = new HashMap<String, String>();
 		fieldNameMap = new HashMap<String, MultiPartFormItem>();
@@ -86,36 +133,29 @@ public class MultiPartFormData {
 
 		List<MultiPartFormItem> fileNameList = new ArrayList<MultiPartFormItem>();
 		
-		FileItemIterator items = upload.getItemIterator(req);
-		while (items.hasNext()) {
-			FileItemStream item = items.next();
-			ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-			BufferedInputStream formStream = new BufferedInputStream(item
-					.openStream());
-
-			// TODO: determine ways to possibly improve efficiency
-			int nextByte = formStream.read();
-			while (nextByte != -1) {
-				byteStream.write(nextByte);
-				nextByte = formStream.read();
-			}
-			formStream.close();
-
-			if ( item.isFormField() ) {
-				simpleFieldNameMap.put(item.getFieldName(), byteStream.toString());
-			} else {
-				MultiPartFormItem data = new MultiPartFormItem(item.getFieldName(),
-						item.getName(), item.getContentType(), byteStream);
-	
-				String fieldName = item.getFieldName();
-				if (fieldName != null) {
-					fieldNameMap.put(fieldName, data);
-				}
-				String fileName = item.getName();
-				if (fileName != null && fileName.length() != 0) {
-					fileNameList.add(data);
+		try {
+			FileItemIterator itemIterator = upload.getItemIterator(req);
+			while (itemIterator.hasNext()) {
+				FileItemStream item = itemIterator.next();
+				if ( item.isFormField() ) {
+					ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+					readItem(item, byteStream, -1);
+					simpleFieldNameMap.put(item.getFieldName(), byteStream.toString());
+				} else {
+					MultiPartFormItem data = readItem(item, new ByteArrayOutputStream(),
+							spillThreshold);
+					addFileItem(data, fileNameList);
 				}
 			}
+		} catch (IOException e) {
+			release();
+			throw e;
+		} catch (FileUploadException e) {
+			release();
+			throw e;
+		} catch (RuntimeException e) {
+			release();
+			throw e;
 		}
 
 		// Find the common prefix to the filenames being uploaded...
@@ -177,6 +217,100 @@ public class MultiPartFormData {
 		}
 	}
 
+	/**
+	 * Read the content of a part using bulk reads, computing its length and
+	 * MD5 hash as it is received. The content is accumulated in byteStream
+	 * until it exceeds spillThreshold, after which it is written to a
+	 * temporary file.
+	 */
+	private MultiPartFormItem readItem(FileItemStream item, ByteArrayOutputStream byteStream,
+			int spillThreshold) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Unexpected problem computing md5 hash", e);
+		}
+
+		long contentLength = 0L;
+		boolean spill = (spillThreshold >= 0);
+		File spillFile = null;
+		OutputStream spillStream = null;
+		InputStream formStream = item.openStream();
+		try {
+			byte[] buffer = new byte[READ_BUFFER_SIZE];
+			int len;
+			while ((len = formStream.read(buffer)) != -1) {
+				md.update(buffer, 0, len);
+				contentLength += len;
+				if (spillStream != null) {
+					spillStream.write(buffer, 0, len);
+					continue;
+				}
+				byteStream.write(buffer, 0, len);
+				if (spill && contentLength > spillThreshold) {
+					spillFile = createSpillFile();
+					if (spillFile == null) {
+						// keep everything in memory
+						spill = false;
+						continue;
+					}
+					spillFiles.add(spillFile);
+					spillStream = new BufferedOutputStream(new FileOutputStream(spillFile),
+							READ_BUFFER_SIZE);
+					byteStream.writeTo(spillStream);
+					byteStream = null;
+				}
+			}
+		} finally {
+			formStream.close();
+			if (spillStream != null) {
+				spillStream.close();
+			}
+		}
+
+		return new MultiPartFormItem(item.getFieldName(), item.getName(),
+				item.getContentType(), byteStream, spillFile, contentLength,
+				CommonFieldsBase.asMD5HashUri(md.digest()));
+	}
+
+	private static File createSpillFile() {
+		if (spillUnsupported) {
+			return null;
+		}
+		try {
+			return File.createTempFile("odkMultiPart", ".tmp");
+		} catch (SecurityException e) {
+			logger.info("temporary files are not supported -- holding attachments in memory");
+			spillUnsupported = true;
+		} catch (IOException e) {
+			logger.warn("unable to create temporary file -- holding attachment in memory: "
+					+ e.toString());
+		}
+		return null;
+	}
+
+	private void addFileItem(MultiPartFormItem data, List<MultiPartFormItem> fileNameList) {
+		String fieldName = data.getName();
+		if (fieldName != null) {
+			fieldNameMap.put(fieldName, data);
+		}
+		String fileName = data.getFilename();
+		if (fileName != null && fileName.length() != 0) {
+			fileNameList.add(data);
+		}
+	}
+
+	/**
+	 * Delete any temporary files holding the content of the parts.
+	 */
+	public void release() {
+		for (File f : spillFiles) {
+			f.delete();
+		}
+		spillFiles.clear();
+	}
+
 	public String getSimpleFormField(String fieldName) {
 		return simpleFieldNameMap.get(fieldName);
 	}
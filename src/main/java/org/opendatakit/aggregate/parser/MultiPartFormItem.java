@@ -17,10 +17,22 @@
 
 package org.opendatakit.aggregate.parser;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.opendatakit.common.persistence.CommonFieldsBase;
 
 /**
  * Object representation of multi part form data
+ * <p>
+ * The content is either held in memory or, for large parts received by a
+ * spilling {@link MultiPartFormData}, in a temporary file. The content length
+ * and MD5 hash are computed while the part is received.
  * 
  * @author wbrunette@gmail.com
  * @author mitchellsundt@gmail.com
@@ -44,9 +56,18 @@ public final class MultiPartFormItem {
   private final String contentType;
 
   /**
-   * form data's stream
+   * form data's stream (null if the content was spilled to a file)
    */
   private final ByteArrayOutputStream stream;
+
+  /**
+   * temporary file holding the content (null if held in memory)
+   */
+  private final File spillFile;
+
+  private final long contentLength;
+
+  private final String contentHash;
   
   /**
    * Constructor of a multi part of data 
@@ -61,10 +82,34 @@ public final class MultiPartFormItem {
    *    form data's stream
    */
   public MultiPartFormItem(String fieldName, String fileName, String contentType, ByteArrayOutputStream byteStream) {
+    this(fieldName, fileName, contentType, byteStream, null, byteStream.size(),
+        CommonFieldsBase.newMD5HashUri(byteStream.toByteArray()));
+  }
+
+  /**
+   * Constructor used by MultiPartFormData, which computes the length and hash
+   * of the content while receiving it.
+   *
+   * @param fieldName
+   * @param fileName
+   * @param contentType
+   * @param byteStream
+   *    form data's content, or null if it is in spillFile
+   * @param spillFile
+   *    temporary file holding the content, or null if it is in byteStream
+   * @param contentLength
+   * @param contentHash
+   *    md5 hash of the content, as returned by CommonFieldsBase.newMD5HashUri()
+   */
+  MultiPartFormItem(String fieldName, String fileName, String contentType,
+      ByteArrayOutputStream byteStream, File spillFile, long contentLength, String contentHash) {
     this.name = fieldName;
     this.filename = fileName;
     this.contentType = contentType;
     this.stream = byteStream;
+    this.spillFile = spillFile;
+    this.contentLength = contentLength;
+    this.contentHash = contentHash;
   }
   
   /**
@@ -109,12 +154,66 @@ public final class MultiPartFormItem {
   }
 
   /**
-   * Get form data's stream
+   * Get form data's stream. If the content was spilled to a temporary file,
+   * this reads the entire file into memory; use openInputStream() instead
+   * where possible.
    * 
    * @return
    *    stream
    */
   public ByteArrayOutputStream getStream() {
-    return stream;
+    if (stream != null) {
+      return stream;
+    }
+    ByteArrayOutputStream byteStream = new ByteArrayOutputStream((int) contentLength);
+    InputStream is = null;
+    try {
+      is = openInputStream();
+      byte[] buffer = new byte[MultiPartFormData.READ_BUFFER_SIZE];
+      int len;
+      while ((len = is.read(buffer)) != -1) {
+        byteStream.write(buffer, 0, len);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("unable to read spilled form data " + name, e);
+    } finally {
+      if (is != null) {
+        try {
+          is.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+    return byteStream;
+  }
+
+  /**
+   * Open a stream over form data's content. The caller must close it.
+   *
+   * @return
+   *    stream
+   * @throws IOException
+   */
+  public InputStream openInputStream() throws IOException {
+    if (stream != null) {
+      return new ByteArrayInputStream(stream.toByteArray());
+    }
+    return new BufferedInputStream(new FileInputStream(spillFile),
+        MultiPartFormData.READ_BUFFER_SIZE);
+  }
+
+  /**
+   * @return length of the content in bytes
+   */
+  public long getContentLength() {
+    return contentLength;
+  }
+
+  /**
+   * @return md5 hash of the content, as returned by CommonFieldsBase.newMD5HashUri()
+   */
+  public String getContentHash() {
+    return contentHash;
   }
 }
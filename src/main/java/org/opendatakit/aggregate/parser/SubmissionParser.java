@@ -18,6 +18,7 @@
 package org.opendatakit.aggregate.parser;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -26,9 +27,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.logging.Log;
@@ -62,15 +64,15 @@ import org.opendatakit.common.utils.WebUtils;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.constants.BasicConsts;
 import org.opendatakit.common.web.constants.HtmlConsts;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 /**
  * Parsers submission xml and saves to datastore
+ * <p>
+ * The xml is streamed (StAX) twice: once to read the attributes of the root
+ * element and the OpenRosa instanceID (needed to find or create the
+ * submission), and once, driven by the form's FormElementModel tree, to fill
+ * in the submission's values as the elements are read. No document tree is
+ * built.
  * 
  * @author wbrunette@gmail.com
  * @author mitchellsundt@gmail.com
@@ -86,9 +88,15 @@ public class SubmissionParser {
   private IForm form;
 
   /**
-   * Root of XML submission
+   * Local name of the root element of the XML submission
    */
-  private Element root;
+  private String rootName;
+
+  /**
+   * Attributes (and namespace declarations) of the root element of the XML
+   * submission, by qualified name.
+   */
+  private final Map<String, String> rootAttributes = new HashMap<String, String>();
 
   /**
    * Submission object created from xml submission
@@ -149,7 +157,20 @@ public class SubmissionParser {
   public SubmissionParser(InputStream inputStreamXML, CallingContext cc) throws IOException,
       ODKFormNotFoundException, ODKParseException, ODKIncompleteSubmissionData,
       ODKConversionException, ODKDatastoreException, ODKFormSubmissionsDisabledException {
-    constructorHelper(inputStreamXML, false, cc);
+    // the xml is read twice, so hold onto it...
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int len;
+    while ((len = inputStreamXML.read(buffer)) != -1) {
+      bos.write(buffer, 0, len);
+    }
+    final byte[] xml = bos.toByteArray();
+    constructorHelper(new XmlSource() {
+      @Override
+      public InputStream open() {
+        return new ByteArrayInputStream(xml);
+      }
+    }, false, cc);
   }
 
   /**
@@ -180,19 +201,35 @@ public class SubmissionParser {
       throw new IOException("DID NOT GET A MULTIPARTFORMPARSER");
     }
     submissionFormItems = submissionFormParser;
-    MultiPartFormItem submission = submissionFormItems
+    final MultiPartFormItem submission = submissionFormItems
         .getFormDataByFieldName(ServletConsts.XML_SUBMISSION_FILE);
     if (submission == null) {
       // TODO: review best error handling strategy
       throw new IOException("DID NOT GET A SUBMISSION");
     }
 
-    InputStream inputStreamXML = new ByteArrayInputStream(submission.getStream().toByteArray());
-    try {
-      constructorHelper(inputStreamXML, isIncomplete, cc);
-    } finally {
-      inputStreamXML.close();
-    }
+    constructorHelper(new XmlSource() {
+      @Override
+      public InputStream open() throws IOException {
+        return submission.openInputStream();
+      }
+    }, isIncomplete, cc);
+  }
+
+  /**
+   * The submission xml, which can be read more than once.
+   */
+  private interface XmlSource {
+    InputStream open() throws IOException;
+  }
+
+  static final XMLInputFactory xmlInputFactory;
+
+  static {
+    xmlInputFactory = XMLInputFactory.newInstance();
+    xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
   }
 
   private static final String OPEN_ROSA_NAMESPACE_PRELIM = "http://openrosa.org/xforms/metadata";
@@ -201,86 +238,199 @@ public class SubmissionParser {
   private static final String OPEN_ROSA_METADATA_TAG = "meta";
   private static final String OPEN_ROSA_INSTANCE_ID = "instanceID";
 
+  private static boolean isOpenRosaElement(XMLStreamReader reader, String name) {
+    String namespace = reader.getNamespaceURI();
+    return reader.getLocalName().equals(name)
+        && (namespace == null || namespace.length() == 0
+            || namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE)
+            || namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_SLASH)
+            || namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_PRELIM));
+  }
+
   /**
-   * Find the OpenRosa instanceID defined for this record, if any.
+   * Advance the reader to the root element of the document.
    * 
-   * @return
+   * @param reader
+   * @throws XMLStreamException
+   */
+  static void advanceToRootElement(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+      reader.next();
+    }
+  }
+
+  /**
+   * Advance the reader to the next child element of the current element,
+   * ignoring any text.
+   * 
+   * @param reader
+   * @return true if positioned at the start of a child element, false if
+   *         positioned at the end of the current element.
+   * @throws XMLStreamException
    */
-  private String getOpenRosaInstanceId() {
-    Node n = findMetaTag(root);
-    if (n != null) {
-      NodeList nl = n.getChildNodes();
-      for (int i = 0; i < nl.getLength(); ++i) {
-        Node cn = nl.item(i);
-        String cnUri = cn.getNamespaceURI();
-        String cnName = cn.getLocalName();
-        if (cn.getNodeType() == Node.ELEMENT_NODE
-            && cnName.equals(OPEN_ROSA_INSTANCE_ID)
-            && (cnUri == null || 
-                cnUri.equalsIgnoreCase(OPEN_ROSA_NAMESPACE) ||
-                cnUri.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_SLASH) ||
-                cnUri.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_PRELIM))) {
-          NodeList cnl = cn.getChildNodes();
-          boolean textFound = false;
-          int idxText = -1;
-          for (int j = 0; j < cnl.getLength(); ++j) {
-            Node cnln = cnl.item(j);
-            if (cnln.getNodeType() == Node.TEXT_NODE) {
-              if (textFound) {
-                throw new IllegalStateException("Expected a single text node");
-              }
-              textFound = true;
-              idxText = j;
-            }
+  private static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+    for (;;) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        return true;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Skip the current element and everything within it.
+   * 
+   * @param reader
+   *          positioned at the start of the element; left at its end.
+   * @throws XMLStreamException
+   */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        ++depth;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        --depth;
+      }
+    }
+  }
+
+  private static boolean isText(int event) {
+    return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+        || event == XMLStreamConstants.SPACE;
+  }
+
+  /**
+   * Read the attributes of the root element and find the OpenRosa instanceID
+   * defined for this record, if any. The document is only read up to the end
+   * of the OpenRosa metadata tag.
+   * 
+   * @param source
+   * @return the instanceID, or null if none.
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  private String readRootAndOpenRosaInstanceId(XmlSource source) throws IOException,
+      XMLStreamException {
+    InputStream is = source.open();
+    try {
+      XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(is);
+      try {
+        advanceToRootElement(reader);
+        rootName = reader.getLocalName();
+        for (int i = 0; i < reader.getAttributeCount(); ++i) {
+          String prefix = reader.getAttributePrefix(i);
+          String name = reader.getAttributeLocalName(i);
+          if (prefix != null && prefix.length() != 0) {
+            name = prefix + ":" + name;
           }
-          if (textFound) {
-            return cnl.item(idxText).getNodeValue();
+          rootAttributes.put(name, reader.getAttributeValue(i));
+        }
+        for (int i = 0; i < reader.getNamespaceCount(); ++i) {
+          String prefix = reader.getNamespacePrefix(i);
+          String name = ParserConsts.NAMESPACE_ATTRIBUTE;
+          if (prefix != null && prefix.length() != 0) {
+            name = name + ":" + prefix;
           }
+          rootAttributes.put(name, reader.getNamespaceURI(i));
         }
+        return readOpenRosaInstanceId(reader);
+      } finally {
+        reader.close();
       }
+    } finally {
+      is.close();
     }
-    return null;
   }
 
   /**
-   * Traverse submission looking for OpenRosa metadata tag (with or without
-   * namespace).
+   * Find the OpenRosa instanceID defined for this record, if any. The
+   * instanceID is the first instanceID element (with text) directly under the
+   * first OpenRosa metadata tag (with or without namespace).
    * 
-   * @param parent
-   * @return
+   * @param reader
+   *          positioned at the start of the root element; read up to the end
+   *          of the metadata tag.
+   * @return the instanceID, or null if none.
+   * @throws XMLStreamException
    */
-  private Node findMetaTag(Node parent) {
-    if (parent.getNodeType() != Node.ELEMENT_NODE)
-      return null;
-    @SuppressWarnings("unused")
-    String parentName = parent.getLocalName();
-    NodeList nl = parent.getChildNodes();
-    for (int i = 0; i < nl.getLength(); ++i) {
-      Node n = nl.item(i);
-      String namespace = n.getNamespaceURI();
-      String name = n.getLocalName();
-      if (n.getNodeType() == Node.ELEMENT_NODE
-          && name.equals(OPEN_ROSA_METADATA_TAG)
-          && (namespace == null || 
-              namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE) ||
-              namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_SLASH) ||
-              namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_PRELIM))) {
-        return n;
-      } else {
-        n = findMetaTag(n);
-        if (n != null)
-          return n;
+  static String readOpenRosaInstanceId(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    int metaDepth = -1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        if (depth-- == metaDepth) {
+          // no instanceID in the metadata tag
+          return null;
+        }
+      } else if (event == XMLStreamConstants.START_ELEMENT) {
+        ++depth;
+        if (metaDepth == -1) {
+          if (isOpenRosaElement(reader, OPEN_ROSA_METADATA_TAG)) {
+            metaDepth = depth;
+          }
+        } else if (depth == metaDepth + 1 && isOpenRosaElement(reader, OPEN_ROSA_INSTANCE_ID)) {
+          String value = readInstanceIdText(reader);
+          if (value != null) {
+            return value;
+          }
+          --depth;
+        }
       }
     }
     return null;
   }
 
+  /**
+   * @param reader
+   *          positioned at the start of an instanceID element; left at its
+   *          end.
+   * @return the (untrimmed) text of the element, or null if it has none.
+   * @throws XMLStreamException
+   */
+  private static String readInstanceIdText(XMLStreamReader reader) throws XMLStreamException {
+    StringBuilder text = null;
+    boolean inText = false;
+    for (;;) {
+      int event = reader.next();
+      if (isText(event)) {
+        if (!inText) {
+          if (text != null) {
+            throw new IllegalStateException("Expected a single text node");
+          }
+          text = new StringBuilder();
+          inText = true;
+        }
+        text.append(reader.getText());
+      } else if (event == XMLStreamConstants.START_ELEMENT) {
+        inText = false;
+        skipElement(reader);
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        return (text == null) ? null : text.toString();
+      }
+    }
+  }
+
+  /**
+   * @param name
+   * @return the value of the root element's attribute, or the empty string if
+   *         it has no such attribute.
+   */
+  private String getRootAttribute(String name) {
+    String value = rootAttributes.get(name);
+    return (value == null) ? BasicConsts.EMPTY_STRING : value;
+  }
+
   /**
    * Helper Constructor an ODK submission by processing XML submission to
    * extract values
    * 
-   * @param inputStreamXML
-   *          xml submission input stream
+   * @param source
+   *          xml submission
    * @param isIncomplete
    * 
    * @throws IOException
@@ -292,25 +442,19 @@ public class SubmissionParser {
    * @throws ODKDatastoreException
    * @throws ODKFormSubmissionsDisabledException
    */
-  private void constructorHelper(InputStream inputStreamXML, boolean isIncomplete, CallingContext cc)
+  private void constructorHelper(XmlSource source, boolean isIncomplete, CallingContext cc)
       throws IOException, ODKFormNotFoundException, ODKParseException, ODKIncompleteSubmissionData,
       ODKConversionException, ODKDatastoreException, ODKFormSubmissionsDisabledException {
+    String openRosaInstanceId;
     try {
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      factory.setNamespaceAware(true);
-      factory.setIgnoringComments(true);
-      factory.setCoalescing(true);
-      DocumentBuilder builder = factory.newDocumentBuilder();
-      Document doc = builder.parse(inputStreamXML);
-      root = doc.getDocumentElement();
-      // if debugging: printNode(root);
+      openRosaInstanceId = readRootAndOpenRosaInstanceId(source);
 
       // check for odk id
-      formId = root.getAttribute(ParserConsts.FORM_ID_ATTRIBUTE_NAME);
+      formId = getRootAttribute(ParserConsts.FORM_ID_ATTRIBUTE_NAME);
 
       // if odk id is not present use namespace
       if (formId.equalsIgnoreCase(BasicConsts.EMPTY_STRING)) {
-        String schema = root.getAttribute(ParserConsts.NAMESPACE_ATTRIBUTE);
+        String schema = getRootAttribute(ParserConsts.NAMESPACE_ATTRIBUTE);
 
         // TODO: move this into FormDefinition?
         if (schema == null) {
@@ -320,9 +464,7 @@ public class SubmissionParser {
         formId = schema;
       }
 
-    } catch (ParserConfigurationException e) {
-      throw new IOException(e);
-    } catch (SAXException e) {
+    } catch (XMLStreamException e) {
       e.printStackTrace();
       throw new IOException(e);
     }
@@ -337,8 +479,8 @@ public class SubmissionParser {
       throw new ODKFormSubmissionsDisabledException();
     }
 
-    String modelVersionString = root.getAttribute(ParserConsts.MODEL_VERSION_ATTRIBUTE_NAME);
-    String uiVersionString = root.getAttribute(ParserConsts.UI_VERSION_ATTRIBUTE_NAME);
+    String modelVersionString = getRootAttribute(ParserConsts.MODEL_VERSION_ATTRIBUTE_NAME);
+    String uiVersionString = getRootAttribute(ParserConsts.UI_VERSION_ATTRIBUTE_NAME);
     Long modelVersion = null;
     Long uiVersion = null;
     if (modelVersionString != null && modelVersionString.length() > 0) {
@@ -348,23 +490,23 @@ public class SubmissionParser {
       uiVersion = Long.valueOf(uiVersionString);
     }
 
-    String instanceId = getOpenRosaInstanceId();
+    String instanceId = openRosaInstanceId;
     if (instanceId == null) {
-      instanceId = root.getAttribute(ParserConsts.INSTANCE_ID_ATTRIBUTE_NAME);
+      instanceId = getRootAttribute(ParserConsts.INSTANCE_ID_ATTRIBUTE_NAME);
       if (instanceId == null || instanceId.length() == 0) {
         instanceId = CommonFieldsBase.newUri();
       }
     }
 
     Date submissionDate = new Date();
-    String submissionDateString = root.getAttribute(ParserConsts.SUBMISSION_DATE_ATTRIBUTE_NAME);
+    String submissionDateString = getRootAttribute(ParserConsts.SUBMISSION_DATE_ATTRIBUTE_NAME);
     if (submissionDateString != null && submissionDateString.length() != 0) {
       submissionDate = WebUtils.parseDate(submissionDateString);
     }
 
     Date markedAsCompleteDate = new Date();
-    String markedAsCompleteDateString = root
-        .getAttribute(ParserConsts.MARKED_AS_COMPLETE_DATE_ATTRIBUTE_NAME);
+    String markedAsCompleteDateString = getRootAttribute(
+        ParserConsts.MARKED_AS_COMPLETE_DATE_ATTRIBUTE_NAME);
     if (markedAsCompleteDateString != null && markedAsCompleteDateString.length() != 0) {
       markedAsCompleteDate = WebUtils.parseDate(markedAsCompleteDateString);
     }
@@ -405,11 +547,26 @@ public class SubmissionParser {
 
     topLevelTableKey = submission.getKey();
 
-    Map<String, Integer> repeatGroupIndices = new HashMap<String, Integer>();
+    SubmissionSetHandler handler = new SubmissionSetHandler(preExisting, cc);
     FormElementModel formRoot = form.getTopLevelGroupElement();
     // if the submission is pre-existing in the datastore, ONLY update binaries
-    boolean uploadAllBinaries = processSubmissionElement(formRoot, root, submission,
-                                                          repeatGroupIndices, preExisting, cc);
+    boolean uploadAllBinaries;
+    InputStream is = source.open();
+    try {
+      XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(is);
+      try {
+        advanceToRootElement(reader);
+        uploadAllBinaries = processSubmissionElement(formRoot, reader,
+            (SubmissionSet) submission, handler);
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
+      e.printStackTrace();
+      throw new IOException(e);
+    } finally {
+      is.close();
+    }
     submission.setIsComplete(uploadAllBinaries);
     if (uploadAllBinaries) {
       submission.setMarkedAsCompleteDate(markedAsCompleteDate);
@@ -430,6 +587,110 @@ public class SubmissionParser {
     }
   }
 
+  /**
+   * Stores the values found by {@link SubmissionParser#processSubmissionElement}
+   * into submission sets of type S.
+   */
+  interface SubmissionValueHandler<S> {
+
+    /**
+     * @param submissionSet
+     * @param repeat
+     * @return the submission set for the next instance of the repeat group
+     *         within submissionSet.
+     * @throws ODKDatastoreException
+     */
+    S nextRepeatInstance(S submissionSet, FormElementModel repeat) throws ODKDatastoreException;
+
+    void setValue(S submissionSet, FormElementModel field, String value)
+        throws ODKConversionException, ODKDatastoreException;
+
+    /**
+     * @return false if the content of the binary has not yet been received.
+     */
+    boolean setBinaryValue(S submissionSet, FormElementModel field, String value)
+        throws ODKDatastoreException, IOException;
+  }
+
+  /**
+   * Stores the values into the submission, creating the submission sets of the
+   * repeat group instances as they are encountered.
+   */
+  private class SubmissionSetHandler implements SubmissionValueHandler<SubmissionSet> {
+
+    /**
+     * tracks the ordinal number of the last stored repeat group of each name.
+     */
+    private final Map<String, Integer> repeatGroupIndicies = new HashMap<String, Integer>();
+
+    /**
+     * true if this submission already existed in the database. If so, only
+     * the binaries are updated.
+     */
+    private final boolean preExisting;
+
+    private final CallingContext cc;
+
+    SubmissionSetHandler(boolean preExisting, CallingContext cc) {
+      this.preExisting = preExisting;
+      this.cc = cc;
+    }
+
+    @Override
+    public SubmissionSet nextRepeatInstance(SubmissionSet submissionSet, FormElementModel m)
+        throws ODKDatastoreException {
+      // get the field that will hold the repeats...
+      // get the repeat group...
+      RepeatSubmissionType repeats = (RepeatSubmissionType) submissionSet.getElementValue(m);
+
+      // determine the ordinal of the repeat group element we are processing.
+      // do this by constructing the submission key for the repeat group and
+      // seeing if that key is in the repeatGroupIndicies table. If not, the
+      // ordinal is 1L. Otherwise, it is the value in the table plus 1L.
+      String fullName = repeats.constructSubmissionKey().toString();
+      Integer idx = repeatGroupIndicies.get(fullName);
+      if (idx == null) {
+        idx = 1; // base case -- not yet in repeatGroupIndicies map
+      } else {
+        ++idx;
+      }
+      // save the updated index
+      repeatGroupIndicies.put(fullName, idx);
+
+      // get or create the instance's submission set for this ordinal
+      SubmissionSet repeatableSubmissionSet;
+      if (repeats.getNumberRepeats() >= idx) {
+        // we already have this set defined
+        repeatableSubmissionSet = repeats.getSubmissionSets().get(idx - 1);
+      } else if (repeats.getNumberRepeats() == idx - 1) {
+        // Create a submission set for a new instance...
+        long l = repeats.getNumberRepeats() + 1L;
+        repeatableSubmissionSet = new SubmissionSet(submissionSet, l, m, form, topLevelTableKey,
+            cc);
+        repeats.addSubmissionSet(repeatableSubmissionSet);
+      } else {
+        throw new IllegalStateException("incrementing repeats by more than one!");
+      }
+      return repeatableSubmissionSet;
+    }
+
+    @Override
+    public void setValue(SubmissionSet submissionSet, FormElementModel m, String value)
+        throws ODKConversionException, ODKDatastoreException {
+      if (!preExisting) {
+        ((SubmissionField<?>) submissionSet.getElementValue(m)).setValueFromString(value);
+      }
+    }
+
+    @Override
+    public boolean setBinaryValue(SubmissionSet submissionSet, FormElementModel m, String value)
+        throws ODKDatastoreException, IOException {
+      SubmissionField<?> submissionElement = ((SubmissionField<?>) submissionSet
+          .getElementValue(m));
+      return processBinarySubmission(m, submissionElement, value, cc);
+    }
+  }
+
   /**
    * 
    * Helper function to process submission by taking the form element and
@@ -438,104 +699,70 @@ public class SubmissionParser {
    * 
    * @param node
    *          form data model of the group or repeat group being parsed.
-   * @param currentSubmissionElement
-   *          xml document element that marks the start of this submission set.
+   * @param reader
+   *          positioned at the start of the xml element that marks the start
+   *          of this submission set; left at the end of that element.
    * @param submissionSet
    *          the submission set to add the submission values to.
-   * @param repeatGroupIndicies
-   *          tracks the ordinal number of the last stored repeat group of this
-   *          name.
-   * @param preExisting
-   *          true if this submission already existed in the database. If so, do
-   *          not update fields.
+   * @param handler
+   *          stores the values into the submission sets.
    * @throws ODKParseException
    * @throws ODKIncompleteSubmissionData
    * @throws ODKConversionException
    * @throws ODKDatastoreException
+   * @throws IOException
+   * @throws XMLStreamException
    */
-  private boolean processSubmissionElement(FormElementModel node, Element currentSubmissionElement,
-      SubmissionSet submissionSet, Map<String, Integer> repeatGroupIndicies, boolean preExisting,
-      CallingContext cc) throws ODKParseException, ODKIncompleteSubmissionData,
-      ODKConversionException, ODKDatastoreException {
+  static <S> boolean processSubmissionElement(FormElementModel node, XMLStreamReader reader,
+      S submissionSet, SubmissionValueHandler<S> handler) throws ODKParseException,
+      ODKIncompleteSubmissionData, ODKConversionException, ODKDatastoreException, IOException,
+      XMLStreamException {
 
-    if (node == null || currentSubmissionElement == null) {
+    if (node == null) {
+      skipElement(reader);
       return true;
     }
 
     // the element name of the fdm is the tag name...
     String submissionTag = node.getElementName();
     if (submissionTag == null) {
+      skipElement(reader);
       return true;
     }
 
     // verify that the xml matches the node we are processing...
-    if (!currentSubmissionElement.getLocalName().equals(submissionTag)) {
+    if (!reader.getLocalName().equals(submissionTag)) {
       throw new ODKParseException("Xml document element tag: "
-          + currentSubmissionElement.getLocalName()
+          + reader.getLocalName()
           + " does not match the xform data model tag name: " + submissionTag);
     }
 
-    // get the structure under the fdm tag name...
-    List<Element> elements = getElements(currentSubmissionElement);
-    if (elements.size() == 0) {
-      return true; // the group is not relevant...
-    }
-    // and for each of these, they should be fields under the given fdm
-    // and values within the submissionSet
+    // the elements under the fdm tag name should be fields under the given
+    // fdm and values within the submissionSet. If there are none, the group
+    // is not relevant...
     boolean complete = true;
-    for (Element e : elements) {
-      FormElementModel m = node.findElementByName(e.getLocalName());
+    while (nextChildElement(reader)) {
+      FormElementModel m = node.findElementByName(reader.getLocalName());
       if (m == null) {
+        skipElement(reader);
         continue;
         // throw new ODKParseException();
       }
       switch (m.getElementType()) {
       case METADATA:
         // This keeps lint warnings down
+        skipElement(reader);
         break;
       case GROUP:
         // need to recurse on these elements keeping the same
         // submissionSet...
-        complete = complete
-            & processSubmissionElement(m, e, submissionSet, repeatGroupIndicies, preExisting, cc);
+        complete = complete & processSubmissionElement(m, reader, submissionSet, handler);
         break;
       case REPEAT:
-        // get the field that will hold the repeats...
-        // get the repeat group...
-        RepeatSubmissionType repeats = (RepeatSubmissionType) submissionSet.getElementValue(m);
-
-        // determine the ordinal of the repeat group element we are processing.
-        // do this by constructing the submission key for the repeat group and
-        // seeing if that key is in the repeatGroupIndicies table. If not, the
-        // ordinal is 1L. Otherwise, it is the value in the table plus 1L.
-        String fullName = repeats.constructSubmissionKey().toString();
-        Integer idx = repeatGroupIndicies.get(fullName);
-        if (idx == null) {
-          idx = 1; // base case -- not yet in repeatGroupIndicies map
-        } else {
-          ++idx;
-        }
-        // save the updated index
-        repeatGroupIndicies.put(fullName, idx);
-
-        // get or create the instance's submission set for this ordinal
-        SubmissionSet repeatableSubmissionSet;
-        if (repeats.getNumberRepeats() >= idx) {
-          // we already have this set defined
-          repeatableSubmissionSet = repeats.getSubmissionSets().get(idx - 1);
-        } else if (repeats.getNumberRepeats() == idx - 1) {
-          // Create a submission set for a new instance...
-          long l = repeats.getNumberRepeats() + 1L;
-          repeatableSubmissionSet = new SubmissionSet(submissionSet, l, m, form, topLevelTableKey,
-              cc);
-          repeats.addSubmissionSet(repeatableSubmissionSet);
-        } else {
-          throw new IllegalStateException("incrementing repeats by more than one!");
-        }
-        // populate the instance's submission set with values from e...
+        // populate the instance's submission set with values from the element...
+        S repeatableSubmissionSet = handler.nextRepeatInstance(submissionSet, m);
         complete = complete
-            & processSubmissionElement(m, e, repeatableSubmissionSet, repeatGroupIndicies,
-                preExisting, cc);
+            & processSubmissionElement(m, reader, repeatableSubmissionSet, handler);
         break;
       case STRING:
       case JRDATETIME:
@@ -546,25 +773,11 @@ public class SubmissionParser {
       case BOOLEAN:
       case SELECT1: // identifies SelectChoice table
       case SELECTN: // identifies SelectChoice table
-        if (!preExisting) {
-          String value = getSubmissionValue(e);
-          SubmissionField<?> subField = (SubmissionField<?>) submissionSet.getElementValue(m);
-          subField.setValueFromString(value);
-        }
-        break;
       case GEOPOINT:
-        if (!preExisting) {
-          String value = getSubmissionValue(e);
-          ((SubmissionField<?>) submissionSet.getElementValue(m)).setValueFromString(value);
-        }
+        handler.setValue(submissionSet, m, readSubmissionValue(reader));
         break;
       case BINARY: // identifies BinaryContent table
-        {
-          String value = getSubmissionValue(e);
-          SubmissionField<?> submissionElement = ((SubmissionField<?>) submissionSet
-              .getElementValue(m));
-          complete = complete & processBinarySubmission(m, submissionElement, value, cc);
-        }
+        complete = complete & handler.setBinaryValue(submissionSet, m, readSubmissionValue(reader));
         break;
       }
     }
@@ -572,7 +785,7 @@ public class SubmissionParser {
   }
 
   private boolean processBinarySubmission(FormElementModel m, SubmissionField<?> submissionElement,
-      String value, CallingContext cc) throws ODKDatastoreException {
+      String value, CallingContext cc) throws ODKDatastoreException, IOException {
 
     // value will either be a byte array (if not a multipart/form-data
     // submission)
@@ -605,9 +818,16 @@ public class SubmissionParser {
         if (fileName == null || fileName.length() == 0) {
           fileName = null;
         }
-        byte[] byteArray = binaryData.getStream().toByteArray();
-        submissionElement.setValueFromByteArray(byteArray, binaryData.getContentType(),
-            fileName, false, cc);
+        // the hash was computed while receiving the attachment; its content
+        // is only read if it needs to be stored.
+        BlobSubmissionType blob = (BlobSubmissionType) submissionElement;
+        InputStream blobStream = binaryData.openInputStream();
+        try {
+          blob.setValueFromStream(blobStream, binaryData.getContentLength(),
+              binaryData.getContentHash(), binaryData.getContentType(), fileName, false, cc);
+        } finally {
+          blobStream.close();
+        }
       } else {
         // Assume the value is the filename...
         submissionElement.setValueFromByteArray(null, null, value, false, cc);
@@ -621,81 +841,43 @@ public class SubmissionParser {
     return true;
   }
 
-  private List<Element> getElements(Element rootNode) {
-    List<Element> elements = new ArrayList<Element>();
-
-    NodeList nodeList = rootNode.getChildNodes();
-
-    for (int i = 0; i < nodeList.getLength(); ++i) {
-      Node node = nodeList.item(i);
-      if (node.getNodeType() == Node.ELEMENT_NODE) {
-        elements.add((Element) node);
-      }
-    }
-    return elements;
-  }
-
   /**
    * Extracts value from the XML submission element by getting value from the
-   * text node
+   * text within it
    * 
-   * @param element
-   *          element that has text child node that will contain the value
+   * @param reader
+   *          positioned at the start of the element that has text that will
+   *          contain the value; left at the end of the element.
    * 
-   * @return value contained in the XML submission
+   * @return the first non-empty (trimmed) run of text directly within the
+   *         element, or null if there is none.
+   * @throws XMLStreamException
    */
-  private String getSubmissionValue(Element element) {
-    // could not find element, return null
-    if (element == null) {
-      return null;
-    }
-
-    NodeList childNodeList = element.getChildNodes();
-    // get element value
-    for (int i = 0; i < childNodeList.getLength(); i++) {
-      Node node = childNodeList.item(i);
-      if (node.getNodeType() == Node.TEXT_NODE) {
-        String value = node.getNodeValue().trim();
-        if (value.length() > 0) {
-          return value;
-        } // else go to next node
+  static String readSubmissionValue(XMLStreamReader reader) throws XMLStreamException {
+    String value = null;
+    StringBuilder text = new StringBuilder();
+    for (;;) {
+      int event = reader.next();
+      if (isText(event)) {
+        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+      } else if (event == XMLStreamConstants.START_ELEMENT) {
+        // a child element ends the current run of text
+        value = firstValue(value, text);
+        skipElement(reader);
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        return firstValue(value, text);
       }
-    } // else has no value so continue
-
-    return null;
+    }
   }
 
-  /**
-   * Recursive function that prints the nodes from an XML tree
-   * 
-   * @param node
-   *          xml node to be recursively printed
-   */
-  @SuppressWarnings("unused")
-  private void printNode(Element node) {
-    System.out.println(ParserConsts.NODE_FORMATTED + node.getTagName());
-    if (node.hasAttributes()) {
-      NamedNodeMap attributes = node.getAttributes();
-      for (int i = 0; i < attributes.getLength(); i++) {
-        Node attr = attributes.item(i);
-        System.out.println(ParserConsts.ATTRIBUTE_FORMATTED + attr.getNodeName()
-            + BasicConsts.EQUALS + attr.getNodeValue());
-      }
-    }
-    if (node.hasChildNodes()) {
-      NodeList children = node.getChildNodes();
-      for (int i = 0; i < children.getLength(); i++) {
-        Node child = children.item(i);
-        if (child.getNodeType() == Node.ELEMENT_NODE) {
-          printNode((Element) child);
-        } else if (child.getNodeType() == Node.TEXT_NODE) {
-          String value = child.getNodeValue().trim();
-          if (value.length() > 0) {
-            System.out.println(ParserConsts.VALUE_FORMATTED + value);
-          }
-        }
+  private static String firstValue(String value, StringBuilder text) {
+    if (value == null) {
+      String candidate = text.toString().trim();
+      if (candidate.length() > 0) {
+        value = candidate;
       }
     }
-
+    text.setLength(0);
+    return value;
   }
 }
@@ -16,6 +16,7 @@
 package org.opendatakit.aggregate.query.submission;
 
 import java.util.List;
+import java.util.Map;
 
 import org.opendatakit.aggregate.datamodel.FormDataModel;
 import org.opendatakit.aggregate.datamodel.FormElementModel;
@@ -119,6 +120,30 @@ public abstract class QueryBase {
 
     
   }
+
+  /**
+   * Counts the submissions matching the filter criteria in the database,
+   * without retrieving them.
+   * 
+   * @return the count, or -1 if the datastore cannot count the submissions
+   *         without retrieving them.
+   * @throws ODKDatastoreException
+   */
+  protected long getTotalCount() throws ODKDatastoreException {
+    return query.executeCountQuery();
+  }
+
+  /**
+   * Counts the submissions matching the filter criteria for each value of the
+   * given field of the top-level record (GROUP BY), without retrieving them.
+   *
+   * @param field
+   * @return map from each value of the field to its number of submissions.
+   * @throws ODKDatastoreException
+   */
+  protected Map<Object, Long> getCountsGroupedBy(DataField field) throws ODKDatastoreException {
+    return query.executeCountGroupedByDataField(field);
+  }
   
   
 }
@@ -20,7 +20,9 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,6 +43,7 @@ import org.opendatakit.aggregate.server.ServerPreferencesProperties;
 import org.opendatakit.aggregate.server.UITrans;
 import org.opendatakit.aggregate.submission.Submission;
 import org.opendatakit.aggregate.submission.SubmissionKey;
+import org.opendatakit.aggregate.submission.SubmissionPrefetch;
 import org.opendatakit.common.datamodel.ODKEnumeratedElementException;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.Query;
@@ -205,6 +208,14 @@ public class QueryByUIFilterGroup extends QueryBase {
 
   }
 
+  /**
+   * @return the cursor from which the next call to getResultSubmissions() will
+   *         resume (null if it will start from the beginning).
+   */
+  public QueryResumePoint getResumeCursor() {
+    return cursor;
+  }
+
   /**
    * Silently skip the submissions that are not retrievable due to malformations
    * of some kind.
@@ -217,12 +228,14 @@ public class QueryByUIFilterGroup extends QueryBase {
     // retrieve submissions
     QueryResult results = getQueryResult(cursor, fetchLimit);
     List<? extends CommonFieldsBase> submissionEntities = results.getResultList();
+    // bulk-load the subordinate records of all submissions in this page
+    SubmissionPrefetch prefetch = new SubmissionPrefetch(getForm(), submissionEntities, cc);
 
     // create a row for each submission
     for (int count = 0; count < submissionEntities.size(); count++) {
       CommonFieldsBase subEntity = submissionEntities.get(count);
       try {
-        Submission sub = new Submission((TopLevelDynamicBase) subEntity, getForm(), cc);
+        Submission sub = new Submission((TopLevelDynamicBase) subEntity, getForm(), prefetch, cc);
         retrievedSubmissions.add(sub);
       } catch (ODKDatastoreException e ) {
         Log logger = LogFactory.getLog(QueryByUIFilterGroup.class);
@@ -250,6 +263,63 @@ public class QueryByUIFilterGroup extends QueryBase {
     return retrievedSubmissions;
   }
 
+  /**
+   * Counts the submissions matching the filter criteria for each value of the
+   * given element, using a GROUP BY query in the database. The values are
+   * formatted as they are for the submission table, and values that format
+   * the same are counted together.
+   * 
+   * @param fem
+   * @param elemFormatter
+   * @return the counts by formatted value, or null if the element is not a
+   *         simple value held in the top-level record.
+   * @throws ODKDatastoreException
+   */
+  public HashMap<String, Long> getFormattedValueCounts(FormElementModel fem,
+      ElementFormatter elemFormatter) throws ODKDatastoreException {
+    if (fem == null || fem.isMetadata()
+        || fem.getFormDataModel().getBackingObjectPrototype() != tbl) {
+      // repeat groups, select-many choices and phantom tables are not
+      // in the top-level record
+      return null;
+    }
+    switch (fem.getElementType()) {
+    case BOOLEAN:
+    case INTEGER:
+    case DECIMAL:
+    case SELECT1:
+    case STRING:
+      break;
+    default:
+      return null;
+    }
+
+    Map<Object, Long> counts = getCountsGroupedBy(fem.getFormDataModel().getBackingKey());
+    HashMap<String, Long> formattedCounts = new HashMap<String, Long>();
+    for (Map.Entry<Object, Long> entry : counts.entrySet()) {
+      Row row = new Row(null);
+      Object value = entry.getKey();
+      switch (fem.getElementType()) {
+      case BOOLEAN:
+        elemFormatter.formatBoolean((Boolean) value, fem, null, row);
+        break;
+      case INTEGER:
+        elemFormatter.formatLong((Long) value, fem, null, row);
+        break;
+      case DECIMAL:
+        elemFormatter.formatDecimal((BigDecimal) value, fem, null, row);
+        break;
+      default:
+        elemFormatter.formatString((String) value, fem, null, row);
+        break;
+      }
+      String label = row.getFormattedValues().get(0);
+      Long count = formattedCounts.get(label);
+      formattedCounts.put(label, (count == null) ? entry.getValue() : count + entry.getValue());
+    }
+    return formattedCounts;
+  }
+
   public static final class PartialResults {
     public List<Submission> retrievedSubmissions;
     public List<TopLevelDynamicBase> badTopLevelEntities;
@@ -355,12 +425,16 @@ public class QueryByUIFilterGroup extends QueryBase {
 
     }
 
+    summary.setTotalCount(getTotalCount());
+
     List<SubmissionUI> submissionList = new ArrayList<SubmissionUI>();
+    // bulk-load the subordinate records of all submissions in this page
+    SubmissionPrefetch prefetch = new SubmissionPrefetch(getForm(), results.getResultList(), cc);
 
     // create a row for each submission
     for (CommonFieldsBase subEntity : results.getResultList()) {
       try {
-        Submission sub = new Submission((TopLevelDynamicBase) subEntity, getForm(), cc);
+        Submission sub = new Submission((TopLevelDynamicBase) subEntity, getForm(), prefetch, cc);
         Row row = sub.getFormattedValuesAsRow(elementTypes, filteredElements, elemFormatter, false,
             cc);
   
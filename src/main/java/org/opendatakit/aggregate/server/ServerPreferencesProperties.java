@@ -16,7 +16,6 @@
 
 package org.opendatakit.aggregate.server;
 
-import java.util.Date;
 import java.util.List;
 
 import org.opendatakit.aggregate.client.preferences.PreferenceSummary;
@@ -29,7 +28,6 @@ import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
 import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
 import org.opendatakit.common.security.User;
-import org.opendatakit.common.utils.WebUtils;
 import org.opendatakit.common.web.CallingContext;
 
 public class ServerPreferencesProperties extends CommonFieldsBase {
@@ -71,7 +69,6 @@ public class ServerPreferencesProperties extends CommonFieldsBase {
   private static final String FASTER_BACKGROUND_ACTIONS_DISABLED = "FASTER_BACKGROUND_ACTIONS_DISABLED";
   private static final String SKIP_MALFORMED_SUBMISSIONS = "SKIP_MALFORMED_SUBMISSIONS";
 
-  private static final String ODK_TABLES_SEQUENCER_BASE = "ODK_TABLES_SEQUENCER_BASE";
   // there can be only one APP_ID per ODK Aggregate. Store the app name here.
   // The main impact on this is validity checking on sync when the appId is
   // checked.
@@ -206,31 +203,6 @@ public class ServerPreferencesProperties extends CommonFieldsBase {
     setServerPreferencesProperty(cc, ODK_TABLES_APP_ID, appId);
   }
 
-  public static String unsafeIncOdkTablesSequencerBase(CallingContext cc)
-      throws ODKEntityNotFoundException, ODKOverQuotaException {
-    String value = getServerPreferencesProperty(cc, ODK_TABLES_SEQUENCER_BASE);
-    String newValue = WebUtils.iso8601Date(new Date());
-    if (value != null && value.compareTo(newValue) >= 0) {
-      // the saved value String-compares greater
-      // than the current time string.
-
-      // parse the current time string...
-      Date d = WebUtils.parseDate(value);
-      if (d == null) {
-        throw new IllegalStateException(
-            "The saved ODK_TABLES_SEQUENCER_BASE value could not be parsed!");
-      }
-      // add 1 millisecond and retry...
-      newValue = WebUtils.iso8601Date(new Date(d.getTime() + 1));
-      if (value.compareTo(newValue) >= 0) {
-        throw new IllegalStateException(
-            "The new ODK_TABLES_SEQUENCER_BASE value was not greater than the saved value.");
-      }
-    }
-    setServerPreferencesProperty(cc, ODK_TABLES_SEQUENCER_BASE, newValue);
-    return newValue;
-  }
-
   public static Boolean getFasterWatchdogCycleEnabled(CallingContext cc)
       throws ODKEntityNotFoundException, ODKOverQuotaException {
     String value = getServerPreferencesProperty(cc, FASTER_WATCHDOG_CYCLE_ENABLED);
@@ -16,6 +16,7 @@
 
 package org.opendatakit.aggregate.server;
 
+import java.util.HashMap;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
@@ -24,10 +25,12 @@ import org.opendatakit.aggregate.ContextFactory;
 import org.opendatakit.aggregate.client.exception.FormNotAvailableException;
 import org.opendatakit.aggregate.client.exception.RequestFailureException;
 import org.opendatakit.aggregate.client.filter.FilterGroup;
+import org.opendatakit.aggregate.client.submission.Column;
 import org.opendatakit.aggregate.client.submission.SubmissionUI;
 import org.opendatakit.aggregate.client.submission.SubmissionUISummary;
 import org.opendatakit.aggregate.constants.ErrorConsts;
 import org.opendatakit.aggregate.constants.common.FormElementNamespace;
+import org.opendatakit.aggregate.datamodel.FormElementKey;
 import org.opendatakit.aggregate.datamodel.FormElementModel;
 import org.opendatakit.aggregate.exception.ODKFormNotFoundException;
 import org.opendatakit.aggregate.form.FormFactory;
@@ -159,4 +162,42 @@ public class SubmissionServiceImpl extends RemoteServiceServlet implements
     }
   }
 
+  @Override
+  public HashMap<String, Long> getSubmissionValueCounts(FilterGroup filterGroup, Column column)
+      throws FormNotAvailableException, RequestFailureException, DatastoreFailureException,
+      AccessDeniedException {
+    HttpServletRequest req = this.getThreadLocalRequest();
+    CallingContext cc = ContextFactory.getCallingContext(this, req);
+
+    try {
+      String formId = filterGroup.getFormId();
+      IForm form = FormFactory.retrieveFormByFormId(formId, cc);
+      if (!form.hasValidFormDefinition()) {
+        throw new RequestFailureException(ErrorConsts.FORM_DEFINITION_INVALID); // ill-formed
+                                                                                // definition
+      }
+      if (column.getGeopointColumnCode() != null) {
+        // the coordinates of a geopoint are not counted
+        return null;
+      }
+      QueryByUIFilterGroup query = new QueryByUIFilterGroup(form, filterGroup,
+          CompletionFlag.ONLY_COMPLETE_SUBMISSIONS, cc);
+
+      FormElementModel fem = FormElementModel.retrieveFormElementModel(form, new FormElementKey(
+          column.getColumnEncoding()));
+      ElementFormatter elemFormatter = new UiElementFormatter(cc.getServerURL(), null);
+      return query.getFormattedValueCounts(fem, elemFormatter);
+
+    } catch (ODKFormNotFoundException e) {
+      e.printStackTrace();
+      throw new FormNotAvailableException(e);
+    } catch (ODKOverQuotaException e) {
+      e.printStackTrace();
+      throw new RequestFailureException(ErrorConsts.QUOTA_EXCEEDED);
+    } catch (ODKDatastoreException e) {
+      e.printStackTrace();
+      throw new DatastoreFailureException(e);
+    }
+  }
+
 }
@@ -43,6 +43,7 @@ import org.opendatakit.aggregate.submission.type.BlobSubmissionType;
 import org.opendatakit.aggregate.util.ImageUtil;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
+import org.opendatakit.common.utils.HttpByteRange;
 import org.opendatakit.common.utils.WebUtils;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.constants.HtmlConsts;
@@ -99,17 +100,21 @@ public class BinaryDataServlet extends ServletUtilBase {
     SubmissionKey key = new SubmissionKey(keyString);
 
     Date lastUpdateDate = null;
-    byte[] imageBlob = null;
     String unrootedFileName = null;
     String contentType = null;
+    String contentHash = null;
     Long contentLength = null;
+    // exactly one of these identifies the content to be returned...
+    PersistentResults results = null;
+    BlobSubmissionType b = null;
+    int ordinal = 1;
 
     List<SubmissionKeyPart> parts = key.splitSubmissionKey();
     if (parts.get(0).getElementName().equals(PersistentResults.FORM_ID_PERSISTENT_RESULT)) {
       // special handling for persistent results data...
       try {
-        PersistentResults p = new PersistentResults(key, cc);
-        ResultFileInfo info = p.getResultFileInfo(cc);
+        results = new PersistentResults(key, cc);
+        ResultFileInfo info = results.getResultFileInfo(cc);
         if (info == null) {
           resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
               "Unable to retrieve attachment");
@@ -118,8 +123,8 @@ public class BinaryDataServlet extends ServletUtilBase {
         unrootedFileName = info.unrootedFilename;
         contentType = info.contentType;
         contentLength = info.contentLength;
-        imageBlob = p.getResultFileContents(cc);
-        lastUpdateDate = p.getCompletionDate();
+        contentHash = results.getResultFileHash(cc);
+        lastUpdateDate = results.getCompletionDate();
       } catch (ODKOverQuotaException e) {
         e.printStackTrace();
         quotaExceededError(resp);
@@ -150,8 +155,6 @@ public class BinaryDataServlet extends ServletUtilBase {
       }
 
       if (sub != null) {
-        BlobSubmissionType b = null;
-
         try {
           SubmissionElement v = null;
           v = sub.resolveSubmissionKey(parts);
@@ -173,7 +176,7 @@ public class BinaryDataServlet extends ServletUtilBase {
 
         try {
           // ordinal should be 1 if there is just 1 attachment...
-          int ordinal = b.getAttachmentCount(cc);
+          ordinal = b.getAttachmentCount(cc);
           if ( ordinal != 1 ) {
             // we have multiple attachments
             // -- use submissionKey to determine which one we want
@@ -187,11 +190,11 @@ public class BinaryDataServlet extends ServletUtilBase {
             // OK. This is the attachment we want...
             ordinal = ord.intValue();
           }
-          imageBlob = b.getBlob(ordinal, cc);
           lastUpdateDate = b.getLastUpdateDate(ordinal, cc);
           unrootedFileName = b.getUnrootedFilename(ordinal, cc);
           contentType = b.getContentType(ordinal, cc);
           contentLength = b.getContentLength(ordinal, cc);
+          contentHash = b.getContentHash(ordinal, cc);
         } catch (ODKOverQuotaException e) {
           e.printStackTrace();
           quotaExceededError(resp);
@@ -205,36 +208,14 @@ public class BinaryDataServlet extends ServletUtilBase {
       }
     }
 
-    if (imageBlob != null && imageBlob.length > 0) {
+    // the content length is unknown (null) for some older attachments;
+    // only a known length of zero means there is nothing to return.
+    if ((results != null || b != null)
+        && (contentLength == null || contentLength.longValue() != 0L)) {
       if (contentType == null) {
         contentType = HtmlConsts.RESP_TYPE_IMAGE_JPEG;
       }
 
-      if (previewSize) {
-        // cache for 1 hour...
-        resp.setHeader("Expires:", 
-              WebUtils.rfc1123Date(new Date(System.currentTimeMillis() + 3600000L)));
-        resp.setHeader("Last-Modified:",
-              WebUtils.rfc1123Date(lastUpdateDate));
-        resp.setContentType(HtmlConsts.RESP_TYPE_IMAGE_JPEG);
-        if (contentType.equals(HtmlConsts.RESP_TYPE_IMAGE_JPEG)) {
-          // resize
-          ImageUtil imageUtil = (ImageUtil) cc.getBean(BeanDefs.IMAGE_UTIL);
-          imageBlob = imageUtil.resizeImage(imageBlob, 64, 48);
-        } else {
-          // display not-able-to-resize image...
-          imageBlob = playJPG;
-        }
-        resp.setContentLength(imageBlob.length);
-      } else {
-        resp.setHeader("Last-Modified:",
-            WebUtils.rfc1123Date(lastUpdateDate));
-        resp.setContentType(contentType);
-        if (contentLength != null) {
-          resp.setContentLength(contentLength.intValue());
-        }
-      }
-
       if (downloadAsAttachmentString != null && !"".equals(downloadAsAttachmentString)) {
         // set filename if we are downloading to disk...
         // need this for manifest fetch logic...
@@ -244,15 +225,131 @@ public class BinaryDataServlet extends ServletUtilBase {
         }
       }
 
-      OutputStream os = resp.getOutputStream();
-      os.write(imageBlob);
-      os.close();
+      try {
+        if (previewSize) {
+          // the preview is a small, resized image -- build it in memory
+          byte[] imageBlob;
+          if (contentType.equals(HtmlConsts.RESP_TYPE_IMAGE_JPEG)) {
+            imageBlob = (results != null) ? results.getResultFileContents(cc) : b.getBlob(
+                ordinal, cc);
+            // resize
+            ImageUtil imageUtil = (ImageUtil) cc.getBean(BeanDefs.IMAGE_UTIL);
+            imageBlob = imageUtil.resizeImage(imageBlob, 64, 48);
+          } else {
+            // display not-able-to-resize image...
+            imageBlob = playJPG;
+          }
+          // cache for 1 hour...
+          resp.setHeader("Expires:", 
+                WebUtils.rfc1123Date(new Date(System.currentTimeMillis() + 3600000L)));
+          resp.setHeader("Last-Modified:",
+                WebUtils.rfc1123Date(lastUpdateDate));
+          resp.setContentType(HtmlConsts.RESP_TYPE_IMAGE_JPEG);
+          resp.setContentLength(imageBlob.length);
+          OutputStream os = resp.getOutputStream();
+          os.write(imageBlob);
+          os.close();
+          return;
+        }
+
+        resp.setHeader("Last-Modified:",
+            WebUtils.rfc1123Date(lastUpdateDate));
+        String eTag = null;
+        if (contentHash != null) {
+          eTag = "\"" + contentHash + "\"";
+          resp.setHeader(HtmlConsts.ETAG, eTag);
+          // conditional GET on the stored content hash
+          if (isIfNoneMatchSatisfied(req.getHeader(HtmlConsts.IF_NONE_MATCH), eTag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+          }
+        }
+
+        // byte ranges can only be served when the length is known
+        long offset = 0L;
+        long length = -1L;
+        if (contentLength != null) {
+          length = contentLength;
+          resp.setHeader(HtmlConsts.ACCEPT_RANGES, HtmlConsts.BYTES);
+        }
+        if (contentLength != null
+            && HttpByteRange.isIfRangeSatisfied(req.getHeader(HtmlConsts.IF_RANGE), eTag)) {
+          HttpByteRange range = HttpByteRange.parse(req.getHeader(HtmlConsts.RANGE), contentLength);
+          if (range == HttpByteRange.UNSATISFIABLE) {
+            resp.setHeader(HtmlConsts.CONTENT_RANGE,
+                HttpByteRange.getUnsatisfiableContentRange(contentLength));
+            resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+          } else if (range != null) {
+            offset = range.first;
+            length = range.getLength();
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            resp.setHeader(HtmlConsts.CONTENT_RANGE, range.getContentRange());
+          }
+        }
+
+        resp.setContentType(contentType);
+        if (length >= 0L) {
+          resp.setContentLength((int) length);
+        }
+
+        // stream the content one stored part at a time...
+        OutputStream os = resp.getOutputStream();
+        if (results != null) {
+          results.writeResultFileContents(offset, length, os, cc);
+        } else {
+          b.writeBlob(ordinal, offset, length, os, cc);
+        }
+        os.close();
+      } catch (ODKOverQuotaException e) {
+        e.printStackTrace();
+        quotaExceededError(resp);
+      } catch (ODKDatastoreException e) {
+        e.printStackTrace();
+        if (resp.isCommitted()) {
+          // too late to report the error; truncate the response
+          throw new IOException("Unable to retrieve attachment", e);
+        }
+        resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+            "Unable to retrieve attachment");
+      }
     } else {
       resp.setContentType(HtmlConsts.RESP_TYPE_PLAIN);
       resp.getWriter().print(ErrorConsts.NO_IMAGE_EXISTS);
     }
   }
 
+  /**
+   * Determine whether an If-None-Match header matches the entity tag, i.e.,
+   * whether a 304 (Not Modified) response should be returned. The header may
+   * hold a comma-separated list of entity tags or "*". Weak entity tags
+   * (W/"...") are compared by their opaque value.
+   *
+   * @param ifNoneMatch
+   *          the value of the If-None-Match header (may be null)
+   * @param eTag
+   *          the current (quoted) entity tag of the resource
+   * @return true if the header matches the entity tag
+   */
+  private static boolean isIfNoneMatchSatisfied(String ifNoneMatch, String eTag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.equals("*")) {
+        return true;
+      }
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals(eTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private final String getKeyPath(List<SubmissionKeyPart> parts) {
     StringBuilder b = new StringBuilder();
     for (SubmissionKeyPart p : parts) {
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics;
+import org.opendatakit.common.web.constants.HtmlConsts;
+
+/**
+ * Reports the datastore access metrics (operation counts, rows read vs. rows
+ * returned, and latency histograms per table) in the Prometheus text
+ * exposition format. Lives under /ssl/ so it is restricted to site
+ * administrators.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public class DatastoreMetricsServlet extends ServletUtilBase {
+
+  /**
+   * Serial number for serialization
+   */
+  private static final long serialVersionUID = 4391263850145718307L;
+
+  /**
+   * URI from base
+   */
+  public static final String ADDR = "ssl/datastore-metrics";
+
+  private static final String PROMETHEUS_TEXT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  /**
+   * Handler for HTTP Get request that returns the datastore metrics
+   *
+   * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest,
+   *      javax.servlet.http.HttpServletResponse)
+   */
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    resp.setContentType(PROMETHEUS_TEXT_TYPE);
+    resp.setCharacterEncoding(HtmlConsts.UTF8_ENCODE);
+    resp.setHeader("Cache-Control", "no-cache");
+    PrintWriter out = resp.getWriter();
+    DatastoreAccessMetrics.writeAllMetrics(out);
+    out.flush();
+  }
+}
@@ -18,16 +18,11 @@ package org.opendatakit.aggregate.servlet;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.kxml2.io.KXmlSerializer;
-import org.kxml2.kdom.Document;
-import org.kxml2.kdom.Element;
-import org.kxml2.kdom.Node;
 import org.opendatakit.aggregate.ContextFactory;
 import org.opendatakit.aggregate.constants.ParserConsts;
 import org.opendatakit.aggregate.constants.ServletConsts;
@@ -35,10 +30,8 @@ import org.opendatakit.aggregate.datamodel.TopLevelDynamicBase;
 import org.opendatakit.aggregate.exception.ODKFormNotFoundException;
 import org.opendatakit.aggregate.form.FormFactory;
 import org.opendatakit.aggregate.form.IForm;
-import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.Query;
 import org.opendatakit.common.persistence.Query.FilterOperation;
-import org.opendatakit.common.persistence.QueryResult;
 import org.opendatakit.common.persistence.QueryResumePoint;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
@@ -49,8 +42,10 @@ import org.opendatakit.common.web.constants.HtmlConsts;
 
 /**
  * Servlet to generate the XML list of submission instanceIDs for a given form.
- * This is a full list of all submissions. It is assumed that ODK will have the
- * VM space to be able to emit this list.
+ * This is a full list of all submissions. Only the primary keys and the
+ * lastUpdateDate are fetched from the datastore, and the list is written to
+ * the response as the rows arrive, so the size of a chunk is not bounded by
+ * the VM space.
  * <p>
  * The server request takes three parameters:
  * </p>
@@ -61,9 +56,6 @@ import org.opendatakit.common.web.constants.HtmlConsts;
  * <li>A numEntries value specifying the total number of entries to retrieve.</li>
  * </ol>
  * <p>
- * 10MB string space / 55 char per uuid = 181,818 records. == numEntries
- * </p>
- * <p>
  * The returned submissions are ordered by:
  * </p>
  * <ol>
@@ -167,65 +159,74 @@ public class SubmissionDownloadListServlet extends ServletUtilBase {
       query.addSort(tbl.lastUpdateDate, Query.Direction.ASCENDING);
       query.addFilter(tbl.isComplete, FilterOperation.EQUAL, true);
 
-      QueryResult result = query.executeQuery(cursor, numEntries);
-      List<String> uriList = new ArrayList<String>();
-      for (CommonFieldsBase cb : result.getResultList()) {
-        uriList.add(cb.getUri());
-      }
-
-      Document d = new Document();
-      d.setStandalone(true);
-      d.setEncoding(HtmlConsts.UTF8_ENCODE);
-      Element eWrapper = d.createElement(XML_TAG_NAMESPACE, ID_FRAGMENT_TAG);
-      eWrapper.setPrefix(null, XML_TAG_NAMESPACE);
-      d.addChild(0, Node.ELEMENT, eWrapper);
-      Element eList = d.createElement(XML_TAG_NAMESPACE, ID_LIST_TAG);
-      eList.setPrefix(null, XML_TAG_NAMESPACE);
-      eWrapper.addChild(0, Node.ELEMENT, eList);
-      int idx = 0;
-      for (String uri : uriList) {
-        Element e = eList.createElement(XML_TAG_NAMESPACE, ID_TAG);
-        e.setPrefix(null, XML_TAG_NAMESPACE);
-        e.addChild(0, Node.TEXT, uri);
-        eList.addChild(idx++, Node.ELEMENT, e);
-        eList.addChild(idx++, Node.IGNORABLE_WHITESPACE, BasicConsts.NEW_LINE);
-        --numEntries;
-        if (numEntries <= 0)
-          break;
+      // nothing is written until the query has returned its first key, so
+      // that a failure to run the query can still be reported as an error.
+      IdListWriter writer = new IdListWriter(resp);
+      QueryResumePoint qrp = query.executeKeyQuery(cursor, numEntries, writer);
+      writer.finish(qrp);
+      resp.setStatus(HttpServletResponse.SC_OK);
+    } catch (ODKDatastoreException e) {
+      e.printStackTrace();
+      if (resp.isCommitted()) {
+        // part of the list has already been sent; abort the response rather
+        // than append an error page to a truncated document.
+        throw new IOException("Unable to complete the submission list", e);
       }
+      resp.reset();
+      addOpenRosaHeaders(resp);
+      errorRetreivingData(resp);
+    }
+  }
 
-      QueryResumePoint qrp = result.getResumeCursor();
-      if ( qrp == null ) {
-        websafeCursorString = null;
-      } else {
-        websafeCursorString = qrp.asWebsafeCursor();
-      }
-      
-      if (websafeCursorString != null) {
-        // emit the cursor value...
-        Element eCursorContinue = d.createElement(XML_TAG_NAMESPACE, CURSOR_TAG);
-        eCursorContinue.setPrefix(null, XML_TAG_NAMESPACE);
-        eCursorContinue.addChild(0, Node.TEXT, websafeCursorString);
-        eWrapper.addChild(1, Node.ELEMENT, eCursorContinue);
-      }
+  /**
+   * Writes the idChunk document, emitting its opening tags when the first key
+   * (or the end of the result) arrives.
+   */
+  private static final class IdListWriter implements Query.KeyCallback {
+    private final HttpServletResponse resp;
+    private KXmlSerializer serializer = null;
 
-      KXmlSerializer serializer = new KXmlSerializer();
+    IdListWriter(HttpServletResponse resp) {
+      this.resp = resp;
+    }
 
+    private void start() throws IOException {
+      if (serializer != null) {
+        return;
+      }
       resp.setCharacterEncoding(HtmlConsts.UTF8_ENCODE);
       resp.setContentType(HtmlConsts.RESP_TYPE_XML);
-      addOpenRosaHeaders(resp);
 
       PrintWriter output = resp.getWriter();
+      serializer = new KXmlSerializer();
       serializer.setOutput(output);
       // setting the response content type emits the xml header.
       // just write the body here...
-      d.writeChildren(serializer);
+      serializer.setPrefix("", XML_TAG_NAMESPACE);
+      serializer.startTag(XML_TAG_NAMESPACE, ID_FRAGMENT_TAG);
+      serializer.startTag(XML_TAG_NAMESPACE, ID_LIST_TAG);
+    }
+
+    @Override
+    public void processKey(String uri) throws IOException {
+      start();
+      serializer.startTag(XML_TAG_NAMESPACE, ID_TAG);
+      serializer.text(uri);
+      serializer.endTag(XML_TAG_NAMESPACE, ID_TAG);
+      serializer.ignorableWhitespace(BasicConsts.NEW_LINE);
+    }
+
+    void finish(QueryResumePoint qrp) throws IOException {
+      start();
+      serializer.endTag(XML_TAG_NAMESPACE, ID_LIST_TAG);
+      if (qrp != null) {
+        // emit the cursor value...
+        serializer.startTag(XML_TAG_NAMESPACE, CURSOR_TAG);
+        serializer.text(qrp.asWebsafeCursor());
+        serializer.endTag(XML_TAG_NAMESPACE, CURSOR_TAG);
+      }
+      serializer.endTag(XML_TAG_NAMESPACE, ID_FRAGMENT_TAG);
       serializer.flush();
-      resp.setStatus(HttpServletResponse.SC_OK);
-    } catch (ODKDatastoreException e) {
-      e.printStackTrace();
-      errorRetreivingData(resp);
     }
   }
-
 }
@@ -220,11 +220,17 @@ public class SubmissionServlet extends ServletUtilBase {
     try {
       SubmissionParser submissionParser = null;
       if (ServletFileUpload.isMultipartContent(req)) {
-        MultiPartFormData uploadedSubmissionItems = new MultiPartFormData(req);
-        String isIncompleteFlag = uploadedSubmissionItems
-            .getSimpleFormField(ServletConsts.TRANSFER_IS_INCOMPLETE);
-        isIncomplete = (isIncompleteFlag != null && isIncompleteFlag.compareToIgnoreCase("YES") == 0);
-        submissionParser = new SubmissionParser(uploadedSubmissionItems, isIncomplete, cc);
+        // large attachments are spilled to temporary files as they are received
+        MultiPartFormData uploadedSubmissionItems = new MultiPartFormData(req,
+            ParserConsts.MULTIPART_SPILL_THRESHOLD);
+        try {
+          String isIncompleteFlag = uploadedSubmissionItems
+              .getSimpleFormField(ServletConsts.TRANSFER_IS_INCOMPLETE);
+          isIncomplete = (isIncompleteFlag != null && isIncompleteFlag.compareToIgnoreCase("YES") == 0);
+          submissionParser = new SubmissionParser(uploadedSubmissionItems, isIncomplete, cc);
+        } finally {
+          uploadedSubmissionItems.release();
+        }
       } else {
         // TODO: check that it is the proper types we can deal with
         // XML received, we hope...
@@ -82,6 +82,26 @@ public class Submission extends SubmissionSet {
     super(null, submission, form.getTopLevelGroupElement(), form, cc);
   }
 
+  /**
+   * Construct a submission from an entity from the data store, retrieving its
+   * subordinate records from the prefetched records for the page of
+   * submissions that contains it.
+   * 
+   * @param submission
+   *          - top level entity of the submission to restore
+   * @param formDefinition
+   *          - the definition of the form
+   * @param prefetch
+   *          - the bulk-loaded subordinate records
+   * @param cc
+   *          - the CallingContext for this request
+   * @throws ODKDatastoreException
+   */
+  public Submission(TopLevelDynamicBase submission, IForm form, SubmissionPrefetch prefetch,
+      CallingContext cc) throws ODKDatastoreException {
+    super(null, submission, form.getTopLevelGroupElement(), form, prefetch, cc);
+  }
+
   public Submission(String uri, IForm form, CallingContext cc) throws ODKEntityNotFoundException,
       ODKDatastoreException {
     super(null, (TopLevelDynamicBase) cc.getDatastore().getEntity(
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 University of Washington.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.submission;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opendatakit.aggregate.datamodel.FormDataModel;
+import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.common.datamodel.DynamicBase;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.Query;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Bulk-loads the subordinate records (phantom tables, non-repeating groups
+ * stored in separate tables, repeat groups and select-one/select-multiple
+ * choices) for a page of top-level submission records.
+ *
+ * Each subordinate relation of the form is fetched once, using a value-set
+ * filter on _TOP_LEVEL_AURI, and indexed by _PARENT_AURI. The
+ * SubmissionSet, RepeatSubmissionType and ChoiceSubmissionType reconstruction
+ * logic then retrieves its rows from here rather than issuing one query per
+ * submission, per table, per repeat and per select-multiple.
+ *
+ * Binary attachments are not prefetched; they continue to be accessed lazily.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public final class SubmissionPrefetch {
+
+  /**
+   * Maximum number of top-level URIs in a single value-set filter.
+   */
+  private static final int MAX_VALUE_SET_SIZE = 100;
+
+  private static final Comparator<DynamicBase> ordinalComparator = new Comparator<DynamicBase>() {
+    @Override
+    public int compare(DynamicBase lhs, DynamicBase rhs) {
+      Long l = lhs.getOrdinalNumber();
+      Long r = rhs.getOrdinalNumber();
+      if (l == null) {
+        return (r == null) ? 0 : -1;
+      } else if (r == null) {
+        return 1;
+      }
+      return l.compareTo(r);
+    }
+  };
+
+  /**
+   * map of relation prototype to map of parent AURI to the rows under that
+   * parent, ordered by ordinal number.
+   */
+  private final Map<CommonFieldsBase, Map<String, List<DynamicBase>>> relationRows =
+      new HashMap<CommonFieldsBase, Map<String, List<DynamicBase>>>();
+
+  /**
+   * Fetch all subordinate records for the given top-level records.
+   *
+   * @param form
+   * @param topLevelRows
+   *          the page of top-level (submission) records.
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public SubmissionPrefetch(IForm form, List<? extends CommonFieldsBase> topLevelRows,
+      CallingContext cc) throws ODKDatastoreException {
+    List<DynamicBase> relations = new ArrayList<DynamicBase>();
+    collectRelations(form.getTopLevelGroupElement().getFormDataModel(), relations);
+
+    List<String> topLevelUris = new ArrayList<String>();
+    for (CommonFieldsBase row : topLevelRows) {
+      topLevelUris.add(row.getUri());
+    }
+
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    for (DynamicBase relation : relations) {
+      Map<String, List<DynamicBase>> byParent = new HashMap<String, List<DynamicBase>>();
+      for (int i = 0; i < topLevelUris.size(); i += MAX_VALUE_SET_SIZE) {
+        List<String> chunk = topLevelUris.subList(i,
+            Math.min(i + MAX_VALUE_SET_SIZE, topLevelUris.size()));
+        Query q = ds.createQuery(relation, "SubmissionPrefetch.fetch", user);
+        q.addValueSetFilter(relation.topLevelAuri, chunk);
+        List<? extends CommonFieldsBase> rows = q.executeQuery();
+        for (CommonFieldsBase cb : rows) {
+          DynamicBase d = (DynamicBase) cb;
+          List<DynamicBase> siblings = byParent.get(d.getParentAuri());
+          if (siblings == null) {
+            siblings = new ArrayList<DynamicBase>();
+            byParent.put(d.getParentAuri(), siblings);
+          }
+          siblings.add(d);
+        }
+      }
+      for (List<DynamicBase> siblings : byParent.values()) {
+        Collections.sort(siblings, ordinalComparator);
+      }
+      relationRows.put(relation, byParent);
+    }
+  }
+
+  /**
+   * Gather the backing relations that SubmissionSet reconstruction would
+   * otherwise query individually.
+   *
+   * @param groupDataModel
+   * @param relations
+   */
+  private static void collectRelations(FormDataModel groupDataModel, List<DynamicBase> relations) {
+    CommonFieldsBase groupRelation = groupDataModel.getBackingObjectPrototype();
+    for (FormDataModel m : groupDataModel.getChildren()) {
+      CommonFieldsBase mRelation = m.getBackingObjectPrototype();
+      switch (m.getElementType()) {
+      case PHANTOM:
+      case GROUP:
+      case GEOPOINT:
+        if (m.getPersistAsColumn() == null) {
+          if (!groupRelation.equals(mRelation) && !relations.contains(mRelation)) {
+            relations.add((DynamicBase) mRelation);
+          }
+          collectRelations(m, relations);
+        }
+        break;
+      case REPEAT:
+        if (!relations.contains(mRelation)) {
+          relations.add((DynamicBase) mRelation);
+        }
+        collectRelations(m, relations);
+        break;
+      case SELECT1:
+      case SELECTN:
+        if (!relations.contains(mRelation)) {
+          relations.add((DynamicBase) mRelation);
+        }
+        break;
+      default:
+        // stored in the group's table or (BINARY) accessed lazily
+        break;
+      }
+    }
+  }
+
+  /**
+   * @param relation
+   * @return true if the rows of this relation have been prefetched.
+   */
+  public boolean isPrefetched(CommonFieldsBase relation) {
+    return relationRows.containsKey(relation);
+  }
+
+  /**
+   * @param relation
+   *          a prefetched relation.
+   * @param uriParent
+   * @return the rows of the relation under the given parent, ordered by ordinal
+   *         number.
+   */
+  public List<DynamicBase> getRows(CommonFieldsBase relation, String uriParent) {
+    Map<String, List<DynamicBase>> byParent = relationRows.get(relation);
+    if (byParent == null) {
+      throw new IllegalArgumentException("relation was not prefetched: "
+          + relation.getTableName());
+    }
+    List<DynamicBase> rows = byParent.get(uriParent);
+    if (rows == null) {
+      return Collections.emptyList();
+    }
+    return rows;
+  }
+}
@@ -17,6 +17,9 @@
 
 package org.opendatakit.aggregate.submission.type;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
 
@@ -82,6 +85,11 @@ public class BlobSubmissionType extends SubmissionFieldBase<SubmissionKey> {
     return bcm.getBlob(ordinal, cc);
   }
 
+  public long writeBlob(int ordinal, long offset, long length, OutputStream os, CallingContext cc)
+      throws ODKDatastoreException, IOException {
+    return bcm.writeBlob(ordinal, offset, length, os, cc);
+  }
+
   /**
    * Constructor
    * 
@@ -134,6 +142,31 @@ public class BlobSubmissionType extends SubmissionFieldBase<SubmissionKey> {
     return bcm.setValueFromByteArray(byteArray, contentType, unrootedFilePath, overwriteOK, cc);
   }
 
+  /**
+   * Stores the content read from the stream, one part at a time.
+   *
+   * @param stream
+   * @param contentLength
+   * @param md5Hash
+   *          the hash of the content (as returned by
+   *          CommonFieldsBase.newMD5HashUri())
+   * @param contentType
+   * @param unrootedFilePath
+   * @param overwriteOK
+   * @param cc
+   * @return the outcome of the storage attempt. md5 hashes are used to
+   *         determine file equivalence.
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public BinaryContentManipulator.BlobSubmissionOutcome setValueFromStream(InputStream stream,
+      long contentLength, String md5Hash, String contentType, String unrootedFilePath,
+      boolean overwriteOK, CallingContext cc) throws ODKDatastoreException, IOException {
+
+    return bcm.setValueFromStream(stream, contentLength, md5Hash, contentType, unrootedFilePath,
+        overwriteOK, cc);
+  }
+
   /**
    * Cannot convert blob from a string
    * 
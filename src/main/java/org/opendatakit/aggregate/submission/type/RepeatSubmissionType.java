@@ -28,6 +28,7 @@ import org.opendatakit.aggregate.format.element.ElementFormatter;
 import org.opendatakit.aggregate.submission.SubmissionElement;
 import org.opendatakit.aggregate.submission.SubmissionKey;
 import org.opendatakit.aggregate.submission.SubmissionKeyPart;
+import org.opendatakit.aggregate.submission.SubmissionPrefetch;
 import org.opendatakit.aggregate.submission.SubmissionRepeat;
 import org.opendatakit.aggregate.submission.SubmissionSet;
 import org.opendatakit.aggregate.submission.SubmissionValue;
@@ -76,12 +77,23 @@ public class RepeatSubmissionType implements SubmissionRepeat {
    */
   private List<SubmissionSet> submissionSets = new ArrayList<SubmissionSet>();
 
+  /**
+   * Bulk-loaded subordinate records (may be null).
+   */
+  private final SubmissionPrefetch prefetch;
+
   public RepeatSubmissionType(SubmissionSet enclosingSet, FormElementModel repeatGroup,
       String uriAssociatedRow, IForm form) {
+    this(enclosingSet, repeatGroup, uriAssociatedRow, form, null);
+  }
+
+  public RepeatSubmissionType(SubmissionSet enclosingSet, FormElementModel repeatGroup,
+      String uriAssociatedRow, IForm form, SubmissionPrefetch prefetch) {
     this.enclosingSet = enclosingSet;
     this.form = form;
     this.repeatGroup = repeatGroup;
     this.uriAssociatedRow = uriAssociatedRow;
+    this.prefetch = prefetch;
   }
 
   @Override
@@ -136,16 +148,20 @@ public class RepeatSubmissionType implements SubmissionRepeat {
 
     DynamicBase rel = (DynamicBase) repeatGroup.getFormDataModel().getBackingObjectPrototype();
 
-    Query q = cc.getDatastore().createQuery(rel, "RepeatSubmissionType.getValueFromEntity", cc.getCurrentUser());
-    q.addFilter(rel.parentAuri, FilterOperation.EQUAL, uriAssociatedRow);
-    q.addSort(rel.parentAuri, Direction.ASCENDING); // for GAE work-around
-    q.addSort(rel.ordinalNumber, Direction.ASCENDING);
-
     // reconstruct all the repeating groups from a single submission.
     // This should be a small number. We don't have the logic to
     // handle fractional returns of rows.
     long expectedOrdinal = 1L;
-    List<? extends CommonFieldsBase> repeatGroupList = q.executeQuery();
+    List<? extends CommonFieldsBase> repeatGroupList;
+    if (prefetch != null && prefetch.isPrefetched(rel)) {
+      repeatGroupList = prefetch.getRows(rel, uriAssociatedRow);
+    } else {
+      Query q = cc.getDatastore().createQuery(rel, "RepeatSubmissionType.getValueFromEntity", cc.getCurrentUser());
+      q.addFilter(rel.parentAuri, FilterOperation.EQUAL, uriAssociatedRow);
+      q.addSort(rel.parentAuri, Direction.ASCENDING); // for GAE work-around
+      q.addSort(rel.ordinalNumber, Direction.ASCENDING);
+      repeatGroupList = q.executeQuery();
+    }
     for (CommonFieldsBase cb : repeatGroupList) {
       DynamicBase d = (DynamicBase) cb;
       Long ordinal = d.getOrdinalNumber();
@@ -156,7 +172,7 @@ public class RepeatSubmissionType implements SubmissionRepeat {
         throw new ODKEnumeratedElementException(errString);
       }
       ++expectedOrdinal;
-      SubmissionSet set = new SubmissionSet(enclosingSet, d, repeatGroup, form, cc);
+      SubmissionSet set = new SubmissionSet(enclosingSet, d, repeatGroup, form, prefetch, cc);
       submissionSets.add(set);
     }
   }
@@ -15,9 +15,6 @@
  */
 package org.opendatakit.aggregate.task;
 
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.util.Date;
 import java.util.List;
 
@@ -32,7 +29,6 @@ import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.form.PersistentResults;
 import org.opendatakit.aggregate.format.SubmissionFormatter;
 import org.opendatakit.aggregate.format.table.CsvFormatterWithFilters;
-import org.opendatakit.aggregate.query.submission.QueryBase;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup.CompletionFlag;
 import org.opendatakit.aggregate.submission.Submission;
@@ -71,9 +67,6 @@ public class CsvWorkerImpl {
                 " form " + form.getFormId());
 
     try {
-      ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      PrintWriter pw = new PrintWriter(new OutputStreamWriter(stream, HtmlConsts.UTF8_ENCODE));
-
       PersistentResults r = new PersistentResults(persistentResultsKey, cc);
       String filterGroupUri = r.getFilterGroupUri();
 
@@ -81,7 +74,7 @@ public class CsvWorkerImpl {
       SubmissionFilterGroup subFilterGroup = null;
 
       // create CSV
-      QueryBase query;
+      QueryByUIFilterGroup query;
       SubmissionFormatter formatter;
       FilterGroup filterGroup;
 
@@ -94,11 +87,23 @@ public class CsvWorkerImpl {
       }
       filterGroup.setQueryFetchLimit(ServletConsts.EXPORT_CURSOR_CHUNK_SIZE);
 
+      // formatted output is appended to the result file one segment at a time
+      ResultFileSegmentWriter writer = new ResultFileSegmentWriter(persistentResultsKey,
+          attemptCount, HtmlConsts.RESP_TYPE_CSV, form.getViewableFormNameSuitableAsFileName()
+              + ServletConsts.CSV_FILENAME_APPEND, cc);
+      // continue from wherever an earlier attempt left off
+      writer.applyResumeCursor(filterGroup);
+
       query = new QueryByUIFilterGroup(form, filterGroup, CompletionFlag.ONLY_COMPLETE_SUBMISSIONS, cc);
-      formatter = new CsvFormatterWithFilters(form, cc.getServerURL(), pw, filterGroup);
+      formatter = new CsvFormatterWithFilters(form, cc.getServerURL(), writer.getPrintWriter(), filterGroup);
 
       logger.info("after setup of CSV file generation for " + form.getFormId());
-      formatter.beforeProcessSubmissions(cc);
+      if (writer.isResuming()) {
+        logger.info("resuming CSV generation from the last saved segment for " + form.getFormId());
+        // the header has already been written
+      } else {
+        formatter.beforeProcessSubmissions(cc);
+      }
       List<Submission> submissions;
       int count = 0;
       for (;;) {
@@ -108,20 +113,18 @@ public class CsvWorkerImpl {
         if ( submissions.isEmpty()) break;
         logger.info("iteration " + Integer.toString(count) + " before emitting csv for " + form.getFormId());
         formatter.processSubmissionSegment(submissions, cc);
+        if (!writer.flushSegment(query.getResumeCursor(), cc)) {
+          logger.warn("stale CSV activity - abandon csv generation for " + form.getFormId());
+          return;
+        }
       }
       logger.info("wrapping up csv generation for " + form.getFormId());
       formatter.afterProcessSubmissions(cc);
 
-      // output file
-      pw.close();
-      byte[] outputFile = stream.toByteArray();
-
-      // refetch because this might have taken a while...
-      r = new PersistentResults(persistentResultsKey, cc);
-      if (attemptCount.equals(r.getAttemptCount())) {
-        logger.info("saving csv into PersistentResults table for " + form.getFormId());
-        r.setResultFile(outputFile, HtmlConsts.RESP_TYPE_CSV,
-            form.getViewableFormNameSuitableAsFileName() + ServletConsts.CSV_FILENAME_APPEND, false, cc);
+      // output the remainder of the file
+      r = writer.complete(cc);
+      if (r != null) {
+        logger.info("saved csv into PersistentResults table for " + form.getFormId());
         r.setStatus(ExportStatus.AVAILABLE);
         r.setCompletionDate(new Date());
         if(subFilterGroup != null) {
@@ -146,7 +149,7 @@ public class CsvWorkerImpl {
       PersistentResults r = new PersistentResults(persistentResultsKey, cc);
       if (attemptCount.equals(r.getAttemptCount())) {
         logger.info("Exception recovery during CSV generation - mark as failed for " + form.getFormId());
-        r.deleteResultFile(cc);
+        // retain the partially-written result file so a retry can resume it
         r.setStatus(ExportStatus.FAILED);
         r.persist(cc);
       } else {
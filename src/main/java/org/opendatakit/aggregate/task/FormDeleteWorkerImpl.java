@@ -16,6 +16,7 @@
 package org.opendatakit.aggregate.task;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -24,7 +25,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.opendatakit.aggregate.constants.TaskLockType;
 import org.opendatakit.aggregate.constants.common.FormActionStatus;
-import org.opendatakit.aggregate.datamodel.TopLevelDynamicBase;
 import org.opendatakit.aggregate.exception.ODKExternalServiceDependencyException;
 import org.opendatakit.aggregate.exception.ODKFormNotFoundException;
 import org.opendatakit.aggregate.externalservice.ExternalService;
@@ -39,8 +39,9 @@ import org.opendatakit.aggregate.submission.SubmissionKey;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.Datastore;
 import org.opendatakit.common.persistence.PersistConsts;
+import org.opendatakit.common.persistence.ProjectionResult;
+import org.opendatakit.common.persistence.ProjectionRow;
 import org.opendatakit.common.persistence.Query;
-import org.opendatakit.common.persistence.QueryResult;
 import org.opendatakit.common.persistence.QueryResumePoint;
 import org.opendatakit.common.persistence.TaskLock;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
@@ -346,7 +347,10 @@ public class FormDeleteWorkerImpl {
         surveyQuery.addSort(relation.lastUpdateDate, Query.Direction.DESCENDING);
         surveyQuery.addSort(relation.primaryKey, Query.Direction.DESCENDING);
 
-        QueryResult result = surveyQuery.executeQuery(startCursor, FORM_DELETE_RECORD_QUERY_LIMIT);
+        // only the keys are needed to delete the submissions
+        ProjectionResult result = surveyQuery.executeProjectionQuery(
+            Collections.singletonList(relation.primaryKey), startCursor,
+            FORM_DELETE_RECORD_QUERY_LIMIT);
         startCursor = result.getResumeCursor();
 
         if (result.getResultList().size() == 0)
@@ -354,9 +358,8 @@ public class FormDeleteWorkerImpl {
 
         List<SubmissionKey> keys = new ArrayList<SubmissionKey>();
         String topLevelGroupName = form.getTopLevelGroupElement().getElementName();
-        for (CommonFieldsBase en : result.getResultList()) {
-          TopLevelDynamicBase tl = (TopLevelDynamicBase) en;
-          keys.add(new SubmissionKey(form.getFormId(), topLevelGroupName, tl.getUri()));
+        for (ProjectionRow row : result.getResultList()) {
+          keys.add(new SubmissionKey(form.getFormId(), topLevelGroupName, row.getUri()));
         }
         DeleteSubmissions delete;
         delete = new DeleteSubmissions(keys);
@@ -15,9 +15,6 @@
  */
 package org.opendatakit.aggregate.task;
 
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.util.Date;
 import java.util.List;
 
@@ -33,7 +30,6 @@ import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.form.PersistentResults;
 import org.opendatakit.aggregate.format.SubmissionFormatter;
 import org.opendatakit.aggregate.format.structure.JsonFormatterWithFilters;
-import org.opendatakit.aggregate.query.submission.QueryBase;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup.CompletionFlag;
 import org.opendatakit.aggregate.submission.Submission;
@@ -72,9 +68,6 @@ public class JsonFileWorkerImpl {
                 " form " + form.getFormId());
 
     try {
-      ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      PrintWriter pw = new PrintWriter(new OutputStreamWriter(stream, HtmlConsts.UTF8_ENCODE));
-
       PersistentResults r = new PersistentResults(persistentResultsKey, cc);
       String filterGroupUri = r.getFilterGroupUri();
 
@@ -82,7 +75,7 @@ public class JsonFileWorkerImpl {
       SubmissionFilterGroup subFilterGroup = null;
 
       // create CSV
-      QueryBase query;
+      QueryByUIFilterGroup query;
       SubmissionFormatter formatter;
       FilterGroup filterGroup;
 
@@ -95,11 +88,23 @@ public class JsonFileWorkerImpl {
       }
       filterGroup.setQueryFetchLimit(ServletConsts.EXPORT_CURSOR_CHUNK_SIZE);
 
+      // formatted output is appended to the result file one segment at a time
+      ResultFileSegmentWriter writer = new ResultFileSegmentWriter(persistentResultsKey,
+          attemptCount, HtmlConsts.RESP_TYPE_JSON, form.getViewableFormNameSuitableAsFileName()
+              + ServletConsts.JSON_FILENAME_APPEND, cc);
+      // continue from wherever an earlier attempt left off
+      writer.applyResumeCursor(filterGroup);
+
       query = new QueryByUIFilterGroup(form, filterGroup, CompletionFlag.ONLY_COMPLETE_SUBMISSIONS, cc);
-      formatter = new JsonFormatterWithFilters(pw, form, filterGroup, BinaryOption.PROVIDE_LINKS, true, cc.getServerURL());
+      formatter = new JsonFormatterWithFilters(writer.getPrintWriter(), form, filterGroup, BinaryOption.PROVIDE_LINKS, true, cc.getServerURL());
 
       logger.info("after setup of JSON file generation for " + form.getFormId());
-      formatter.beforeProcessSubmissions(cc);
+      if (writer.isResuming()) {
+        logger.info("resuming JSON generation from the last saved segment for " + form.getFormId());
+        ((JsonFormatterWithFilters) formatter).resumeProcessSubmissions(cc);
+      } else {
+        formatter.beforeProcessSubmissions(cc);
+      }
       List<Submission> submissions;
       int count = 0;
       for (;;) {
@@ -109,20 +114,18 @@ public class JsonFileWorkerImpl {
         if ( submissions.isEmpty()) break;
         logger.info("iteration " + Integer.toString(count) + " before emitting JSON for " + form.getFormId());
         formatter.processSubmissionSegment(submissions, cc);
+        if (!writer.flushSegment(query.getResumeCursor(), cc)) {
+          logger.warn("stale JSON activity - abandon JSON generation for " + form.getFormId());
+          return;
+        }
       }
       logger.info("wrapping up JSON generation for " + form.getFormId());
       formatter.afterProcessSubmissions(cc);
 
-      // output file
-      pw.close();
-      byte[] outputFile = stream.toByteArray();
-
-      // refetch because this might have taken a while...
-      r = new PersistentResults(persistentResultsKey, cc);
-      if (attemptCount.equals(r.getAttemptCount())) {
-        logger.info("saving JSON into PersistentResults table for " + form.getFormId());
-        r.setResultFile(outputFile, HtmlConsts.RESP_TYPE_JSON,
-            form.getViewableFormNameSuitableAsFileName() + ServletConsts.JSON_FILENAME_APPEND, false, cc);
+      // output the remainder of the file
+      r = writer.complete(cc);
+      if (r != null) {
+        logger.info("saved JSON into PersistentResults table for " + form.getFormId());
         r.setStatus(ExportStatus.AVAILABLE);
         r.setCompletionDate(new Date());
         if(subFilterGroup != null) {
@@ -147,7 +150,7 @@ public class JsonFileWorkerImpl {
       PersistentResults r = new PersistentResults(persistentResultsKey, cc);
       if (attemptCount.equals(r.getAttemptCount())) {
         logger.info("Exception recovery during JSON generation - mark as failed for " + form.getFormId());
-        r.deleteResultFile(cc);
+        // retain the partially-written result file so a retry can resume it
         r.setStatus(ExportStatus.FAILED);
         r.persist(cc);
       } else {
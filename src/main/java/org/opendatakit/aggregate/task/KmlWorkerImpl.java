@@ -15,9 +15,6 @@
  */
 package org.opendatakit.aggregate.task;
 
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.util.Date;
 import java.util.List;
 
@@ -33,7 +30,6 @@ import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.form.PersistentResults;
 import org.opendatakit.aggregate.format.SubmissionFormatter;
 import org.opendatakit.aggregate.format.structure.KmlFormatterWithFilters;
-import org.opendatakit.aggregate.query.submission.QueryBase;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup.CompletionFlag;
 import org.opendatakit.aggregate.submission.Submission;
@@ -77,9 +73,6 @@ public class KmlWorkerImpl {
 
 
     try {
-      ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      PrintWriter pw = new PrintWriter(new OutputStreamWriter(stream, HtmlConsts.UTF8_ENCODE));
-
       PersistentResults r = new PersistentResults(persistentResultsKey, cc);
       String filterGroupUri = r.getFilterGroupUri();
 
@@ -87,7 +80,7 @@ public class KmlWorkerImpl {
       SubmissionFilterGroup subFilterGroup = null;
 
       // create KML
-      QueryBase query;
+      QueryByUIFilterGroup query;
       SubmissionFormatter formatter;
       FilterGroup filterGroup;
 
@@ -100,12 +93,24 @@ public class KmlWorkerImpl {
       }
       filterGroup.setQueryFetchLimit(ServletConsts.EXPORT_CURSOR_CHUNK_SIZE);
 
+      // formatted output is appended to the result file one segment at a time
+      ResultFileSegmentWriter writer = new ResultFileSegmentWriter(persistentResultsKey,
+          attemptCount, HtmlConsts.RESP_TYPE_KML, form.getViewableFormNameSuitableAsFileName()
+              + ServletConsts.KML_FILENAME_APPEND, cc);
+      // continue from wherever an earlier attempt left off
+      writer.applyResumeCursor(filterGroup);
+
       query = new QueryByUIFilterGroup(form, filterGroup, CompletionFlag.ONLY_COMPLETE_SUBMISSIONS, cc);
       formatter = new KmlFormatterWithFilters(form, cc.getServerURL(), geopointField,
-          titleField, imageField, pw, filterGroup, cc);
+          titleField, imageField, writer.getPrintWriter(), filterGroup, cc);
 
       logger.info("after setup of KML file generation for " + form.getFormId());
-      formatter.beforeProcessSubmissions(cc);
+      if (writer.isResuming()) {
+        logger.info("resuming KML generation from the last saved segment for " + form.getFormId());
+        // the header has already been written
+      } else {
+        formatter.beforeProcessSubmissions(cc);
+      }
       List<Submission> submissions;
       int count = 0;
       for (;;) {
@@ -115,20 +120,18 @@ public class KmlWorkerImpl {
         if ( submissions.isEmpty()) break;
         logger.info("iteration " + Integer.toString(count) + " before emitting kml for " + form.getFormId());
         formatter.processSubmissionSegment(submissions, cc);
+        if (!writer.flushSegment(query.getResumeCursor(), cc)) {
+          logger.warn("stale KML activity - abandon kml generation for " + form.getFormId());
+          return;
+        }
       }
       logger.info("wrapping up kml generation for " + form.getFormId());
       formatter.afterProcessSubmissions(cc);
 
-      // output file
-      pw.close();
-      byte[] outputFile = stream.toByteArray();
-
-      // refetch because this might have taken a while...
-      r = new PersistentResults(persistentResultsKey, cc);
-      if (attemptCount.equals(r.getAttemptCount())) {
-        logger.info("saving kml into PersistentResults table for " + form.getFormId());
-        r.setResultFile(outputFile, HtmlConsts.RESP_TYPE_KML,
-            form.getViewableFormNameSuitableAsFileName() + ServletConsts.KML_FILENAME_APPEND, false, cc);
+      // output the remainder of the file
+      r = writer.complete(cc);
+      if (r != null) {
+        logger.info("saved kml into PersistentResults table for " + form.getFormId());
         r.setStatus(ExportStatus.AVAILABLE);
         r.setCompletionDate(new Date());
         if(subFilterGroup != null) {
@@ -152,7 +155,7 @@ public class KmlWorkerImpl {
       PersistentResults r = new PersistentResults(persistentResultsKey, cc);
       if (attemptCount.equals(r.getAttemptCount())) {
         logger.info("Exception recovery during KML generation - mark as failed for " + form.getFormId());
-        r.deleteResultFile(cc);
+        // retain the partially-written result file so a retry can resume it
         r.setStatus(ExportStatus.FAILED);
         r.persist(cc);
       } else {
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opendatakit.aggregate.exception.ODKExternalServiceCredentialsException;
+import org.opendatakit.aggregate.exception.ODKExternalServiceException;
+
+/**
+ * Sends an ordered list of items to an external service with up to
+ * maxInFlight sends in progress at once.
+ * <p>
+ * Although the sends complete in any order, the items are acknowledged in
+ * list order, so the acknowledged items always form a prefix of the list and
+ * the last acknowledged item is a safe high-water mark from which to resume.
+ * Checkpoints of that high-water mark are coalesced to at most one per
+ * checkpointWindowMillis, plus one when publishing stops.
+ * <p>
+ * Each send is attempted up to maxAttempts times, with the delay between
+ * attempts doubling from initialBackoffMillis. Credential failures are not
+ * retried. If an item cannot be sent, the items after it are abandoned (they
+ * may or may not have been sent) and the failure is thrown once the
+ * preceding items have been checkpointed.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ * @param <T>
+ *          the type of the items being published.
+ */
+public class PipelinedPublisher<T> {
+
+  /**
+   * The destination of the items and the recipient of the progress reports.
+   * Only send() is called concurrently; the other methods are called on the
+   * thread that invoked publish().
+   */
+  public interface Target<T> {
+    /**
+     * Send one item. Called concurrently from the executor's threads.
+     *
+     * @param item
+     * @throws ODKExternalServiceException
+     */
+    void send(T item) throws ODKExternalServiceException;
+
+    /**
+     * The item and all items before it have been sent.
+     *
+     * @param item
+     * @param count
+     *          the number of items acknowledged so far.
+     * @throws Exception
+     */
+    void acknowledge(T item, int count) throws Exception;
+
+    /**
+     * Persist the progress recorded by the acknowledgements so far.
+     *
+     * @throws Exception
+     */
+    void checkpoint() throws Exception;
+  }
+
+  private static final Log logger = LogFactory.getLog(PipelinedPublisher.class);
+
+  private final ExecutorService executor;
+  private final int maxInFlight;
+  private final long checkpointWindowMillis;
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+
+  public PipelinedPublisher(ExecutorService executor, int maxInFlight,
+      long checkpointWindowMillis, int maxAttempts, long initialBackoffMillis) {
+    if (maxInFlight < 1 || maxAttempts < 1) {
+      throw new IllegalArgumentException("maxInFlight and maxAttempts must be at least 1");
+    }
+    this.executor = executor;
+    this.maxInFlight = maxInFlight;
+    this.checkpointWindowMillis = checkpointWindowMillis;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMillis = initialBackoffMillis;
+  }
+
+  /**
+   * Send the items to the target.
+   *
+   * @param items
+   * @param target
+   * @return the number of items acknowledged (always all of them).
+   * @throws Exception
+   *           the failure of the first item that could not be sent, or of the
+   *           target's acknowledge() or checkpoint().
+   */
+  public int publish(List<T> items, final Target<T> target) throws Exception {
+    Deque<Future<?>> inFlight = new ArrayDeque<Future<?>>();
+    int nextToSubmit = 0;
+    int acknowledged = 0;
+    boolean uncheckpointed = false;
+    long lastCheckpointMillis = System.currentTimeMillis();
+    boolean completed = false;
+
+    try {
+      while (acknowledged < items.size()) {
+        while (nextToSubmit < items.size() && inFlight.size() < maxInFlight) {
+          final T item = items.get(nextToSubmit++);
+          inFlight.addLast(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              sendWithRetry(target, item);
+              return null;
+            }
+          }));
+        }
+
+        Future<?> head = inFlight.removeFirst();
+        try {
+          head.get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof Exception) {
+            throw (Exception) cause;
+          }
+          throw new ODKExternalServiceException(cause);
+        }
+
+        T item = items.get(acknowledged++);
+        target.acknowledge(item, acknowledged);
+        uncheckpointed = true;
+
+        long now = System.currentTimeMillis();
+        if (now - lastCheckpointMillis >= checkpointWindowMillis) {
+          target.checkpoint();
+          uncheckpointed = false;
+          lastCheckpointMillis = now;
+        }
+      }
+      completed = true;
+    } finally {
+      for (Future<?> f : inFlight) {
+        f.cancel(true);
+      }
+      if (uncheckpointed) {
+        if (completed) {
+          target.checkpoint();
+        } else {
+          // don't let a checkpoint failure hide the failure that stopped us
+          try {
+            target.checkpoint();
+          } catch (Exception e) {
+            logger.error("Unable to checkpoint after a failed publish: " + e.getMessage(), e);
+          }
+        }
+      }
+    }
+    return acknowledged;
+  }
+
+  private void sendWithRetry(Target<T> target, T item) throws ODKExternalServiceException,
+      InterruptedException {
+    long backoffMillis = initialBackoffMillis;
+    for (int attempt = 1;; ++attempt) {
+      try {
+        target.send(item);
+        return;
+      } catch (ODKExternalServiceCredentialsException e) {
+        throw e; // retrying will not help
+      } catch (ODKExternalServiceException e) {
+        if (attempt >= maxAttempts) {
+          throw e;
+        }
+        logger.warn("Send attempt " + attempt + " failed; retrying in " + backoffMillis
+            + "ms: " + e.getMessage());
+      }
+      Thread.sleep(backoffMillis);
+      backoffMillis *= 2;
+    }
+  }
+}
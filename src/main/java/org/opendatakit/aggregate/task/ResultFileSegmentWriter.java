@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Date;
+
+import org.opendatakit.aggregate.client.filter.FilterGroup;
+import org.opendatakit.aggregate.form.PersistentResults;
+import org.opendatakit.aggregate.submission.SubmissionKey;
+import org.opendatakit.common.persistence.QueryResumePoint;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.constants.HtmlConsts;
+
+/**
+ * Writes the output of an export formatter into the result file of a
+ * PersistentResults entry one segment at a time, so that only the segment
+ * currently being formatted is held in memory.
+ * <p>
+ * After each segment is appended, the query cursor and the number of stored
+ * parts are recorded in the PersistentResults entry. If the export task is
+ * restarted (with a new attempt count), the new task discards anything stored
+ * after the recorded part count and continues the query from the recorded
+ * cursor.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+final class ResultFileSegmentWriter {
+
+  private final SubmissionKey persistentResultsKey;
+  private final Long attemptCount;
+  private final String contentType;
+  private final String unrootedFilePath;
+
+  private final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+  private final PrintWriter pw;
+
+  private final String initialResumeCursor;
+  private long partCount;
+
+  ResultFileSegmentWriter(SubmissionKey persistentResultsKey, Long attemptCount,
+      String contentType, String unrootedFilePath, CallingContext cc)
+      throws ODKDatastoreException, UnsupportedEncodingException {
+    this.persistentResultsKey = persistentResultsKey;
+    this.attemptCount = attemptCount;
+    this.contentType = contentType;
+    this.unrootedFilePath = unrootedFilePath;
+    this.pw = new PrintWriter(new OutputStreamWriter(stream, HtmlConsts.UTF8_ENCODE));
+
+    PersistentResults r = new PersistentResults(persistentResultsKey, cc);
+    initialResumeCursor = r.getResumeCursor();
+    partCount = (initialResumeCursor == null) ? 0L : r.getResultFilePartCount();
+    // discard anything written by an earlier attempt after its last recorded segment
+    r.truncateResultFile(unrootedFilePath, partCount, cc);
+  }
+
+  /**
+   * @return true if an earlier attempt has already written the beginning of
+   *         the result file.
+   */
+  boolean isResuming() {
+    return initialResumeCursor != null;
+  }
+
+  /**
+   * Position the filter group's cursor where the earlier attempt left off.
+   *
+   * @param filterGroup
+   */
+  void applyResumeCursor(FilterGroup filterGroup) {
+    if (initialResumeCursor != null) {
+      filterGroup.setCursor(QueryResumePoint.fromWebsafeCursor(initialResumeCursor).transform());
+    }
+  }
+
+  /**
+   * @return the writer the formatter should emit into.
+   */
+  PrintWriter getPrintWriter() {
+    return pw;
+  }
+
+  /**
+   * Append everything emitted since the last flush to the result file and
+   * record the cursor from which to continue.
+   *
+   * @param resumeCursor
+   * @param cc
+   * @return false if this is no longer the active attempt.
+   * @throws ODKDatastoreException
+   */
+  boolean flushSegment(QueryResumePoint resumeCursor, CallingContext cc)
+      throws ODKDatastoreException {
+    pw.flush();
+    // refetch because this might have taken a while...
+    PersistentResults r = new PersistentResults(persistentResultsKey, cc);
+    if (!attemptCount.equals(r.getAttemptCount())) {
+      return false;
+    }
+    partCount = r.appendResultFileSegment(stream.toByteArray(), contentType, unrootedFilePath,
+        partCount, cc);
+    stream.reset();
+    r.setResumePoint(resumeCursor.asWebsafeCursor(), partCount);
+    // we are making progress -- keep the watchdog from restarting us
+    r.setLastRetryDate(new Date());
+    r.persist(cc);
+    return true;
+  }
+
+  /**
+   * Append everything emitted since the last flush and mark the result file
+   * as complete. The caller is responsible for updating the status of, and
+   * persisting, the returned PersistentResults.
+   *
+   * @param cc
+   * @return the refetched PersistentResults, or null if this is no longer the
+   *         active attempt.
+   * @throws ODKDatastoreException
+   */
+  PersistentResults complete(CallingContext cc) throws ODKDatastoreException {
+    pw.close();
+    // refetch because this might have taken a while...
+    PersistentResults r = new PersistentResults(persistentResultsKey, cc);
+    if (!attemptCount.equals(r.getAttemptCount())) {
+      return null;
+    }
+    partCount = r.appendResultFileSegment(stream.toByteArray(), contentType, unrootedFilePath,
+        partCount, cc);
+    stream.reset();
+    r.completeResultFile(unrootedFilePath, cc);
+    r.setResumePoint(null, partCount);
+    return r;
+  }
+}
@@ -21,6 +21,8 @@ import java.io.Writer;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -77,10 +79,17 @@ public class UploadSubmissionsWorkerImpl {
   private static final int DELAY_BETWEEN_RELEASE_RETRIES = 1000;
   private static final int MAX_NUMBER_OF_RELEASE_RETRIES = 10;
 
+  // When submissions are sent concurrently, the FormServiceCursor is
+  // persisted at most this often (and when the batch ends or fails).
+  private static final long CURSOR_CHECKPOINT_WINDOW_MILLISECONDS = 5000L;
+  private static final int MAX_SEND_ATTEMPTS = 3;
+  private static final long INITIAL_SEND_RETRY_DELAY_MILLISECONDS = 1000L;
+
   private final Log logger = LogFactory.getLog(UploadSubmissionsWorkerImpl.class);
   private final String lockId;
   private final CallingContext cc;
   private final boolean useLargerBatchSize;
+  private final boolean allowConcurrentSends;
   private final FormServiceCursor pFsc;
   private final ExternalServicePublicationOption pEsOption;
   private ExternalService pExtService;
@@ -98,8 +107,22 @@ public class UploadSubmissionsWorkerImpl {
 
   public UploadSubmissionsWorkerImpl(FormServiceCursor fsc, boolean useLargerBatchSize,
       CallingContext cc) {
+    this(fsc, useLargerBatchSize, false, cc);
+  }
+
+  /**
+   * @param fsc
+   * @param useLargerBatchSize
+   * @param allowConcurrentSends
+   *          true if the worker may start threads to send submissions
+   *          concurrently to publishers that support it.
+   * @param cc
+   */
+  public UploadSubmissionsWorkerImpl(FormServiceCursor fsc, boolean useLargerBatchSize,
+      boolean allowConcurrentSends, CallingContext cc) {
     pFsc = fsc;
     this.useLargerBatchSize = useLargerBatchSize;
+    this.allowConcurrentSends = allowConcurrentSends;
     this.cc = cc;
     pEsOption = fsc.getExternalServicePublicationOption();
     lockId = UUID.randomUUID().toString();
@@ -312,6 +335,10 @@ public class UploadSubmissionsWorkerImpl {
       if (pExtService.canBatchSubmissions()) {
         pExtService.sendSubmissions(submissionsToSend, streaming, cc);
 
+      } else if (allowConcurrentSends && pExtService.getMaxConcurrentSubmissions() > 1
+          && submissionsToSend.size() > 1) {
+        sendSubmissionsConcurrently(submissionsToSend, streaming);
+
       } else { // publisher not capable of batching
         int counter = 0;
         for (Submission submission : submissionsToSend) {
@@ -376,6 +403,56 @@ public class UploadSubmissionsWorkerImpl {
 
   }
 
+  /**
+   * Send the submissions with several sends in progress at once. The cursor
+   * advances in submission order and is persisted at most once per
+   * CURSOR_CHECKPOINT_WINDOW_MILLISECONDS.
+   *
+   * @param submissionsToSend
+   * @param streaming
+   * @throws Exception
+   */
+  private void sendSubmissionsConcurrently(List<Submission> submissionsToSend,
+      final boolean streaming) throws Exception {
+    final Datastore ds = cc.getDatastore();
+    final User user = cc.getCurrentUser();
+
+    int maxInFlight = Math.min(pExtService.getMaxConcurrentSubmissions(),
+        submissionsToSend.size());
+    ExecutorService executor = Executors.newFixedThreadPool(maxInFlight);
+    try {
+      PipelinedPublisher<Submission> publisher = new PipelinedPublisher<Submission>(executor,
+          maxInFlight, CURSOR_CHECKPOINT_WINDOW_MILLISECONDS, MAX_SEND_ATTEMPTS,
+          INITIAL_SEND_RETRY_DELAY_MILLISECONDS);
+      publisher.publish(submissionsToSend, new PipelinedPublisher.Target<Submission>() {
+        private int counter = 0;
+
+        @Override
+        public void send(Submission submission) throws ODKExternalServiceException {
+          pExtService.sendSubmission(submission, cc);
+        }
+
+        @Override
+        public void acknowledge(Submission submission, int count) throws Exception {
+          synchronized (pFsc) {
+            ExternalServiceUtils.updateFscToSuccessfulSubmissionDate(pFsc, submission, streaming);
+          }
+          ++counter;
+          counter = renewTaskLock(counter);
+        }
+
+        @Override
+        public void checkpoint() throws Exception {
+          synchronized (pFsc) {
+            ds.putEntity(pFsc, user);
+          }
+        }
+      });
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   private int renewTaskLock(int counter) throws ODKTaskLockException, ODKExternalServiceException {
     Datastore ds = cc.getDatastore();
     User user = cc.getCurrentUser();
@@ -15,6 +15,7 @@
  */
 package org.opendatakit.aggregate.task;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -22,11 +23,9 @@ import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.opendatakit.aggregate.client.filter.FilterGroup;
 import org.opendatakit.aggregate.constants.BeanDefs;
 import org.opendatakit.aggregate.constants.common.ExternalServiceType;
 import org.opendatakit.aggregate.constants.common.OperationalStatus;
-import org.opendatakit.aggregate.constants.common.UIConsts;
 import org.opendatakit.aggregate.constants.externalservice.FusionTableConsts;
 import org.opendatakit.aggregate.constants.externalservice.JsonServerConsts;
 import org.opendatakit.aggregate.constants.externalservice.OhmageJsonServerConsts;
@@ -41,15 +40,16 @@ import org.opendatakit.aggregate.form.FormFactory;
 import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.form.MiscTasks;
 import org.opendatakit.aggregate.form.PersistentResults;
-import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup;
-import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup.CompletionFlag;
-import org.opendatakit.aggregate.submission.Submission;
 import org.opendatakit.aggregate.util.BackendActionsTable;
 import org.opendatakit.common.persistence.PersistConsts;
+import org.opendatakit.common.persistence.ProjectionResult;
+import org.opendatakit.common.persistence.ProjectionRow;
+import org.opendatakit.common.persistence.Query;
 import org.opendatakit.common.persistence.QueryResumePoint;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.utils.WebUtils;
 import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.constants.BasicConsts;
 
 /**
  * Common worker implementation for restarting stalled tasks.
@@ -101,20 +101,24 @@ public class WatchdogWorkerImpl {
         TopLevelDynamicBase.FIELD_NAME_MARKED_AS_COMPLETE_DATE, WebUtils.iso8601Date(limitDate),
         null, false);
 
-    FilterGroup filterGroup = new FilterGroup(UIConsts.FILTER_NONE, form.getFormId(), null);
-    filterGroup.setCursor(qrp.transform());
-    filterGroup.setQueryFetchLimit(1);
+    TopLevelDynamicBase tbl = (TopLevelDynamicBase) form.getTopLevelGroupElement()
+        .getFormDataModel().getBackingObjectPrototype();
 
     // query for the most recent submission that was marked-as-complete for this
-    // form
-    QueryByUIFilterGroup query = new QueryByUIFilterGroup(form, filterGroup,
-        CompletionFlag.ONLY_COMPLETE_SUBMISSIONS, cc);
+    // form. Only its key and completion date are needed.
+    Query query = cc.getDatastore().createQuery(tbl,
+        "WatchdogWorkerImpl.getLastSubmissionMetadata", cc.getCurrentUser());
+    query.addSort(tbl.markedAsCompleteDate, Query.Direction.DESCENDING);
+    query.addFilter(tbl.markedAsCompleteDate, Query.FilterOperation.GREATER_THAN,
+        BasicConsts.EPOCH);
+    query.addFilter(tbl.isComplete, Query.FilterOperation.EQUAL, true);
 
-    List<Submission> submissions = query.getResultSubmissions(cc);
-    if (submissions != null && submissions.size() >= 1) {
-      Submission lastSubmission = submissions.get(0);
-      metadata = new SubmissionMetadata(lastSubmission.getKey().getKey(),
-          lastSubmission.getMarkedAsCompleteDate());
+    ProjectionResult result = query.executeProjectionQuery(
+        Collections.singletonList(tbl.markedAsCompleteDate), qrp, 1);
+    if (result.getResultList().size() >= 1) {
+      ProjectionRow lastSubmission = result.getResultList().get(0);
+      metadata = new SubmissionMetadata(lastSubmission.getUri(),
+          lastSubmission.getDateField(tbl.markedAsCompleteDate));
       formSubmissionsMap.put(form.getUri(), metadata);
       return metadata;
     }
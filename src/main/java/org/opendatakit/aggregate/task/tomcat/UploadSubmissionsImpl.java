@@ -37,7 +37,8 @@ public class UploadSubmissionsImpl implements UploadSubmissions {
 		final UploadSubmissionsWorkerImpl impl;
 
 		public UploadSubmissionsRunner(FormServiceCursor fsc, boolean useLargerBatchSize, CallingContext cc) {
-			impl = new UploadSubmissionsWorkerImpl(fsc, useLargerBatchSize, cc);
+			// the worker may start its own threads to send submissions concurrently
+			impl = new UploadSubmissionsWorkerImpl(fsc, useLargerBatchSize, true, cc);
 		}
 
 		@Override
@@ -57,6 +57,7 @@ public class BackendActionsTable extends CommonFieldsBase {
   private static final String WATCHDOG_ENQUEUE_ROW_ID = "rid:watchdog_enqueue";
   private static final String WATCHDOG_START_ROW_ID = "rid:watchdog_start";
   private static final String WATCHDOG_DEATH_TOGGLE_ROW_ID = "rid:watchdog_death_toggle";
+  private static final String FORM_CACHE_REVISION_ROW_ID = "rid:form_cache_revision";
 
   private static final String TABLE_NAME = "_backend_actions";
 
@@ -254,6 +255,51 @@ public class BackendActionsTable extends CommonFieldsBase {
     }
   }
 
+  /**
+   * Retrieve the cluster-wide revision of the form definitions. This changes
+   * whenever any server instance creates, updates or deletes a form. Used by
+   * FormFactory to detect that its cache of forms is out of date.
+   *
+   * @param cc
+   * @return the revision (a timestamp)
+   * @throws ODKDatastoreException
+   */
+  public static final long getFormCacheRevision(CallingContext cc) throws ODKDatastoreException {
+    boolean wasDaemon = cc.getAsDeamon();
+    cc.setAsDaemon(true);
+    try {
+      BackendActionsTable t = getSingletonRecord(FORM_CACHE_REVISION_ROW_ID, cc.getDatastore(),
+          cc.getCurrentUser());
+      return t.getLastRevisionDate().getTime();
+    } finally {
+      cc.setAsDaemon(wasDaemon);
+    }
+  }
+
+  /**
+   * Advance the cluster-wide revision of the form definitions so that the form
+   * caches on all server instances are refreshed.
+   *
+   * @param cc
+   */
+  public static final void bumpFormCacheRevision(CallingContext cc) {
+    boolean wasDaemon = cc.getAsDeamon();
+    cc.setAsDaemon(true);
+    try {
+      Datastore ds = cc.getDatastore();
+      User user = cc.getCurrentUser();
+      BackendActionsTable t = getSingletonRecord(FORM_CACHE_REVISION_ROW_ID, ds, user);
+      // ensure the revision always changes, even if clocks are skewed.
+      long revision = Math.max(System.currentTimeMillis(), t.getLastRevisionDate().getTime() + 1L);
+      t.setLastRevisionDate(new Date(revision));
+      ds.putEntity(t, user);
+    } catch (ODKDatastoreException e) {
+      e.printStackTrace();
+    } finally {
+      cc.setAsDaemon(wasDaemon);
+    }
+  }
+
   /**
    * Updates the time the watchdog last ran. Called only from within the
    * WatchdogWorkerImpl class.
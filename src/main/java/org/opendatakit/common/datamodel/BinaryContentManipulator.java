@@ -14,6 +14,11 @@
 package org.opendatakit.common.datamodel;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -58,6 +63,13 @@ public class BinaryContentManipulator {
     FILE_UNCHANGED, NEW_FILE_VERSION, COMPLETELY_NEW_FILE
   }
 
+  /**
+   * Upper bound on the size of the parts created when storing a blob from a
+   * stream. Bounds the memory used regardless of the maximum size of the
+   * underlying blob column.
+   */
+  private static final long MAX_STREAMED_PART_SIZE = 1048576L;
+
   private final String parentKey;
   private final String topLevelKey;
 
@@ -95,11 +107,32 @@ public class BinaryContentManipulator {
      */
     public BlobManipulator(byte[] blob, String uriVersionedContent, BinaryContentRefBlob bcbRef,
         RefBlob ref, String topLevelKey, CallingContext cc) throws ODKDatastoreException {
+      this(blob, 1L, uriVersionedContent, bcbRef, ref, topLevelKey, cc);
+    }
+
+    /**
+     * Construct blob entities for the given data, numbering the parts
+     * consecutively from firstPart, and persist them into the data store. This
+     * is used to append data to a blob whose parts 1 through (firstPart-1) are
+     * already stored.
+     *
+     * @param blob
+     * @param firstPart
+     * @param uriVersionedContent
+     * @param bcbRef
+     * @param ref
+     * @param topLevelKey
+     * @param cc
+     * @throws ODKDatastoreException
+     */
+    public BlobManipulator(byte[] blob, long firstPart, String uriVersionedContent,
+        BinaryContentRefBlob bcbRef, RefBlob ref, String topLevelKey, CallingContext cc)
+        throws ODKDatastoreException {
 
       // loop to create the VBCRB and RB entries for each part of the
       // larger blob
       long blobLimit = ref.value.getMaxCharLen();
-      long part = 1L;
+      long part = firstPart;
       Datastore ds = cc.getDatastore();
       User user = cc.getCurrentUser();
       for (long index = 0; index < blob.length; index = index + blobLimit) {
@@ -107,32 +140,136 @@ public class BinaryContentManipulator {
         if (endCopy > blob.length)
           endCopy = blob.length;
         byte[] partialBlob = Arrays.copyOfRange(blob, (int) index, (int) endCopy);
-        RefBlob eBlob = ds.createEntityUsingRelation(ref, user);
-        eBlob.setTopLevelAuri(topLevelKey);
-        eBlob.setValue(partialBlob);
-        dbRefBlobList.add(eBlob);
-        BinaryContentRefBlob bcb = ds.createEntityUsingRelation(bcbRef, user);
-        bcb.setTopLevelAuri(topLevelKey);
-        bcb.setDomAuri(uriVersionedContent);
-        bcb.setSubAuri(eBlob.getUri());
-        bcb.setPart(part++);
-        dbBcbEntityList.add(bcb);
-        ds.putEntity(eBlob, user);
-        ds.putEntity(bcb, user);
+        persistPart(partialBlob, part++, uriVersionedContent, bcbRef, ref, topLevelKey, ds, user);
       }
     }
 
+    /**
+     * Construct blob entities for the data read from the given stream and
+     * persist them into the data store. The stream is read one part at a time,
+     * so at most one part of the blob is held in memory. If the content length
+     * is known, no part buffer is larger than the data remaining to be read.
+     *
+     * @param blobStream
+     * @param contentLength -- the expected length of the stream, or -1 if not known
+     * @param uriVersionedContent
+     * @param bcbRef
+     * @param ref
+     * @param topLevelKey
+     * @param cc
+     * @throws ODKDatastoreException
+     * @throws IOException
+     */
+    public BlobManipulator(InputStream blobStream, long contentLength, String uriVersionedContent,
+        BinaryContentRefBlob bcbRef, RefBlob ref, String topLevelKey, CallingContext cc)
+        throws ODKDatastoreException, IOException {
+
+      // loop to create the VBCRB and RB entries for each part of the
+      // larger blob
+      int partLimit = (int) Math.min(ref.value.getMaxCharLen(), MAX_STREAMED_PART_SIZE);
+      long part = 1L;
+      Datastore ds = cc.getDatastore();
+      User user = cc.getCurrentUser();
+      long remaining = contentLength;
+      for (;;) {
+        int bufferSize = partLimit;
+        if (remaining >= 0L && remaining < partLimit) {
+          bufferSize = (int) remaining;
+        }
+        byte[] buffer;
+        int len = 0;
+        if (bufferSize == 0) {
+          // everything expected has been read; confirm that the stream ended
+          int b = blobStream.read();
+          if (b == -1) {
+            break;
+          }
+          // the stream is longer than expected...
+          remaining = -1L;
+          buffer = new byte[partLimit];
+          buffer[len++] = (byte) b;
+        } else {
+          buffer = new byte[bufferSize];
+        }
+        // fill the buffer (or read to the end of the stream)
+        while (len < buffer.length) {
+          int count = blobStream.read(buffer, len, buffer.length - len);
+          if (count == -1) {
+            break;
+          }
+          len += count;
+        }
+        if (len == 0) {
+          break;
+        }
+        if (remaining >= 0L) {
+          remaining -= len;
+        }
+        // a full buffer becomes the part; only a short final part is copied
+        byte[] partialBlob = (len == buffer.length) ? buffer : Arrays.copyOf(buffer, len);
+        persistPart(partialBlob, part++, uriVersionedContent, bcbRef, ref, topLevelKey, ds, user);
+        if (len < buffer.length) {
+          break;
+        }
+      }
+    }
+
+    private void persistPart(byte[] partialBlob, long part, String uriVersionedContent,
+        BinaryContentRefBlob bcbRef, RefBlob ref, String topLevelKey, Datastore ds, User user)
+        throws ODKDatastoreException {
+      RefBlob eBlob = ds.createEntityUsingRelation(ref, user);
+      eBlob.setTopLevelAuri(topLevelKey);
+      eBlob.setValue(partialBlob);
+      dbRefBlobList.add(eBlob);
+      BinaryContentRefBlob bcb = ds.createEntityUsingRelation(bcbRef, user);
+      bcb.setTopLevelAuri(topLevelKey);
+      bcb.setDomAuri(uriVersionedContent);
+      bcb.setSubAuri(eBlob.getUri());
+      bcb.setPart(part);
+      dbBcbEntityList.add(bcb);
+      ds.putEntity(eBlob, user);
+      ds.putEntity(bcb, user);
+    }
+
     public BlobManipulator(String uriVersionedContent, BinaryContentRefBlob bcbRef, RefBlob ref,
         CallingContext cc) throws ODKDatastoreException {
 
       Datastore ds = cc.getDatastore();
       User user = cc.getCurrentUser();
       // gather the ordered list of parts...
+      dbBcbEntityList.addAll(getOrderedParts(uriVersionedContent, bcbRef, cc));
+
+      // and gather the blob parts themselves...
+      for (BinaryContentRefBlob b : dbBcbEntityList) {
+        RefBlob eBlob = ds.getEntity(ref, b.getSubAuri(), user);
+        if (eBlob == null) {
+          throw new IllegalStateException("Missing blob part!");
+        }
+        dbRefBlobList.add(eBlob);
+      }
+    }
+
+    /**
+     * Retrieve the ordered list of BinaryContentRefBlob entries for the given
+     * versioned content without fetching any of the RefBlob parts they
+     * reference.
+     *
+     * @param uriVersionedContent
+     * @param bcbRef
+     * @param cc
+     * @return the parts, ordered by part number
+     * @throws ODKDatastoreException
+     */
+    static List<BinaryContentRefBlob> getOrderedParts(String uriVersionedContent,
+        BinaryContentRefBlob bcbRef, CallingContext cc) throws ODKDatastoreException {
+      Datastore ds = cc.getDatastore();
+      User user = cc.getCurrentUser();
       Query q = ds.createQuery(bcbRef, "BinaryContentManipulator.BlobManipulator.constructor", user);
       q.addFilter(bcbRef.domAuri, FilterOperation.EQUAL, uriVersionedContent);
       q.addSort(bcbRef.domAuri, Direction.ASCENDING); // gae optimization
       q.addSort(bcbRef.part, Direction.ASCENDING);
       List<? extends CommonFieldsBase> bcbList = q.executeQuery();
+      List<BinaryContentRefBlob> parts = new ArrayList<BinaryContentRefBlob>();
       long expectedPart = 1L;
       for (CommonFieldsBase cb : bcbList) {
         BinaryContentRefBlob bcref = (BinaryContentRefBlob) cb;
@@ -144,17 +281,13 @@ public class BinaryContentManipulator {
           throw new ODKEnumeratedElementException(errString);
         }
         ++expectedPart;
-        dbBcbEntityList.add(bcref);
+        parts.add(bcref);
       }
+      return parts;
+    }
 
-      // and gather the blob parts themselves...
-      for (BinaryContentRefBlob b : dbBcbEntityList) {
-        RefBlob eBlob = ds.getEntity(ref, b.getSubAuri(), user);
-        if (eBlob == null) {
-          throw new IllegalStateException("Missing blob part!");
-        }
-        dbRefBlobList.add(eBlob);
-      }
+    public int getPartCount() {
+      return dbBcbEntityList.size();
     }
 
     public String getTopLevelAuri() {
@@ -358,6 +491,66 @@ public class BinaryContentManipulator {
     return blbManipulator.getBlob();
   }
 
+  /**
+   * Write the given byte range of the "ordinal'th" attachment to the output
+   * stream. The RefBlob parts are fetched one at a time, in order, and each
+   * is written out before the next is fetched, so at most one part of the
+   * attachment is held in memory. Parts wholly before the start of the range
+   * are skipped without being written; fetching stops once the range has
+   * been written.
+   *
+   * @param ordinal
+   * @param offset
+   *          the first byte to write
+   * @param length
+   *          the number of bytes to write, or -1 to write to the end of the
+   *          attachment
+   * @param os
+   * @param cc
+   * @return the number of bytes written
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public long writeBlob(int ordinal, long offset, long length, OutputStream os,
+      CallingContext cc) throws ODKDatastoreException, IOException {
+    updateAttachments(cc);
+    BinaryContent b = attachments.get(Long.valueOf(ordinal));
+    if (b == null) {
+      // we are somehow out of sync!
+      throw new IllegalStateException("missing attachment declaration");
+    }
+    if (offset < 0L) {
+      throw new IllegalArgumentException("offset cannot be negative");
+    }
+
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    List<BinaryContentRefBlob> parts = BlobManipulator.getOrderedParts(b.getUri(), vrefRelation,
+        cc);
+    long end = (length < 0L) ? Long.MAX_VALUE : offset + length;
+    long position = 0L;
+    long written = 0L;
+    for (BinaryContentRefBlob bcb : parts) {
+      if (position >= end) {
+        break;
+      }
+      RefBlob eBlob = ds.getEntity(blbRelation, bcb.getSubAuri(), user);
+      if (eBlob == null) {
+        throw new IllegalStateException("Missing blob part!");
+      }
+      byte[] part = eBlob.getValue();
+      long partEnd = position + part.length;
+      if (partEnd > offset) {
+        int start = (int) (Math.max(offset, position) - position);
+        int stop = (int) (Math.min(end, partEnd) - position);
+        os.write(part, start, stop - start);
+        written += stop - start;
+      }
+      position = partEnd;
+    }
+    return written;
+  }
+
   /**
    * Atomically rename the given source file path to the destination path.
    * Will fail if the destination path already exists.
@@ -429,8 +622,57 @@ public class BinaryContentManipulator {
       String contentType, String unrootedFilePath, boolean overwriteOK, CallingContext cc)
       throws ODKDatastoreException {
 
-	@SuppressWarnings("unused")
-  Long contentLength = (byteArray == null) ? null : Long.valueOf(byteArray.length);
+    try {
+      if (byteArray == null) {
+        return setValue(null, null, 0L, null, contentType, unrootedFilePath, overwriteOK, cc);
+      }
+      return setValue(byteArray, null, byteArray.length, CommonFieldsBase.newMD5HashUri(byteArray),
+          contentType, unrootedFilePath, overwriteOK, cc);
+    } catch (IOException e) {
+      throw new IllegalStateException("unexpected", e);
+    }
+  }
+
+  /**
+   * Save the attachment to the database, reading its content from a stream.
+   * The content length and MD5 hash must have been computed by the caller
+   * (e.g., while receiving the data), so that an unchanged file can be
+   * detected without reading the stream. The stream is only read if the
+   * content must be stored, and is then stored one part at a time.
+   *
+   * This can be called in two ways. Everything non-null or unrootedFilePath
+   * non-null and everything else null.
+   *
+   * @param stream
+   * @param contentLength
+   * @param md5Hash -- the hash of the content, as returned by CommonFieldsBase.newMD5HashUri()
+   * @param contentType
+   * @param unrootedFilePath
+   * @param overwriteOK -- if the file exists and is different, must be true to overwrite existing value.
+   * @param cc
+   * @return COMPLETELY_NEW_FILE on successful save; FILE_UNCHANGED on hash
+   *         equivalence; NEW_FILE_VERSION on updating existing file (save not allowed unless overwriteOK).
+   * @throws ODKDatastoreException
+   * @throws IOException if the stream cannot be read
+   */
+  public BinaryContentManipulator.BlobSubmissionOutcome setValueFromStream(InputStream stream,
+      long contentLength, String md5Hash, String contentType, String unrootedFilePath,
+      boolean overwriteOK, CallingContext cc) throws ODKDatastoreException, IOException {
+    return setValue(null, stream, contentLength, md5Hash, contentType, unrootedFilePath,
+        overwriteOK, cc);
+  }
+
+  /**
+   * Save the attachment, whose content is given either as a byte array or as a
+   * stream (or neither, for a file entry without file data).
+   */
+  private BinaryContentManipulator.BlobSubmissionOutcome setValue(byte[] byteArray,
+      InputStream stream, long contentLength, String md5Hash, String contentType,
+      String unrootedFilePath, boolean overwriteOK, CallingContext cc)
+      throws ODKDatastoreException, IOException {
+
+    boolean hasContent = (byteArray != null || stream != null);
+
     // search for a matching entry for unrootedFilePath
     BinaryContent matchedBc = null;
     String currentContentHash = null;
@@ -449,7 +691,7 @@ public class BinaryContentManipulator {
     Datastore ds = cc.getDatastore();
     User user = cc.getCurrentUser();
 
-    if (byteArray == null && contentType == null) {
+    if (!hasContent && contentType == null) {
       // adding a file entry without any actual file...
 
       if (matchedBc == null) {
@@ -469,11 +711,9 @@ public class BinaryContentManipulator {
         // record already exists (and it might have file data, too)...
         return BinaryContentManipulator.BlobSubmissionOutcome.FILE_UNCHANGED;
       }
-    } else if (byteArray != null && contentType != null) {
+    } else if (hasContent && contentType != null) {
       // adding a file entry with an actual file...
 
-      String md5Hash = CommonFieldsBase.newMD5HashUri(byteArray);
-
       if (matchedBc == null || currentContentHash == null) {
         // either
         // - create a new entry with file data
@@ -500,7 +740,7 @@ public class BinaryContentManipulator {
 
         // Step (1)
         matchedBc.setContentType(contentType);
-        matchedBc.setContentLength(Long.valueOf(byteArray.length));
+        matchedBc.setContentLength(Long.valueOf(contentLength));
         ds.putEntity(matchedBc, user);
 
         if (newBc) {
@@ -517,9 +757,7 @@ public class BinaryContentManipulator {
 
         // Step (3)
         // persist the binary data
-        @SuppressWarnings("unused")
-        BlobManipulator subBlob = new BlobManipulator(byteArray, matchedBc.getUri(), vrefRelation,
-            blbRelation, topLevelKey, cc);
+        persistBlob(byteArray, stream, contentLength, matchedBc.getUri(), cc);
 
         // Step (4)
         matchedBc.setContentHash(md5Hash);
@@ -542,7 +780,7 @@ public class BinaryContentManipulator {
         // Step (1)
         matchedBc.setContentHash(null);
         matchedBc.setContentType(contentType);
-        matchedBc.setContentLength(Long.valueOf(byteArray.length));
+        matchedBc.setContentLength(Long.valueOf(contentLength));
         ds.putEntity(matchedBc, user);
 
         // Step (2)
@@ -553,9 +791,7 @@ public class BinaryContentManipulator {
 
         // Step (3)
         // persist the binary data
-        @SuppressWarnings("unused")
-        BlobManipulator subBlob = new BlobManipulator(byteArray, matchedBc.getUri(), vrefRelation,
-            blbRelation, topLevelKey, cc);
+        persistBlob(byteArray, stream, contentLength, matchedBc.getUri(), cc);
 
         // Step (4)
         matchedBc.setContentHash(md5Hash);
@@ -568,6 +804,186 @@ public class BinaryContentManipulator {
     }
   }
 
+  /**
+   * Persist the blob parts of the attachment content, splitting a byte array
+   * directly or reading a stream one part at a time.
+   */
+  private void persistBlob(byte[] byteArray, InputStream stream, long contentLength,
+      String uriVersionedContent, CallingContext cc) throws ODKDatastoreException, IOException {
+    if (byteArray != null) {
+      new BlobManipulator(byteArray, uriVersionedContent, vrefRelation, blbRelation, topLevelKey,
+          cc);
+    } else {
+      new BlobManipulator(stream, contentLength, uriVersionedContent, vrefRelation, blbRelation,
+          topLevelKey, cc);
+    }
+  }
+
+  private BinaryContent findAttachment(String unrootedFilePath) {
+    for (BinaryContent bc : attachments.values()) {
+      String bcFilePath = bc.getUnrootedFilePath();
+      if ((bcFilePath == null) ? (unrootedFilePath == null)
+          : (unrootedFilePath != null && bcFilePath.equals(unrootedFilePath))) {
+        return bc;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Append a segment of data to the attachment at unrootedFilePath, creating
+   * the attachment if it does not yet exist. This allows a large attachment to
+   * be written incrementally without ever holding all of it in memory.
+   * <p>
+   * The attachment remains in the intermediate update state (null content
+   * hash) until {@link #completeAppendedValue(String, CallingContext)} is
+   * called, so it is not reported as having content until then.
+   *
+   * @param segment
+   * @param contentType
+   * @param unrootedFilePath
+   * @param partCount -- the number of parts already stored for this attachment
+   *          (0 or the value returned by the previous call to this method).
+   * @param cc
+   * @return the number of parts stored for this attachment after the append.
+   * @throws ODKDatastoreException
+   */
+  public long appendToValue(byte[] segment, String contentType, String unrootedFilePath,
+      long partCount, CallingContext cc) throws ODKDatastoreException {
+
+    updateAttachments(cc);
+    BinaryContent matchedBc = findAttachment(unrootedFilePath);
+
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+
+    if (matchedBc == null) {
+      if (partCount != 0L) {
+        throw new IllegalStateException("attachment being appended to does not exist");
+      }
+      // create the record...
+      matchedBc = (BinaryContent) ds.createEntityUsingRelation(ctntRelation, user);
+      matchedBc.setTopLevelAuri(topLevelKey);
+      matchedBc.setParentAuri(parentKey);
+      matchedBc.setOrdinalNumber(internalGetAttachmentCount() + 1L);
+      matchedBc.setUnrootedFilePath(unrootedFilePath);
+      matchedBc.setContentType(contentType);
+      ds.putEntity(matchedBc, user);
+      // persist was successful -- remember this new record...
+      attachments.put(matchedBc.getOrdinalNumber(), matchedBc);
+    } else if (matchedBc.getContentHash() != null) {
+      throw new IllegalStateException("attachment being appended to is already complete");
+    }
+
+    BlobManipulator b = new BlobManipulator(segment, partCount + 1L, matchedBc.getUri(),
+        vrefRelation, blbRelation, topLevelKey, cc);
+    return partCount + b.getPartCount();
+  }
+
+  /**
+   * Discard all parts beyond partCount of an attachment being written by
+   * {@link #appendToValue(byte[], String, String, long, CallingContext)}. This
+   * is used to resume an interrupted sequence of appends from the last part
+   * count that was recorded by the caller. If the attachment had been
+   * completed, it is returned to the intermediate update state.
+   *
+   * @param unrootedFilePath
+   * @param partCount
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public void truncateAppendedValue(String unrootedFilePath, long partCount, CallingContext cc)
+      throws ODKDatastoreException {
+
+    updateAttachments(cc);
+    BinaryContent matchedBc = findAttachment(unrootedFilePath);
+    if (matchedBc == null) {
+      return;
+    }
+
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+
+    if (matchedBc.getContentHash() != null) {
+      matchedBc.setContentHash(null);
+      ds.putEntity(matchedBc, user);
+    }
+
+    Query q = ds.createQuery(vrefRelation, "BinaryContentManipulator.truncateAppendedValue", user);
+    q.addFilter(vrefRelation.domAuri, FilterOperation.EQUAL, matchedBc.getUri());
+    List<? extends CommonFieldsBase> bcbList = q.executeQuery();
+    List<EntityKey> keyList = new ArrayList<EntityKey>();
+    for (CommonFieldsBase cb : bcbList) {
+      BinaryContentRefBlob bcref = (BinaryContentRefBlob) cb;
+      Long part = bcref.getPart();
+      if (part == null || part.longValue() > partCount) {
+        // DeleteHelper deletes in reverse order; remove the reference first.
+        keyList.add(new EntityKey(blbRelation, bcref.getSubAuri()));
+        keyList.add(bcref.getEntityKey());
+      }
+    }
+    if (!keyList.isEmpty()) {
+      DeleteHelper.deleteEntities(keyList, cc);
+    }
+  }
+
+  /**
+   * Mark an attachment written by
+   * {@link #appendToValue(byte[], String, String, long, CallingContext)} as
+   * complete. The content length and hash are computed from the stored parts,
+   * one part at a time.
+   *
+   * @param unrootedFilePath
+   * @param cc
+   * @throws ODKDatastoreException
+   */
+  public void completeAppendedValue(String unrootedFilePath, CallingContext cc)
+      throws ODKDatastoreException {
+
+    updateAttachments(cc);
+    BinaryContent matchedBc = findAttachment(unrootedFilePath);
+    if (matchedBc == null) {
+      throw new IllegalStateException("attachment being completed does not exist");
+    }
+
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+
+    Query q = ds.createQuery(vrefRelation, "BinaryContentManipulator.completeAppendedValue", user);
+    q.addFilter(vrefRelation.domAuri, FilterOperation.EQUAL, matchedBc.getUri());
+    q.addSort(vrefRelation.domAuri, Direction.ASCENDING); // gae optimization
+    q.addSort(vrefRelation.part, Direction.ASCENDING);
+    List<? extends CommonFieldsBase> bcbList = q.executeQuery();
+
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Unexpected problem computing md5 hash", e);
+    }
+    long contentLength = 0L;
+    long expectedPart = 1L;
+    for (CommonFieldsBase cb : bcbList) {
+      BinaryContentRefBlob bcref = (BinaryContentRefBlob) cb;
+      Long part = bcref.getPart();
+      if ( part == null || part.longValue() != expectedPart ) {
+        String errString = "SELECT * FROM " + bcref.getTableName()
+            + " WHERE _TOP_LEVEL_AURI = " + bcref.getTopLevelAuri()
+            + " AND _DOM_AURI = " + bcref.getDomAuri() + " is missing a reference part OR has extra copies.";
+        throw new ODKEnumeratedElementException(errString);
+      }
+      ++expectedPart;
+      RefBlob eBlob = ds.getEntity(blbRelation, bcref.getSubAuri(), user);
+      byte[] value = eBlob.getValue();
+      md.update(value);
+      contentLength += value.length;
+    }
+
+    matchedBc.setContentLength(contentLength);
+    matchedBc.setContentHash(CommonFieldsBase.asMD5HashUri(md.digest()));
+    ds.putEntity(matchedBc, user);
+  }
+
   public synchronized void updateAttachments(CallingContext cc) throws ODKDatastoreException {
     if ( refreshBeforeUse ) {
       // clear our mutable state.
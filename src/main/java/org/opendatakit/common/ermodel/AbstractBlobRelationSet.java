@@ -13,8 +13,15 @@
  */
 package org.opendatakit.common.ermodel;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.opendatakit.common.datamodel.BinaryContent;
 import org.opendatakit.common.datamodel.BinaryContentManipulator;
@@ -345,6 +352,12 @@ public class AbstractBlobRelationSet implements BlobRelationSet {
       return m.getBlob(ordinal, cc);
     }
 
+    @Override
+    public long writeBlob(int ordinal, long offset, long length, OutputStream os,
+        CallingContext cc) throws ODKDatastoreException, IOException {
+      return m.writeBlob(ordinal, offset, length, os, cc);
+    }
+
     @Override
     public String getContentHash(int ordinal, CallingContext cc) throws ODKDatastoreException {
       return m.getContentHash(ordinal, cc);
@@ -401,6 +414,54 @@ public class AbstractBlobRelationSet implements BlobRelationSet {
     return bc;
   }
 
+  /**
+   * Maximum number of uris in a single value-set filter.
+   */
+  private static final int MAX_VALUE_SET_SIZE = 100;
+
+  private static final Comparator<BinaryContent> ordinalComparator = new Comparator<BinaryContent>() {
+    @Override
+    public int compare(BinaryContent lhs, BinaryContent rhs) {
+      return lhs.getOrdinalNumber().compareTo(rhs.getOrdinalNumber());
+    }
+  };
+
+  /**
+   * Fetch the attachment metadata (content type, length and hash) of many blob
+   * entity sets at once, rather than one query per BlobEntitySet.
+   *
+   * @param uris
+   *          the uris of the blob entity sets (as passed to getBlobEntitySet).
+   * @param cc
+   * @return map from the uri of each blob entity set that has attachments to
+   *         its attachments, in ordinal order.
+   * @throws ODKDatastoreException
+   */
+  public Map<String, List<BinaryContent>> getBinaryContents(List<String> uris, CallingContext cc)
+      throws ODKDatastoreException {
+    Map<String, List<BinaryContent>> byParent = new HashMap<String, List<BinaryContent>>();
+    for (int i = 0; i < uris.size(); i += MAX_VALUE_SET_SIZE) {
+      List<String> chunk = uris.subList(i, Math.min(i + MAX_VALUE_SET_SIZE, uris.size()));
+      Query q = cc.getDatastore().createQuery(ctntRelation, "getBinaryContents",
+          cc.getCurrentUser());
+      q.addValueSetFilter(ctntRelation.parentAuri, chunk);
+      List<? extends CommonFieldsBase> rows = q.executeQuery();
+      for (CommonFieldsBase cb : rows) {
+        BinaryContent bc = (BinaryContent) cb;
+        List<BinaryContent> attachments = byParent.get(bc.getParentAuri());
+        if (attachments == null) {
+          attachments = new ArrayList<BinaryContent>();
+          byParent.put(bc.getParentAuri(), attachments);
+        }
+        attachments.add(bc);
+      }
+    }
+    for (List<BinaryContent> attachments : byParent.values()) {
+      Collections.sort(attachments, ordinalComparator);
+    }
+    return byParent;
+  }
+
   @SuppressWarnings("unused")
   private final TableNamespace namespace;
   private final String backingBaseTableName;
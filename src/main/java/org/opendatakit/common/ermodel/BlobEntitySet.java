@@ -13,6 +13,8 @@
  */
 package org.opendatakit.common.ermodel;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Date;
 
 import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobSubmissionOutcome;
@@ -143,6 +145,26 @@ public interface BlobEntitySet {
    */
   public byte[] getBlob(int ordinal, CallingContext cc) throws ODKDatastoreException;
 
+  /**
+   * Write a byte range of the "ordinal'th" blob to the output stream. The
+   * blob is read and written one stored part at a time, so the whole blob is
+   * never held in memory.
+   * 
+   * @param ordinal
+   *          [1..]
+   * @param offset
+   *          the first byte to write
+   * @param length
+   *          the number of bytes to write, or -1 for the rest of the blob
+   * @param os
+   * @param cc
+   * @return the number of bytes written
+   * @throws ODKDatastoreException
+   * @throws IOException
+   */
+  public long writeBlob(int ordinal, long offset, long length, OutputStream os, CallingContext cc)
+      throws ODKDatastoreException, IOException;
+
   /**
    * Save this BlobSet. Only useful for empty blob sets, as inserting a blob
    * always causes an immediate persist of the blob set.
@@ -22,6 +22,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
@@ -52,6 +54,12 @@ public class Relation {
 
   private static final int MAX_DELETE_COUNT = 100;
 
+  /**
+   * Monitors used to serialize the assertion of each backing table, keyed by
+   * schema and table name.
+   */
+  private static final ConcurrentMap<String, Object> tableMonitors = new ConcurrentHashMap<String, Object>();
+
   /** the table namespace of this relation */
   @SuppressWarnings("unused")
   private final TableNamespace namespace;
@@ -774,13 +782,26 @@ public class Relation {
     Datastore ds = cc.getDatastore();
     User user = cc.getCurrentUser();
     String schema = ds.getDefaultSchemaName();
-    synchronized (Relation.class) {
+    synchronized (getTableMonitor(schema, backingTableName)) {
       RelationImpl candidate = new RelationImpl(schema, backingTableName, definedFields);
       ds.assertRelation(candidate, user);
       prototype = candidate;
     }
   }
 
+  private static Object getTableMonitor(String schema, String tableName) {
+    String key = schema + "." + tableName;
+    Object monitor = tableMonitors.get(key);
+    if (monitor == null) {
+      monitor = new Object();
+      Object existing = tableMonitors.putIfAbsent(key, monitor);
+      if (existing != null) {
+        monitor = existing;
+      }
+    }
+    return monitor;
+  }
+
   /**
    * This is just a convenience method.
    *
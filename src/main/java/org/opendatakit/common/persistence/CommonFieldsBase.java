@@ -19,9 +19,10 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -66,13 +67,55 @@ public abstract class CommonFieldsBase {
   private static final DataField URI = new DataField(URI_COLUMN_NAME, DataField.DataType.URI,
       false, PersistConsts.URI_STRING_LEN).setIndexable(IndexType.HASH);
 
+  /**
+   * Marks a slot whose value is held in the primitives array (INTEGER, BOOLEAN
+   * and DATETIME fields).
+   */
+  private static final Object PRIMITIVE_VALUE = new Object();
+
+  /**
+   * Assigns each field of a relation a dense slot index. One layout is shared
+   * by the relation prototype and all the rows constructed from it, so the
+   * slot indices are per relation rather than stored in the (possibly shared)
+   * DataField.
+   */
+  private static final class FieldLayout {
+    private final Map<DataField, Integer> slots;
+    private final int fieldCount;
+
+    FieldLayout(List<DataField> fieldList) {
+      fieldCount = fieldList.size();
+      slots = new IdentityHashMap<DataField, Integer>(fieldCount);
+      for (int i = 0; i < fieldCount; ++i) {
+        DataField f = fieldList.get(i);
+        if (!slots.containsKey(f)) {
+          slots.put(f, i);
+        }
+      }
+    }
+
+    /**
+     * @param f
+     * @return the slot of the field, or -1 if it is not in the relation.
+     */
+    int slotOf(DataField f) {
+      Integer slot = slots.get(f);
+      return (slot == null) ? -1 : slot;
+    }
+  }
+
   /** member variables */
   protected final String schemaName;
   protected final String tableName;
   private boolean fromDatabase = false;
   private Object opaquePersistenceData = null;
   protected final List<DataField> fieldList = new ArrayList<DataField>();
-  protected final Map<DataField, Object> fieldValueMap = new HashMap<DataField, Object>();
+  // the values of the fields, indexed by slot. INTEGER, BOOLEAN and DATETIME
+  // values are held in primitives; their values slot is PRIMITIVE_VALUE when
+  // non-null. A null entry in values is a null value.
+  private FieldLayout layout = null;
+  private Object[] values = new Object[0];
+  private long[] primitives = new long[0];
 
   public final DataField primaryKey;
   public final DataField creatorUriUser;
@@ -116,14 +159,17 @@ public abstract class CommonFieldsBase {
     lastUpdateUriUser = ref.lastUpdateUriUser;
     lastUpdateDate = ref.lastUpdateDate;
 
+    layout = ref.layout();
     fieldList.addAll(ref.fieldList);
+    values = new Object[layout.fieldCount];
+    primitives = new long[layout.fieldCount];
 
     // populate the audit fields...
-    Date now = new Date();
-    fieldValueMap.put(creationDate, now);
-    fieldValueMap.put(lastUpdateDate, now);
-    fieldValueMap.put(creatorUriUser, user.getUriUser());
-    fieldValueMap.put(primaryKey, CommonFieldsBase.newUri());
+    long now = System.currentTimeMillis();
+    setPrimitive(layout.slotOf(creationDate), now);
+    setPrimitive(layout.slotOf(lastUpdateDate), now);
+    values[layout.slotOf(creatorUriUser)] = user.getUriUser();
+    values[layout.slotOf(primaryKey)] = CommonFieldsBase.newUri();
   }
 
   public final EntityKey getEntityKey() {
@@ -166,14 +212,8 @@ public abstract class CommonFieldsBase {
   }
 
   public final String getStringField(DataField f) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
-    Object o = fieldValueMap.get(f);
+    int slot = slotOf(f, "get");
+    Object o = values[slot];
     if (o == null)
       return null;
     return (String) o;
@@ -190,13 +230,7 @@ public abstract class CommonFieldsBase {
    * @return false if the value had to be truncated.
    */
   public final boolean setStringField(DataField f, String value) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to set a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
+    int slot = slotOf(f, "set");
     if (!((f.getDataType() == DataType.STRING) || (f.getDataType() == DataType.LONG_STRING) || (f
         .getDataType() == DataType.URI))) {
       throw new IllegalArgumentException("Attempting to set non-string field " + f.getName()
@@ -208,7 +242,7 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      values[slot] = null;
       return true;
     } else if (f.getMaxCharLen().compareTo(Long.valueOf(value.length())) < 0) {
       if (f.getDataType() == DataType.LONG_STRING) {
@@ -221,32 +255,20 @@ public abstract class CommonFieldsBase {
       noOverflow = false;
       value = value.substring(0, f.getMaxCharLen().intValue());
     }
-    fieldValueMap.put(f, value);
+    values[slot] = value;
     return noOverflow;
   }
 
   public final Long getLongField(DataField f) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
-    Object o = fieldValueMap.get(f);
-    if (o == null)
+    int slot = slotOf(f, "get");
+    if (values[slot] == null)
       return null;
-    return (Long) o;
+    assertPrimitiveType(f, DataType.INTEGER);
+    return Long.valueOf(primitives[slot]);
   }
 
   public final void setLongField(DataField f, Long value) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to set a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
+    int slot = slotOf(f, "set");
     if (f.getDataType() != DataType.INTEGER) {
       throw new IllegalArgumentException("Attempting to set non-integer field " + f.getName()
           + " with a Long in " + schemaName + "." + tableName);
@@ -256,34 +278,22 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      values[slot] = null;
       return;
     }
-    fieldValueMap.put(f, value);
+    setPrimitive(slot, value.longValue());
   }
 
   public final BigDecimal getNumericField(DataField f) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
-    Object o = fieldValueMap.get(f);
+    int slot = slotOf(f, "get");
+    Object o = values[slot];
     if (o == null)
       return null;
     return (BigDecimal) o;
   }
 
   public final void setNumericField(DataField f, BigDecimal value) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to set a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
+    int slot = slotOf(f, "set");
     if (f.getDataType() != DataType.DECIMAL) {
       throw new IllegalArgumentException("Attempting to set non-decimal field " + f.getName()
           + " with a BigDecimal in " + schemaName + "." + tableName);
@@ -293,35 +303,30 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      values[slot] = null;
       return;
     }
     // enforce scaling here...
-    fieldValueMap.put(f, value.setScale(f.getNumericScale(), BigDecimal.ROUND_HALF_UP));
+    values[slot] = value.setScale(f.getNumericScale(), BigDecimal.ROUND_HALF_UP);
   }
 
+  /**
+   * Dates are held as milliseconds, so the returned Date is a new instance on
+   * every call; modifying it does not change the stored value.
+   *
+   * @param f
+   * @return the date value, or null.
+   */
   public final Date getDateField(DataField f) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
-    Object o = fieldValueMap.get(f);
-    if (o == null)
+    int slot = slotOf(f, "get");
+    if (values[slot] == null)
       return null;
-    return (Date) o;
+    assertPrimitiveType(f, DataType.DATETIME);
+    return new Date(primitives[slot]);
   }
 
   public final void setDateField(DataField f, Date value) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to set a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
+    int slot = slotOf(f, "set");
     if (f.getDataType() != DataType.DATETIME) {
       throw new IllegalArgumentException("Attempting to set non-datetime field " + f.getName()
           + " with a Date in " + schemaName + "." + tableName);
@@ -331,34 +336,22 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      values[slot] = null;
       return;
     }
-    fieldValueMap.put(f, value);
+    setPrimitive(slot, value.getTime());
   }
 
   public final Boolean getBooleanField(DataField f) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
-    Object o = fieldValueMap.get(f);
-    if (o == null)
+    int slot = slotOf(f, "get");
+    if (values[slot] == null)
       return null;
-    return (Boolean) o;
+    assertPrimitiveType(f, DataType.BOOLEAN);
+    return (primitives[slot] != 0L) ? Boolean.TRUE : Boolean.FALSE;
   }
 
   public final void setBooleanField(DataField f, Boolean value) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to set a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
+    int slot = slotOf(f, "set");
     if (f.getDataType() != DataType.BOOLEAN) {
       throw new IllegalArgumentException("Attempting to set non-boolean field " + f.getName()
           + " with a Boolean in " + schemaName + "." + tableName);
@@ -368,34 +361,22 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      values[slot] = null;
       return;
     }
-    fieldValueMap.put(f, value);
+    setPrimitive(slot, value.booleanValue() ? 1L : 0L);
   }
 
   public final byte[] getBlobField(DataField f) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
-    Object o = fieldValueMap.get(f);
+    int slot = slotOf(f, "get");
+    Object o = values[slot];
     if (o == null)
       return null;
     return (byte[]) o;
   }
 
   public final void setBlobField(DataField f, byte[] value) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to set a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
+    int slot = slotOf(f, "set");
     if (f.getDataType() != DataType.BINARY) {
       throw new IllegalArgumentException("Attempting to set non-blob field " + f.getName()
           + " with byte-array in " + schemaName + "." + tableName);
@@ -405,10 +386,67 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      values[slot] = null;
       return;
     }
-    fieldValueMap.put(f, value);
+    values[slot] = value;
+  }
+
+  /**
+   * @param f
+   * @param action
+   *          "get" or "set", for the error message.
+   * @return the slot holding the value of the field in this row.
+   */
+  private int slotOf(DataField f, String action) {
+    if (f == null) {
+      throw new IllegalArgumentException("Field value is null!");
+    }
+    int slot = layout().slotOf(f);
+    if (slot < 0) {
+      throw new IllegalArgumentException("Attempting to " + action + " a field " + f.getName()
+          + " not belonging to " + schemaName + "." + tableName);
+    }
+    return slot;
+  }
+
+  private void setPrimitive(int slot, long value) {
+    primitives[slot] = value;
+    values[slot] = PRIMITIVE_VALUE;
+  }
+
+  private void assertPrimitiveType(DataField f, DataType type) {
+    if (f.getDataType() != type) {
+      throw new ClassCastException("Field " + f.getName() + " in " + schemaName + "."
+          + tableName + " is not of type " + type.name());
+    }
+  }
+
+  /**
+   * @return the slot layout for the current field list. The field list of a
+   *         prototype can still grow after values have been set on it (e.g.,
+   *         DynamicCommonFieldsBase.addDataField), so the layout is rebuilt
+   *         whenever the list has grown.
+   */
+  private FieldLayout layout() {
+    FieldLayout l = layout;
+    if (l == null || l.fieldCount != fieldList.size()) {
+      l = relayout();
+    }
+    return l;
+  }
+
+  private synchronized FieldLayout relayout() {
+    FieldLayout l = layout;
+    if (l != null && l.fieldCount == fieldList.size()) {
+      return l;
+    }
+    l = new FieldLayout(fieldList);
+    // fields are only ever appended, so the existing slots do not move.
+    values = Arrays.copyOf(values, l.fieldCount);
+    primitives = Arrays.copyOf(primitives, l.fieldCount);
+    layout = l;
+    return l;
   }
 
   public final static String newUri() {
@@ -447,16 +485,27 @@ public abstract class CommonFieldsBase {
 
       byte[] messageDigest = md.digest();
 
-      BigInteger number = new BigInteger(1, messageDigest);
-      String md5 = number.toString(16);
-      while (md5.length() < 32)
-        md5 = "0" + md5;
-      return "md5:" + md5;
+      return asMD5HashUri(messageDigest);
     } catch (NoSuchAlgorithmException e) {
       throw new IllegalStateException("Unexpected problem computing md5 hash", e);
     }
   }
 
+  /**
+   * Used when the MD5 digest has been accumulated incrementally.
+   *
+   * @param messageDigest
+   *          the result of MessageDigest.digest() for an MD5 MessageDigest.
+   * @return the hash in the same form as newMD5HashUri().
+   */
+  public final static String asMD5HashUri(byte[] messageDigest) {
+    BigInteger number = new BigInteger(1, messageDigest);
+    String md5 = number.toString(16);
+    while (md5.length() < 32)
+      md5 = "0" + md5;
+    return "md5:" + md5;
+  }
+
   /**********************************************************************************
    **********************************************************************************
    **********************************************************************************
@@ -515,7 +564,11 @@ public abstract class CommonFieldsBase {
   }
 
   public final boolean isNull(DataField f) {
-    return (fieldValueMap.get(f) == null);
+    if (f == null) {
+      return true;
+    }
+    int slot = layout().slotOf(f);
+    return (slot < 0) || (values[slot] == null);
   }
 
   public boolean sameTable(CommonFieldsBase ref) {
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import java.util.List;
+
+/**
+ * Result of a resumable projection query. Like QueryResult, but the records
+ * only hold the selected fields.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public class ProjectionResult {
+
+  private final QueryResumePoint startCursor;
+  private final QueryResumePoint resumeCursor;
+  private final boolean hasMoreResults;
+
+  private final List<ProjectionRow> resultList;
+
+  public ProjectionResult(QueryResumePoint startCursor, List<ProjectionRow> resultList,
+      QueryResumePoint resumeCursor, boolean moreResults) {
+    this.startCursor = startCursor;
+    this.resultList = resultList;
+    this.resumeCursor = resumeCursor;
+    this.hasMoreResults = moreResults;
+  }
+
+  public QueryResumePoint getResumeCursor() {
+    return resumeCursor;
+  }
+
+  public List<ProjectionRow> getResultList() {
+    return resultList;
+  }
+
+  public QueryResumePoint getStartCursor() {
+    return startCursor;
+  }
+
+  public boolean hasMoreResults() {
+    return hasMoreResults;
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * One record returned by a projection query. Holds only the values of the
+ * selected fields, which always include the primary key of the relation.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public final class ProjectionRow {
+
+  private final CommonFieldsBase relation;
+  private final List<DataField> fields;
+  private final Object[] values;
+
+  /**
+   * @param relation
+   * @param fields
+   *          the selected fields. Shared by all rows of a result.
+   * @param values
+   *          the values of the selected fields, in the same order.
+   */
+  public ProjectionRow(CommonFieldsBase relation, List<DataField> fields, Object[] values) {
+    this.relation = relation;
+    this.fields = fields;
+    this.values = values;
+  }
+
+  public Object getValue(DataField f) {
+    int idx = fields.indexOf(f);
+    if (idx == -1) {
+      throw new IllegalArgumentException("Field " + f.getName() + " was not selected from "
+          + relation.getTableName());
+    }
+    return values[idx];
+  }
+
+  public String getUri() {
+    return (String) getValue(relation.primaryKey);
+  }
+
+  public String getStringField(DataField f) {
+    return (String) getValue(f);
+  }
+
+  public Long getLongField(DataField f) {
+    return (Long) getValue(f);
+  }
+
+  public BigDecimal getNumericField(DataField f) {
+    return (BigDecimal) getValue(f);
+  }
+
+  public Boolean getBooleanField(DataField f) {
+    return (Boolean) getValue(f);
+  }
+
+  public Date getDateField(DataField f) {
+    return (Date) getValue(f);
+  }
+
+  public byte[] getBlobField(DataField f) {
+    return (byte[]) getValue(f);
+  }
+}
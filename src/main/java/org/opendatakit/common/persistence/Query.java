@@ -13,8 +13,10 @@
  */
 package org.opendatakit.common.persistence;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
@@ -50,6 +52,15 @@ public interface Query {
    LESS_THAN,
    LESS_THAN_OR_EQUAL;
   };
+
+  /**
+   * Receives the primary keys produced by
+   * {@link Query#executeKeyQuery(QueryResumePoint, int, KeyCallback)} as they
+   * are read from the datastore.
+   */
+  public interface KeyCallback {
+    public void processKey(String uri) throws IOException;
+  }
   
   /**
    * Adds a sort to the query using the given attribute name and sort direction.
@@ -96,6 +107,41 @@ public interface Query {
    * @throws ODKOverQuotaException if the usage quota was exceeded
    */
   public QueryResult executeQuery(QueryResumePoint startCursor, int fetchLimit) throws ODKDatastoreException, ODKOverQuotaException;
+
+  /**
+   * Executes the query as a cursor-style query like
+   * {@link #executeQuery(QueryResumePoint, int)}, but only retrieves the
+   * primary key (and the dominant sort attribute needed to resume the query) of
+   * each record. The primary keys are handed to the callback as they are read,
+   * so the records are never held in memory.
+   * 
+   * @param startCursor -- the cursor at which to start (null if new query)
+   * @param fetchLimit -- number of records to fetch
+   * @param callback -- receives the primary key of each record, in order
+   * @return the cursor following the last record handed to the callback, or
+   *         startCursor if there were none.
+   * @throws ODKDatastoreException if the query or the callback failed
+   * @throws ODKOverQuotaException if the usage quota was exceeded
+   */
+  public QueryResumePoint executeKeyQuery(QueryResumePoint startCursor, int fetchLimit,
+      KeyCallback callback) throws ODKDatastoreException, ODKOverQuotaException;
+
+  /**
+   * Executes the query as a cursor-style query like
+   * {@link #executeQuery(QueryResumePoint, int)}, but only retrieves the given
+   * fields of each record. The primary key and the dominant sort attribute are
+   * always retrieved, as they are needed to resume the query.
+   * 
+   * @param fields -- the fields of the relation to retrieve
+   * @param startCursor -- the cursor at which to start (null if new query)
+   * @param fetchLimit -- number of records to fetch
+   * @return the requested records with only the selected fields
+   * @throws ODKDatastoreException if the query failed
+   * @throws ODKOverQuotaException if the usage quota was exceeded
+   */
+  public ProjectionResult executeProjectionQuery(List<DataField> fields,
+      QueryResumePoint startCursor, int fetchLimit) throws ODKDatastoreException,
+      ODKOverQuotaException;
   
   /**
    * Returns a list of distinct EntityKeys of the topLevelAuri for the set of records
@@ -121,4 +167,51 @@ public interface Query {
    * @throws ODKOverQuotaException if the usage quota was exceeded
    */
   public List<?> executeDistinctValueForDataField(DataField dataField) throws ODKDatastoreException, ODKOverQuotaException;
+
+  /**
+   * Returns the number of records matching the filter criteria. Sort criteria
+   * are ignored.
+   * 
+   * @return
+   * @throws ODKDatastoreException
+   * @throws ODKOverQuotaException if the usage quota was exceeded
+   */
+  public long executeCountQuery() throws ODKDatastoreException, ODKOverQuotaException;
+
+  /**
+   * Returns the smallest non-null value of the given field across the records
+   * matching the filter criteria.
+   * 
+   * @param dataField
+   * @return the value (String, Long, BigDecimal, Boolean or Date), or null if
+   *         there are no matching records with a value for the field.
+   * @throws ODKDatastoreException
+   * @throws ODKOverQuotaException if the usage quota was exceeded
+   */
+  public Object executeMinValueForDataField(DataField dataField) throws ODKDatastoreException, ODKOverQuotaException;
+
+  /**
+   * Returns the largest non-null value of the given field across the records
+   * matching the filter criteria.
+   * 
+   * @param dataField
+   * @return the value (String, Long, BigDecimal, Boolean or Date), or null if
+   *         there are no matching records with a value for the field.
+   * @throws ODKDatastoreException
+   * @throws ODKOverQuotaException if the usage quota was exceeded
+   */
+  public Object executeMaxValueForDataField(DataField dataField) throws ODKDatastoreException, ODKOverQuotaException;
+
+  /**
+   * Returns the number of records matching the filter criteria for each
+   * distinct value of the given field (GROUP BY). Sort criteria are ignored.
+   * 
+   * @param dataField
+   * @return map from each value of the field (possibly null) to the number of
+   *         records having that value, in ascending order of value. Where the
+   *         null value falls in that order depends upon the datastore.
+   * @throws ODKDatastoreException
+   * @throws ODKOverQuotaException if the usage quota was exceeded
+   */
+  public Map<Object, Long> executeCountGroupedByDataField(DataField dataField) throws ODKDatastoreException, ODKOverQuotaException;
 }
@@ -13,8 +13,18 @@
  */
 package org.opendatakit.common.persistence.engine;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -27,8 +37,15 @@ import org.opendatakit.common.utils.WebUtils;
  * inefficient datastore access patterns and minimizing excessive read/write
  * actions.
  * 
+ * The counters are per-table atomics, so recording never takes a lock that is
+ * shared across tables. Besides the operation counts, it tracks the rows read
+ * versus the rows returned by queries and, where the engine supplies it, the
+ * latency of each operation as a histogram. The metrics of all instances can
+ * be written in the Prometheus text exposition format with
+ * {@link #writeAllMetrics(Writer)}.
+ * 
  * Note that if you create and delete many tables and don't reuse table names,
- * the tableMap and count arrays will grow without bounds.
+ * the table map will grow without bounds.
  * 
  * @author mitchellsundt@gmail.com
  * 
@@ -37,177 +54,294 @@ public final class DatastoreAccessMetrics {
 
   private static final Log logger = LogFactory.getLog(DatastoreAccessMetrics.class);
 
-  // map of fully qualified table name to index in counter array.
-  private final Map<String, Short> tableMap = new TreeMap<String, Short>();
-  private short nextCountIdx = 0;
-  private int readCount = 0;
+  public static enum Operation {
+    QUERY, GET, PUT, DELETE
+  };
+
+  /** upper bounds (in seconds) of the latency histogram buckets */
+  private static final double[] LATENCY_BUCKET_SECONDS = { 0.001, 0.0025, 0.005, 0.01, 0.025,
+      0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0 };
+
+  private static final long[] LATENCY_BUCKET_NANOS = new long[LATENCY_BUCKET_SECONDS.length];
+  static {
+    for (int i = 0; i < LATENCY_BUCKET_SECONDS.length; ++i) {
+      LATENCY_BUCKET_NANOS[i] = (long) (LATENCY_BUCKET_SECONDS[i] * 1000000000.0);
+    }
+  }
+
+  private static final String METRIC_OPERATIONS = "odk_datastore_operations_total";
+  private static final String METRIC_ROWS_READ = "odk_datastore_query_rows_read_total";
+  private static final String METRIC_ROWS_RETURNED = "odk_datastore_query_rows_returned_total";
+  private static final String METRIC_LATENCY = "odk_datastore_operation_latency_seconds";
 
   /**
-   * Maintain a tally of which tables those actions were against.
-   * 
-   * NOTE: this is NOT thread-safe. All accesses should occur only from within
-   * synchronized methods.
+   * every live instance, so that a metrics endpoint can report on all of them.
+   * The references are weak so that a discarded datastore does not stay
+   * reachable (and reported) forever.
    */
-  private final static class RingBufferCountArray {
-    private static final int ARRAY_INCREMENT = 20;
-    private int[] countArray = new int[36];
-
-    RingBufferCountArray() {
-      clear();
-    };
-
-    private void resizeArray(short arrayIdx) {
-      if (arrayIdx >= countArray.length) {
-        int newLen = ((arrayIdx / ARRAY_INCREMENT) + 1) * ARRAY_INCREMENT;
-        int[] newArray = new int[newLen];
-        for (int i = 0; i < newLen; ++i) {
-          newArray[i] = 0;
-        }
-        for (int i = 0; i < countArray.length; ++i) {
-          newArray[i] = countArray[i];
-        }
-        countArray = newArray;
-        logger.info("Resizing metrics array to " + newLen);
+  private static final List<WeakReference<DatastoreAccessMetrics>> instances = new CopyOnWriteArrayList<WeakReference<DatastoreAccessMetrics>>();
+
+  /**
+   * Latency histogram for one operation against one table. The buckets are
+   * not cumulative; they are accumulated when written.
+   */
+  private static final class LatencyHistogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(LATENCY_BUCKET_NANOS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    void observe(long elapsedNanos) {
+      int i = 0;
+      while (i < LATENCY_BUCKET_NANOS.length && elapsedNanos > LATENCY_BUCKET_NANOS[i]) {
+        ++i;
       }
+      buckets.incrementAndGet(i);
+      sumNanos.addAndGet(elapsedNanos);
+      count.incrementAndGet();
     }
 
-    private void recordUsage(short countArrayIdx, int incCount) {
-      // make sure our count array is sized big enough...
-      resizeArray(countArrayIdx);
-
-      countArray[countArrayIdx] = countArray[countArrayIdx] + incCount;
+    void addTo(LatencyHistogram total) {
+      for (int i = 0; i < buckets.length(); ++i) {
+        total.buckets.addAndGet(i, buckets.get(i));
+      }
+      total.count.addAndGet(count.get());
+      total.sumNanos.addAndGet(sumNanos.get());
     }
+  }
 
-    private Integer getUsage(short countArrayIdx) {
-      // make sure our count array is sized big enough...
-      resizeArray(countArrayIdx);
-
-      return countArray[countArrayIdx];
+  /**
+   * The counters for a single table.
+   */
+  private static final class TableMetrics {
+    private final AtomicLongArray operationCounts = new AtomicLongArray(
+        Operation.values().length);
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsReturned = new AtomicLong();
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+
+    TableMetrics() {
+      for (int i = 0; i < latencies.length; ++i) {
+        latencies[i] = new LatencyHistogram();
+      }
     }
 
-    private void clear() {
-      for (int i = 0; i < countArray.length; ++i) {
-        countArray[i] = 0;
+    void addTo(TableMetrics total) {
+      for (int i = 0; i < operationCounts.length(); ++i) {
+        total.operationCounts.addAndGet(i, operationCounts.get(i));
+      }
+      total.rowsRead.addAndGet(rowsRead.get());
+      total.rowsReturned.addAndGet(rowsReturned.get());
+      for (int i = 0; i < latencies.length; ++i) {
+        latencies[i].addTo(total.latencies[i]);
       }
     }
   }
 
-  // 20-second dump
-  private static final long ACCESS_METRIC_DUMP_INTERVAL = 20 * 1000L;
-
-  private long lastLogging = 0L;
-  private final RingBufferCountArray countQueryArray = new RingBufferCountArray();
-  private final RingBufferCountArray countQueryResultArray = new RingBufferCountArray();
-  private final RingBufferCountArray countGetArray = new RingBufferCountArray();
-  private final RingBufferCountArray countPutArray = new RingBufferCountArray();
-  private final RingBufferCountArray countDeleteArray = new RingBufferCountArray();
+  private final ConcurrentMap<String, TableMetrics> tableMap = new ConcurrentHashMap<String, TableMetrics>();
 
   public DatastoreAccessMetrics() {
-  }
-
-  public synchronized void logUsage() {
-    long now = System.currentTimeMillis();
-    lastLogging = now;
-    String gmtDate = WebUtils.iso8601Date(new java.util.Date(now));
-    logger.info("---------- " + gmtDate + " @ " + readCount + " ------------");
-    for (Map.Entry<String, Short> entry : tableMap.entrySet()) {
-      Short idx = entry.getValue();
-      logger.info(entry.getKey() + "," + countQueryArray.getUsage(idx) + ","
-          + countQueryResultArray.getUsage(idx) + "," + countGetArray.getUsage(idx) + ","
-          + countPutArray.getUsage(idx) + "," + countDeleteArray.getUsage(idx));
-    }
-    logger.info("-----------------------------------------");
-    countQueryArray.clear();
-    countQueryResultArray.clear();
-    countGetArray.clear();
-    countPutArray.clear();
-    countDeleteArray.clear();
+    pruneInstances();
+    instances.add(new WeakReference<DatastoreAccessMetrics>(this));
   }
 
   /**
-   * NOTE: This method is NOT thread-safe. Call only from within a synchronized
-   * method!
+   * Drop the references to instances that have been garbage collected.
    */
-  private void logUsage(int incCount) {
-    long now = System.currentTimeMillis();
-    int oldReadCount = readCount;
-    readCount = readCount + incCount;
-    if ((readCount / 500) != (oldReadCount / 500)
-        || (lastLogging + ACCESS_METRIC_DUMP_INTERVAL < now)) {
+  private static void pruneInstances() {
+    for (WeakReference<DatastoreAccessMetrics> ref : instances) {
+      if (ref.get() == null) {
+        instances.remove(ref);
+      }
     }
   }
 
-  /**
-   * Synchronized - this is the ONLY method that should manipulate the
-   * RingBufferCountArray or log usage statistics.
-   * 
-   * @param fullyQualifiedName
-   * @param rbc
-   */
-  private synchronized void synchronizedRecordUsage(String fullyQualifiedName,
-      RingBufferCountArray rbc, int incCount) {
-    Short countArrayIdx = tableMap.get(fullyQualifiedName);
-    if (countArrayIdx == null) {
-      countArrayIdx = nextCountIdx++;
-      tableMap.put(fullyQualifiedName, countArrayIdx);
+  private TableMetrics getTableMetrics(String fullyQualifiedName) {
+    TableMetrics m = tableMap.get(fullyQualifiedName);
+    if (m == null) {
+      m = new TableMetrics();
+      TableMetrics existing = tableMap.putIfAbsent(fullyQualifiedName, m);
+      if (existing != null) {
+        m = existing;
+      }
     }
-
-    rbc.recordUsage(countArrayIdx, incCount);
-    logUsage(incCount);
+    return m;
   }
 
-  private void recordUsage(String fullyQualifiedName, RingBufferCountArray rbc, int incCount) {
-    try {
-      synchronizedRecordUsage(fullyQualifiedName, rbc, incCount);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+  private static String getFullyQualifiedName(CommonFieldsBase relation) {
+    return relation.getSchemaName() + "." + relation.getTableName();
   }
 
-  private void recordUsage(String fullyQualifiedName, RingBufferCountArray rbc) {
-    recordUsage(fullyQualifiedName, rbc, 1);
+  /**
+   * Log the cumulative usage of every table.
+   */
+  public void logUsage() {
+    long now = System.currentTimeMillis();
+    String gmtDate = WebUtils.iso8601Date(new java.util.Date(now));
+    logger.info("---------- " + gmtDate + " ------------");
+    Map<String, TableMetrics> sorted = new TreeMap<String, TableMetrics>(tableMap);
+    for (Map.Entry<String, TableMetrics> entry : sorted.entrySet()) {
+      TableMetrics m = entry.getValue();
+      logger.info(entry.getKey() + "," + m.operationCounts.get(Operation.QUERY.ordinal()) + ","
+          + m.rowsReturned.get() + "," + m.operationCounts.get(Operation.GET.ordinal()) + ","
+          + m.operationCounts.get(Operation.PUT.ordinal()) + ","
+          + m.operationCounts.get(Operation.DELETE.ordinal()) + "," + m.rowsRead.get());
+    }
+    logger.info("-----------------------------------------");
   }
 
-  private void recordUsage(CommonFieldsBase relation, RingBufferCountArray rbc, int incCount) {
-    String fullyQualifiedName = relation.getSchemaName() + "." + relation.getTableName();
-    recordUsage(fullyQualifiedName, rbc, incCount);
+  private void recordUsage(String fullyQualifiedName, Operation op) {
+    getTableMetrics(fullyQualifiedName).operationCounts.incrementAndGet(op.ordinal());
   }
 
-  private void recordUsage(CommonFieldsBase relation, RingBufferCountArray rbc) {
-    recordUsage(relation, rbc, 1);
+  private void recordQuery(String fullyQualifiedName, int rowsRead, int rowsReturned) {
+    TableMetrics m = getTableMetrics(fullyQualifiedName);
+    m.operationCounts.incrementAndGet(Operation.QUERY.ordinal());
+    m.rowsRead.addAndGet(rowsRead);
+    m.rowsReturned.addAndGet(rowsReturned);
   }
 
   public void recordQueryUsage(String specialTableName, int resultCount) {
-    recordUsage(specialTableName, countQueryArray);
-    recordUsage(specialTableName, countQueryResultArray, resultCount);
+    recordQuery(specialTableName, resultCount, resultCount);
   }
 
   public void recordQueryUsage(CommonFieldsBase relation, int resultCount) {
-    recordUsage(relation, countQueryArray);
-    recordUsage(relation, countQueryResultArray, resultCount);
+    recordQuery(getFullyQualifiedName(relation), resultCount, resultCount);
+  }
+
+  /**
+   * Record a query that read more rows from the datastore than it returned to
+   * the caller (e.g., rows skipped while resuming a cursor).
+   * 
+   * @param relation
+   * @param rowsRead
+   * @param rowsReturned
+   */
+  public void recordQueryUsage(CommonFieldsBase relation, int rowsRead, int rowsReturned) {
+    recordQuery(getFullyQualifiedName(relation), rowsRead, rowsReturned);
   }
 
   public void recordGetUsage(String specialTableName) {
-    recordUsage(specialTableName, countGetArray);
+    recordUsage(specialTableName, Operation.GET);
   }
 
   public void recordGetUsage(CommonFieldsBase relation) {
-    recordUsage(relation, countGetArray);
+    recordUsage(getFullyQualifiedName(relation), Operation.GET);
   }
 
   public void recordPutUsage(String specialTableName) {
-    recordUsage(specialTableName, countPutArray);
+    recordUsage(specialTableName, Operation.PUT);
   }
 
   public void recordPutUsage(CommonFieldsBase relation) {
-    recordUsage(relation, countPutArray);
+    recordUsage(getFullyQualifiedName(relation), Operation.PUT);
   }
 
   public void recordDeleteUsage(String specialTableName) {
-    recordUsage(specialTableName, countDeleteArray);
+    recordUsage(specialTableName, Operation.DELETE);
   }
 
   public void recordDeleteUsage(EntityKey key) {
-    recordUsage(key.getRelation(), countDeleteArray);
+    recordUsage(getFullyQualifiedName(key.getRelation()), Operation.DELETE);
+  }
+
+  /**
+   * Record the time taken by one datastore round-trip. A batched put or delete
+   * is a single round-trip.
+   * 
+   * @param relation
+   * @param op
+   * @param elapsedNanos
+   */
+  public void recordLatency(CommonFieldsBase relation, Operation op, long elapsedNanos) {
+    recordLatency(getFullyQualifiedName(relation), op, elapsedNanos);
+  }
+
+  public void recordLatency(String specialTableName, Operation op, long elapsedNanos) {
+    getTableMetrics(specialTableName).latencies[op.ordinal()].observe(elapsedNanos);
+  }
+
+  private static String escapeLabelValue(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static String formatSeconds(long nanos) {
+    return Double.toString(((double) nanos) / TimeUnit.SECONDS.toNanos(1L));
+  }
+
+  private static void writeHeader(Writer w, String name, String type, String help)
+      throws IOException {
+    w.write("# HELP " + name + " " + help + "\n");
+    w.write("# TYPE " + name + " " + type + "\n");
+  }
+
+  /**
+   * Write the metrics of all instances in the Prometheus text exposition
+   * format (version 0.0.4).
+   * 
+   * @param w
+   * @throws IOException
+   */
+  public static void writeAllMetrics(Writer w) throws IOException {
+    // sum the tables of all instances; normally there is only one.
+    Map<String, TableMetrics> tables = new TreeMap<String, TableMetrics>();
+    for (WeakReference<DatastoreAccessMetrics> ref : instances) {
+      DatastoreAccessMetrics dam = ref.get();
+      if (dam == null) {
+        instances.remove(ref);
+        continue;
+      }
+      for (Map.Entry<String, TableMetrics> entry : dam.tableMap.entrySet()) {
+        TableMetrics total = tables.get(entry.getKey());
+        if (total == null) {
+          total = new TableMetrics();
+          tables.put(entry.getKey(), total);
+        }
+        entry.getValue().addTo(total);
+      }
+    }
+
+    writeHeader(w, METRIC_OPERATIONS, "counter", "Datastore operations by table and operation.");
+    for (Map.Entry<String, TableMetrics> entry : tables.entrySet()) {
+      String table = escapeLabelValue(entry.getKey());
+      for (Operation op : Operation.values()) {
+        w.write(METRIC_OPERATIONS + "{table=\"" + table + "\",op=\"" + op.name().toLowerCase()
+            + "\"} " + entry.getValue().operationCounts.get(op.ordinal()) + "\n");
+      }
+    }
+
+    writeHeader(w, METRIC_ROWS_READ, "counter", "Rows read from the datastore by queries.");
+    for (Map.Entry<String, TableMetrics> entry : tables.entrySet()) {
+      w.write(METRIC_ROWS_READ + "{table=\"" + escapeLabelValue(entry.getKey()) + "\"} "
+          + entry.getValue().rowsRead.get() + "\n");
+    }
+
+    writeHeader(w, METRIC_ROWS_RETURNED, "counter", "Rows returned to the caller by queries.");
+    for (Map.Entry<String, TableMetrics> entry : tables.entrySet()) {
+      w.write(METRIC_ROWS_RETURNED + "{table=\"" + escapeLabelValue(entry.getKey()) + "\"} "
+          + entry.getValue().rowsReturned.get() + "\n");
+    }
+
+    writeHeader(w, METRIC_LATENCY, "histogram", "Latency of datastore round-trips.");
+    for (Map.Entry<String, TableMetrics> entry : tables.entrySet()) {
+      String table = escapeLabelValue(entry.getKey());
+      for (Operation op : Operation.values()) {
+        LatencyHistogram h = entry.getValue().latencies[op.ordinal()];
+        long count = h.count.get();
+        if (count == 0L) {
+          continue;
+        }
+        String labels = "table=\"" + table + "\",op=\"" + op.name().toLowerCase() + "\"";
+        long cumulative = 0L;
+        for (int i = 0; i < LATENCY_BUCKET_SECONDS.length; ++i) {
+          cumulative += h.buckets.get(i);
+          w.write(METRIC_LATENCY + "_bucket{" + labels + ",le=\""
+              + Double.toString(LATENCY_BUCKET_SECONDS[i]) + "\"} " + cumulative + "\n");
+        }
+        cumulative += h.buckets.get(LATENCY_BUCKET_SECONDS.length);
+        w.write(METRIC_LATENCY + "_bucket{" + labels + ",le=\"+Inf\"} " + cumulative + "\n");
+        w.write(METRIC_LATENCY + "_sum{" + labels + "} " + formatSeconds(h.sumNanos.get()) + "\n");
+        w.write(METRIC_LATENCY + "_count{" + labels + "} " + cumulative + "\n");
+      }
+    }
   }
 }
@@ -14,7 +14,10 @@
 package org.opendatakit.common.persistence.engine;
 
 import java.math.BigDecimal;
+import java.sql.BatchUpdateException;
+import java.sql.Statement;
 import java.util.Date;
+import java.util.List;
 
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
@@ -249,4 +252,32 @@ public class EngineUtils {
 		return value;
 	}
 
+	/**
+	 * The JDBC engines run their batches with autocommit, so when a batched
+	 * insert fails, the rows inserted by the statements that preceded the
+	 * failure may already be committed. Mark those entities (as reported by the
+	 * driver's update counts) as being in the database, so that retrying the
+	 * put updates them rather than inserting them a second time.
+	 * 
+	 * @param inserts the entities of the failed insert batch, in batch order
+	 * @param t the exception thrown by the batch
+	 */
+	public static final void markInsertedEntities(List<? extends CommonFieldsBase> inserts, Throwable t) {
+		while ( t != null && !(t instanceof BatchUpdateException) ) {
+			t = t.getCause();
+		}
+		if ( t == null ) {
+			return;
+		}
+		int[] updateCounts = ((BatchUpdateException) t).getUpdateCounts();
+		if ( updateCounts == null ) {
+			return;
+		}
+		for ( int i = 0 ; i < updateCounts.length && i < inserts.size() ; ++i ) {
+			if ( updateCounts[i] > 0 || updateCounts[i] == Statement.SUCCESS_NO_INFO ) {
+				inserts.get(i).setFromDatabase(true);
+			}
+		}
+	}
+
 }
@@ -0,0 +1,327 @@
+/**
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+
+/**
+ * Per-relation cache of the SQL statement text and JDBC argument types used by
+ * the JDBC engines to SELECT, INSERT, UPDATE and DELETE rows.
+ *
+ * Entries are keyed by schema and table name and are verified against the
+ * field list (column names and data types) of the relation being accessed; a
+ * relation whose field list differs from the cached one causes the templates
+ * to be rebuilt. Entries are explicitly discarded whenever the relation is
+ * asserted or dropped.
+ *
+ * This class is thread-safe.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public final class SqlTemplateCache {
+
+  private static final String K_SELECT = "SELECT ";
+  private static final String K_CS = ", ";
+  private static final String K_FROM = " FROM ";
+  private static final String K_WHERE = " WHERE ";
+  private static final String K_EQ = " = ";
+  private static final String K_BIND_VALUE = "?";
+  private static final String K_OPEN_PAREN = " ( ";
+  private static final String K_CLOSE_PAREN = " ) ";
+  private static final String K_INSERT_INTO = "INSERT INTO ";
+  private static final String K_VALUES = " VALUES ";
+  private static final String K_UPDATE = "UPDATE ";
+  private static final String K_SET = " SET ";
+  private static final String K_DELETE_FROM = "DELETE FROM ";
+
+  /**
+   * The precomputed statements for a relation.
+   *
+   * The argument arrays for the insert statement are in field-list order. The
+   * argument arrays for the update statement are in field-list order with the
+   * primary key omitted, followed by the primary key (for the WHERE clause).
+   */
+  public static final class Templates {
+    private final String[] fieldNames;
+    private final DataField.DataType[] dataTypes;
+
+    private final String qualifiedTableName;
+    private final String selectPrefix;
+    private final String insert;
+    private final String update;
+    private final String deleteByUri;
+    private final int[] insertArgTypes;
+    private final int[] updateArgTypes;
+
+    private Templates(String bq, CommonFieldsBase relation) {
+      List<DataField> fields = relation.getFieldList();
+      int size = fields.size();
+      fieldNames = new String[size];
+      dataTypes = new DataField.DataType[size];
+      insertArgTypes = new int[size];
+      updateArgTypes = new int[size];
+
+      StringBuilder b = new StringBuilder();
+      b.append(bq);
+      b.append(relation.getSchemaName());
+      b.append(bq);
+      b.append(".");
+      b.append(bq);
+      b.append(relation.getTableName());
+      b.append(bq);
+      qualifiedTableName = b.toString();
+
+      String pkName = bq + relation.primaryKey.getName() + bq;
+
+      StringBuilder columns = new StringBuilder();
+      StringBuilder values = new StringBuilder();
+      StringBuilder sets = new StringBuilder();
+      int updateIdx = 0;
+      for (int i = 0; i < size; ++i) {
+        DataField f = fields.get(i);
+        fieldNames[i] = f.getName();
+        dataTypes[i] = f.getDataType();
+        insertArgTypes[i] = getSqlType(f);
+
+        if (i != 0) {
+          columns.append(K_CS);
+          values.append(K_CS);
+        }
+        columns.append(bq);
+        columns.append(f.getName());
+        columns.append(bq);
+        values.append(K_BIND_VALUE);
+
+        // primary key goes in the where clause...
+        if (f == relation.primaryKey) {
+          continue;
+        }
+        if (updateIdx != 0) {
+          sets.append(K_CS);
+        }
+        sets.append(bq);
+        sets.append(f.getName());
+        sets.append(bq);
+        sets.append(K_EQ);
+        sets.append(K_BIND_VALUE);
+        updateArgTypes[updateIdx++] = getSqlType(f);
+      }
+      updateArgTypes[updateIdx] = getSqlType(relation.primaryKey);
+
+      selectPrefix = K_SELECT + columns.toString() + K_FROM + qualifiedTableName;
+      insert = K_INSERT_INTO + qualifiedTableName + K_OPEN_PAREN + columns.toString()
+          + K_CLOSE_PAREN + K_VALUES + K_OPEN_PAREN + values.toString() + K_CLOSE_PAREN;
+      update = K_UPDATE + qualifiedTableName + K_SET + sets.toString() + K_WHERE + pkName + K_EQ
+          + K_BIND_VALUE;
+      deleteByUri = K_DELETE_FROM + qualifiedTableName + K_WHERE + pkName + K_EQ + K_BIND_VALUE;
+    }
+
+    /**
+     * @param relation
+     * @return true if the relation has the same column names and data types,
+     *         in the same order, as the relation these templates were built
+     *         from.
+     */
+    private boolean matches(CommonFieldsBase relation) {
+      List<DataField> fields = relation.getFieldList();
+      if (fields.size() != fieldNames.length) {
+        return false;
+      }
+      for (int i = 0; i < fieldNames.length; ++i) {
+        DataField f = fields.get(i);
+        if (f.getDataType() != dataTypes[i] || !fieldNames[i].equals(f.getName())) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return the quoted schema.table name
+     */
+    public String getQualifiedTableName() {
+      return qualifiedTableName;
+    }
+
+    /**
+     * @return SELECT of all columns FROM the table (no WHERE clause).
+     */
+    public String getSelectPrefix() {
+      return selectPrefix;
+    }
+
+    public String getInsert() {
+      return insert;
+    }
+
+    public String getUpdate() {
+      return update;
+    }
+
+    public String getDeleteByUri() {
+      return deleteByUri;
+    }
+
+    public int[] getInsertArgTypes() {
+      return insertArgTypes;
+    }
+
+    public int[] getUpdateArgTypes() {
+      return updateArgTypes;
+    }
+
+    /**
+     * @param entity
+     * @return the bind values for the insert statement.
+     */
+    public Object[] getInsertArgs(CommonFieldsBase entity) {
+      List<DataField> fields = entity.getFieldList();
+      Object[] ol = new Object[fields.size()];
+      for (int i = 0; i < ol.length; ++i) {
+        ol[i] = getArgumentValue(entity, fields.get(i));
+      }
+      return ol;
+    }
+
+    /**
+     * @param entity
+     * @return the bind values for the update statement.
+     */
+    public Object[] getUpdateArgs(CommonFieldsBase entity) {
+      List<DataField> fields = entity.getFieldList();
+      Object[] ol = new Object[fields.size()];
+      int idx = 0;
+      for (DataField f : fields) {
+        if (f == entity.primaryKey) {
+          continue;
+        }
+        ol[idx++] = getArgumentValue(entity, f);
+      }
+      ol[idx] = getArgumentValue(entity, entity.primaryKey);
+      return ol;
+    }
+  }
+
+  private final String bq;
+
+  // schema name => table name => templates
+  private final ConcurrentMap<String, ConcurrentMap<String, Templates>> cache =
+      new ConcurrentHashMap<String, ConcurrentMap<String, Templates>>();
+
+  /**
+   * @param bq
+   *          the identifier quote string of the database engine.
+   */
+  public SqlTemplateCache(String bq) {
+    this.bq = bq;
+  }
+
+  /**
+   * Retrieve the statement templates for the given relation, constructing them
+   * if they are not yet cached or if the relation's field list does not match
+   * the cached templates.
+   *
+   * @param relation
+   * @return
+   */
+  public Templates getTemplates(CommonFieldsBase relation) {
+    ConcurrentMap<String, Templates> tables = cache.get(relation.getSchemaName());
+    if (tables == null) {
+      tables = new ConcurrentHashMap<String, Templates>();
+      ConcurrentMap<String, Templates> existing = cache.putIfAbsent(relation.getSchemaName(),
+          tables);
+      if (existing != null) {
+        tables = existing;
+      }
+    }
+    Templates t = tables.get(relation.getTableName());
+    if (t == null || !t.matches(relation)) {
+      t = new Templates(bq, relation);
+      tables.put(relation.getTableName(), t);
+    }
+    return t;
+  }
+
+  /**
+   * Discard any templates for the given relation.
+   *
+   * @param relation
+   */
+  public void invalidate(CommonFieldsBase relation) {
+    ConcurrentMap<String, Templates> tables = cache.get(relation.getSchemaName());
+    if (tables != null) {
+      tables.remove(relation.getTableName());
+    }
+  }
+
+  /**
+   * @param f
+   * @return the java.sql.Types value used to bind the given field.
+   */
+  public static int getSqlType(DataField f) {
+    switch (f.getDataType()) {
+    case BOOLEAN:
+      return java.sql.Types.BOOLEAN;
+    case STRING:
+    case URI:
+      return java.sql.Types.VARCHAR;
+    case INTEGER:
+      return java.sql.Types.BIGINT;
+    case DECIMAL:
+      return java.sql.Types.DECIMAL;
+    case DATETIME:
+      return java.sql.Types.TIMESTAMP;
+    case BINARY:
+      return java.sql.Types.LONGVARBINARY;
+    case LONG_STRING:
+      return java.sql.Types.LONGVARCHAR;
+
+    default:
+      throw new IllegalStateException("Unexpected data type");
+    }
+  }
+
+  /**
+   * @param entity
+   * @param f
+   * @return the value of the given field, suitable for binding to a statement.
+   */
+  public static Object getArgumentValue(CommonFieldsBase entity, DataField f) {
+    switch (f.getDataType()) {
+    case BOOLEAN:
+      return entity.getBooleanField(f);
+    case STRING:
+    case URI:
+    case LONG_STRING:
+      return entity.getStringField(f);
+    case INTEGER:
+      return entity.getLongField(f);
+    case DECIMAL:
+      return entity.getNumericField(f);
+    case DATETIME:
+      return entity.getDateField(f);
+    case BINARY:
+      return entity.getBlobField(f);
+
+    default:
+      throw new IllegalStateException("Unexpected data type");
+    }
+  }
+}
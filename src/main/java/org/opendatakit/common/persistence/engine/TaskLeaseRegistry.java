@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opendatakit.common.persistence.CommonFieldsBase;
+
+/**
+ * In-JVM view of the task-lock leases held by this server. The database lease
+ * row remains the authority; this only lets threads on the same server that
+ * contend for a lease wait until it is released, rather than repeatedly
+ * polling the database for a lease that is known to be held.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public final class TaskLeaseRegistry {
+
+  /**
+   * Maximum time a contender waits for a lease held by another thread on this
+   * server before reporting that the lock could not be obtained.
+   */
+  public static final long MAX_LOCAL_WAIT_MILLISECONDS = 2000L;
+
+  private static final class Lease {
+    String lockId;
+    long expirationMillis;
+    final Condition released;
+
+    Lease(Condition released) {
+      this.released = released;
+    }
+  }
+
+  private static final ReentrantLock lock = new ReentrantLock();
+  private static final Map<String, Lease> leases = new HashMap<String, Lease>();
+
+  private TaskLeaseRegistry() {
+  }
+
+  /**
+   * The primary key of the lease row for the given resource and task type.
+   *
+   * @param formId
+   * @param taskType
+   * @return md5: hash uri that fits within a _URI column.
+   */
+  public static String getLeaseUri(String formId, String taskType) {
+    return CommonFieldsBase.newMD5HashUri(taskType + "|" + formId);
+  }
+
+  /**
+   * Wait until no other lock id holds the lease within this server, or until
+   * MAX_LOCAL_WAIT_MILLISECONDS has elapsed.
+   *
+   * @param leaseUri
+   * @param lockId
+   * @return true if the caller should try to obtain the lease from the
+   *         database; false if it is still held by another thread on this
+   *         server.
+   */
+  public static boolean awaitAvailable(String leaseUri, String lockId) {
+    long deadline = System.currentTimeMillis() + MAX_LOCAL_WAIT_MILLISECONDS;
+    lock.lock();
+    try {
+      for (;;) {
+        Lease lease = leases.get(leaseUri);
+        if (lease == null || lease.lockId.equals(lockId)) {
+          return true;
+        }
+        long now = System.currentTimeMillis();
+        if (lease.expirationMillis <= now) {
+          // the holder let it lapse; the database decides who gets it next.
+          leases.remove(leaseUri);
+          lease.released.signalAll();
+          return true;
+        }
+        if (deadline <= now) {
+          return false;
+        }
+        lease.released.await(Math.min(deadline, lease.expirationMillis) - now,
+            TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Record that lockId now holds (or has renewed) the lease.
+   *
+   * @param leaseUri
+   * @param lockId
+   * @param lifetimeMilliseconds
+   */
+  public static void acquired(String leaseUri, String lockId, long lifetimeMilliseconds) {
+    lock.lock();
+    try {
+      Lease lease = leases.get(leaseUri);
+      if (lease == null) {
+        lease = new Lease(lock.newCondition());
+        leases.put(leaseUri, lease);
+      }
+      lease.lockId = lockId;
+      lease.expirationMillis = System.currentTimeMillis() + lifetimeMilliseconds;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Record that lockId no longer holds the lease and wake any waiters.
+   *
+   * @param leaseUri
+   * @param lockId
+   */
+  public static void released(String leaseUri, String lockId) {
+    lock.lock();
+    try {
+      Lease lease = leases.get(leaseUri);
+      if (lease != null && lease.lockId.equals(lockId)) {
+        leases.remove(leaseUri);
+        lease.released.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+
+/**
+ * Registry of the relations whose table definitions have already been verified
+ * against the database by assertRelation, so that asserting the same relation
+ * again does not need to query the database schema.
+ *
+ * Entries are keyed by schema name, table name and a fingerprint of the field
+ * list as declared by the data model (names, types, nullability and requested
+ * dimensions). Each entry holds the dimensions that verification read back
+ * from the database, which are applied to the fields of later relations with
+ * the same fingerprint. Entries for a table are discarded when it is dropped.
+ *
+ * This class is thread-safe.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public final class VerifiedSchemaCache {
+
+  /**
+   * The verified dimensions of each field, in field-list order.
+   */
+  private static final class Dimensions {
+    private final Long[] maxCharLen;
+    private final Integer[] numericPrecision;
+    private final Integer[] numericScale;
+
+    private Dimensions(CommonFieldsBase relation) {
+      List<DataField> fields = relation.getFieldList();
+      int size = fields.size();
+      maxCharLen = new Long[size];
+      numericPrecision = new Integer[size];
+      numericScale = new Integer[size];
+      for (int i = 0; i < size; ++i) {
+        DataField f = fields.get(i);
+        maxCharLen[i] = f.getMaxCharLen();
+        numericPrecision[i] = f.getNumericPrecision();
+        numericScale[i] = f.getNumericScale();
+      }
+    }
+
+    private void apply(CommonFieldsBase relation) {
+      List<DataField> fields = relation.getFieldList();
+      for (int i = 0; i < maxCharLen.length; ++i) {
+        DataField f = fields.get(i);
+        f.setMaxCharLen(maxCharLen[i]);
+        f.setNumericPrecision(numericPrecision[i]);
+        f.setNumericScale(numericScale[i]);
+      }
+    }
+  }
+
+  // schema name => table name => fingerprint => verified dimensions
+  private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, Dimensions>>> cache =
+      new ConcurrentHashMap<String, ConcurrentMap<String, ConcurrentMap<String, Dimensions>>>();
+
+  /**
+   * Compute the fingerprint of the relation's field list. This must be called
+   * before the relation is verified, as verification updates the dimensions
+   * of the fields to those of the database.
+   *
+   * @param relation
+   * @return
+   */
+  public static String getFingerprint(CommonFieldsBase relation) {
+    StringBuilder b = new StringBuilder();
+    for (DataField f : relation.getFieldList()) {
+      b.append(f.getName());
+      b.append(':');
+      b.append(f.getDataType().name());
+      b.append(':');
+      b.append(f.getNullable());
+      b.append(':');
+      b.append(f.getMaxCharLen());
+      b.append(':');
+      b.append(f.getNumericPrecision());
+      b.append(':');
+      b.append(f.getNumericScale());
+      b.append(';');
+    }
+    return b.toString();
+  }
+
+  private ConcurrentMap<String, Dimensions> getTableEntries(CommonFieldsBase relation,
+      boolean create) {
+    ConcurrentMap<String, ConcurrentMap<String, Dimensions>> tables = cache.get(relation
+        .getSchemaName());
+    if (tables == null) {
+      if (!create) {
+        return null;
+      }
+      tables = new ConcurrentHashMap<String, ConcurrentMap<String, Dimensions>>();
+      ConcurrentMap<String, ConcurrentMap<String, Dimensions>> existing = cache.putIfAbsent(
+          relation.getSchemaName(), tables);
+      if (existing != null) {
+        tables = existing;
+      }
+    }
+    ConcurrentMap<String, Dimensions> entries = tables.get(relation.getTableName());
+    if (entries == null && create) {
+      entries = new ConcurrentHashMap<String, Dimensions>();
+      ConcurrentMap<String, Dimensions> existing = tables.putIfAbsent(relation.getTableName(),
+          entries);
+      if (existing != null) {
+        entries = existing;
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * If a relation with this fingerprint has already been verified, update the
+   * relation's fields with the verified dimensions.
+   *
+   * @param relation
+   * @param fingerprint
+   * @return true if the relation was already verified.
+   */
+  public boolean applyVerified(CommonFieldsBase relation, String fingerprint) {
+    ConcurrentMap<String, Dimensions> entries = getTableEntries(relation, false);
+    if (entries == null) {
+      return false;
+    }
+    Dimensions d = entries.get(fingerprint);
+    if (d == null) {
+      return false;
+    }
+    d.apply(relation);
+    return true;
+  }
+
+  /**
+   * Record that the relation has been verified against the database.
+   *
+   * @param relation
+   *          the relation, with the dimensions read back from the database.
+   * @param fingerprint
+   *          the fingerprint computed before verification.
+   */
+  public void putVerified(CommonFieldsBase relation, String fingerprint) {
+    getTableEntries(relation, true).put(fingerprint, new Dimensions(relation));
+  }
+
+  /**
+   * Discard all verified definitions of the given relation's table.
+   *
+   * @param relation
+   */
+  public void invalidate(CommonFieldsBase relation) {
+    ConcurrentMap<String, ConcurrentMap<String, Dimensions>> tables = cache.get(relation
+        .getSchemaName());
+    if (tables != null) {
+      tables.remove(relation.getTableName());
+    }
+  }
+}
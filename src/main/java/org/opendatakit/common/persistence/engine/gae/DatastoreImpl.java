@@ -27,6 +27,7 @@ import org.opendatakit.common.persistence.EntityKey;
 import org.opendatakit.common.persistence.Query;
 import org.opendatakit.common.persistence.TaskLock;
 import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.Operation;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
@@ -225,6 +226,7 @@ public class DatastoreImpl implements Datastore {
     Key selfKey = constructGaeKey(relation, uri);
     com.google.appengine.api.datastore.Entity gaeEntity = null;
     dam.recordGetUsage(relation);
+    long startNanos = System.nanoTime();
     try {
       gaeEntity = ds.get(selfKey);
     } catch (EntityNotFoundException e) {
@@ -233,6 +235,8 @@ public class DatastoreImpl implements Datastore {
       throw new ODKOverQuotaException(e);
     } catch (Exception e) {
       throw new ODKDatastoreException(e);
+    } finally {
+      dam.recordLatency(relation, Operation.GET, System.nanoTime() - startNanos);
     }
 
     CommonFieldsBase row;
@@ -386,12 +390,15 @@ public class DatastoreImpl implements Datastore {
   public void putEntity(CommonFieldsBase entity, User user) throws ODKEntityPersistException, ODKOverQuotaException {
     com.google.appengine.api.datastore.Entity e = prepareGaeFromRow(entity, user);
     dam.recordPutUsage(entity);
+    long startNanos = System.nanoTime();
     try {
       ds.put(e);
     } catch (OverQuotaException ex) {
       throw new ODKOverQuotaException(ex);
     } catch (Exception ex) {
       throw new ODKEntityPersistException(ex);
+    } finally {
+      dam.recordLatency(entity, Operation.PUT, System.nanoTime() - startNanos);
     }
   }
 
@@ -424,6 +431,7 @@ public class DatastoreImpl implements Datastore {
   public void deleteEntity(EntityKey key, User user) throws ODKDatastoreException {
     Key dsKey = constructGaeKey(key.getRelation(), key.getKey());
     dam.recordDeleteUsage(key);
+    long startNanos = System.nanoTime();
     try {
       LogFactory.getLog(DatastoreImpl.class).info(
           "Executing delete " + constructGaeKind(key.getRelation()) + " with key " + key.getKey()
@@ -433,6 +441,8 @@ public class DatastoreImpl implements Datastore {
       throw new ODKOverQuotaException(ex);
     } catch (Exception ex) {
       throw new ODKDatastoreException(ex);
+    } finally {
+      dam.recordLatency(key.getRelation(), Operation.DELETE, System.nanoTime() - startNanos);
     }
   }
 
@@ -13,14 +13,17 @@
  */
 package org.opendatakit.common.persistence.engine.gae;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,6 +34,8 @@ import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
 import org.opendatakit.common.persistence.DataField.DataType;
 import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.persistence.ProjectionResult;
+import org.opendatakit.common.persistence.ProjectionRow;
 import org.opendatakit.common.persistence.QueryResult;
 import org.opendatakit.common.persistence.QueryResumePoint;
 import org.opendatakit.common.persistence.engine.EngineUtils;
@@ -890,6 +895,86 @@ public class QueryImpl implements org.opendatakit.common.persistence.Query {
     }
   }
 
+  /**
+   * The GAE datastore returns full entities from coreExecuteQuery, so this
+   * executes the cursor-style query and then hands the primary keys of the
+   * page to the callback.
+   */
+  @Override
+  public QueryResumePoint executeKeyQuery(QueryResumePoint startCursor, int fetchLimit,
+      KeyCallback callback) throws ODKDatastoreException, ODKOverQuotaException {
+    QueryResult result = executeQuery(startCursor, fetchLimit);
+    try {
+      for (CommonFieldsBase cb : result.getResultList()) {
+        callback.processKey(cb.getUri());
+      }
+    } catch (IOException e) {
+      throw new ODKDatastoreException(e);
+    }
+    return result.getResumeCursor();
+  }
+
+  /**
+   * Entities are fetched whole from the GAE datastore, so this executes the
+   * cursor-style query and copies the selected fields out of each record.
+   */
+  @Override
+  public ProjectionResult executeProjectionQuery(List<DataField> requestedFields,
+      QueryResumePoint startCursor, int fetchLimit) throws ODKDatastoreException,
+      ODKOverQuotaException {
+    QueryResult result = executeQuery(startCursor, fetchLimit);
+
+    List<DataField> fields = new ArrayList<DataField>();
+    for (DataField f : requestedFields) {
+      if (!relation.getFieldList().contains(f)) {
+        throw new IllegalStateException("Attempting to retrieve non-existent data field "
+            + f.getName() + " from " + relation.getSchemaName() + "." + relation.getTableName());
+      }
+      if (!fields.contains(f)) {
+        fields.add(f);
+      }
+    }
+    if (!fields.contains(relation.primaryKey)) {
+      fields.add(relation.primaryKey);
+    }
+    DataField dominantSortAttr = sortList.get(0).getAttribute();
+    if (!fields.contains(dominantSortAttr)) {
+      fields.add(dominantSortAttr);
+    }
+
+    List<ProjectionRow> rows = new ArrayList<ProjectionRow>();
+    for (CommonFieldsBase cb : result.getResultList()) {
+      Object[] values = new Object[fields.size()];
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = getFieldValue(cb, fields.get(i));
+      }
+      rows.add(new ProjectionRow(relation, fields, values));
+    }
+    return new ProjectionResult(startCursor, rows, result.getResumeCursor(),
+        result.hasMoreResults());
+  }
+
+  private static Object getFieldValue(CommonFieldsBase cb, DataField f) {
+    switch (f.getDataType()) {
+    case BINARY:
+      return cb.getBlobField(f);
+    case LONG_STRING:
+    case URI:
+    case STRING:
+      return cb.getStringField(f);
+    case INTEGER:
+      return cb.getLongField(f);
+    case DECIMAL:
+      return cb.getNumericField(f);
+    case BOOLEAN:
+      return cb.getBooleanField(f);
+    case DATETIME:
+      return cb.getDateField(f);
+    default:
+      throw new IllegalStateException("unexpected data type");
+    }
+  }
+
   /**
    * Incoming queries that lack an sort criteria will have the
    * field of the first filter criteria passed down as a sort
@@ -1006,4 +1091,124 @@ public class QueryImpl implements org.opendatakit.common.persistence.Query {
     }
     return values;
   }
+
+  /**
+   * The GAE datastore can only apply the filters on a single attribute (see
+   * prepareQuery()); any others are applied to the fetched records. A count is
+   * therefore only computed, as a keys-only query, when all the filters are on
+   * the same attribute. Otherwise, counting would mean fetching every matching
+   * record, and -1 is returned instead.
+   */
+  @Override
+  public long executeCountQuery() throws ODKDatastoreException, ODKOverQuotaException {
+    try {
+      return doExecuteCountQuery();
+    } finally {
+      gaeCostLogger.wrapUp();
+    }
+  }
+
+  private long doExecuteCountQuery() throws ODKDatastoreException, ODKOverQuotaException {
+    DataField filterAttr = null;
+    for (Tracker t : filterList) {
+      if (filterAttr == null) {
+        filterAttr = t.getAttribute();
+      } else if (!filterAttr.equals(t.getAttribute())) {
+        return -1L;
+      }
+    }
+
+    try {
+      Query hack = new com.google.appengine.api.datastore.Query(relation.getSchemaName() + "."
+          + relation.getTableName());
+
+      ArrayList<com.google.appengine.api.datastore.Query.Filter> filters =
+          new ArrayList<com.google.appengine.api.datastore.Query.Filter>();
+      for (Tracker t : filterList) {
+        t.setFilter(filters);
+      }
+      if ( filters.size() == 1 ) {
+        hack.setFilter(filters.get(0));
+      } else if ( filters.size() > 1 ) {
+        hack.setFilter(new Query.CompositeFilter( CompositeFilterOperator.AND, filters));
+      }
+      hack.setKeysOnly();
+
+      gaeCostLogger.declareQuery(hack);
+      int count = datastore.getDatastoreService().prepare(hack)
+          .countEntities(FetchOptions.Builder.withDefaults());
+      datastore.recordQueryUsage(relation, 1);
+      return count;
+    } catch (OverQuotaException e) {
+      datastore.recordQueryUsage(relation, 0);
+      throw new ODKOverQuotaException("[" + loggingContextTag + "] Quota exceeded", e);
+    } catch (Exception e) {
+      datastore.recordQueryUsage(relation, 0);
+      throw new ODKDatastoreException("[" + loggingContextTag + "] Unable to complete request", e);
+    }
+  }
+
+  // The GAE datastore has no aggregate queries. The min, max and grouped
+  // counts are computed over the records matching the filter criteria.
+
+  @Override
+  public Object executeMinValueForDataField(DataField dataField) throws ODKDatastoreException,
+      ODKOverQuotaException {
+    return executeAggregateValueForDataField(dataField, true);
+  }
+
+  @Override
+  public Object executeMaxValueForDataField(DataField dataField) throws ODKDatastoreException,
+      ODKOverQuotaException {
+    return executeAggregateValueForDataField(dataField, false);
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private Object executeAggregateValueForDataField(DataField dataField, boolean isMin)
+      throws ODKDatastoreException, ODKOverQuotaException {
+    if (dataField.getDataType() == DataType.BINARY) {
+      throw new IllegalStateException("Cannot aggregate over binary data field "
+          + dataField.getName() + " in " + relation.getSchemaName() + "."
+          + relation.getTableName());
+    }
+    Comparable best = null;
+    for (CommonFieldsBase cb : executeQuery()) {
+      Comparable value = (Comparable) getFieldValue(cb, dataField);
+      if (value != null
+          && (best == null || (isMin ? value.compareTo(best) < 0 : value.compareTo(best) > 0))) {
+        best = value;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public Map<Object, Long> executeCountGroupedByDataField(DataField dataField)
+      throws ODKDatastoreException, ODKOverQuotaException {
+    Map<Object, Long> counts = new HashMap<Object, Long>();
+    for (CommonFieldsBase cb : executeQuery()) {
+      Object value = getFieldValue(cb, dataField);
+      Long count = counts.get(value);
+      counts.put(value, (count == null) ? 1L : count + 1L);
+    }
+    // order by value, with null first
+    List<Object> values = new ArrayList<Object>(counts.keySet());
+    Collections.sort(values, new Comparator<Object>() {
+      @Override
+      public int compare(Object lhs, Object rhs) {
+        if (lhs == null) {
+          return (rhs == null) ? 0 : -1;
+        } else if (rhs == null) {
+          return 1;
+        }
+        return ((Comparable) lhs).compareTo(rhs);
+      }
+    });
+    Map<Object, Long> orderedCounts = new LinkedHashMap<Object, Long>();
+    for (Object value : values) {
+      orderedCounts.put(value, counts.get(value));
+    }
+    return orderedCounts;
+  }
 }
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine.mysql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.ProjectionRow;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * Maps the selected columns of a projection query into a ProjectionRow. Other
+ * columns of the relation are neither fetched nor mapped.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public class ProjectionRowMapper implements RowMapper<ProjectionRow> {
+
+  private final CommonFieldsBase relation;
+  private final List<DataField> fields;
+
+  ProjectionRowMapper(CommonFieldsBase relation, List<DataField> fields) {
+    this.relation = relation;
+    this.fields = fields;
+  }
+
+  @Override
+  public ProjectionRow mapRow(ResultSet rs, int rowNum) throws SQLException {
+
+    Object[] values = new Object[fields.size()];
+    for (int i = 0; i < values.length; ++i) {
+      DataField f = fields.get(i);
+      switch (f.getDataType()) {
+      case BINARY:
+        values[i] = rs.getBytes(f.getName());
+        break;
+      case LONG_STRING:
+      case URI:
+      case STRING:
+        values[i] = rs.getString(f.getName());
+        break;
+      case INTEGER:
+        long l = rs.getLong(f.getName());
+        values[i] = rs.wasNull() ? null : Long.valueOf(l);
+        break;
+      case DECIMAL:
+        values[i] = rs.getBigDecimal(f.getName());
+        break;
+      case BOOLEAN:
+        boolean b = rs.getBoolean(f.getName());
+        values[i] = rs.wasNull() ? null : Boolean.valueOf(b);
+        break;
+      case DATETIME:
+        Date d = rs.getTimestamp(f.getName());
+        values[i] = (d == null) ? null : new Date(d.getTime());
+        break;
+      default:
+        throw new IllegalStateException("Did not expect non-primitive type in column fetch");
+      }
+    }
+    return new ProjectionRow(relation, fields, values);
+  }
+}
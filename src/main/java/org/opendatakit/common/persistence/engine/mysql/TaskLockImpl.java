@@ -15,31 +15,34 @@
  */
 package org.opendatakit.common.persistence.engine.mysql;
 
-import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 import org.apache.commons.logging.LogFactory;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
-import org.opendatakit.common.persistence.Datastore;
-import org.opendatakit.common.persistence.EntityKey;
 import org.opendatakit.common.persistence.ITaskLockType;
+import org.opendatakit.common.persistence.PersistConsts;
 import org.opendatakit.common.persistence.TaskLock;
 import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics;
+import org.opendatakit.common.persistence.engine.TaskLeaseRegistry;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
-import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 import org.opendatakit.common.security.User;
-import org.springframework.dao.DataAccessException;
-import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 /**
+ * Task locks are leases on a row keyed by the (formId, taskType) being locked.
+ * A lease is obtained with a single conditional upsert that only takes over
+ * the row if its lease has expired or it is already held by the same lockId,
+ * so no table locks or multi-statement transactions are needed. Contenders
+ * within this server first wait on the {@link TaskLeaseRegistry}.
+ * 
+ * Leases are kept in the existing _task_lock table, which gains a nullable
+ * LOCK_ID column. Rows written by servers that have not yet been upgraded have
+ * a null LOCK_ID and are keyed by their lockId; a lease is not granted while
+ * one of those is unexpired for the same (formId, taskType). Those servers in
+ * turn see the lease row as the oldest lock and back off, so the lock remains
+ * exclusive during a rolling upgrade.
  * 
  * @author wbrunette@gmail.com
  * @author mitchellsundt@gmail.com
@@ -61,396 +64,165 @@ public class TaskLockImpl implements TaskLock {
 
   private static final String K_BQ = "`";
 
-  private TaskLockTable doTransaction(TaskLockTable entity, long l)
-      throws ODKEntityNotFoundException, ODKTaskLockException {
-    boolean first;
-
-    final List<String> stmts = new ArrayList<String>();
+  private static String quote(DataField f) {
+    return K_BQ + f.getName() + K_BQ;
+  }
 
-    final String uri = entity.getUri();
-    StringBuilder b = new StringBuilder();
-    String tableName = K_BQ + datastore.getDefaultSchemaName() + K_BQ + "." + K_BQ
-        + TaskLockTable.TABLE_NAME + K_BQ;
-    // String tableName= TaskLockTable.TABLE_NAME;
+  private String getTableName() {
+    return K_BQ + datastore.getDefaultSchemaName() + K_BQ + "." + K_BQ
+        + TaskLeaseTable.TABLE_NAME + K_BQ;
+  }
 
-    b.append("SET SESSION TRANSACTION ISOLATION LEVEL SERIALIZABLE");
-    stmts.add(b.toString());
-    b.setLength(0);
-    b.append("START TRANSACTION WITH CONSISTENT SNAPSHOT");
-    stmts.add(b.toString());
-    b.setLength(0);
-    b.append("SET @present := NOW(),");
-    b.append(" @uriUser := '");
-    b.append(user.getUriUser().replaceAll("'", "''"));
-    b.append("',");
-    b.append(" @uriLock := '");
-    b.append(uri.replaceAll("'", "''"));
-    b.append("',");
-    b.append(" @formId := '");
-    b.append(entity.getFormId().replaceAll("'", "''"));
-    b.append("',");
-    b.append(" @taskType := '");
-    b.append(entity.getTaskType().replaceAll("'", "''"));
-    b.append("',");
-    b.append(" @lifetimeMicroseconds := ");
-    b.append(1000L * l);
-    stmts.add(b.toString());
-    b.setLength(0);
-    b.append("LOCK TABLES ");
-    b.append(tableName);
-    b.append(" WRITE ");
-    stmts.add(b.toString());
-    b.setLength(0);
+  private static String expirationExpression() {
+    return "DATE_ADD(NOW(), INTERVAL ? MICROSECOND)";
+  }
 
-    dam.recordPutUsage(TaskLockTable.TABLE_NAME);
-    if (!entity.isFromDatabase()) {
-      // insert a new record
-      b.append("REPLACE INTO ");
-      b.append(tableName);
-      b.append(" (");
-      first = true;
-      for (DataField f : entity.getFieldList()) {
-        if (!first) {
-          b.append(",");
-        }
-        first = false;
-        b.append(K_BQ);
-        b.append(f.getName());
-        b.append(K_BQ);
-      }
-      first = true;
-      b.append(") VALUES ( ");
-      for (DataField f : entity.getFieldList()) {
-        if (!first) {
-          b.append(",");
-        }
-        first = false;
-        if (f.equals(entity.creationDate) || f.equals(entity.lastUpdateDate)) {
-          b.append("@present");
-        } else if (f.equals(entity.creatorUriUser) || f.equals(entity.lastUpdateUriUser)) {
-          b.append("@uriUser");
-        } else if (f.equals(entity.formId)) {
-          b.append("@formId");
-        } else if (f.equals(entity.taskType)) {
-          b.append("@taskType");
-        } else if (f.equals(entity.primaryKey)) {
-          b.append("@uriLock");
-        } else if (f.equals(entity.expirationDateTime)) {
-          b.append(" DATE_ADD(CAST(@present AS DATETIME), INTERVAL @lifetimeMicroseconds MICROSECOND)");
-        } else {
-          throw new IllegalStateException("unexpected case " + f.getName());
-        }
-      }
-      b.append(")");
-      stmts.add(b.toString());
-      b.setLength(0);
-    } else {
-      // update existing record
-      b.append("UPDATE ");
-      b.append(tableName);
-      b.append(" SET ");
-      first = true;
-      for (DataField f : entity.getFieldList()) {
-        if (f == entity.primaryKey)
-          continue;
-        if (!first) {
-          b.append(",");
-        }
-        first = false;
-        b.append(K_BQ);
-        b.append(f.getName());
-        b.append(K_BQ);
-        b.append(" = ");
-        if (f.equals(entity.creationDate) || f.equals(entity.lastUpdateDate)) {
-          b.append("@present");
-        } else if (f.equals(entity.creatorUriUser) || f.equals(entity.lastUpdateUriUser)) {
-          b.append("@uriUser");
-        } else if (f.equals(entity.formId)) {
-          b.append("@formId");
-        } else if (f.equals(entity.taskType)) {
-          b.append("@taskType");
-        } else if (f.equals(entity.primaryKey)) {
-          b.append("@uriLock");
-        } else if (f.equals(entity.expirationDateTime)) {
-          b.append(" DATE_ADD(CAST(@present AS DATETIME), INTERVAL @lifetimeMicroseconds MICROSECOND)");
-        } else {
-          throw new IllegalStateException("unexpected case " + f.getName());
-        }
-      }
-      b.append(" WHERE ");
-      b.append(K_BQ);
-      b.append(entity.primaryKey.getName());
-      b.append(K_BQ);
-      b.append(" = ");
-      b.append("@uriLock");
-      stmts.add(b.toString());
-      b.setLength(0);
+  /**
+   * Insert the lease row or, if it exists, take it over when it has expired or
+   * is already held by this lockId.
+   * 
+   * MySQL evaluates the ON DUPLICATE KEY UPDATE assignments left to right, so
+   * the LOCK_ID assignment (which tests the old expiration) is done first and
+   * the remaining assignments apply only if LOCK_ID is now ours.
+   */
+  private String getAcquireStatement(TaskLeaseTable t) {
+    StringBuilder b = new StringBuilder();
+    b.append("INSERT INTO ").append(getTableName()).append(" (");
+    b.append(quote(t.primaryKey)).append(",");
+    b.append(quote(t.creatorUriUser)).append(",");
+    b.append(quote(t.creationDate)).append(",");
+    b.append(quote(t.lastUpdateUriUser)).append(",");
+    b.append(quote(t.lastUpdateDate)).append(",");
+    b.append(quote(t.lockId)).append(",");
+    b.append(quote(t.formId)).append(",");
+    b.append(quote(t.taskType)).append(",");
+    b.append(quote(t.expirationDateTime));
+    b.append(") VALUES (?,?,NOW(),?,NOW(),?,?,?,").append(expirationExpression()).append(")");
+    b.append(" ON DUPLICATE KEY UPDATE ");
+    b.append(quote(t.lockId)).append(" = IF(").append(quote(t.expirationDateTime))
+        .append(" <= NOW() OR ").append(quote(t.lockId)).append(" = VALUES(")
+        .append(quote(t.lockId)).append("), VALUES(").append(quote(t.lockId)).append("), ")
+        .append(quote(t.lockId)).append(")");
+    for (DataField f : new DataField[] { t.lastUpdateUriUser, t.lastUpdateDate,
+        t.expirationDateTime }) {
+      b.append(", ").append(quote(f)).append(" = IF(").append(quote(t.lockId))
+          .append(" = VALUES(").append(quote(t.lockId)).append("), VALUES(").append(quote(f))
+          .append("), ").append(quote(f)).append(")");
     }
-    // delete stale locks (don't care who's)
-    dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
-    b.append("DELETE FROM ");
-    b.append(tableName);
-    b.append(" WHERE ");
-    b.append(K_BQ);
-    b.append(entity.expirationDateTime.getName());
-    b.append(K_BQ);
-    b.append(" <= CAST(@present AS DATETIME)");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // determine the time of the oldest lock for this resource and task type...
-    // do this by querying for the minimum expiration time
-    // BUT, first, set the minimum time to the present time in case there are no locks.
-    b.append("SET @minExpiration = @present");
-    stmts.add(b.toString());
-    b.setLength(0);
-    dam.recordQueryUsage(TaskLockTable.TABLE_NAME, 1);
-    b.append("SELECT @minExpiration := MIN(");
-    b.append(K_BQ);
-    b.append(entity.expirationDateTime.getName());
-    b.append(K_BQ);
-    b.append(") FROM ");
-    b.append(tableName);
-    b.append(" WHERE ");
-    b.append(K_BQ);
-    b.append(entity.formId.getName());
-    b.append(K_BQ);
-    b.append(" = @formId AND ");
-    b.append(K_BQ);
-    b.append(entity.taskType.getName());
-    b.append(K_BQ);
-    b.append(" = @taskType");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // determine if there are two or more records matching
-    // the minimum expiration time.  If there are, we must
-    // release the locks and retry, as we cannot determine
-    // which one is first.
-    b.append("SET @uriCount = 0");
-    stmts.add(b.toString());
-    b.setLength(0);
-    b.append("SELECT @uriCount := COUNT(");
-    b.append(K_BQ);
-    b.append(entity.primaryKey.getName());
-    b.append(K_BQ);
-    b.append(") FROM ");
-    b.append(tableName);
-    b.append(" WHERE ");
-
-    b.append(K_BQ);
-    b.append(entity.formId.getName());
-    b.append(K_BQ);
-    b.append(" = @formId AND ");
-
-    b.append(K_BQ);
-    b.append(entity.taskType.getName());
-    b.append(K_BQ);
-    b.append(" = @taskType AND ");
-
-    b.append(K_BQ);
-    b.append(entity.expirationDateTime.getName());
-    b.append(K_BQ);
-    b.append(" = CAST(@minExpiration AS DATETIME)");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // delete all locks except the oldest one for this resource and task type...
-    // or, if we have two or more old locks, release ours
-    // whatever lock exists identifies the owner of the resource.
-    dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
-    b.append("DELETE FROM ");
-    b.append(tableName);
-    b.append(" WHERE ");
-
-    b.append(K_BQ);
-    b.append(entity.formId.getName());
-    b.append(K_BQ);
-    b.append(" = @formId AND ");
-
-    b.append(K_BQ);
-    b.append(entity.taskType.getName());
-    b.append(K_BQ);
-    b.append(" = @taskType AND ( ");
-
-    b.append(K_BQ);
-    b.append(entity.expirationDateTime.getName());
-    b.append(K_BQ);
-    b.append(" > CAST(@minExpiration AS DATETIME)");
-    b.append(" OR ( @uriCount > 1 AND ");
-    b.append(K_BQ);
-    b.append(entity.expirationDateTime.getName());
-    b.append(K_BQ);
-    b.append(" = CAST(@minExpiration AS DATETIME)");
-    b.append(" AND ");
-    b.append(K_BQ);
-    b.append(entity.primaryKey.getName());
-    b.append(K_BQ);
-    b.append(" = @uriLock ) )");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // and within the transaction, see if the primary key of the winning lock is ours...
-    b.append("SELECT ");
-    b.append(K_BQ);
-    b.append(entity.primaryKey.getName());
-    b.append(K_BQ);
-    b.append(" FROM ");
-    b.append(tableName);
-    b.append(" WHERE ");
-    b.append(K_BQ);
-    b.append(entity.formId.getName());
-    b.append(K_BQ);
-    b.append(" = @formId AND ");
+    return b.toString();
+  }
 
-    b.append(K_BQ);
-    b.append(entity.taskType.getName());
-    b.append(K_BQ);
-    b.append(" = @taskType AND ");
-    b.append(K_BQ);
-    b.append(entity.expirationDateTime.getName());
-    b.append(K_BQ);
-    b.append(" = CAST(@minExpiration AS DATETIME)");
-    stmts.add(b.toString());
-    b.setLength(0);
-    b.append("UNLOCK TABLES");
-    stmts.add(b.toString());
-    b.setLength(0);
-    b.append("COMMIT");
-    stmts.add(b.toString());
-    b.setLength(0);
-    
-    TaskLockTable relation;
-    try {
-      relation = TaskLockTable.assertRelation(datastore, user);
-    } catch (ODKDatastoreException e) {
-      throw new ODKTaskLockException(PERSISTENCE_LAYER_PROBLEM, e);
-    }
-  
-    boolean success = false;
+  private boolean acquireLease(String leaseUri, String lockId, String formId,
+      ITaskLockType taskType) throws ODKTaskLockException {
     try {
-
+      TaskLeaseTable t = TaskLeaseTable.assertRelation(datastore, user);
       JdbcTemplate jdbc = datastore.getJdbcConnection();
-      Object o = jdbc.execute(new ConnectionCallback<Object>() {
-
-        @Override
-        public Object doInConnection(Connection conn) throws SQLException, DataAccessException {
-          boolean success = false;
-          boolean oldValue = conn.getAutoCommit();
-          try {
-            conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            String lastResult = null;
-            for (String s : stmts) {
-              Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, ResultSet.CLOSE_CURSORS_AT_COMMIT);
-              if ( s.startsWith("SELECT") ) {
-                ResultSet rs = stmt.executeQuery(s);
-                if ( rs.first() ) {
-                  lastResult = rs.getString(1);
-                }
-                rs.close();
-              } else {
-                stmt.executeUpdate(s);
-              }
-              stmt.close();
-            }
-            conn.commit();
-            success = uri.equals(lastResult);
-          } catch (Exception e) {
-            e.printStackTrace();
-            conn.rollback();
-          } finally {
-            if ( !success ) {
-              Statement stmt = conn.createStatement();
-              LogFactory.getLog(TaskLockImpl.class).info("UNLOCK TABLES");
-              stmt.execute("UNLOCK TABLES");
-              conn.commit();
-            }
-          }
-          conn.setAutoCommit(oldValue);
-          return success ? uri : null;
-        }
-
-      });
-      
-      success = o != null && uri.equals((String) o);
-
+      String uriUser = user.getUriUser();
+
+      dam.recordPutUsage(TaskLeaseTable.TABLE_NAME);
+      jdbc.update(getAcquireStatement(t), new Object[] { leaseUri, uriUser, uriUser, lockId,
+          formId, taskType.getName(), 1000L * taskType.getLockExpirationTimeout() });
+
+      // the upsert leaves the row with whichever lockId holds the lease;
+      // any unexpired lock of a not-yet-upgraded server is returned with it.
+      List<String> holders = jdbc.queryForList("SELECT " + quote(t.lockId) + " FROM "
+          + getTableName() + " WHERE " + quote(t.primaryKey) + " = ? OR (" + quote(t.formId)
+          + " = ? AND " + quote(t.taskType) + " = ? AND " + quote(t.lockId) + " IS NULL AND "
+          + quote(t.expirationDateTime) + " > NOW())",
+          new Object[] { leaseUri, formId, taskType.getName() }, String.class);
+      dam.recordQueryUsage(TaskLeaseTable.TABLE_NAME, holders.size());
+      if (holders.size() == 1 && lockId.equals(holders.get(0))) {
+        return true;
+      }
+      if (holders.contains(lockId)) {
+        // a legacy lock is still live; give the lease back
+        dam.recordDeleteUsage(TaskLeaseTable.TABLE_NAME);
+        jdbc.update("DELETE FROM " + getTableName() + " WHERE " + quote(t.primaryKey)
+            + " = ? AND " + quote(t.lockId) + " = ?", new Object[] { leaseUri, lockId });
+      }
+      return false;
     } catch (Exception e) {
       throw new ODKTaskLockException(PERSISTENCE_LAYER_PROBLEM, e);
     }
-    if ( success ) {
-      return (TaskLockTable) datastore.getEntity(relation, uri, user);
-    } else {
-      throw new ODKEntityNotFoundException();
-    }
   }
 
   @Override
   public boolean obtainLock(String lockId, String formId, ITaskLockType taskType) {
+    String leaseUri = TaskLeaseRegistry.getLeaseUri(formId, taskType.getName());
+    if (!TaskLeaseRegistry.awaitAvailable(leaseUri, lockId)) {
+      // another thread on this server holds it...
+      return false;
+    }
     boolean result = false;
     try {
-      TaskLockTable relation = TaskLockTable.assertRelation(datastore, user);
-      TaskLockTable entity = datastore.createEntityUsingRelation(relation, user);
-      entity.setStringField(entity.primaryKey, lockId);
-      entity.setFormId(formId);
-      entity.setTaskType(taskType.getName());
-      entity = doTransaction(entity, taskType.getLockExpirationTimeout());
-      result = true;
-    } catch (ODKEntityNotFoundException e) {
-      // didn't gain the lock...
+      result = acquireLease(leaseUri, lockId, formId, taskType);
     } catch (ODKTaskLockException e) {
       // unexpected failure...
       e.printStackTrace();
-    } catch (ODKDatastoreException e) {
-      // unexpected failure...
-      e.printStackTrace();
+    }
+    if (result) {
+      TaskLeaseRegistry.acquired(leaseUri, lockId, taskType.getLockExpirationTimeout());
     }
     return result;
   }
 
   @Override
   public boolean renewLock(String lockId, String formId, ITaskLockType taskType) {
+    String leaseUri = TaskLeaseRegistry.getLeaseUri(formId, taskType.getName());
     boolean result = false;
     try {
-      TaskLockTable relation = TaskLockTable.assertRelation(datastore, user);
-      TaskLockTable entity = datastore.getEntity(relation, lockId, user);
-      if (!(entity.getFormId().equals(formId) && entity.getTaskType().equals(taskType.getName()))) {
-        throw new IllegalArgumentException("formId or taskType don't match datastore values");
-      }
-      entity = doTransaction(entity, taskType.getLockExpirationTimeout());
-      result = true;
-    } catch (IllegalArgumentException e) {
-      // unexpected failure...
-      e.printStackTrace();
-    } catch (ODKEntityNotFoundException e) {
-      // unexpected failure...
-      e.printStackTrace();
-    } catch (ODKDatastoreException e) {
-      // unexpected failure...
-      e.printStackTrace();
-    } catch (ODKTaskLockException e) {
+      TaskLeaseTable t = TaskLeaseTable.assertRelation(datastore, user);
+      dam.recordPutUsage(TaskLeaseTable.TABLE_NAME);
+      // only extends the lease if it has not been taken over by another lockId
+      int count = datastore.getJdbcConnection().update(
+          "UPDATE " + getTableName() + " SET " + quote(t.lastUpdateUriUser) + " = ?, "
+              + quote(t.lastUpdateDate) + " = NOW(), " + quote(t.expirationDateTime) + " = "
+              + expirationExpression() + " WHERE " + quote(t.primaryKey) + " = ? AND "
+              + quote(t.lockId) + " = ?",
+          new Object[] { user.getUriUser(), 1000L * taskType.getLockExpirationTimeout(),
+              leaseUri, lockId });
+      result = (count == 1);
+    } catch (Exception e) {
       // unexpected failure...
       e.printStackTrace();
     }
+    if (result) {
+      TaskLeaseRegistry.acquired(leaseUri, lockId, taskType.getLockExpirationTimeout());
+    } else {
+      TaskLeaseRegistry.released(leaseUri, lockId);
+    }
     return result;
   }
 
   @Override
   public boolean releaseLock(String lockId, String formId, ITaskLockType taskType) {
+    String leaseUri = TaskLeaseRegistry.getLeaseUri(formId, taskType.getName());
     boolean result = false;
     try {
-      TaskLockTable relation = TaskLockTable.assertRelation(datastore, user);
-      // we don't have the record that we want to delete; construct
-      // the entity key from the relation and the URI for the record.
-      datastore.deleteEntity(new EntityKey(relation, lockId), user);
+      TaskLeaseTable t = TaskLeaseTable.assertRelation(datastore, user);
+      dam.recordDeleteUsage(TaskLeaseTable.TABLE_NAME);
+      // a lease that was taken over by another lockId is left alone
+      datastore.getJdbcConnection().update(
+          "DELETE FROM " + getTableName() + " WHERE " + quote(t.primaryKey) + " = ? AND "
+              + quote(t.lockId) + " = ?", new Object[] { leaseUri, lockId });
       result = true;
-    } catch (ODKDatastoreException e) {
+    } catch (Exception e) {
       // if we see a lot of these, we are running too long between renewals
       LogFactory.getLog(TaskLockImpl.class).info("delete of taskLock threw exception!");
       e.printStackTrace();
+    } finally {
+      TaskLeaseRegistry.released(leaseUri, lockId);
     }
     return result;
   }
 
-  private static class TaskLockTable extends CommonFieldsBase {
+  private static class TaskLeaseTable extends CommonFieldsBase {
     static final String TABLE_NAME = "_task_lock";
+    private static final String UNIQUE_LEASE_INDEX = "_task_lock_uri";
 
+    // null on the locks written by servers that predate leases
+    private static final DataField LOCK_ID = new DataField("LOCK_ID", DataField.DataType.URI,
+        true, PersistConsts.URI_STRING_LEN);
     private static final DataField FORM_ID = new DataField("FORM_ID", DataField.DataType.STRING,
         false, 4096L);
     private static final DataField TASK_TYPE = new DataField("TASK_TYPE",
@@ -458,70 +230,99 @@ public class TaskLockImpl implements TaskLock {
     private static final DataField EXPIRATION_DATETIME = new DataField("EXPIRATION_DATETIME",
         DataField.DataType.DATETIME, true);
 
+    DataField lockId;
     DataField formId;
     DataField taskType;
     DataField expirationDateTime;
 
-    TaskLockTable(String schema) {
+    TaskLeaseTable(String schema) {
       super(schema, TABLE_NAME);
+      fieldList.add(lockId = new DataField(LOCK_ID));
       fieldList.add(formId = new DataField(FORM_ID));
       fieldList.add(taskType = new DataField(TASK_TYPE));
       fieldList.add(expirationDateTime = new DataField(EXPIRATION_DATETIME));
     }
 
-    TaskLockTable(TaskLockTable ref, User user) {
+    TaskLeaseTable(TaskLeaseTable ref, User user) {
       super(ref, user);
+      lockId = ref.lockId;
       formId = ref.formId;
       taskType = ref.taskType;
       expirationDateTime = ref.expirationDateTime;
     }
 
-    String getFormId() {
-      return getStringField(formId);
-    }
-
-    void setFormId(String value) {
-      if (!setStringField(formId, value)) {
-        throw new IllegalStateException("overflow formId");
-      }
+    @Override
+    public CommonFieldsBase getEmptyRow(User user) {
+      return new TaskLeaseTable(this, user);
     }
 
-    String getTaskType() {
-      return getStringField(taskType);
-    }
+    static TaskLeaseTable relation = null;
 
-    void setTaskType(String value) {
-      if (!setStringField(taskType, value)) {
-        throw new IllegalStateException("overflow taskType");
+    static synchronized final TaskLeaseTable assertRelation(DatastoreImpl datastore, User user)
+        throws ODKDatastoreException {
+      if (relation == null) {
+        TaskLeaseTable relationPrototype;
+        relationPrototype = new TaskLeaseTable(datastore.getDefaultSchemaName());
+        assertLockIdColumn(datastore, relationPrototype);
+        datastore.assertRelation(relationPrototype, user);
+        assertUniqueLeaseIndex(datastore, relationPrototype);
+        relation = relationPrototype;
       }
+      return relation;
     }
 
-    @SuppressWarnings("unused")
-    Date getExpirationDateTime() {
-      return getDateField(expirationDateTime);
-    }
-
-    @SuppressWarnings("unused")
-    void setExpirationDateTime(Date value) {
-      setDateField(expirationDateTime, value);
+    /**
+     * A _task_lock table created before leases lacks the LOCK_ID column; add it
+     * in place so that servers that are not yet upgraded keep using the table.
+     */
+    private static void assertLockIdColumn(DatastoreImpl datastore, TaskLeaseTable t)
+        throws ODKDatastoreException {
+      try {
+        if (isMissingLockIdColumn(datastore, t)) {
+          try {
+            datastore.getJdbcConnection().execute("ALTER TABLE " + K_BQ + t.getSchemaName()
+                + K_BQ + "." + K_BQ + t.getTableName() + K_BQ + " ADD COLUMN " + quote(LOCK_ID)
+                + " VARCHAR(" + PersistConsts.URI_STRING_LEN + ") CHARACTER SET utf8 NULL");
+          } catch (Exception e) {
+            // another server may have added it first
+            if (isMissingLockIdColumn(datastore, t)) {
+              throw e;
+            }
+          }
+        }
+      } catch (Exception e) {
+        throw new ODKDatastoreException(e);
+      }
     }
 
-    @Override
-    public CommonFieldsBase getEmptyRow(User user) {
-      return new TaskLockTable(this, user);
+    private static boolean isMissingLockIdColumn(DatastoreImpl datastore, TaskLeaseTable t) {
+      List<String> columns = datastore.getJdbcConnection().queryForList(
+          "SELECT column_name FROM information_schema.columns"
+              + " WHERE table_schema = ? AND table_name = ?",
+          new Object[] { t.getSchemaName(), t.getTableName() }, String.class);
+      // a missing table is created with the column by assertRelation
+      return !columns.isEmpty() && !columns.contains(LOCK_ID.getName());
     }
 
-    static TaskLockTable relation = null;
-
-    static synchronized final TaskLockTable assertRelation(Datastore datastore, User user)
+    /**
+     * Tables are created with a non-unique index on _URI; the lease upsert
+     * needs a unique one for ON DUPLICATE KEY UPDATE to apply.
+     */
+    private static void assertUniqueLeaseIndex(DatastoreImpl datastore, TaskLeaseTable t)
         throws ODKDatastoreException {
-      if (relation == null) {
-        TaskLockTable relationPrototype;
-        relationPrototype = new TaskLockTable(datastore.getDefaultSchemaName());
-        datastore.assertRelation(relationPrototype, user);
-        relation = relationPrototype;
+      try {
+        JdbcTemplate jdbc = datastore.getJdbcConnection();
+        Integer count = jdbc.queryForObject("SELECT COUNT(*) FROM information_schema.statistics"
+            + " WHERE table_schema = ? AND table_name = ? AND index_name = ?", new Object[] {
+            t.getSchemaName(), t.getTableName(), UNIQUE_LEASE_INDEX }, Integer.class);
+        if (count == null || count == 0) {
+          jdbc.execute("ALTER TABLE " + K_BQ + t.getSchemaName() + K_BQ + "." + K_BQ
+              + t.getTableName() + K_BQ + " ADD UNIQUE INDEX " + K_BQ + UNIQUE_LEASE_INDEX
+              + K_BQ + " (" + quote(t.primaryKey) + ")");
+        }
+      } catch (Exception e) {
+        throw new ODKDatastoreException(e);
       }
-      return relation;
     }
   }
 }
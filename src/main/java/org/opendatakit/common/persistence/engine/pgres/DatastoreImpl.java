@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -36,6 +37,10 @@ import org.opendatakit.common.persistence.Query;
 import org.opendatakit.common.persistence.Query.FilterOperation;
 import org.opendatakit.common.persistence.TaskLock;
 import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.Operation;
+import org.opendatakit.common.persistence.engine.EngineUtils;
+import org.opendatakit.common.persistence.engine.SqlTemplateCache;
+import org.opendatakit.common.persistence.engine.VerifiedSchemaCache;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
@@ -63,6 +68,8 @@ public class DatastoreImpl implements Datastore, InitializingBean {
                                                     // name
 
   private final DatastoreAccessMetrics dam = new DatastoreAccessMetrics();
+  private final SqlTemplateCache templateCache = new SqlTemplateCache(K_BQ);
+  private final VerifiedSchemaCache schemaCache = new VerifiedSchemaCache();
   private DataSource dataSource = null;
   private DataSourceTransactionManager tm = null;
 
@@ -116,6 +123,12 @@ public class DatastoreImpl implements Datastore, InitializingBean {
   public static final String K_UPDATE = "UPDATE ";
   public static final String K_SET = " SET ";
   public static final String K_DELETE_FROM = "DELETE FROM ";
+  public static final String K_IN = " IN ";
+
+  /**
+   * Maximum number of rows to send in a single JDBC batch or IN (...) clause.
+   */
+  private static final int MAX_BATCH_SIZE = 200;
 
   public static final Integer DEFAULT_DBL_NUMERIC_SCALE = 10;
   public static final Integer DEFAULT_DBL_NUMERIC_PRECISION = 38;
@@ -252,46 +265,26 @@ public class DatastoreImpl implements Datastore, InitializingBean {
 
   public static void buildArgumentList(Object[] ol, int[] il, int idx, CommonFieldsBase entity,
       DataField f) {
-    switch (f.getDataType()) {
-    case BOOLEAN:
-      ol[idx] = entity.getBooleanField(f);
-      il[idx] = java.sql.Types.BOOLEAN;
-      break;
-    case STRING:
-    case URI:
-      ol[idx] = entity.getStringField(f);
-      il[idx] = java.sql.Types.VARCHAR;
-      break;
-    case INTEGER:
-      ol[idx] = entity.getLongField(f);
-      il[idx] = java.sql.Types.BIGINT;
-      break;
-    case DECIMAL:
-      ol[idx] = entity.getNumericField(f);
-      il[idx] = java.sql.Types.DECIMAL;
-      break;
-    case DATETIME:
-      ol[idx] = entity.getDateField(f);
-      il[idx] = java.sql.Types.TIMESTAMP;
-      break;
-    case BINARY:
-      ol[idx] = entity.getBlobField(f);
-      il[idx] = java.sql.Types.LONGVARBINARY;
-      break;
-    case LONG_STRING:
-      ol[idx] = entity.getStringField(f);
-      il[idx] = java.sql.Types.LONGVARCHAR;
-      break;
-
-    default:
-      throw new IllegalStateException("Unexpected data type");
-    }
+    ol[idx] = SqlTemplateCache.getArgumentValue(entity, f);
+    il[idx] = SqlTemplateCache.getSqlType(f);
+  }
+
+  SqlTemplateCache.Templates getTemplates(CommonFieldsBase relation) {
+    return templateCache.getTemplates(relation);
   }
 
   void recordQueryUsage(CommonFieldsBase relation, int recCount) {
     dam.recordQueryUsage(relation, recCount);
   }
 
+  void recordQueryUsage(CommonFieldsBase relation, int readCount, int returnedCount) {
+    dam.recordQueryUsage(relation, readCount, returnedCount);
+  }
+
+  void recordLatency(CommonFieldsBase relation, Operation op, long startNanos) {
+    dam.recordLatency(relation, op, System.nanoTime() - startNanos);
+  }
+
   @Override
   public String getDefaultSchemaName() {
     return schemaName;
@@ -404,6 +397,13 @@ public class DatastoreImpl implements Datastore, InitializingBean {
    */
   @Override
   public void assertRelation(CommonFieldsBase relation, User user) throws ODKDatastoreException {
+    // already verified with this field list -- no need to query the
+    // information schema again.
+    String fingerprint = VerifiedSchemaCache.getFingerprint(relation);
+    if (schemaCache.applyVerified(relation, fingerprint)) {
+      return;
+    }
+    templateCache.invalidate(relation);
     JdbcTemplate jc = getJdbcConnection();
     TransactionStatus status = null;
     try {
@@ -420,6 +420,7 @@ public class DatastoreImpl implements Datastore, InitializingBean {
         // it exists -- we're done!
         tm.commit(status);
         status = null;
+        schemaCache.putVerified(relation, fingerprint);
         return;
       } else {
         tm.commit(status);
@@ -541,6 +542,7 @@ public class DatastoreImpl implements Datastore, InitializingBean {
         // and update the relation with actual dimensions...
         updateRelation(jc, relation, createTableStmt);
         tm.commit(status);
+        schemaCache.putVerified(relation, fingerprint);
       }
     } catch (Exception e) {
       if (status != null) {
@@ -607,6 +609,8 @@ public class DatastoreImpl implements Datastore, InitializingBean {
 
   @Override
   public void dropRelation(CommonFieldsBase relation, User user) throws ODKDatastoreException {
+    templateCache.invalidate(relation);
+    schemaCache.invalidate(relation);
     try {
       StringBuilder b = new StringBuilder();
       b.append(K_DROP_TABLE);
@@ -676,115 +680,57 @@ public class DatastoreImpl implements Datastore, InitializingBean {
   @Override
   public void putEntity(CommonFieldsBase entity, User user) throws ODKEntityPersistException {
     dam.recordPutUsage(entity);
+    long startNanos = System.nanoTime();
     try {
-      boolean first;
-      StringBuilder b = new StringBuilder();
+      SqlTemplateCache.Templates t = templateCache.getTemplates(entity);
       if (entity.isFromDatabase()) {
         // we need to do an update
         entity.setDateField(entity.lastUpdateDate, new Date());
         entity.setStringField(entity.lastUpdateUriUser, user.getUriUser());
 
-        b.append(K_UPDATE);
-        b.append(K_BQ);
-        b.append(entity.getSchemaName());
-        b.append(K_BQ);
-        b.append(".");
-        b.append(K_BQ);
-        b.append(entity.getTableName());
-        b.append(K_BQ);
-        b.append(K_SET);
-
-        int idx = 0;
-        Object[] ol = new Object[entity.getFieldList().size()];
-        int[] il = new int[entity.getFieldList().size()];
-
-        first = true;
-        // fields...
-        for (DataField f : entity.getFieldList()) {
-          // primary key goes in the where clause...
-          if (f == entity.primaryKey)
-            continue;
-          if (!first) {
-            b.append(K_CS);
-          }
-          first = false;
-          b.append(K_BQ);
-          b.append(f.getName());
-          b.append(K_BQ);
-          b.append(K_EQ);
-          b.append(K_BIND_VALUE);
-
-          buildArgumentList(ol, il, idx, entity, f);
-          ++idx;
-        }
-        b.append(K_WHERE);
-        b.append(K_BQ);
-        b.append(entity.primaryKey.getName());
-        b.append(K_BQ);
-        b.append(K_EQ);
-        b.append(K_BIND_VALUE);
-        buildArgumentList(ol, il, idx, entity, entity.primaryKey);
-
         // update...
-        getJdbcConnection().update(b.toString(), ol, il);
+        getJdbcConnection().update(t.getUpdate(), t.getUpdateArgs(entity), t.getUpdateArgTypes());
       } else {
         // not yet in database -- insert
-        b.append(K_INSERT_INTO);
-        b.append(K_BQ);
-        b.append(entity.getSchemaName());
-        b.append(K_BQ);
-        b.append(".");
-        b.append(K_BQ);
-        b.append(entity.getTableName());
-        b.append(K_BQ);
-        first = true;
-        b.append(K_OPEN_PAREN);
-        // fields...
-        for (DataField f : entity.getFieldList()) {
-          if (!first) {
-            b.append(K_CS);
-          }
-          first = false;
-          b.append(K_BQ);
-          b.append(f.getName());
-          b.append(K_BQ);
-        }
-        b.append(K_CLOSE_PAREN);
-        b.append(K_VALUES);
-
-        int idx = 0;
-        Object[] ol = new Object[entity.getFieldList().size()];
-        int[] il = new int[entity.getFieldList().size()];
-
-        first = true;
-        b.append(K_OPEN_PAREN);
-        // fields...
-        for (DataField f : entity.getFieldList()) {
-          if (!first) {
-            b.append(K_CS);
-          }
-          first = false;
-          b.append(K_BIND_VALUE);
-
-          buildArgumentList(ol, il, idx, entity, f);
-          ++idx;
-        }
-        b.append(K_CLOSE_PAREN);
-
-        // insert...
-        getJdbcConnection().update(b.toString(), ol, il);
+        getJdbcConnection().update(t.getInsert(), t.getInsertArgs(entity), t.getInsertArgTypes());
         entity.setFromDatabase(true); // now it is in the database...
       }
     } catch (Exception e) {
       throw new ODKEntityPersistException(e);
+    } finally {
+      recordLatency(entity, Operation.PUT, startNanos);
     }
   }
 
+  /**
+   * Groups the entities by relation and by whether they are inserts or updates,
+   * and issues each group of more than one entity as a single JDBC batch via
+   * {@link #batchAlterData(List, User)}.
+   */
   @Override
   public void putEntities(Collection<? extends CommonFieldsBase> entityList, User user)
       throws ODKEntityPersistException {
+    Map<String, List<CommonFieldsBase>> groups =
+        new LinkedHashMap<String, List<CommonFieldsBase>>();
     for (CommonFieldsBase d : entityList) {
-      putEntity(d, user);
+      String groupKey = (d.isFromDatabase() ? "U:" : "I:") + d.getSchemaName() + "."
+          + d.getTableName();
+      List<CommonFieldsBase> group = groups.get(groupKey);
+      if (group == null) {
+        group = new ArrayList<CommonFieldsBase>();
+        groups.put(groupKey, group);
+      }
+      group.add(d);
+    }
+
+    for (List<CommonFieldsBase> group : groups.values()) {
+      if (group.size() == 1) {
+        putEntity(group.get(0), user);
+      } else {
+        for (int i = 0; i < group.size(); i += MAX_BATCH_SIZE) {
+          batchAlterData(group.subList(i, Math.min(i + MAX_BATCH_SIZE, group.size())), user);
+        }
+      }
     }
   }
 
@@ -795,137 +741,45 @@ public class DatastoreImpl implements Datastore, InitializingBean {
       return;
     }
 
-    boolean generateSQL = true;
-    String sql = null;
-    int[] argTypes = new int[changes.get(0).getFieldList().size()];
+    SqlTemplateCache.Templates t = templateCache.getTemplates(changes.get(0));
+    boolean isUpdate = changes.get(0).isFromDatabase();
     List<Object[]> batchArgs = new ArrayList<Object[]>();
-    StringBuilder b = new StringBuilder();
 
     for ( CommonFieldsBase entity : changes ) {
       dam.recordPutUsage(entity);
 
-      boolean first;
-      b.setLength(0);
-
-      Object[] ol = new Object[entity.getFieldList().size()];
-
-      if (entity.isFromDatabase()) {
+      if (isUpdate) {
         // we need to do an update
         entity.setDateField(entity.lastUpdateDate, new Date());
         entity.setStringField(entity.lastUpdateUriUser, user.getUriUser());
 
-        if ( generateSQL ) {
-          b.append(K_UPDATE);
-          b.append(K_BQ);
-          b.append(entity.getSchemaName());
-          b.append(K_BQ);
-          b.append(".");
-          b.append(K_BQ);
-          b.append(entity.getTableName());
-          b.append(K_BQ);
-          b.append(K_SET);
-        }
-        
-        int idx = 0;
-        first = true;
-        // fields...
-        for (DataField f : entity.getFieldList()) {
-          // primary key goes in the where clause...
-          if (f == entity.primaryKey)
-            continue;
-          
-          if ( generateSQL ) {
-            if (!first) {
-              b.append(K_CS);
-            }
-            first = false;
-            b.append(K_BQ);
-            b.append(f.getName());
-            b.append(K_BQ);
-            b.append(K_EQ);
-            b.append(K_BIND_VALUE);
-          }
-          
-          buildArgumentList(ol, argTypes, idx, entity, f);
-          ++idx;
-        }
-        if ( generateSQL ) {
-          b.append(K_WHERE);
-          b.append(K_BQ);
-          b.append(entity.primaryKey.getName());
-          b.append(K_BQ);
-          b.append(K_EQ);
-          b.append(K_BIND_VALUE);
-        }
-        buildArgumentList(ol, argTypes, idx, entity, entity.primaryKey);
-        
+        batchArgs.add(t.getUpdateArgs(entity));
       } else {
-        if ( generateSQL ) {
         // not yet in database -- insert
-          b.append(K_INSERT_INTO);
-          b.append(K_BQ);
-          b.append(entity.getSchemaName());
-          b.append(K_BQ);
-          b.append(".");
-          b.append(K_BQ);
-          b.append(entity.getTableName());
-          b.append(K_BQ);
-          first = true;
-          b.append(K_OPEN_PAREN);
-          // fields...
-          for (DataField f : entity.getFieldList()) {
-            if (!first) {
-              b.append(K_CS);
-            }
-            first = false;
-            b.append(K_BQ);
-            b.append(f.getName());
-            b.append(K_BQ);
-          }
-          b.append(K_CLOSE_PAREN);
-          b.append(K_VALUES);
-          b.append(K_OPEN_PAREN);
-        }
-
-        int idx = 0;
-        first = true;
-        // fields...
-        for (DataField f : entity.getFieldList()) {
-          if ( generateSQL ) {
-            if (!first) {
-              b.append(K_CS);
-            }
-            first = false;
-            b.append(K_BIND_VALUE);
-          }
-          buildArgumentList(ol, argTypes, idx, entity, f);
-          ++idx;
-        }
-        
-        if ( generateSQL ) {
-          b.append(K_CLOSE_PAREN);
-        }
-      }
-
-      if ( generateSQL ) {
-        b.append(K_COLON);
-        sql = b.toString();
+        batchArgs.add(t.getInsertArgs(entity));
       }
-      generateSQL = false;
-      batchArgs.add(ol);
     }
-    
+
+    long startNanos = System.nanoTime();
     try {
-      // update...
-      getJdbcConnection().batchUpdate(sql, batchArgs, argTypes);
-      // if this was an insert, set the fromDatabase flag in the entities
-      if ( !changes.get(0).isFromDatabase() ) {
+      if ( isUpdate ) {
+        getJdbcConnection().batchUpdate(t.getUpdate(), batchArgs, t.getUpdateArgTypes());
+      } else {
+        getJdbcConnection().batchUpdate(t.getInsert(), batchArgs, t.getInsertArgTypes());
+        // this was an insert, set the fromDatabase flag in the entities
         for ( CommonFieldsBase entity : changes ) {
           entity.setFromDatabase(true);
         }
       }
     } catch (Exception e) {
+      if ( !isUpdate ) {
+        // the rows inserted ahead of the failure are committed -- flag them
+        // so that a retry does not insert them again.
+        EngineUtils.markInsertedEntities(changes, e);
+      }
       throw new ODKEntityPersistException(e);
+    } finally {
+      recordLatency(changes.get(0), Operation.PUT, startNanos);
     }
   }
 
@@ -933,44 +787,57 @@ public class DatastoreImpl implements Datastore, InitializingBean {
   public void deleteEntity(EntityKey key, User user) throws ODKDatastoreException {
 
     dam.recordDeleteUsage(key);
+    long startNanos = System.nanoTime();
     try {
-      CommonFieldsBase d = key.getRelation();
-
-      StringBuilder b = new StringBuilder();
-      b.append(K_DELETE_FROM);
-      b.append(K_BQ);
-      b.append(d.getSchemaName());
-      b.append(K_BQ);
-      b.append(".");
-      b.append(K_BQ);
-      b.append(d.getTableName());
-      b.append(K_BQ);
-      b.append(K_WHERE);
-      b.append(K_BQ);
-      b.append(d.primaryKey.getName());
-      b.append(K_BQ);
-      b.append(K_EQ);
-      b.append(K_BIND_VALUE);
+      String sql = templateCache.getTemplates(key.getRelation()).getDeleteByUri();
 
       LogFactory.getLog(DatastoreImpl.class).info(
-          "Executing " + b.toString() + " with key " + key.getKey() + " by user "
+          "Executing " + sql + " with key " + key.getKey() + " by user "
               + user.getUriUser());
-      getJdbcConnection().update(b.toString(), new Object[] { key.getKey() });
+      getJdbcConnection().update(sql, new Object[] { key.getKey() });
     } catch (Exception e) {
       throw new ODKDatastoreException("delete failed", e);
+    } finally {
+      recordLatency(key.getRelation(), Operation.DELETE, startNanos);
     }
   }
 
+  /**
+   * Groups the keys by relation and deletes them with
+   * <code>DELETE ... WHERE _URI IN (...)</code> statements of up to
+   * MAX_BATCH_SIZE keys each.
+   */
   @Override
   public void deleteEntities(Collection<EntityKey> keys, User user) throws ODKDatastoreException {
-    ODKDatastoreException e = null;
+    Map<String, List<EntityKey>> groups = new LinkedHashMap<String, List<EntityKey>>();
     for (EntityKey k : keys) {
-      try {
-        deleteEntity(k, user);
-      } catch (ODKDatastoreException ex) {
-        ex.printStackTrace();
-        if (e == null) {
-          e = ex; // save the first exception...
+      CommonFieldsBase d = k.getRelation();
+      String groupKey = d.getSchemaName() + "." + d.getTableName();
+      // re-insert so that the relations are ordered by their last occurrence.
+      // This preserves the caller's child-before-parent deletion ordering.
+      List<EntityKey> group = groups.remove(groupKey);
+      if (group == null) {
+        group = new ArrayList<EntityKey>();
+      }
+      groups.put(groupKey, group);
+      group.add(k);
+    }
+
+    ODKDatastoreException e = null;
+    for (List<EntityKey> group : groups.values()) {
+      for (int i = 0; i < group.size(); i += MAX_BATCH_SIZE) {
+        List<EntityKey> chunk = group.subList(i, Math.min(i + MAX_BATCH_SIZE, group.size()));
+        try {
+          if (chunk.size() == 1) {
+            deleteEntity(chunk.get(0), user);
+          } else {
+            deleteEntityChunk(chunk, user);
+          }
+        } catch (ODKDatastoreException ex) {
+          ex.printStackTrace();
+          if (e == null) {
+            e = ex; // save the first exception...
+          }
         }
       }
     }
@@ -978,6 +845,43 @@ public class DatastoreImpl implements Datastore, InitializingBean {
       throw e; // throw the first exception...
   }
 
+  private void deleteEntityChunk(List<EntityKey> keys, User user) throws ODKDatastoreException {
+    CommonFieldsBase d = keys.get(0).getRelation();
+    Object[] ol = new Object[keys.size()];
+
+    StringBuilder b = new StringBuilder();
+    b.append(K_DELETE_FROM);
+    b.append(templateCache.getTemplates(d).getQualifiedTableName());
+    b.append(K_WHERE);
+    b.append(K_BQ);
+    b.append(d.primaryKey.getName());
+    b.append(K_BQ);
+    b.append(K_IN);
+    b.append(K_OPEN_PAREN);
+    for (int i = 0; i < keys.size(); ++i) {
+      EntityKey key = keys.get(i);
+      dam.recordDeleteUsage(key);
+      if (i != 0) {
+        b.append(K_CS);
+      }
+      b.append(K_BIND_VALUE);
+      ol[i] = key.getKey();
+    }
+    b.append(K_CLOSE_PAREN);
+
+    long startNanos = System.nanoTime();
+    try {
+      LogFactory.getLog(DatastoreImpl.class).info(
+          "Executing " + K_DELETE_FROM + d.getSchemaName() + "." + d.getTableName() + " with "
+              + keys.size() + " keys by user " + user.getUriUser());
+      getJdbcConnection().update(b.toString(), ol);
+    } catch (Exception e) {
+      throw new ODKDatastoreException("delete failed", e);
+    } finally {
+      recordLatency(d, Operation.DELETE, startNanos);
+    }
+  }
+
   @Override
   public TaskLock createTaskLock(User user) {
     return new TaskLockImpl(this, dam, user);
@@ -13,12 +13,14 @@
  */
 package org.opendatakit.common.persistence.engine.pgres;
 
+import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -28,12 +30,16 @@ import org.apache.commons.logging.LogFactory;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
 import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.persistence.ProjectionResult;
+import org.opendatakit.common.persistence.ProjectionRow;
 import org.opendatakit.common.persistence.Query;
 import org.opendatakit.common.persistence.QueryResult;
 import org.opendatakit.common.persistence.QueryResumePoint;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.Operation;
 import org.opendatakit.common.persistence.engine.EngineUtils;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.security.User;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 
@@ -58,6 +64,14 @@ public class QueryImpl implements Query {
   private static final String K_IN_CLOSE = ")";
   private static final String K_BIND_VALUE = " ? ";
   private static final String K_ORDER_BY = " ORDER BY ";
+  private static final String K_OR = " OR ";
+  private static final String K_OPEN_PAREN = " ( ";
+  private static final String K_CLOSE_PAREN = " ) ";
+  private static final String K_LIMIT = " LIMIT ";
+  private static final String K_GROUP_BY = " GROUP BY ";
+  private static final String K_COUNT_ALL = "COUNT(*)";
+  private static final String K_AS = " AS ";
+  private static final String K_COUNT_COLUMN = "_ODK_COUNT";
 
   private static Map<FilterOperation, String> operationMap = new HashMap<FilterOperation, String>();
   private static Map<Direction, String> directionMap = new HashMap<Direction, String>();
@@ -74,6 +88,14 @@ public class QueryImpl implements Query {
     directionMap.put(Direction.DESCENDING, " DESC ");
   }
 
+  /**
+   * Upper bound on the JDBC fetch size hint. The PostgreSQL driver only
+   * honors the hint when autocommit is off; our JdbcTemplates run with
+   * autocommit, so the driver reads the entire result into memory and it is
+   * the LIMIT clause of the paged queries that bounds the rows read per page.
+   */
+  private static final int MAX_FETCH_SIZE = 1000;
+
   private final CommonFieldsBase relation;
   private final DatastoreImpl dataStoreImpl;
   private final User user;
@@ -81,6 +103,8 @@ public class QueryImpl implements Query {
   private DataField dominantSortAttr = null;
   private Direction dominantSortDirection = null;
   private boolean isSortedByUri = false;
+  private final List<DataField> sortAttrs = new ArrayList<DataField>();
+  private final List<Direction> sortDirections = new ArrayList<Direction>();
 
   private final StringBuilder queryBindBuilder = new StringBuilder();
   private final List<Object> bindValues = new ArrayList<Object>();
@@ -96,33 +120,68 @@ public class QueryImpl implements Query {
   }
 
   private String generateQuery() {
-    // generate the query
-    StringBuilder baseQueryBuilder = new StringBuilder();
+    // the SELECT ... FROM clause is cached per relation
+    return dataStoreImpl.getTemplates(relation).getSelectPrefix();
+  }
 
+  /**
+   * The SELECT ... FROM clause of a projection or key query.
+   * 
+   * @param fields
+   *          the columns to select
+   * @return
+   */
+  private String generateFieldQuery(List<DataField> fields) {
+    StringBuilder baseQueryBuilder = new StringBuilder();
     baseQueryBuilder.append(K_SELECT);
-
-    boolean first = true;
-    for (DataField f : relation.getFieldList()) {
-      if (!first) {
+    for (DataField f : fields) {
+      if (baseQueryBuilder.length() != K_SELECT.length()) {
         baseQueryBuilder.append(K_CS);
       }
-      first = false;
       baseQueryBuilder.append(K_BQ);
       baseQueryBuilder.append(f.getName());
       baseQueryBuilder.append(K_BQ);
     }
     baseQueryBuilder.append(K_FROM);
-    baseQueryBuilder.append(K_BQ);
-    baseQueryBuilder.append(relation.getSchemaName());
-    baseQueryBuilder.append(K_BQ);
-    baseQueryBuilder.append(".");
-    baseQueryBuilder.append(K_BQ);
-    baseQueryBuilder.append(relation.getTableName());
-    baseQueryBuilder.append(K_BQ);
-
+    baseQueryBuilder.append(dataStoreImpl.getTemplates(relation).getQualifiedTableName());
     return baseQueryBuilder.toString();
   }
 
+  private List<DataField> getKeyFields() {
+    List<DataField> keyFields = new ArrayList<DataField>();
+    keyFields.add(relation.primaryKey);
+    if (!dominantSortAttr.equals(relation.primaryKey)) {
+      keyFields.add(dominantSortAttr);
+    }
+    return keyFields;
+  }
+
+  /**
+   * The requested fields, followed by whichever of the key fields were not
+   * requested.
+   * 
+   * @param requestedFields
+   * @return
+   */
+  private List<DataField> getProjectionFields(List<DataField> requestedFields) {
+    List<DataField> fields = new ArrayList<DataField>();
+    for (DataField f : requestedFields) {
+      if (!relation.getFieldList().contains(f)) {
+        throw new IllegalStateException("Attempting to retrieve non-existent data field "
+            + f.getName() + " from " + relation.getSchemaName() + "." + relation.getTableName());
+      }
+      if (!fields.contains(f)) {
+        fields.add(f);
+      }
+    }
+    for (DataField f : getKeyFields()) {
+      if (!fields.contains(f)) {
+        fields.add(f);
+      }
+    }
+    return fields;
+  }
+
   private String generateDistinctFieldValueQuery(DataField dataField) {
     if (!relation.getFieldList().contains(dataField)) {
       throw new IllegalStateException("Attempting to retrieve non-existent data field "
@@ -137,17 +196,65 @@ public class QueryImpl implements Query {
     baseQueryBuilder.append(dataField.getName());
     baseQueryBuilder.append(K_BQ);
     baseQueryBuilder.append(K_FROM);
-    baseQueryBuilder.append(K_BQ);
-    baseQueryBuilder.append(relation.getSchemaName());
-    baseQueryBuilder.append(K_BQ);
-    baseQueryBuilder.append(".");
-    baseQueryBuilder.append(K_BQ);
-    baseQueryBuilder.append(relation.getTableName());
-    baseQueryBuilder.append(K_BQ);
+    baseQueryBuilder.append(dataStoreImpl.getTemplates(relation).getQualifiedTableName());
 
     return baseQueryBuilder.toString();
   }
 
+  /**
+   * The SELECT ... FROM clause of an aggregate query.
+   * 
+   * @param function
+   *          MIN or MAX; null for a COUNT(*) query.
+   * @param dataField
+   *          the field to aggregate over; the count is grouped by this field
+   *          if the function is null.
+   * @return
+   */
+  private String generateAggregateQuery(String function, DataField dataField) {
+    StringBuilder baseQueryBuilder = new StringBuilder();
+    baseQueryBuilder.append(K_SELECT);
+    if (dataField != null) {
+      if (!relation.getFieldList().contains(dataField)) {
+        throw new IllegalStateException("Attempting to retrieve non-existent data field "
+            + dataField.getName() + " from " + relation.getSchemaName() + "."
+            + relation.getTableName());
+      }
+      if (dataField.getDataType() == DataField.DataType.BINARY) {
+        throw new IllegalStateException("Cannot aggregate over binary data field "
+            + dataField.getName() + " in " + relation.getSchemaName() + "."
+            + relation.getTableName());
+      }
+      if (function != null) {
+        baseQueryBuilder.append(function);
+        baseQueryBuilder.append("(");
+      }
+      baseQueryBuilder.append(K_BQ);
+      baseQueryBuilder.append(dataField.getName());
+      baseQueryBuilder.append(K_BQ);
+      if (function != null) {
+        baseQueryBuilder.append(")");
+        baseQueryBuilder.append(K_AS);
+        baseQueryBuilder.append(K_BQ);
+        baseQueryBuilder.append(dataField.getName());
+        baseQueryBuilder.append(K_BQ);
+      }
+    }
+    if (function == null) {
+      if (dataField != null) {
+        baseQueryBuilder.append(K_CS);
+      }
+      baseQueryBuilder.append(K_COUNT_ALL);
+      baseQueryBuilder.append(K_AS);
+      baseQueryBuilder.append(K_BQ);
+      baseQueryBuilder.append(K_COUNT_COLUMN);
+      baseQueryBuilder.append(K_BQ);
+    }
+    baseQueryBuilder.append(K_FROM);
+    baseQueryBuilder.append(dataStoreImpl.getTemplates(relation).getQualifiedTableName());
+    return baseQueryBuilder.toString();
+  }
+
   @Override
   public void addFilter(DataField attributeName, FilterOperation op, Object value) {
     if (queryBindBuilder.length() == 0) {
@@ -199,6 +306,95 @@ public class QueryImpl implements Query {
     queryContinuationBindBuilder.append(K_BIND_VALUE);
   }
 
+  /**
+   * Keyset pagination is possible if the sort order is totally defined by the
+   * dominant sort attribute and the primary key, with both sorted in the same
+   * direction. In that case, the continuation filter can exclude every row up
+   * to and including the last-returned row and the database can apply the
+   * fetch limit directly.
+   * 
+   * @return true if the query can be resumed with a keyset continuation filter.
+   */
+  private boolean isKeysetPageable() {
+    if (dominantSortAttr == null) {
+      return false;
+    }
+    if (dominantSortAttr.equals(relation.primaryKey)) {
+      return true;
+    }
+    return (sortAttrs.size() >= 2) && sortAttrs.get(1).equals(relation.primaryKey)
+        && sortDirections.get(1).equals(dominantSortDirection);
+  }
+
+  /**
+   * Constructs the keyset filter clause that resumes the query immediately
+   * after the (dominant sort attribute value, _URI) of the last-returned row.
+   * I.e., for an ascending sort:
+   * 
+   * <pre>
+   * ( attr > ? OR ( attr = ? AND _URI > ? ) )
+   * </pre>
+   * 
+   * @param queryContinuationBindBuilder
+   * @param continuationValues
+   *          the bind values for the clause are appended to this list.
+   * @param continuationValue
+   * @param uriLastReturnedValue
+   */
+  private void addKeysetContinuationFilter(StringBuilder queryContinuationBindBuilder,
+      List<Object> continuationValues, Object continuationValue, String uriLastReturnedValue) {
+    if (dominantSortAttr == null) {
+      throw new IllegalStateException("unexpected state");
+    }
+    if (continuationValue == null || uriLastReturnedValue == null) {
+      throw new IllegalStateException("unexpected state");
+    }
+
+    String strictOp = operationMap.get(dominantSortDirection.equals(Direction.ASCENDING) ? FilterOperation.GREATER_THAN
+        : FilterOperation.LESS_THAN);
+
+    if (queryBindBuilder.length() == 0) {
+      queryContinuationBindBuilder.append(K_WHERE);
+    } else {
+      queryContinuationBindBuilder.append(K_AND);
+    }
+
+    if (dominantSortAttr.equals(relation.primaryKey)) {
+      queryContinuationBindBuilder.append(K_BQ);
+      queryContinuationBindBuilder.append(relation.primaryKey.getName());
+      queryContinuationBindBuilder.append(K_BQ);
+      queryContinuationBindBuilder.append(strictOp);
+      queryContinuationBindBuilder.append(K_BIND_VALUE);
+      continuationValues.add(uriLastReturnedValue);
+      return;
+    }
+
+    queryContinuationBindBuilder.append(K_OPEN_PAREN);
+    queryContinuationBindBuilder.append(K_BQ);
+    queryContinuationBindBuilder.append(dominantSortAttr.getName());
+    queryContinuationBindBuilder.append(K_BQ);
+    queryContinuationBindBuilder.append(strictOp);
+    queryContinuationBindBuilder.append(K_BIND_VALUE);
+    queryContinuationBindBuilder.append(K_OR);
+    queryContinuationBindBuilder.append(K_OPEN_PAREN);
+    queryContinuationBindBuilder.append(K_BQ);
+    queryContinuationBindBuilder.append(dominantSortAttr.getName());
+    queryContinuationBindBuilder.append(K_BQ);
+    queryContinuationBindBuilder.append(operationMap.get(FilterOperation.EQUAL));
+    queryContinuationBindBuilder.append(K_BIND_VALUE);
+    queryContinuationBindBuilder.append(K_AND);
+    queryContinuationBindBuilder.append(K_BQ);
+    queryContinuationBindBuilder.append(relation.primaryKey.getName());
+    queryContinuationBindBuilder.append(K_BQ);
+    queryContinuationBindBuilder.append(strictOp);
+    queryContinuationBindBuilder.append(K_BIND_VALUE);
+    queryContinuationBindBuilder.append(K_CLOSE_PAREN);
+    queryContinuationBindBuilder.append(K_CLOSE_PAREN);
+    continuationValues.add(continuationValue);
+    continuationValues.add(continuationValue);
+    continuationValues.add(uriLastReturnedValue);
+  }
+
   @Override
   public void addValueSetFilter(DataField attributeName, Collection<?> valueSet) {
     if (queryBindBuilder.length() == 0) {
@@ -233,6 +429,8 @@ public class QueryImpl implements Query {
     querySortBuilder.append(attributeName.getName());
     querySortBuilder.append(K_BQ);
     querySortBuilder.append(directionMap.get(direction));
+    sortAttrs.add(attributeName);
+    sortDirections.add(direction);
 
     // keep track of the dominant sort attribute...
     if (dominantSortAttr == null) {
@@ -254,6 +452,7 @@ public class QueryImpl implements Query {
     RowMapper<? extends CommonFieldsBase> rowMapper = null;
     rowMapper = new RelationRowMapper(relation, user);
 
+    long startNanos = System.nanoTime();
     try {
       queryStringLogger.debug(query);
       List<? extends CommonFieldsBase> l = dataStoreImpl.getJdbcConnection().query(query,
@@ -264,6 +463,8 @@ public class QueryImpl implements Query {
       dataStoreImpl.recordQueryUsage(relation, 0);
       e.printStackTrace();
       throw new ODKDatastoreException(e);
+    } finally {
+      dataStoreImpl.recordLatency(relation, Operation.QUERY, startNanos);
     }
   }
 
@@ -274,6 +475,7 @@ public class QueryImpl implements Query {
         + querySortBuilder.toString() + ";";
 
     List<?> keys = null;
+    long startNanos = System.nanoTime();
     try {
       keys = dataStoreImpl.getJdbcConnection().queryForList(query, bindValues.toArray(),
           String.class);
@@ -282,6 +484,8 @@ public class QueryImpl implements Query {
       dataStoreImpl.recordQueryUsage(relation, 0);
       e.printStackTrace();
       throw new ODKDatastoreException(e);
+    } finally {
+      dataStoreImpl.recordLatency(relation, Operation.QUERY, startNanos);
     }
     return keys;
   }
@@ -305,6 +509,102 @@ public class QueryImpl implements Query {
     return keySet;
   }
 
+  @Override
+  public long executeCountQuery() throws ODKDatastoreException {
+
+    String query = generateAggregateQuery(null, null) + queryBindBuilder.toString() + ";";
+
+    long startNanos = System.nanoTime();
+    try {
+      queryStringLogger.debug(query);
+      Long count = dataStoreImpl.getJdbcConnection().queryForObject(query,
+          bindValues.toArray(), Long.class);
+      dataStoreImpl.recordQueryUsage(relation, 1);
+      return (count == null) ? 0L : count;
+    } catch (Exception e) {
+      dataStoreImpl.recordQueryUsage(relation, 0);
+      e.printStackTrace();
+      throw new ODKDatastoreException(e);
+    } finally {
+      dataStoreImpl.recordLatency(relation, Operation.QUERY, startNanos);
+    }
+  }
+
+  private Object executeAggregateValueForDataField(String function, DataField dataField)
+      throws ODKDatastoreException {
+
+    String query = generateAggregateQuery(function, dataField) + queryBindBuilder.toString()
+        + ";";
+    List<DataField> fields = new ArrayList<DataField>();
+    fields.add(dataField);
+
+    long startNanos = System.nanoTime();
+    try {
+      queryStringLogger.debug(query);
+      List<ProjectionRow> rows = dataStoreImpl.getJdbcConnection().query(query,
+          bindValues.toArray(), new ProjectionRowMapper(relation, fields));
+      dataStoreImpl.recordQueryUsage(relation, rows.size());
+      return rows.isEmpty() ? null : rows.get(0).getValue(dataField);
+    } catch (Exception e) {
+      dataStoreImpl.recordQueryUsage(relation, 0);
+      e.printStackTrace();
+      throw new ODKDatastoreException(e);
+    } finally {
+      dataStoreImpl.recordLatency(relation, Operation.QUERY, startNanos);
+    }
+  }
+
+  @Override
+  public Object executeMinValueForDataField(DataField dataField) throws ODKDatastoreException {
+    // PostgreSQL has no MIN over boolean columns
+    return executeAggregateValueForDataField(
+        (dataField.getDataType() == DataField.DataType.BOOLEAN) ? "BOOL_AND" : "MIN", dataField);
+  }
+
+  @Override
+  public Object executeMaxValueForDataField(DataField dataField) throws ODKDatastoreException {
+    // PostgreSQL has no MAX over boolean columns
+    return executeAggregateValueForDataField(
+        (dataField.getDataType() == DataField.DataType.BOOLEAN) ? "BOOL_OR" : "MAX", dataField);
+  }
+
+  @Override
+  public Map<Object, Long> executeCountGroupedByDataField(final DataField dataField)
+      throws ODKDatastoreException {
+
+    String query = generateAggregateQuery(null, dataField) + queryBindBuilder.toString()
+        + K_GROUP_BY + K_BQ + dataField.getName() + K_BQ + K_ORDER_BY + K_BQ
+        + dataField.getName() + K_BQ + directionMap.get(Direction.ASCENDING) + ";";
+    List<DataField> fields = new ArrayList<DataField>();
+    fields.add(dataField);
+    final ProjectionRowMapper rowMapper = new ProjectionRowMapper(relation, fields);
+
+    long startNanos = System.nanoTime();
+    try {
+      queryStringLogger.debug(query);
+      Map<Object, Long> counts = dataStoreImpl.getJdbcConnection().query(query,
+          bindValues.toArray(), new ResultSetExtractor<Map<Object, Long>>() {
+            @Override
+            public Map<Object, Long> extractData(ResultSet rs) throws SQLException {
+              Map<Object, Long> counts = new LinkedHashMap<Object, Long>();
+              while (rs.next()) {
+                Object value = rowMapper.mapRow(rs, counts.size()).getValue(dataField);
+                counts.put(value, rs.getLong(K_COUNT_COLUMN));
+              }
+              return counts;
+            }
+          });
+      dataStoreImpl.recordQueryUsage(relation, counts.size());
+      return counts;
+    } catch (Exception e) {
+      dataStoreImpl.recordQueryUsage(relation, 0);
+      e.printStackTrace();
+      throw new ODKDatastoreException(e);
+    } finally {
+      dataStoreImpl.recordLatency(relation, Operation.QUERY, startNanos);
+    }
+  }
+
   private class CoreResult {
     final List<CommonFieldsBase> results;
     final boolean hasMoreResults;
@@ -318,13 +618,21 @@ public class QueryImpl implements Query {
   private class RowMapperFilteredResultSetExtractor implements ResultSetExtractor<CoreResult> {
 
     private int readCount = 0;
-    private final QueryResumePoint startCursor;
+    private final String startUri;
     private final int fetchLimit;
     private final RowMapper<? extends CommonFieldsBase> rowMapper;
 
-    RowMapperFilteredResultSetExtractor(QueryResumePoint startCursor, int fetchLimit,
+    /**
+     * @param startUri
+     *          the _URI of the last-returned row. All rows up to and including
+     *          this one are skipped. Null if the query does not need to be
+     *          filtered (e.g., a keyset continuation filter was applied).
+     * @param fetchLimit
+     * @param rowMapper
+     */
+    RowMapperFilteredResultSetExtractor(String startUri, int fetchLimit,
         RowMapper<? extends CommonFieldsBase> rowMapper) {
-      this.startCursor = startCursor;
+      this.startUri = startUri;
       this.fetchLimit = fetchLimit;
       this.rowMapper = rowMapper;
     }
@@ -333,7 +641,6 @@ public class QueryImpl implements Query {
     public CoreResult extractData(ResultSet rs) throws SQLException {
       boolean hasMoreResults = false;
       List<CommonFieldsBase> results = new ArrayList<CommonFieldsBase>();
-      String startUri = (startCursor == null) ? null : startCursor.getUriLastReturnedValue();
       boolean beforeUri = (startUri != null);
       while (rs.next()) {
         ++readCount;
@@ -358,9 +665,25 @@ public class QueryImpl implements Query {
 
   }
 
-  @Override
-  public QueryResult executeQuery(QueryResumePoint startCursor, int fetchLimit)
-      throws ODKDatastoreException {
+  /**
+   * The WHERE, ORDER BY and LIMIT clauses and bind values of a cursor-style
+   * query.
+   */
+  private class CursorQuery {
+    final String clauses;
+    final List<Object> values;
+    // the _URI of the last-returned row when the result set must be scanned
+    // for it (non-keyset continuation).
+    final String startUri;
+
+    CursorQuery(String clauses, List<Object> values, String startUri) {
+      this.clauses = clauses;
+      this.values = values;
+      this.startUri = startUri;
+    }
+  }
+
+  private CursorQuery prepareCursorQuery(QueryResumePoint startCursor, int fetchLimit) {
 
     // we must have at least one sort column defined
     if (dominantSortDirection == null) {
@@ -376,6 +699,9 @@ public class QueryImpl implements Query {
     // for continuation executions of queries
     StringBuilder queryContinuationBindBuilder = new StringBuilder();
     List<Object> values;
+    // the _URI of the last-returned row when the result set must be scanned
+    // for it (non-keyset continuation).
+    String startUri = null;
 
     if (startCursor != null) {
       DataField matchingStartCursorAttr = null;
@@ -398,28 +724,62 @@ public class QueryImpl implements Query {
 
       Object continuationValue = EngineUtils.getDominantSortAttributeValueFromString(
           startCursor.getValue(), dominantSortAttr);
-      addContinuationFilter(queryContinuationBindBuilder, continuationValue);
       values = new ArrayList<Object>();
       values.addAll(bindValues);
-      values.add(continuationValue);
+      if (isKeysetPageable() && startCursor.getUriLastReturnedValue() != null) {
+        addKeysetContinuationFilter(queryContinuationBindBuilder, values, continuationValue,
+            startCursor.getUriLastReturnedValue());
+      } else {
+        // fall back to scanning forward to the last-returned _URI
+        addContinuationFilter(queryContinuationBindBuilder, continuationValue);
+        values.add(continuationValue);
+        startUri = startCursor.getUriLastReturnedValue();
+      }
     } else {
       values = bindValues;
     }
 
-    String query = generateQuery() + queryBindBuilder.toString()
-        + queryContinuationBindBuilder.toString() + querySortBuilder.toString() + ";";
+    // unless we must scan forward to the last-returned row, the database can
+    // apply the fetch limit. Fetch one extra row to determine whether there
+    // are more results.
+    String limitClause = "";
+    if (startUri == null && fetchLimit > 0) {
+      limitClause = K_LIMIT + Integer.toString(fetchLimit + 1);
+    }
+
+    return new CursorQuery(queryBindBuilder.toString() + queryContinuationBindBuilder.toString()
+        + querySortBuilder.toString() + limitClause, values, startUri);
+  }
+
+  @Override
+  public QueryResult executeQuery(QueryResumePoint startCursor, int fetchLimit)
+      throws ODKDatastoreException {
+
+    CursorQuery cursorQuery = prepareCursorQuery(startCursor, fetchLimit);
+
+    String query = generateQuery() + cursorQuery.clauses + ";";
     RowMapper<? extends CommonFieldsBase> rowMapper = null;
     rowMapper = new RelationRowMapper(relation, user);
-    RowMapperFilteredResultSetExtractor rse = new RowMapperFilteredResultSetExtractor(startCursor,
-        fetchLimit, rowMapper);
+    RowMapperFilteredResultSetExtractor rse = new RowMapperFilteredResultSetExtractor(
+        cursorQuery.startUri, fetchLimit, rowMapper);
 
     try {
-      CoreResult r;
+      CoreResult r = null;
+      long startNanos = System.nanoTime();
       try {
         queryStringLogger.debug(query);
-        r = dataStoreImpl.getJdbcConnection().query(query, values.toArray(), rse);
+        JdbcTemplate jdbc = dataStoreImpl.getJdbcConnection();
+        if (fetchLimit > 0) {
+          // see MAX_FETCH_SIZE -- only a hint, and not honored by default
+          jdbc.setFetchSize(Math.min(fetchLimit + 1, MAX_FETCH_SIZE));
+        }
+        r = jdbc.query(query, cursorQuery.values.toArray(), rse);
       } finally {
-        dataStoreImpl.recordQueryUsage(relation, rse.getReadCount());
+        dataStoreImpl.recordLatency(relation, Operation.QUERY, startNanos);
+        // rows skipped while scanning forward to the cursor are read but not
+        // returned.
+        dataStoreImpl.recordQueryUsage(relation, rse.getReadCount(),
+            (r == null) ? 0 : r.results.size());
       }
 
       if (r.results.size() == 0) {
@@ -447,4 +807,131 @@ public class QueryImpl implements Query {
       throw new ODKDatastoreException(e);
     }
   }
+
+  /**
+   * Reads the rows of one page. If a callback is given, the primary key of
+   * each row is handed to it as the row is read and only the last row is
+   * retained (for the resume cursor); otherwise all the rows are returned.
+   */
+  private class ProjectionResultSetExtractor implements ResultSetExtractor<List<ProjectionRow>> {
+
+    private int readCount = 0;
+    private int returnedCount = 0;
+    private boolean hasMoreResults = false;
+    private IOException callbackFailure = null;
+    private final String startUri;
+    private final int fetchLimit;
+    private final RowMapper<ProjectionRow> rowMapper;
+    private final KeyCallback callback;
+
+    ProjectionResultSetExtractor(String startUri, int fetchLimit,
+        RowMapper<ProjectionRow> rowMapper, KeyCallback callback) {
+      this.startUri = startUri;
+      this.fetchLimit = fetchLimit;
+      this.rowMapper = rowMapper;
+      this.callback = callback;
+    }
+
+    @Override
+    public List<ProjectionRow> extractData(ResultSet rs) throws SQLException {
+      List<ProjectionRow> results = new ArrayList<ProjectionRow>();
+      boolean beforeUri = (startUri != null);
+      while (rs.next()) {
+        ++readCount;
+        ProjectionRow row = this.rowMapper.mapRow(rs, returnedCount);
+        if (beforeUri) {
+          if (startUri.equals(row.getUri())) {
+            beforeUri = false;
+          }
+        } else if (fetchLimit == 0 || returnedCount < fetchLimit) {
+          if (callback != null) {
+            try {
+              callback.processKey(row.getUri());
+            } catch (IOException e) {
+              callbackFailure = e;
+              throw new SQLException("key callback failed", e);
+            }
+            results.clear();
+          }
+          results.add(row);
+          ++returnedCount;
+        } else {
+          hasMoreResults = true;
+          break;
+        }
+      }
+      return results;
+    }
+
+    public int getReadCount() {
+      return readCount;
+    }
+
+    public int getReturnedCount() {
+      return returnedCount;
+    }
+
+    public boolean hasMoreResults() {
+      return hasMoreResults;
+    }
+
+    public IOException getCallbackFailure() {
+      return callbackFailure;
+    }
+  }
+
+  @Override
+  public QueryResumePoint executeKeyQuery(QueryResumePoint startCursor, int fetchLimit,
+      KeyCallback callback) throws ODKDatastoreException {
+    return doProjectionQuery(getKeyFields(), startCursor, fetchLimit, callback)
+        .getResumeCursor();
+  }
+
+  @Override
+  public ProjectionResult executeProjectionQuery(List<DataField> requestedFields,
+      QueryResumePoint startCursor, int fetchLimit) throws ODKDatastoreException {
+    return doProjectionQuery(getProjectionFields(requestedFields), startCursor, fetchLimit, null);
+  }
+
+  private ProjectionResult doProjectionQuery(List<DataField> fields,
+      QueryResumePoint startCursor, int fetchLimit, KeyCallback callback)
+      throws ODKDatastoreException {
+
+    CursorQuery cursorQuery = prepareCursorQuery(startCursor, fetchLimit);
+
+    String query = generateFieldQuery(fields) + cursorQuery.clauses + ";";
+    ProjectionResultSetExtractor rse = new ProjectionResultSetExtractor(cursorQuery.startUri,
+        fetchLimit, new ProjectionRowMapper(relation, fields), callback);
+
+    List<ProjectionRow> results = null;
+    long startNanos = System.nanoTime();
+    try {
+      queryStringLogger.debug(query);
+      JdbcTemplate jdbc = dataStoreImpl.getJdbcConnection();
+      if (fetchLimit > 0) {
+        jdbc.setFetchSize(Math.min(fetchLimit + 1, MAX_FETCH_SIZE));
+      }
+      results = jdbc.query(query, cursorQuery.values.toArray(), rse);
+    } catch (Exception e) {
+      if (rse.getCallbackFailure() != null) {
+        throw new ODKDatastoreException(rse.getCallbackFailure());
+      }
+      e.printStackTrace();
+      throw new ODKDatastoreException(e);
+    } finally {
+      dataStoreImpl.recordLatency(relation, Operation.QUERY, startNanos);
+      dataStoreImpl.recordQueryUsage(relation, rse.getReadCount(), rse.getReturnedCount());
+    }
+
+    if (results.size() == 0) {
+      return new ProjectionResult(startCursor, results, startCursor, false);
+    }
+
+    ProjectionRow last = results.get(results.size() - 1);
+    String value = EngineUtils.getAttributeValueAsString(last.getValue(dominantSortAttr),
+        dominantSortAttr);
+    QueryResumePoint resumeCursor = new QueryResumePoint(dominantSortAttr.getName(), value,
+        last.getUri(), ((startCursor != null) ? startCursor.isForwardCursor() : true));
+    return new ProjectionResult(startCursor, results, resumeCursor, rse.hasMoreResults());
+  }
 }
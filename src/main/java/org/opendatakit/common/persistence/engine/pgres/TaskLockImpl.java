@@ -15,30 +15,34 @@
  */
 package org.opendatakit.common.persistence.engine.pgres;
 
-import java.sql.Connection;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 import org.apache.commons.logging.LogFactory;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
-import org.opendatakit.common.persistence.Datastore;
-import org.opendatakit.common.persistence.EntityKey;
 import org.opendatakit.common.persistence.ITaskLockType;
+import org.opendatakit.common.persistence.PersistConsts;
 import org.opendatakit.common.persistence.TaskLock;
 import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics;
+import org.opendatakit.common.persistence.engine.TaskLeaseRegistry;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
-import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 import org.opendatakit.common.security.User;
-import org.springframework.dao.DataAccessException;
-import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 /**
+ * Task locks are leases on a row keyed by the (formId, taskType) being locked.
+ * A lease is obtained with a single conditional upsert that only takes over
+ * the row if its lease has expired or it is already held by the same lockId,
+ * so no table locks or multi-statement transactions are needed. Contenders
+ * within this server first wait on the {@link TaskLeaseRegistry}.
+ * 
+ * Leases are kept in the existing _task_lock table, which gains a nullable
+ * LOCK_ID column. Rows written by servers that have not yet been upgraded have
+ * a null LOCK_ID and are keyed by their lockId; a lease is not granted while
+ * one of those is unexpired for the same (formId, taskType). Those servers in
+ * turn see the lease row as the oldest lock and back off, so the lock remains
+ * exclusive during a rolling upgrade.
  * 
  * @author wbrunette@gmail.com
  * @author mitchellsundt@gmail.com
@@ -47,7 +51,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 public class TaskLockImpl implements TaskLock {
 
   private static final String PERSISTENCE_LAYER_PROBLEM = "Persistence layer failure";
-
+  
   final DatastoreAccessMetrics dam;
   final DatastoreImpl datastore;
   final User user;
@@ -60,275 +64,163 @@ public class TaskLockImpl implements TaskLock {
 
   private static final String K_BQ = "\"";
 
-  private TaskLockTable doTransaction(TaskLockTable entity, long l)
-      throws ODKEntityNotFoundException, ODKTaskLockException {
-    boolean first;
-
-    final List<String> stmts = new ArrayList<String>();
-    
-    String uri = entity.getUri();
-    
-    StringBuilder b = new StringBuilder();
-    String tableName = K_BQ + datastore.getDefaultSchemaName() + K_BQ + "." + K_BQ
-        + TaskLockTable.TABLE_NAME + K_BQ;
+  private static String quote(DataField f) {
+    return K_BQ + f.getName() + K_BQ;
+  }
 
-    b.append("'").append(user.getUriUser().replaceAll("'", "''")).append("'");
-    String uriUserInline = b.toString();
-    b.setLength(0);
-    b.append("'").append(uri.replaceAll("'", "''")).append("'");
-    String uriLockInline = b.toString();
-    b.setLength(0);
-    b.append("'").append(entity.getFormId().replaceAll("'", "''")).append("'");
-    String formIdInline = b.toString();
-    b.setLength(0);
-    b.append("'").append(entity.getTaskType().replaceAll("'", "''")).append("'");
-    String taskTypeInline = b.toString();
-    b.setLength(0);
-    b.append("interval '").append(l).append(" milliseconds'");
-    String lifetimeIntervalMilliseconds = b.toString();
-    b.setLength(0);
+  private String getTableName() {
+    return K_BQ + datastore.getDefaultSchemaName() + K_BQ + "." + K_BQ
+        + TaskLeaseTable.TABLE_NAME + K_BQ;
+  }
 
-    b.append("LOCK TABLE ").append(tableName).append(" IN ACCESS EXCLUSIVE MODE");
-    stmts.add(b.toString());
-    b.setLength(0);
+  private static String expirationExpression() {
+    return "NOW() + ? * INTERVAL '1 millisecond'";
+  }
 
-    dam.recordPutUsage(TaskLockTable.TABLE_NAME);
-    if (!entity.isFromDatabase()) {
-      // insert a new record (prospective lock)
-      b.append("INSERT INTO ");
-      b.append(tableName);
-      b.append(" (");
-      first = true;
-      for (DataField f : entity.getFieldList()) {
-        if (!first) {
-          b.append(",");
-        }
-        first = false;
-        b.append(K_BQ);
-        b.append(f.getName());
-        b.append(K_BQ);
-      }
-      first = true;
-      b.append(") VALUES ( ");
-      for (DataField f : entity.getFieldList()) {
-        if (!first) {
-          b.append(",");
-        }
-        first = false;
-        if (f.equals(entity.creationDate) || f.equals(entity.lastUpdateDate)) {
-          b.append("NOW()");
-        } else if (f.equals(entity.creatorUriUser) || f.equals(entity.lastUpdateUriUser)) {
-          b.append(uriUserInline);
-        } else if (f.equals(entity.formId)) {
-          b.append(formIdInline);
-        } else if (f.equals(entity.taskType)) {
-          b.append(taskTypeInline);
-        } else if (f.equals(entity.primaryKey)) {
-          b.append(uriLockInline);
-        } else if (f.equals(entity.expirationDateTime)) {
-          b.append(" NOW() + ");
-          b.append(lifetimeIntervalMilliseconds);
-        } else {
-          throw new IllegalStateException("unexpected case " + f.getName());
-        }
-      }
-      b.append(")");
-      stmts.add(b.toString());
-      b.setLength(0);
-    } else {
-      // update existing record (prospective lock)
-      b.append("UPDATE ");
-      b.append(tableName);
-      b.append(" SET ");
-      first = true;
-      for (DataField f : entity.getFieldList()) {
-        if (f == entity.primaryKey)
-          continue;
-        if (!first) {
-          b.append(",");
-        }
-        first = false;
-        b.append(K_BQ);
-        b.append(f.getName());
-        b.append(K_BQ);
-        b.append(" = ");
-        if (f.equals(entity.creationDate) || f.equals(entity.lastUpdateDate)) {
-          b.append("NOW()");
-        } else if (f.equals(entity.creatorUriUser) || f.equals(entity.lastUpdateUriUser)) {
-          b.append(uriUserInline);
-        } else if (f.equals(entity.formId)) {
-          b.append(formIdInline);
-        } else if (f.equals(entity.taskType)) {
-          b.append(taskTypeInline);
-        } else if (f.equals(entity.primaryKey)) {
-          b.append(uriLockInline);
-        } else if (f.equals(entity.expirationDateTime)) {
-          b.append(" NOW() + ");
-          b.append(lifetimeIntervalMilliseconds);
-        } else {
-          throw new IllegalStateException("unexpected case " + f.getName());
-        }
+  /**
+   * Insert the lease row or, if it exists, take it over when it has expired or
+   * is already held by this lockId. The holder's LOCK_ID is returned only if
+   * the row was inserted or taken over.
+   */
+  private String getAcquireStatement(TaskLeaseTable t) {
+    StringBuilder b = new StringBuilder();
+    b.append("INSERT INTO ").append(getTableName()).append(" AS t3 (");
+    b.append(quote(t.primaryKey)).append(",");
+    b.append(quote(t.creatorUriUser)).append(",");
+    b.append(quote(t.creationDate)).append(",");
+    b.append(quote(t.lastUpdateUriUser)).append(",");
+    b.append(quote(t.lastUpdateDate)).append(",");
+    b.append(quote(t.lockId)).append(",");
+    b.append(quote(t.formId)).append(",");
+    b.append(quote(t.taskType)).append(",");
+    b.append(quote(t.expirationDateTime));
+    b.append(") VALUES (?,?,NOW(),?,NOW(),?,?,?,").append(expirationExpression()).append(")");
+    b.append(" ON CONFLICT (").append(quote(t.primaryKey)).append(") DO UPDATE SET ");
+    boolean first = true;
+    for (DataField f : new DataField[] { t.lockId, t.lastUpdateUriUser, t.lastUpdateDate,
+        t.expirationDateTime }) {
+      if (!first) {
+        b.append(", ");
       }
-      b.append(" WHERE ");
-      b.append(K_BQ);
-      b.append(entity.primaryKey.getName());
-      b.append(K_BQ);
-      b.append(" = ");
-      b.append(uriLockInline);
-      stmts.add(b.toString());
-      b.setLength(0);
+      first = false;
+      b.append(quote(f)).append(" = EXCLUDED.").append(quote(f));
     }
-    // delete stale locks (don't care who's)
-    dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
-    b.append("DELETE FROM ").append(tableName).append(" WHERE ");
-    b.append(K_BQ).append(entity.expirationDateTime.getName()).append(K_BQ).append(" <= NOW()");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // delete prospective locks which are not the oldest for that resource and
-    // task type
-    dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
-    b.append("DELETE FROM ").append(tableName).append(" WHERE ");
-    b.append(K_BQ).append(entity.formId.getName()).append(K_BQ).append(" = ")
-        .append(formIdInline).append(" AND ");
-    b.append(K_BQ).append(entity.taskType.getName()).append(K_BQ).append(" = ")
-        .append(taskTypeInline).append(" AND ");
-    b.append(K_BQ).append(entity.expirationDateTime.getName()).append(K_BQ);
-    b.append(" > (SELECT MIN(t3.").append(K_BQ).append(entity.expirationDateTime.getName())
-        .append(K_BQ);
-    b.append(") FROM ").append(tableName).append(" AS t3 WHERE t3.");
-    b.append(K_BQ).append(entity.formId.getName()).append(K_BQ).append(" = ").append(formIdInline)
-        .append(" AND t3.");
-    b.append(K_BQ).append(entity.taskType.getName()).append(K_BQ).append(" = ")
-        .append(taskTypeInline).append(")");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // delete our entry if it collides with another entry with exactly 
-    // this time.
-    b.append("DELETE FROM ").append(tableName).append(" WHERE ");
-    b.append(K_BQ).append(entity.formId.getName()).append(K_BQ).append(" = ")
-        .append(formIdInline).append(" AND ");
-    b.append(K_BQ).append(entity.taskType.getName()).append(K_BQ).append(" = ")
-        .append(taskTypeInline).append(" AND ");
-    b.append(K_BQ).append(entity.primaryKey.getName()).append(K_BQ).append(" = ")
-        .append(uriLockInline).append(" AND ");
-    b.append("1 < (SELECT COUNT(t3.").append(K_BQ).append(entity.expirationDateTime.getName())
-        .append(K_BQ);
-    b.append(") FROM ").append(tableName).append(" AS t3 WHERE t3.");
-    b.append(K_BQ).append(entity.formId.getName()).append(K_BQ).append(" = ").append(formIdInline)
-        .append(" AND t3.");
-    b.append(K_BQ).append(entity.taskType.getName()).append(K_BQ).append(" = ")
-        .append(taskTypeInline).append(")");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // assert: only the lock that holds the resource for that task type appears
-    // in the task lock table
-    TaskLockTable relation;
-    try {
+    b.append(" WHERE t3.").append(quote(t.expirationDateTime)).append(" <= NOW() OR t3.")
+        .append(quote(t.lockId)).append(" = EXCLUDED.").append(quote(t.lockId));
+    b.append(" RETURNING ").append(quote(t.lockId));
+    return b.toString();
+  }
 
+  private boolean acquireLease(String leaseUri, String lockId, String formId,
+      ITaskLockType taskType) throws ODKTaskLockException {
+    try {
+      TaskLeaseTable t = TaskLeaseTable.assertRelation(datastore, user);
       JdbcTemplate jdbc = datastore.getJdbcConnection();
-      jdbc.execute(new ConnectionCallback<Object>() {
-
-        @Override
-        public Object doInConnection(Connection conn) throws SQLException, DataAccessException {
-          boolean oldAutoCommitValue = conn.getAutoCommit();
-          int oldTransactionValue = conn.getTransactionIsolation();
-          try {
-            conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            Statement stmt = conn.createStatement();
-            for (String s : stmts) {
-              // for debugging: LogFactory.getLog(TaskLockImpl.class).info(s);
-              stmt.execute(s);
-            }
-            conn.commit();
-          } catch (Exception e) {
-            e.printStackTrace();
-            conn.rollback();
-          }
-          conn.setTransactionIsolation(oldTransactionValue);
-          conn.setAutoCommit(oldAutoCommitValue);
-          return null;
-        }
-
-      });
+      String uriUser = user.getUriUser();
+
+      dam.recordPutUsage(TaskLeaseTable.TABLE_NAME);
+      List<String> holders = jdbc.queryForList(getAcquireStatement(t), new Object[] { leaseUri,
+          uriUser, uriUser, lockId, formId, taskType.getName(),
+          taskType.getLockExpirationTimeout() }, String.class);
+      if (!(holders.size() == 1 && lockId.equals(holders.get(0)))) {
+        return false;
+      }
 
-      relation = TaskLockTable.assertRelation(datastore, user);
+      // the lock of a not-yet-upgraded server may still be live
+      dam.recordQueryUsage(TaskLeaseTable.TABLE_NAME, 1);
+      Integer legacy = jdbc.queryForObject("SELECT COUNT(*) FROM " + getTableName() + " WHERE "
+          + quote(t.formId) + " = ? AND " + quote(t.taskType) + " = ? AND " + quote(t.lockId)
+          + " IS NULL AND " + quote(t.expirationDateTime) + " > NOW()", new Object[] { formId,
+          taskType.getName() }, Integer.class);
+      if (legacy == null || legacy == 0) {
+        return true;
+      }
+      // give the lease back
+      dam.recordDeleteUsage(TaskLeaseTable.TABLE_NAME);
+      jdbc.update("DELETE FROM " + getTableName() + " WHERE " + quote(t.primaryKey) + " = ? AND "
+          + quote(t.lockId) + " = ?", new Object[] { leaseUri, lockId });
+      return false;
     } catch (Exception e) {
       throw new ODKTaskLockException(PERSISTENCE_LAYER_PROBLEM, e);
     }
-    return (TaskLockTable) datastore.getEntity(relation, entity.getUri(), user);
   }
 
   @Override
   public boolean obtainLock(String lockId, String formId, ITaskLockType taskType) {
+    String leaseUri = TaskLeaseRegistry.getLeaseUri(formId, taskType.getName());
+    if (!TaskLeaseRegistry.awaitAvailable(leaseUri, lockId)) {
+      // another thread on this server holds it...
+      return false;
+    }
     boolean result = false;
     try {
-      TaskLockTable relation = TaskLockTable.assertRelation(datastore, user);
-      TaskLockTable entity = datastore.createEntityUsingRelation(relation, user);
-      entity.setStringField(entity.primaryKey, lockId);
-      entity.setFormId(formId);
-      entity.setTaskType(taskType.getName());
-      entity = doTransaction(entity, taskType.getLockExpirationTimeout());
-      result = true;
-    } catch (ODKEntityNotFoundException e) {
-      // didn't gain the lock...
+      result = acquireLease(leaseUri, lockId, formId, taskType);
     } catch (ODKTaskLockException e) {
       // unexpected failure...
       e.printStackTrace();
-    } catch (ODKDatastoreException e) {
-      // unexpected failure...
-      e.printStackTrace();
+    }
+    if (result) {
+      TaskLeaseRegistry.acquired(leaseUri, lockId, taskType.getLockExpirationTimeout());
     }
     return result;
   }
 
   @Override
   public boolean renewLock(String lockId, String formId, ITaskLockType taskType) {
+    String leaseUri = TaskLeaseRegistry.getLeaseUri(formId, taskType.getName());
     boolean result = false;
     try {
-      TaskLockTable relation = TaskLockTable.assertRelation(datastore, user);
-      TaskLockTable entity = datastore.getEntity(relation, lockId, user);
-      if (!(entity.getFormId().equals(formId) && entity.getTaskType().equals(taskType.getName()))) {
-        throw new IllegalArgumentException("formId or taskType don't match datastore values");
-      }
-      entity = doTransaction(entity, taskType.getLockExpirationTimeout());
-      result = true;
-    } catch (IllegalArgumentException e) {
-      // unexpected failure...
-      e.printStackTrace();
-    } catch (ODKEntityNotFoundException e) {
-      // unexpected failure...
-      e.printStackTrace();
-    } catch (ODKDatastoreException e) {
-      // unexpected failure...
-      e.printStackTrace();
-    } catch (ODKTaskLockException e) {
+      TaskLeaseTable t = TaskLeaseTable.assertRelation(datastore, user);
+      dam.recordPutUsage(TaskLeaseTable.TABLE_NAME);
+      // only extends the lease if it has not been taken over by another lockId
+      int count = datastore.getJdbcConnection().update(
+          "UPDATE " + getTableName() + " SET " + quote(t.lastUpdateUriUser) + " = ?, "
+              + quote(t.lastUpdateDate) + " = NOW(), " + quote(t.expirationDateTime) + " = "
+              + expirationExpression() + " WHERE " + quote(t.primaryKey) + " = ? AND "
+              + quote(t.lockId) + " = ?",
+          new Object[] { user.getUriUser(), taskType.getLockExpirationTimeout(),
+              leaseUri, lockId });
+      result = (count == 1);
+    } catch (Exception e) {
       // unexpected failure...
       e.printStackTrace();
     }
+    if (result) {
+      TaskLeaseRegistry.acquired(leaseUri, lockId, taskType.getLockExpirationTimeout());
+    } else {
+      TaskLeaseRegistry.released(leaseUri, lockId);
+    }
     return result;
   }
 
   @Override
   public boolean releaseLock(String lockId, String formId, ITaskLockType taskType) {
+    String leaseUri = TaskLeaseRegistry.getLeaseUri(formId, taskType.getName());
     boolean result = false;
     try {
-      TaskLockTable relation = TaskLockTable.assertRelation(datastore, user);
-      // we don't have the record that we want to delete; construct
-      // the entity key from the relation and the URI for the record.
-      datastore.deleteEntity(new EntityKey(relation, lockId), user);
+      TaskLeaseTable t = TaskLeaseTable.assertRelation(datastore, user);
+      dam.recordDeleteUsage(TaskLeaseTable.TABLE_NAME);
+      // a lease that was taken over by another lockId is left alone
+      datastore.getJdbcConnection().update(
+          "DELETE FROM " + getTableName() + " WHERE " + quote(t.primaryKey) + " = ? AND "
+              + quote(t.lockId) + " = ?", new Object[] { leaseUri, lockId });
       result = true;
-    } catch (ODKDatastoreException e) {
+    } catch (Exception e) {
       // if we see a lot of these, we are running too long between renewals
       LogFactory.getLog(TaskLockImpl.class).info("delete of taskLock threw exception!");
       e.printStackTrace();
+    } finally {
+      TaskLeaseRegistry.released(leaseUri, lockId);
     }
     return result;
   }
 
-  private static class TaskLockTable extends CommonFieldsBase {
+  private static class TaskLeaseTable extends CommonFieldsBase {
     static final String TABLE_NAME = "_task_lock";
 
+    // null on the locks written by servers that predate leases
+    private static final DataField LOCK_ID = new DataField("LOCK_ID", DataField.DataType.URI,
+        true, PersistConsts.URI_STRING_LEN);
     private static final DataField FORM_ID = new DataField("FORM_ID", DataField.DataType.STRING,
         false, 4096L);
     private static final DataField TASK_TYPE = new DataField("TASK_TYPE",
@@ -336,70 +228,61 @@ public class TaskLockImpl implements TaskLock {
     private static final DataField EXPIRATION_DATETIME = new DataField("EXPIRATION_DATETIME",
         DataField.DataType.DATETIME, true);
 
+    DataField lockId;
     DataField formId;
     DataField taskType;
     DataField expirationDateTime;
 
-    TaskLockTable(String schema) {
+    TaskLeaseTable(String schema) {
       super(schema, TABLE_NAME);
+      fieldList.add(lockId = new DataField(LOCK_ID));
       fieldList.add(formId = new DataField(FORM_ID));
       fieldList.add(taskType = new DataField(TASK_TYPE));
       fieldList.add(expirationDateTime = new DataField(EXPIRATION_DATETIME));
     }
 
-    TaskLockTable(TaskLockTable ref, User user) {
+    TaskLeaseTable(TaskLeaseTable ref, User user) {
       super(ref, user);
+      lockId = ref.lockId;
       formId = ref.formId;
       taskType = ref.taskType;
       expirationDateTime = ref.expirationDateTime;
     }
 
-    String getFormId() {
-      return getStringField(formId);
-    }
-
-    void setFormId(String value) {
-      if (!setStringField(formId, value)) {
-        throw new IllegalStateException("overflow formId");
-      }
-    }
-
-    String getTaskType() {
-      return getStringField(taskType);
-    }
-
-    void setTaskType(String value) {
-      if (!setStringField(taskType, value)) {
-        throw new IllegalStateException("overflow taskType");
-      }
-    }
-
-    @SuppressWarnings("unused")
-    Date getExpirationDateTime() {
-      return getDateField(expirationDateTime);
-    }
-
-    @SuppressWarnings("unused")
-    void setExpirationDateTime(Date value) {
-      setDateField(expirationDateTime, value);
-    }
-
     @Override
     public CommonFieldsBase getEmptyRow(User user) {
-      return new TaskLockTable(this, user);
+      return new TaskLeaseTable(this, user);
     }
 
-    static TaskLockTable relation = null;
+    static TaskLeaseTable relation = null;
 
-    static synchronized final TaskLockTable assertRelation(Datastore datastore, User user)
+    static synchronized final TaskLeaseTable assertRelation(DatastoreImpl datastore, User user)
         throws ODKDatastoreException {
       if (relation == null) {
-        TaskLockTable relationPrototype;
-        relationPrototype = new TaskLockTable(datastore.getDefaultSchemaName());
+        TaskLeaseTable relationPrototype;
+        relationPrototype = new TaskLeaseTable(datastore.getDefaultSchemaName());
+        assertLockIdColumn(datastore, relationPrototype);
         datastore.assertRelation(relationPrototype, user);
         relation = relationPrototype;
       }
       return relation;
     }
+
+    /**
+     * A _task_lock table created before leases lacks the LOCK_ID column; add it
+     * in place so that servers that are not yet upgraded keep using the table.
+     */
+    private static void assertLockIdColumn(DatastoreImpl datastore, TaskLeaseTable t)
+        throws ODKDatastoreException {
+      try {
+        // a missing table is created with the column by assertRelation
+        datastore.getJdbcConnection().execute("ALTER TABLE IF EXISTS " + K_BQ
+            + t.getSchemaName() + K_BQ + "." + K_BQ + t.getTableName() + K_BQ
+            + " ADD COLUMN IF NOT EXISTS " + quote(LOCK_ID) + " VARCHAR("
+            + PersistConsts.URI_STRING_LEN + ") NULL");
+      } catch (Exception e) {
+        throw new ODKDatastoreException(e);
+      }
+    }
   }
 }
@@ -83,31 +83,26 @@ public class Oauth2ResourceFilter extends GenericFilterBean {
   private static final int SOCKET_ESTABLISHMENT_TIMEOUT_MILLISECONDS = 60000;
   private static final String ACCESS_TOKEN = "access_token";
   private static final String BEARER_TYPE = "Bearer";
+  private static final int MAX_CACHED_TOKENS = 10000;
+  private static final String DEFAULT_TOKEN_INFO_URL = "https://www.googleapis.com/oauth2/v1/tokeninfo";
+  private static final String DEFAULT_USER_INFO_URL = "https://www.googleapis.com/oauth2/v1/userinfo";
 
   private Log logger = LogFactory.getLog(Oauth2ResourceFilter.class);
   private static final ObjectMapper mapper = new ObjectMapper();
 
   private AuthenticationProvider authenticationProvider = null;
   private HttpClientFactory httpClientFactory = null;
+  private String tokenInfoUrl = DEFAULT_TOKEN_INFO_URL;
+  private String userInfoUrl = DEFAULT_USER_INFO_URL;
 
-  private static Map<String, Oauth2AuthenticationToken> authTokenMap
-      = new HashMap<String, Oauth2AuthenticationToken>();
+  private final Oauth2TokenCache tokenCache = new Oauth2TokenCache(MAX_CACHED_TOKENS);
 
-  private static synchronized Oauth2AuthenticationToken lookupToken(String accessToken) {
-
-    Oauth2AuthenticationToken ti = authTokenMap.get(accessToken);
-    if ( ti != null && ( ti.getExpiration().compareTo(new Date()) < 0 )) {
-        // expired...
-        authTokenMap.remove(ti);
-        ti = null;
+  private final Oauth2TokenCache.TokenValidator tokenValidator = new Oauth2TokenCache.TokenValidator() {
+    @Override
+    public Oauth2AuthenticationToken validate(String accessToken) throws Exception {
+      return validateToken(accessToken);
     }
-
-    return ti;
-  }
-
-  private static synchronized void insertToken(Oauth2AuthenticationToken token) {
-    authTokenMap.put(token.getAccessToken(), token);
-  }
+  };
 
   public Oauth2ResourceFilter() {
     super();
@@ -129,6 +124,26 @@ public class Oauth2ResourceFilter extends GenericFilterBean {
     httpClientFactory = factory;
   }
 
+  public String getTokenInfoUrl() {
+    return tokenInfoUrl;
+  }
+
+  public void setTokenInfoUrl(String tokenInfoUrl) {
+    this.tokenInfoUrl = tokenInfoUrl;
+  }
+
+  public String getUserInfoUrl() {
+    return userInfoUrl;
+  }
+
+  public void setUserInfoUrl(String userInfoUrl) {
+    this.userInfoUrl = userInfoUrl;
+  }
+
+  public Oauth2TokenCache getTokenCache() {
+    return tokenCache;
+  }
+
   @Override
   public void afterPropertiesSet() throws ServletException {
     super.afterPropertiesSet();
@@ -192,7 +207,7 @@ public class Oauth2ResourceFilter extends GenericFilterBean {
     return null;
  }
 
- private Map<String,Object> getJsonResponse(String url, String accessToken) {
+ private Map<String,Object> getJsonResponse(String url, String accessToken) throws IOException {
 
    Map<String,Object> nullData = new HashMap<String,Object>();
 
@@ -204,7 +219,7 @@ public class Oauth2ResourceFilter extends GenericFilterBean {
      } catch (URISyntaxException e2) {
        e2.printStackTrace();
        logger.error(e2.toString());
-       return nullData;
+       throw new IOException("Unable to form token endpoint URI", e2);
      }
 
      List<NameValuePair> qparams = new ArrayList<NameValuePair>();
@@ -216,7 +231,7 @@ public class Oauth2ResourceFilter extends GenericFilterBean {
      } catch (URISyntaxException e1) {
        e1.printStackTrace();
        logger.error(e1.toString());
-       return nullData;
+       throw new IOException("Unable to form token endpoint URI", e1);
      }
 
      // DON'T NEED clientId on the toke request...
@@ -245,61 +260,82 @@ public class Oauth2ResourceFilter extends GenericFilterBean {
          response = client.execute(httpget, new BasicHttpContext());
          int statusCode = response.getStatusLine().getStatusCode();
 
-         if ( statusCode != HttpStatus.SC_OK ) {
-           logger.error("not 200: " + statusCode);
+         HttpEntity entity = response.getEntity();
+         Map<String,Object> responseData = readJsonEntity(entity);
+
+         if ( statusCode == HttpStatus.SC_OK ) {
+           if ( responseData == null ) {
+             throw new IOException("unexpected body");
+           }
+           return responseData;
+         } else if ( (statusCode == HttpStatus.SC_BAD_REQUEST ||
+                      statusCode == HttpStatus.SC_UNAUTHORIZED) &&
+                     responseData != null && responseData.containsKey("error") ) {
+           // the endpoint definitively rejected the token (e.g., invalid_token)
+           logger.error("token rejected: " + statusCode + " " + responseData.get("error"));
            return nullData;
          } else {
-           HttpEntity entity = response.getEntity();
-
-           if (entity != null && entity.getContentType().getValue().toLowerCase()
-                           .contains("json")) {
-             BufferedReader reader = null;
-             InputStreamReader isr = null;
-             try {
-               reader = new BufferedReader(isr = new InputStreamReader(entity.getContent()));
-               @SuppressWarnings("unchecked")
-               Map<String,Object> userData = mapper.readValue(reader, Map.class);
-               return userData;
-             } finally {
-               if ( reader != null ) {
-                 try {
-                   reader.close();
-                 } catch ( IOException e ) {
-                   // ignore
-                 }
-               }
-               if ( isr != null ) {
-                 try {
-                   isr.close();
-                 } catch ( IOException e ) {
-                   // ignore
-                 }
-               }
-             }
-           } else {
-             logger.error("unexpected body");
-             return nullData;
-           }
+           // e.g., 5xx or 429 -- the token could not be checked.
+           throw new IOException("not 200: " + statusCode);
          }
      } catch ( IOException e ) {
+       // the token could not be checked; do not treat it as rejected.
        logger.error(e.toString());
-       return nullData;
+       throw e;
      } catch ( Exception e ) {
        logger.error(e.toString());
-       return nullData;
+       throw new IOException("Unable to check access token", e);
      }
  }
 
- private Oauth2AuthenticationToken assertToken(String accessToken) {
-
-   Oauth2AuthenticationToken ti = lookupToken(accessToken);
-   if ( ti != null ) {
-     return ti;
+ /**
+  * @param entity
+  * @return the parsed JSON object, or null if the entity is not JSON.
+  * @throws IOException if the JSON cannot be read or parsed.
+  */
+ private Map<String,Object> readJsonEntity(HttpEntity entity) throws IOException {
+   if (entity == null || entity.getContentType() == null ||
+       !entity.getContentType().getValue().toLowerCase().contains("json")) {
+     return null;
+   }
+   BufferedReader reader = null;
+   InputStreamReader isr = null;
+   try {
+     reader = new BufferedReader(isr = new InputStreamReader(entity.getContent()));
+     @SuppressWarnings("unchecked")
+     Map<String,Object> data = mapper.readValue(reader, Map.class);
+     if ( data == null ) {
+       throw new IOException("empty JSON body");
+     }
+     return data;
+   } finally {
+     if ( reader != null ) {
+       try {
+         reader.close();
+       } catch ( IOException e ) {
+         // ignore
+       }
+     }
+     if ( isr != null ) {
+       try {
+         isr.close();
+       } catch ( IOException e ) {
+         // ignore
+       }
+     }
    }
+ }
+
+ Oauth2AuthenticationToken assertToken(String accessToken) {
+   return tokenCache.lookup(accessToken, tokenValidator);
+ }
+
+ private Oauth2AuthenticationToken validateToken(String accessToken) throws IOException {
 
+   Oauth2AuthenticationToken ti;
    Map<String,Object> responseData;
 
-   responseData = getJsonResponse("https://www.googleapis.com/oauth2/v1/tokeninfo", accessToken);
+   responseData = getJsonResponse(tokenInfoUrl, accessToken);
 
    Integer expiresInSeconds = (Integer) responseData.get("expires_in");
    if ( expiresInSeconds == null || expiresInSeconds == 0 ) {
@@ -310,7 +346,7 @@ public class Oauth2ResourceFilter extends GenericFilterBean {
 
    String email = (String) responseData.get("email");
    if ( email == null ) {
-     responseData = getJsonResponse("https://www.googleapis.com/oauth2/v1/userinfo", accessToken);
+     responseData = getJsonResponse(userInfoUrl, accessToken);
 
      email = (String) responseData.get("email");
      if ( email == null ) {
@@ -319,7 +355,7 @@ public class Oauth2ResourceFilter extends GenericFilterBean {
    }
 
    ti = new Oauth2AuthenticationToken( accessToken, email, deadline);
-   insertToken(ti);
+   tokenCache.logUsage();
    return ti;
  }
 
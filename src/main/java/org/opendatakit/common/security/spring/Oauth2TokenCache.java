@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.security.spring;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Size-bounded cache of validated Oauth 2.0 access tokens.
+ *
+ * Accepted tokens are cached until they expire. Rejected tokens are cached for
+ * REJECTED_TOKEN_LIFETIME_MILLISECONDS so that repeated requests bearing a bad
+ * token do not each call the token endpoint. Validation failures (e.g., the
+ * endpoint could not be reached) are not cached.
+ *
+ * Only one validation of a given access token is in progress at a time;
+ * concurrent requests bearing the same token wait for that validation rather
+ * than issuing their own.
+ *
+ * This class is thread-safe.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public class Oauth2TokenCache {
+
+  /**
+   * How long a rejected access token is remembered.
+   */
+  public static final long REJECTED_TOKEN_LIFETIME_MILLISECONDS = 60000L;
+
+  /**
+   * Validates an access token against the token endpoint.
+   */
+  public interface TokenValidator {
+    /**
+     * @param accessToken
+     * @return the token information, or null if the endpoint rejected the
+     *         access token.
+     * @throws Exception
+     *           if the access token could not be validated.
+     */
+    Oauth2AuthenticationToken validate(String accessToken) throws Exception;
+  }
+
+  private static final class Entry {
+    // null if the access token was rejected
+    final Oauth2AuthenticationToken token;
+    final long expirationMillis;
+
+    Entry(Oauth2AuthenticationToken token, long expirationMillis) {
+      this.token = token;
+      this.expirationMillis = expirationMillis;
+    }
+  }
+
+  private static final Log logger = LogFactory.getLog(Oauth2TokenCache.class);
+
+  private final int maxEntries;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private final ConcurrentMap<String, FutureTask<Oauth2AuthenticationToken>> inFlight = new ConcurrentHashMap<String, FutureTask<Oauth2AuthenticationToken>>();
+
+  private final AtomicLong hits = new AtomicLong(0L);
+  private final AtomicLong rejectedHits = new AtomicLong(0L);
+  private final AtomicLong misses = new AtomicLong(0L);
+  private final AtomicLong validations = new AtomicLong(0L);
+  private final AtomicLong validationFailures = new AtomicLong(0L);
+
+  public Oauth2TokenCache(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Return the cached token information for the access token, validating it
+   * if it is not cached.
+   *
+   * @param accessToken
+   * @param validator
+   * @return the token information, or null if the access token is rejected or
+   *         could not be validated.
+   */
+  public Oauth2AuthenticationToken lookup(final String accessToken,
+      final TokenValidator validator) {
+    Entry e = entries.get(accessToken);
+    if (e != null) {
+      if (e.expirationMillis > System.currentTimeMillis()) {
+        if (e.token == null) {
+          rejectedHits.incrementAndGet();
+        } else {
+          hits.incrementAndGet();
+        }
+        return e.token;
+      }
+      entries.remove(accessToken, e);
+    }
+    misses.incrementAndGet();
+
+    FutureTask<Oauth2AuthenticationToken> validation = new FutureTask<Oauth2AuthenticationToken>(
+        new Callable<Oauth2AuthenticationToken>() {
+          @Override
+          public Oauth2AuthenticationToken call() throws Exception {
+            validations.incrementAndGet();
+            Oauth2AuthenticationToken token = validator.validate(accessToken);
+            long expirationMillis;
+            if (token == null) {
+              expirationMillis = System.currentTimeMillis() + REJECTED_TOKEN_LIFETIME_MILLISECONDS;
+            } else {
+              expirationMillis = token.getExpiration().getTime();
+            }
+            insert(accessToken, new Entry(token, expirationMillis));
+            return token;
+          }
+        });
+
+    FutureTask<Oauth2AuthenticationToken> existing = inFlight.putIfAbsent(accessToken, validation);
+    if (existing == null) {
+      try {
+        validation.run();
+      } finally {
+        inFlight.remove(accessToken, validation);
+      }
+      existing = validation;
+    }
+
+    try {
+      return existing.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException ex) {
+      if (existing == validation) {
+        validationFailures.incrementAndGet();
+        logger.error("Unable to validate access token: " + ex.getCause().toString());
+      }
+      return null;
+    }
+  }
+
+  private void insert(String accessToken, Entry entry) {
+    entries.put(accessToken, entry);
+    if (entries.size() > maxEntries) {
+      // first drop everything that has expired...
+      long now = System.currentTimeMillis();
+      Iterator<Entry> iter = entries.values().iterator();
+      while (iter.hasNext()) {
+        if (iter.next().expirationMillis <= now) {
+          iter.remove();
+        }
+      }
+      // and then drop arbitrary entries until there is room to grow.
+      Iterator<String> keys = entries.keySet().iterator();
+      while (entries.size() > (maxEntries - maxEntries / 10) && keys.hasNext()) {
+        if (!keys.next().equals(accessToken)) {
+          keys.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Discard all cached tokens.
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getRejectedHitCount() {
+    return rejectedHits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getValidationCount() {
+    return validations.get();
+  }
+
+  public long getValidationFailureCount() {
+    return validationFailures.get();
+  }
+
+  /**
+   * Log the cache statistics.
+   */
+  public void logUsage() {
+    logger.info("Oauth2TokenCache size: " + size() + " hits: " + getHitCount()
+        + " rejectedHits: " + getRejectedHitCount() + " misses: " + getMissCount()
+        + " validations: " + getValidationCount() + " validationFailures: "
+        + getValidationFailureCount());
+  }
+}
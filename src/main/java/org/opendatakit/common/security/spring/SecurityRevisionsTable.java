@@ -15,6 +15,7 @@ public class SecurityRevisionsTable extends CommonFieldsBase {
 	private static final String REGISTERED_USERS_ROW_ID = "rid:registered_users";
 	private static final String SUPER_USER_ID_ROW_ID = "rid:super_user_id";
 	private static final String PERMISSIONS_VIEW_ROW_ID = "rid:permissions_view";
+	private static final String TABLES_ACL_ROW_ID = "rid:tables_acl";
 	
 	private static final String TABLE_NAME = "_security_revisions";
 	
@@ -142,4 +143,15 @@ public class SecurityRevisionsTable extends CommonFieldsBase {
 		t.setLastRevisionDate(new Date());
 		datastore.putEntity(t, user);
 	}
+	
+	public static final long getLastTablesAclRevisionDate(Datastore datastore, User user) throws ODKDatastoreException {
+		SecurityRevisionsTable t = getSingletonRecord( TABLES_ACL_ROW_ID, datastore, user );
+		return t.getLastRevisionDate().getTime();
+	}
+	
+	public static final void setLastTablesAclRevisionDate(Datastore datastore, User user) throws ODKDatastoreException {
+		SecurityRevisionsTable t = getSingletonRecord( TABLES_ACL_ROW_ID, datastore, user );
+		t.setLastRevisionDate(new Date());
+		datastore.putEntity(t, user);
+	}
 }
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.utils;
+
+import org.opendatakit.common.web.constants.HtmlConsts;
+
+/**
+ * A single byte range of a resource, as requested by an HTTP Range header
+ * (RFC 7233). Only single ranges are supported; a request for multiple ranges
+ * is treated as a request for the entire resource.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public final class HttpByteRange {
+
+  /**
+   * Returned by {@link #parse} when the Range header is well-formed but none
+   * of its range lies within the resource (416 response).
+   */
+  public static final HttpByteRange UNSATISFIABLE = new HttpByteRange(0L, -1L, 0L);
+
+  /** first byte of the range */
+  public final long first;
+  /** last byte of the range (inclusive) */
+  public final long last;
+  /** length of the entire resource */
+  public final long totalLength;
+
+  private HttpByteRange(long first, long last, long totalLength) {
+    this.first = first;
+    this.last = last;
+    this.totalLength = totalLength;
+  }
+
+  public long getLength() {
+    return last - first + 1L;
+  }
+
+  /**
+   * @return the value of the Content-Range header for a 206 response
+   */
+  public String getContentRange() {
+    return HtmlConsts.BYTES + " " + first + "-" + last + "/" + totalLength;
+  }
+
+  /**
+   * @return the value of the Content-Range header for a 416 response
+   */
+  public static String getUnsatisfiableContentRange(long totalLength) {
+    return HtmlConsts.BYTES + " */" + totalLength;
+  }
+
+  /**
+   * Determine whether the If-Range precondition allows a partial response.
+   * Only entity tags are compared; a date-valued If-Range is never satisfied,
+   * so the entire resource is returned.
+   *
+   * @param ifRange
+   *          the value of the If-Range header (may be null)
+   * @param eTag
+   *          the current entity tag of the resource
+   * @return true if a Range header should be honored
+   */
+  public static boolean isIfRangeSatisfied(String ifRange, String eTag) {
+    if (ifRange == null) {
+      return true;
+    }
+    return eTag != null && eTag.equals(ifRange.trim());
+  }
+
+  /**
+   * Parse a Range header against a resource of the given length.
+   *
+   * @param rangeHeader
+   *          the value of the Range header (may be null)
+   * @param totalLength
+   *          the length of the resource
+   * @return null if the entire resource should be returned (no header, a
+   *         malformed header or multiple ranges), {@link #UNSATISFIABLE} if no
+   *         part of the range lies within the resource, otherwise the range.
+   */
+  public static HttpByteRange parse(String rangeHeader, long totalLength) {
+    if (rangeHeader == null) {
+      return null;
+    }
+    String spec = rangeHeader.trim();
+    String prefix = HtmlConsts.BYTES + "=";
+    if (!spec.regionMatches(true, 0, prefix, 0, prefix.length())) {
+      return null;
+    }
+    spec = spec.substring(prefix.length()).trim();
+    if (spec.indexOf(',') != -1) {
+      return null;
+    }
+    int dash = spec.indexOf('-');
+    if (dash == -1) {
+      return null;
+    }
+    String firstStr = spec.substring(0, dash).trim();
+    String lastStr = spec.substring(dash + 1).trim();
+    try {
+      long first;
+      long last;
+      if (firstStr.length() == 0) {
+        // suffix range: the final N bytes
+        if (lastStr.length() == 0) {
+          return null;
+        }
+        long suffixLength = Long.parseLong(lastStr);
+        if (suffixLength <= 0L || totalLength == 0L) {
+          return UNSATISFIABLE;
+        }
+        first = Math.max(0L, totalLength - suffixLength);
+        last = totalLength - 1L;
+      } else {
+        first = Long.parseLong(firstStr);
+        last = (lastStr.length() == 0) ? totalLength - 1L : Long.parseLong(lastStr);
+        if (first < 0L || last < first) {
+          return null;
+        }
+        if (first >= totalLength) {
+          return UNSATISFIABLE;
+        }
+        last = Math.min(last, totalLength - 1L);
+      }
+      return new HttpByteRange(first, last, totalLength);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
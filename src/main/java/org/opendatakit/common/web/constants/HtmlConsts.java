@@ -156,6 +156,15 @@ public final class HtmlConsts {
 	public static final String ATTACHMENT_FILENAME_TXT = "attachment; filename=\"";
 	public static final String CONTENT_DISPOSITION = "Content-Disposition";
 	
+	/** for ranged and conditional downloads of binary content */
+	public static final String ETAG = "ETag";
+	public static final String IF_NONE_MATCH = "If-None-Match";
+	public static final String RANGE = "Range";
+	public static final String IF_RANGE = "If-Range";
+	public static final String ACCEPT_RANGES = "Accept-Ranges";
+	public static final String CONTENT_RANGE = "Content-Range";
+	public static final String BYTES = "bytes";
+	
 	/** for click-jacking prevention */
 	public static final String X_FRAME_OPTIONS = "X-Frame-Options";
 	public static final String X_FRAME_SAMEORIGIN = "SAMEORIGIN";
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.datamodel;
+
+import org.opendatakit.aggregate.datamodel.FormDataModel.ElementType;
+
+/**
+ * Builds form data models in memory, so that tests outside this package can
+ * walk a FormElementModel tree without a datastore.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+public class FormModelBuilder {
+
+  private static final String SCHEMA = "schema";
+
+  private FormModelBuilder() {
+  }
+
+  /**
+   * @param elementName
+   * @param type
+   * @param children
+   *          the child elements, in form order.
+   * @return the data model of the element.
+   */
+  public static FormDataModel element(String elementName, ElementType type,
+      FormDataModel... children) {
+    FormDataModel m = new FormDataModel(SCHEMA);
+    m.setElementName(elementName);
+    m.setElementType(type);
+    long ordinal = 1L;
+    for (FormDataModel child : children) {
+      child.setParent(m);
+      m.setChild(ordinal++, child);
+    }
+    return m;
+  }
+
+  /**
+   * @param topLevelGroup
+   * @return the FormElementModel tree of the form.
+   */
+  public static FormElementModel buildTree(FormDataModel topLevelGroup) {
+    return FormElementModel.buildFormElementModelTree(topLevelGroup);
+  }
+}
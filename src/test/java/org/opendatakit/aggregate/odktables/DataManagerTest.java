@@ -34,6 +34,15 @@ import org.opendatakit.aggregate.odktables.exception.BadColumnNameException;
 import org.opendatakit.aggregate.odktables.exception.ETagMismatchException;
 import org.opendatakit.aggregate.odktables.exception.InconsistentStateException;
 import org.opendatakit.aggregate.odktables.exception.PermissionDeniedException;
+import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions;
+import org.opendatakit.aggregate.odktables.relation.DbColumnDefinitions.DbColumnDefinitionsEntity;
+import org.opendatakit.aggregate.odktables.relation.DbLogTable;
+import org.opendatakit.aggregate.odktables.relation.DbTable;
+import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions;
+import org.opendatakit.aggregate.odktables.relation.DbTableDefinitions.DbTableDefinitionsEntity;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry;
+import org.opendatakit.aggregate.odktables.relation.DbTableEntry.DbTableEntryEntity;
+import org.opendatakit.aggregate.odktables.relation.EntityCreator;
 import org.opendatakit.aggregate.odktables.rest.SavepointTypeManipulator;
 import org.opendatakit.aggregate.odktables.rest.entity.DataKeyValue;
 import org.opendatakit.aggregate.odktables.rest.entity.Row;
@@ -42,8 +51,10 @@ import org.opendatakit.aggregate.odktables.rest.entity.Scope.Type;
 import org.opendatakit.aggregate.odktables.rest.entity.TableEntry;
 import org.opendatakit.aggregate.odktables.rest.entity.TableRole.TablePermission;
 import org.opendatakit.aggregate.odktables.security.TablesUserPermissions;
+import org.opendatakit.common.ermodel.Entity;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.PersistConsts;
+import org.opendatakit.common.persistence.PersistenceUtils;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
@@ -403,6 +414,80 @@ public class DataManagerTest {
     Util.assertCollectionSameElements(expected.values(), actual);
   }
 
+  @Test
+  public void testGetRowsHidesPendingChanges() throws ODKDatastoreException,
+      ODKTaskLockException, ETagMismatchException, BadColumnNameException,
+      PermissionDeniedException, InconsistentStateException {
+    List<Row> committed = new ArrayList<Row>();
+    for ( Row r : rows ) {
+      committed.add(dm.insertOrUpdateRow(r));
+    }
+    Row toUpdate = committed.get(0);
+    Row toDelete = committed.get(1);
+
+    // leave behind the change set of a writer that failed before committing:
+    // one row updated and the other deleted, with their log entries written.
+    DbTableEntryEntity entry = DbTableEntry.getTableIdEntry(T.tableId, cc);
+    String schemaETag = entry.getSchemaETag();
+    DbTableDefinitionsEntity tableDefn = DbTableDefinitions.getDefinition(T.tableId, schemaETag, cc);
+    List<DbColumnDefinitionsEntity> columns = DbColumnDefinitions.query(T.tableId, schemaETag, cc);
+    DbTable table = DbTable.getRelation(tableDefn, columns, cc);
+    DbLogTable logTable = DbLogTable.getRelation(tableDefn, columns, cc);
+    EntityCreator creator = new EntityCreator();
+    Sequencer sequencer = new Sequencer(null);
+
+    String pendingDataETag = PersistenceUtils.newUri();
+    entry.setPendingDataETag(pendingDataETag);
+    entry.put(cc);
+
+    Entity updated = table.getEntity(toUpdate.getRowId(), cc);
+    String previousRowETag = updated.getString(DbTable.ROW_ETAG);
+    updated.set(DbTable.ROW_ETAG, PersistenceUtils.newUri());
+    updated.set(DbTable.DATA_ETAG_AT_MODIFICATION, pendingDataETag);
+    updated.setAsString(T.Columns.column_age.getElementKey().toUpperCase(), "444");
+    creator.newLogEntity(logTable, pendingDataETag, previousRowETag, updated, columns, sequencer,
+        cc).put(cc);
+    updated.put(cc);
+
+    Entity deleted = table.getEntity(toDelete.getRowId(), cc);
+    previousRowETag = deleted.getString(DbTable.ROW_ETAG);
+    deleted.set(DbTable.ROW_ETAG, PersistenceUtils.newUri());
+    deleted.set(DbTable.DELETED, true);
+    creator.newLogEntity(logTable, pendingDataETag, previousRowETag, deleted, columns, sequencer,
+        cc).put(cc);
+    deleted.put(cc);
+
+    // the rows are returned as they were committed...
+    List<Row> actual = dm.getRows(null, 2000).rows;
+    assertEquals(committed.size(), actual.size());
+    for ( Row expected : committed ) {
+      Row found = null;
+      for ( Row r : actual ) {
+        if ( r.getRowId().equals(expected.getRowId()) ) {
+          found = r;
+        }
+      }
+      assertTrue(found != null);
+      assertEquals(expected.getRowETag(), found.getRowETag());
+      assertEquals(expected.getValues(), found.getValues());
+      assertFalse(found.isDeleted());
+    }
+    assertEquals(toDelete.getRowETag(), dm.getRow(toDelete.getRowId()).getRowETag());
+    assertEquals(toUpdate.getValues(), dm.getRow(toUpdate.getRowId()).getValues());
+
+    // and once the pending change set is committed, the changes are visible.
+    entry = DbTableEntry.getTableIdEntry(T.tableId, cc);
+    entry.setDataETag(pendingDataETag);
+    entry.setPendingDataETag(null);
+    entry.put(cc);
+
+    actual = dm.getRows(null, 2000).rows;
+    assertEquals(1, actual.size());
+    assertEquals(toUpdate.getRowId(), actual.get(0).getRowId());
+    assertEquals("444", Row.convertToMap(actual.get(0).getValues()).get(
+        T.Columns.column_age.getElementKey()));
+  }
+
 //  @Test
 //  public void testGetRowsSinceByScope() throws ODKEntityPersistException, ETagMismatchException,
 //      BadColumnNameException, ODKDatastoreException, ODKTaskLockException, PermissionDeniedException {
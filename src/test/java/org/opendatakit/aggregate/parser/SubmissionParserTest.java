@@ -0,0 +1,461 @@
+/**
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.datamodel.FormDataModel.ElementType;
+import org.opendatakit.aggregate.datamodel.FormElementModel;
+import org.opendatakit.aggregate.datamodel.FormModelBuilder;
+import org.opendatakit.aggregate.exception.ODKParseException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Compares the streaming (StAX) reading of submissions by the SubmissionParser
+ * with the DOM walk that it replaced. The DOM reference code below is the
+ * previous implementation, with the storing of the values factored out into
+ * the same SubmissionValueHandler. Does not need a datastore.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+@RunWith(org.junit.runners.JUnit4.class)
+public class SubmissionParserTest {
+
+  private static final String OPEN_ROSA_NAMESPACE_PRELIM = "http://openrosa.org/xforms/metadata";
+  private static final String OPEN_ROSA_NAMESPACE = "http://openrosa.org/xforms";
+  private static final String OPEN_ROSA_NAMESPACE_SLASH = "http://openrosa.org/xforms/";
+
+  /**
+   * data { name, age, loc, photo, grp { inner, nested { deep } }, rep { item,
+   * sub { val } } }
+   */
+  private static final FormElementModel FORM = FormModelBuilder.buildTree(FormModelBuilder
+      .element("data", ElementType.GROUP,
+          FormModelBuilder.element("name", ElementType.STRING),
+          FormModelBuilder.element("age", ElementType.INTEGER),
+          FormModelBuilder.element("loc", ElementType.GEOPOINT),
+          FormModelBuilder.element("photo", ElementType.BINARY),
+          FormModelBuilder.element("grp", ElementType.GROUP,
+              FormModelBuilder.element("inner", ElementType.STRING),
+              FormModelBuilder.element("nested", ElementType.GROUP,
+                  FormModelBuilder.element("deep", ElementType.STRING))),
+          FormModelBuilder.element("rep", ElementType.REPEAT,
+              FormModelBuilder.element("item", ElementType.STRING),
+              FormModelBuilder.element("sub", ElementType.REPEAT,
+                  FormModelBuilder.element("val", ElementType.STRING)))));
+
+  /**
+   * Records the values as "path=value", where the path of a repeat group
+   * instance carries its ordinal, e.g. /data/rep[2]/sub[1]/val.
+   */
+  private static class RecordingHandler implements
+      SubmissionParser.SubmissionValueHandler<String> {
+    final List<String> values = new ArrayList<String>();
+    private final Map<String, Integer> repeatGroupIndicies = new HashMap<String, Integer>();
+
+    @Override
+    public String nextRepeatInstance(String submissionSet, FormElementModel repeat) {
+      String fullName = submissionSet + "/" + repeat.getElementName();
+      Integer idx = repeatGroupIndicies.get(fullName);
+      idx = (idx == null) ? 1 : idx + 1;
+      repeatGroupIndicies.put(fullName, idx);
+      values.add(fullName + "[" + idx + "]");
+      return fullName + "[" + idx + "]";
+    }
+
+    @Override
+    public void setValue(String submissionSet, FormElementModel field, String value) {
+      values.add(submissionSet + "/" + field.getElementName() + "=" + value);
+    }
+
+    @Override
+    public boolean setBinaryValue(String submissionSet, FormElementModel field, String value) {
+      values.add(submissionSet + "/" + field.getElementName() + "=" + value);
+      // pretend the attachments whose names start with "missing" were not
+      // received
+      return (value == null) || !value.startsWith("missing");
+    }
+  }
+
+  private static Element parseDom(String xml) throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    factory.setIgnoringComments(true);
+    factory.setCoalescing(true);
+    DocumentBuilder builder = factory.newDocumentBuilder();
+    Document doc = builder.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    return doc.getDocumentElement();
+  }
+
+  private static XMLStreamReader openStream(String xml) throws Exception {
+    XMLStreamReader reader = SubmissionParser.xmlInputFactory
+        .createXMLStreamReader(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    SubmissionParser.advanceToRootElement(reader);
+    return reader;
+  }
+
+  // ------------------------------------------------------------------------
+  // the DOM reference implementation
+
+  private static String domOpenRosaInstanceId(Element root) {
+    Node n = domFindMetaTag(root);
+    if (n != null) {
+      NodeList nl = n.getChildNodes();
+      for (int i = 0; i < nl.getLength(); ++i) {
+        Node cn = nl.item(i);
+        String cnUri = cn.getNamespaceURI();
+        String cnName = cn.getLocalName();
+        if (cn.getNodeType() == Node.ELEMENT_NODE && cnName.equals("instanceID")
+            && (cnUri == null || cnUri.equalsIgnoreCase(OPEN_ROSA_NAMESPACE)
+                || cnUri.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_SLASH)
+                || cnUri.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_PRELIM))) {
+          NodeList cnl = cn.getChildNodes();
+          boolean textFound = false;
+          int idxText = -1;
+          for (int j = 0; j < cnl.getLength(); ++j) {
+            Node cnln = cnl.item(j);
+            if (cnln.getNodeType() == Node.TEXT_NODE) {
+              if (textFound) {
+                throw new IllegalStateException("Expected a single text node");
+              }
+              textFound = true;
+              idxText = j;
+            }
+          }
+          if (textFound) {
+            return cnl.item(idxText).getNodeValue();
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private static Node domFindMetaTag(Node parent) {
+    if (parent.getNodeType() != Node.ELEMENT_NODE)
+      return null;
+    NodeList nl = parent.getChildNodes();
+    for (int i = 0; i < nl.getLength(); ++i) {
+      Node n = nl.item(i);
+      String namespace = n.getNamespaceURI();
+      String name = n.getLocalName();
+      if (n.getNodeType() == Node.ELEMENT_NODE && name.equals("meta")
+          && (namespace == null || namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE)
+              || namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_SLASH)
+              || namespace.equalsIgnoreCase(OPEN_ROSA_NAMESPACE_PRELIM))) {
+        return n;
+      } else {
+        n = domFindMetaTag(n);
+        if (n != null)
+          return n;
+      }
+    }
+    return null;
+  }
+
+  private static <S> boolean domProcessSubmissionElement(FormElementModel node,
+      Element currentSubmissionElement, S submissionSet,
+      SubmissionParser.SubmissionValueHandler<S> handler) throws Exception {
+
+    if (node == null || currentSubmissionElement == null) {
+      return true;
+    }
+    String submissionTag = node.getElementName();
+    if (submissionTag == null) {
+      return true;
+    }
+    if (!currentSubmissionElement.getLocalName().equals(submissionTag)) {
+      throw new ODKParseException("Xml document element tag: "
+          + currentSubmissionElement.getLocalName()
+          + " does not match the xform data model tag name: " + submissionTag);
+    }
+
+    List<Element> elements = new ArrayList<Element>();
+    NodeList nodeList = currentSubmissionElement.getChildNodes();
+    for (int i = 0; i < nodeList.getLength(); ++i) {
+      Node n = nodeList.item(i);
+      if (n.getNodeType() == Node.ELEMENT_NODE) {
+        elements.add((Element) n);
+      }
+    }
+    if (elements.size() == 0) {
+      return true; // the group is not relevant...
+    }
+    boolean complete = true;
+    for (Element e : elements) {
+      FormElementModel m = node.findElementByName(e.getLocalName());
+      if (m == null) {
+        continue;
+      }
+      switch (m.getElementType()) {
+      case METADATA:
+        break;
+      case GROUP:
+        complete = complete & domProcessSubmissionElement(m, e, submissionSet, handler);
+        break;
+      case REPEAT:
+        S repeatableSubmissionSet = handler.nextRepeatInstance(submissionSet, m);
+        complete = complete & domProcessSubmissionElement(m, e, repeatableSubmissionSet, handler);
+        break;
+      case BINARY:
+        complete = complete & handler.setBinaryValue(submissionSet, m, domSubmissionValue(e));
+        break;
+      default:
+        handler.setValue(submissionSet, m, domSubmissionValue(e));
+        break;
+      }
+    }
+    return complete;
+  }
+
+  private static String domSubmissionValue(Element element) {
+    NodeList childNodeList = element.getChildNodes();
+    for (int i = 0; i < childNodeList.getLength(); i++) {
+      Node node = childNodeList.item(i);
+      if (node.getNodeType() == Node.TEXT_NODE) {
+        String value = node.getNodeValue().trim();
+        if (value.length() > 0) {
+          return value;
+        }
+      }
+    }
+    return null;
+  }
+
+  // ------------------------------------------------------------------------
+
+  private static String streamOpenRosaInstanceId(String xml) throws Exception {
+    XMLStreamReader reader = openStream(xml);
+    try {
+      return SubmissionParser.readOpenRosaInstanceId(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Walks the xml with the streaming parser and the DOM reference and checks
+   * that they store the same values.
+   *
+   * @return the values stored.
+   */
+  private static List<String> assertSameValues(String xml, boolean expectComplete)
+      throws Exception {
+    RecordingHandler dom = new RecordingHandler();
+    boolean domComplete = domProcessSubmissionElement(FORM, parseDom(xml), "", dom);
+
+    RecordingHandler stax = new RecordingHandler();
+    XMLStreamReader reader = openStream(xml);
+    boolean staxComplete;
+    try {
+      staxComplete = SubmissionParser.processSubmissionElement(FORM, reader, "", stax);
+    } finally {
+      reader.close();
+    }
+
+    assertEquals(dom.values, stax.values);
+    assertEquals(expectComplete, domComplete);
+    assertEquals(domComplete, staxComplete);
+    return stax.values;
+  }
+
+  private static void assertSameInstanceId(String expected, String xml) throws Exception {
+    assertEquals(expected, domOpenRosaInstanceId(parseDom(xml)));
+    assertEquals(expected, streamOpenRosaInstanceId(xml));
+  }
+
+  @Test
+  public void testCdataAndMixedContent() throws Exception {
+    List<String> values = assertSameValues("<data id=\"f\">"
+        + "<name><![CDATA[ Bob ]]></name>"
+        + "<age> 4<![CDATA[2]]> </age>"
+        + "<grp><inner>first<b>bold</b>second</inner>"
+        + "<nested><deep>  <b>skipped</b>  after </deep></nested></grp>"
+        + "<loc>\n  47.6 -122.3 0 0\n</loc>"
+        + "</data>", true);
+
+    assertTrue(values.contains("/name=Bob"));
+    assertTrue(values.contains("/age=42"));
+    assertTrue(values.contains("/inner=first"));
+    assertTrue(values.contains("/deep=after"));
+    assertTrue(values.contains("/loc=47.6 -122.3 0 0"));
+  }
+
+  @Test
+  public void testCommentsAndMissingValues() throws Exception {
+    List<String> values = assertSameValues("<?xml version=\"1.0\"?>\n"
+        + "<!-- leading comment -->\n<data>"
+        + "<name><!-- c --> Ann <!-- c --></name>"
+        + "<age/>"
+        + "<photo>   </photo>"
+        + "<grp><inner><b>only a child</b></inner></grp>"
+        + "</data>", true);
+
+    assertTrue(values.contains("/name=Ann"));
+    assertTrue(values.contains("/age=null"));
+    assertTrue(values.contains("/photo=null"));
+    assertTrue(values.contains("/inner=null"));
+  }
+
+  @Test
+  public void testEmptyGroups() throws Exception {
+    List<String> values = assertSameValues("<data>"
+        + "<grp/>"
+        + "<grp>   </grp>"
+        + "<grp><nested/></grp>"
+        + "<rep/>"
+        + "<rep>  </rep>"
+        + "<rep><sub/></rep>"
+        + "<name>x</name>"
+        + "</data>", true);
+
+    // an empty repeat group still takes up an ordinal.
+    assertEquals(5, values.size());
+    assertEquals("/rep[1]", values.get(0));
+    assertEquals("/rep[2]", values.get(1));
+    assertEquals("/rep[3]", values.get(2));
+    assertEquals("/rep[3]/sub[1]", values.get(3));
+    assertEquals("/name=x", values.get(4));
+  }
+
+  @Test
+  public void testRepeatOrdinals() throws Exception {
+    List<String> values = assertSameValues("<data>"
+        + "<rep><item>a</item><sub><val>a1</val></sub><sub><val>a2</val></sub></rep>"
+        + "<name>between</name>"
+        + "<rep><item>b</item><unknown><item>ignored</item><rep/></unknown>"
+        + "<sub><val>b1</val></sub></rep>"
+        + "<rep><sub><val>c1</val></sub><item>c</item><sub><val>c2</val></sub></rep>"
+        + "</data>", true);
+
+    assertTrue(values.contains("/rep[1]/item=a"));
+    assertTrue(values.contains("/rep[1]/sub[2]/val=a2"));
+    assertTrue(values.contains("/rep[2]/item=b"));
+    assertTrue(values.contains("/rep[2]/sub[1]/val=b1"));
+    assertTrue(values.contains("/rep[3]/sub[1]/val=c1"));
+    assertTrue(values.contains("/rep[3]/item=c"));
+    assertTrue(values.contains("/rep[3]/sub[2]/val=c2"));
+    assertFalse(values.contains("/rep[2]/item=ignored"));
+    assertFalse(values.contains("/rep[2]/rep[1]"));
+  }
+
+  @Test
+  public void testUnknownElementsAndIncompleteBinaries() throws Exception {
+    List<String> values = assertSameValues("<data>"
+        + "<meta><instanceID>uuid:1</instanceID></meta>"
+        + "<unknown><name>ignored</name><grp><inner>ignored</inner></grp></unknown>"
+        + "<photo>missing.jpg</photo>"
+        + "<name>kept</name>"
+        + "</data>", false);
+
+    assertEquals(2, values.size());
+    assertEquals("/photo=missing.jpg", values.get(0));
+    assertEquals("/name=kept", values.get(1));
+  }
+
+  @Test
+  public void testRootElementMismatch() throws Exception {
+    XMLStreamReader reader = openStream("<other><name>x</name></other>");
+    try {
+      SubmissionParser.processSubmissionElement(FORM, reader, "", new RecordingHandler());
+      fail("expected the root element to be rejected");
+    } catch (ODKParseException e) {
+      // expected
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testInstanceIdWithMetaNotFirst() throws Exception {
+    assertSameInstanceId("uuid:first", "<data><name>x</name><grp><inner>y</inner></grp>"
+        + "<meta><instanceID>uuid:first</instanceID></meta></data>");
+    // the first metadata tag may be within a group
+    assertSameInstanceId("uuid:nested", "<data><grp><meta><instanceID>uuid:nested</instanceID>"
+        + "</meta></grp><meta><instanceID>uuid:second</instanceID></meta></data>");
+    // only the first metadata tag is searched
+    assertSameInstanceId(null, "<data><meta><deviceID>d</deviceID></meta>"
+        + "<meta><instanceID>uuid:second</instanceID></meta></data>");
+    // the instanceID must be directly within the metadata tag
+    assertSameInstanceId(null, "<data><meta><x><instanceID>uuid:deep</instanceID></x></meta>"
+        + "</data>");
+    assertSameInstanceId(null, "<data><name>x</name></data>");
+  }
+
+  @Test
+  public void testInstanceIdText() throws Exception {
+    // an instanceID without text is passed over for the next one
+    assertSameInstanceId("uuid:next", "<data><meta><instanceID/><instanceID>uuid:next"
+        + "</instanceID></meta></data>");
+    // the text is not trimmed; CDATA is coalesced with the text
+    assertSameInstanceId(" uuid:ab ", "<data><meta><instanceID> uuid:<![CDATA[ab]]> "
+        + "</instanceID></meta></data>");
+    assertSameInstanceId("uuid:c", "<data><meta><instanceID><!-- c -->uuid:c</instanceID>"
+        + "</meta></data>");
+  }
+
+  @Test
+  public void testNamespacedInstanceId() throws Exception {
+    assertSameInstanceId("uuid:orx", "<data xmlns:orx=\"" + OPEN_ROSA_NAMESPACE + "\">"
+        + "<orx:meta><orx:instanceID>uuid:orx</orx:instanceID></orx:meta></data>");
+    assertSameInstanceId("uuid:slash", "<data xmlns:orx=\"" + OPEN_ROSA_NAMESPACE_SLASH + "\">"
+        + "<orx:meta><orx:instanceID>uuid:slash</orx:instanceID></orx:meta></data>");
+    assertSameInstanceId("uuid:prelim", "<data xmlns:jr=\"" + OPEN_ROSA_NAMESPACE_PRELIM + "\">"
+        + "<jr:meta><jr:instanceID>uuid:prelim</jr:instanceID></jr:meta></data>");
+    // the namespace is compared without regard to case
+    assertSameInstanceId("uuid:case", "<data xmlns:orx=\"HTTP://OpenRosa.org/xforms\">"
+        + "<orx:meta><instanceID>uuid:case</instanceID></orx:meta></data>");
+    // a namespaced meta with an unqualified instanceID, and vice versa
+    assertSameInstanceId("uuid:mixed", "<data xmlns:orx=\"" + OPEN_ROSA_NAMESPACE + "\">"
+        + "<meta><orx:instanceID>uuid:mixed</orx:instanceID></meta></data>");
+    // elements in any other namespace are not the OpenRosa metadata
+    assertSameInstanceId(null, "<data xmlns:x=\"urn:other\"><x:meta><instanceID>uuid:other"
+        + "</instanceID></x:meta></data>");
+    assertSameInstanceId(null, "<data><meta><x:instanceID xmlns:x=\"urn:other\">uuid:other"
+        + "</x:instanceID></meta></data>");
+  }
+
+  @Test
+  public void testInstanceIdInDefaultNamespace() throws Exception {
+    // the submission's default namespace is not an OpenRosa namespace
+    String xml = "<data xmlns=\"http://opendatakit.org/submissions\">"
+        + "<meta><instanceID>uuid:default</instanceID></meta></data>";
+    assertNull(domOpenRosaInstanceId(parseDom(xml)));
+    assertNull(streamOpenRosaInstanceId(xml));
+
+    xml = "<data xmlns=\"" + OPEN_ROSA_NAMESPACE + "\">"
+        + "<meta><instanceID>uuid:default</instanceID></meta></data>";
+    assertSameInstanceId("uuid:default", xml);
+  }
+}
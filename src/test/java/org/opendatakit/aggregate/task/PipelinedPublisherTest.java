@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.opendatakit.aggregate.exception.ODKExternalServiceException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the PipelinedPublisher against a local stand-in for an external
+ * service that accepts one item per POST.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+@RunWith(JUnit4.class)
+public class PipelinedPublisherTest {
+
+  private static final int MAX_IN_FLIGHT = 4;
+
+  private HttpServer server;
+  private ExecutorService executor;
+  private String baseUrl;
+
+  private AtomicInteger active;
+  private AtomicInteger maxActive;
+  // item => number of failures to return before accepting it
+  private Map<String, Integer> failuresRemaining;
+  private List<String> received;
+
+  @Before
+  public void setUp() throws Exception {
+    active = new AtomicInteger(0);
+    maxActive = new AtomicInteger(0);
+    failuresRemaining = new ConcurrentHashMap<String, Integer>();
+    received = Collections.synchronizedList(new ArrayList<String>());
+
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/submission", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        int now = active.incrementAndGet();
+        try {
+          int max;
+          while ((max = maxActive.get()) < now && !maxActive.compareAndSet(max, now)) {
+          }
+          String item = exchange.getRequestURI().getQuery();
+          // vary the response time so that sends complete out of order
+          Thread.sleep(20 + Math.abs(item.hashCode() % 5) * 10);
+          Integer failures = failuresRemaining.get(item);
+          if (failures != null && failures > 0) {
+            failuresRemaining.put(item, failures - 1);
+            respond(exchange, 500);
+          } else {
+            received.add(item);
+            respond(exchange, 200);
+          }
+        } catch (InterruptedException e) {
+          respond(exchange, 503);
+        } finally {
+          active.decrementAndGet();
+        }
+      }
+    });
+    server.start();
+    baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/submission?";
+
+    executor = Executors.newFixedThreadPool(MAX_IN_FLIGHT);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    server.stop(0);
+  }
+
+  private static void respond(HttpExchange exchange, int status) throws IOException {
+    InputStream is = exchange.getRequestBody();
+    while (is.read() != -1) {
+    }
+    exchange.sendResponseHeaders(status, -1);
+    exchange.close();
+  }
+
+  private class RecordingTarget implements PipelinedPublisher.Target<String> {
+    final List<String> acknowledged = new ArrayList<String>();
+    final List<Integer> checkpoints = new ArrayList<Integer>();
+
+    @Override
+    public void send(String item) throws ODKExternalServiceException {
+      try {
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + item).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        OutputStream os = conn.getOutputStream();
+        os.write(item.getBytes("UTF-8"));
+        os.close();
+        int status = conn.getResponseCode();
+        conn.disconnect();
+        if (status != 200) {
+          throw new ODKExternalServiceException("status " + status + " for " + item);
+        }
+      } catch (IOException e) {
+        throw new ODKExternalServiceException(e);
+      }
+    }
+
+    @Override
+    public void acknowledge(String item, int count) {
+      acknowledged.add(item);
+      assertEquals(acknowledged.size(), count);
+    }
+
+    @Override
+    public void checkpoint() {
+      checkpoints.add(acknowledged.size());
+    }
+  }
+
+  private static List<String> items(int count) {
+    List<String> items = new ArrayList<String>();
+    for (int i = 0; i < count; ++i) {
+      items.add("item" + i);
+    }
+    return items;
+  }
+
+  @Test
+  public void testAcknowledgesInOrderWithBoundedConcurrency() throws Exception {
+    List<String> items = items(40);
+    RecordingTarget target = new RecordingTarget();
+    PipelinedPublisher<String> publisher = new PipelinedPublisher<String>(executor,
+        MAX_IN_FLIGHT, 60000L, 1, 10L);
+
+    assertEquals(items.size(), publisher.publish(items, target));
+
+    assertEquals(items, target.acknowledged);
+    assertEquals(items.size(), received.size());
+    assertTrue(maxActive.get() <= MAX_IN_FLIGHT);
+    assertTrue(maxActive.get() > 1);
+    // one checkpoint, when publishing finished.
+    assertEquals(Collections.singletonList(items.size()), target.checkpoints);
+  }
+
+  @Test
+  public void testCheckpointsAreCoalescedPerWindow() throws Exception {
+    List<String> items = items(20);
+    RecordingTarget target = new RecordingTarget();
+    PipelinedPublisher<String> publisher = new PipelinedPublisher<String>(executor,
+        MAX_IN_FLIGHT, 0L, 1, 10L);
+
+    publisher.publish(items, target);
+
+    // a zero-length window checkpoints after every acknowledgement...
+    assertEquals(items.size(), target.checkpoints.size());
+    assertEquals(Integer.valueOf(items.size()), target.checkpoints.get(items.size() - 1));
+  }
+
+  @Test
+  public void testTransientFailureIsRetried() throws Exception {
+    List<String> items = items(10);
+    failuresRemaining.put("item3", 2);
+    RecordingTarget target = new RecordingTarget();
+    PipelinedPublisher<String> publisher = new PipelinedPublisher<String>(executor,
+        MAX_IN_FLIGHT, 60000L, 3, 10L);
+
+    publisher.publish(items, target);
+
+    assertEquals(items, target.acknowledged);
+    assertEquals(Integer.valueOf(0), failuresRemaining.get("item3"));
+  }
+
+  @Test
+  public void testPersistentFailureStopsAtHighWaterMark() throws Exception {
+    List<String> items = items(10);
+    failuresRemaining.put("item5", 100);
+    RecordingTarget target = new RecordingTarget();
+    PipelinedPublisher<String> publisher = new PipelinedPublisher<String>(executor,
+        MAX_IN_FLIGHT, 60000L, 2, 10L);
+
+    try {
+      publisher.publish(items, target);
+      fail("expected the publish to fail");
+    } catch (ODKExternalServiceException e) {
+      // expected
+    }
+
+    assertEquals(items.subList(0, 5), target.acknowledged);
+    // the progress up to the failure is saved.
+    assertEquals(Collections.singletonList(5), target.checkpoints);
+  }
+
+  @Test
+  public void testCheckpointFailureDoesNotHideSendFailure() throws Exception {
+    List<String> items = items(10);
+    failuresRemaining.put("item5", 100);
+    RecordingTarget target = new RecordingTarget() {
+      @Override
+      public void checkpoint() {
+        super.checkpoint();
+        throw new IllegalStateException("checkpoint failed");
+      }
+    };
+    PipelinedPublisher<String> publisher = new PipelinedPublisher<String>(executor,
+        MAX_IN_FLIGHT, 60000L, 2, 10L);
+
+    try {
+      publisher.publish(items, target);
+      fail("expected the publish to fail");
+    } catch (ODKExternalServiceException e) {
+      // expected: the send failure, not the checkpoint failure
+    }
+
+    assertEquals(items.subList(0, 5), target.acknowledged);
+    assertEquals(Collections.singletonList(5), target.checkpoints);
+  }
+}
@@ -15,6 +15,10 @@ package org.opendatakit.common.ermodel;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -79,4 +83,73 @@ public class BlobRelationSetTest {
 		
 		rel.dropBlobRelationSet(cc);
 	}
+
+	@Test
+	public void testWriteBlobRange() throws ODKDatastoreException, IOException {
+		CallingContext cc = TestContextFactory.getCallingContext();
+
+		MyBlobRelationSet rel = new MyBlobRelationSet(cc);
+
+		BlobEntitySet instance = rel.newBlobEntitySet(cc);
+		String s = "0123456789abcdefghij";
+		instance.addBlob(s.getBytes(), "text/plain", null, false, cc);
+		instance.persist(cc);
+		BlobEntitySet alt = rel.getBlobEntitySet(instance.getUri(), cc);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(s.length(), alt.writeBlob(1, 0L, -1L, os, cc));
+		assertEquals(s, new String(os.toByteArray()));
+
+		os = new ByteArrayOutputStream();
+		assertEquals(5L, alt.writeBlob(1, 3L, 5L, os, cc));
+		assertEquals("34567", new String(os.toByteArray()));
+
+		os = new ByteArrayOutputStream();
+		assertEquals(2L, alt.writeBlob(1, 18L, 10L, os, cc));
+		assertEquals("ij", new String(os.toByteArray()));
+
+		rel.dropBlobRelationSet(cc);
+	}
+
+	@Test
+	public void testWriteBlobRangeAcrossParts() throws ODKDatastoreException, IOException {
+		CallingContext cc = TestContextFactory.getCallingContext();
+
+		MyBlobRelationSet rel = new MyBlobRelationSet(cc);
+
+		// blobs are stored in parts of at most 1MB, so this spans at least 3 parts
+		int partSize = 1048576;
+		byte[] blob = new byte[5 * partSize / 2];
+		for (int i = 0; i < blob.length; ++i) {
+			blob[i] = (byte) (i % 251);
+		}
+		BlobEntitySet instance = rel.newBlobEntitySet(cc);
+		instance.addBlob(blob, "application/octet-stream", null, false, cc);
+		instance.persist(cc);
+		BlobEntitySet alt = rel.getBlobEntitySet(instance.getUri(), cc);
+		assertEquals(blob.length, alt.getContentLength(1, cc).intValue());
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(blob.length, alt.writeBlob(1, 0L, -1L, os, cc));
+		assertArrayEquals(blob, os.toByteArray());
+
+		// a range that crosses the boundary between the first and second parts
+		os = new ByteArrayOutputStream();
+		assertEquals(20L, alt.writeBlob(1, partSize - 10L, 20L, os, cc));
+		assertArrayEquals(Arrays.copyOfRange(blob, partSize - 10, partSize + 10), os.toByteArray());
+
+		// a range that covers the whole second part and ends in the third
+		os = new ByteArrayOutputStream();
+		assertEquals(partSize + 2000L, alt.writeBlob(1, partSize - 1000L, partSize + 2000L, os, cc));
+		assertArrayEquals(Arrays.copyOfRange(blob, partSize - 1000, 2 * partSize + 1000),
+				os.toByteArray());
+
+		// a range that starts in the last part and runs past the end
+		os = new ByteArrayOutputStream();
+		assertEquals(100L, alt.writeBlob(1, blob.length - 100L, 1000L, os, cc));
+		assertArrayEquals(Arrays.copyOfRange(blob, blob.length - 100, blob.length),
+				os.toByteArray());
+
+		rel.dropBlobRelationSet(cc);
+	}
 }
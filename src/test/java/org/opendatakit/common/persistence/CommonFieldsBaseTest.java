@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.opendatakit.common.security.User;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * Tests the slot storage of the field values of a row. Does not need a
+ * datastore.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+@RunWith(JUnit4.class)
+public class CommonFieldsBaseTest {
+
+  private static final String USER_URI = "mailto:tester@example.com";
+
+  private static final DataField NAME = new DataField("NAME", DataField.DataType.STRING, true, 10L);
+  private static final DataField COUNT = new DataField("COUNT", DataField.DataType.INTEGER, true);
+  private static final DataField AMOUNT = new DataField("AMOUNT", DataField.DataType.DECIMAL,
+      true, 2, 10);
+  private static final DataField WHEN = new DataField("WHEN", DataField.DataType.DATETIME, true);
+  private static final DataField FLAG = new DataField("FLAG", DataField.DataType.BOOLEAN, false);
+  private static final DataField DATA = new DataField("DATA", DataField.DataType.BINARY, true);
+
+  private static final class MyTable extends CommonFieldsBase {
+
+    MyTable() {
+      super("schema", "MY_TABLE");
+      fieldList.add(NAME);
+      fieldList.add(COUNT);
+      fieldList.add(AMOUNT);
+      fieldList.add(WHEN);
+      fieldList.add(FLAG);
+      fieldList.add(DATA);
+    }
+
+    private MyTable(MyTable ref, User user) {
+      super(ref, user);
+    }
+
+    void addField(DataField f) {
+      fieldList.add(f);
+    }
+
+    @Override
+    public MyTable getEmptyRow(User user) {
+      return new MyTable(this, user);
+    }
+  }
+
+  private static final User USER = new User() {
+    @Override
+    public String getNickname() {
+      return "tester";
+    }
+
+    @Override
+    public String getEmail() {
+      return USER_URI;
+    }
+
+    @Override
+    public String getUriUser() {
+      return USER_URI;
+    }
+
+    @Override
+    public Set<GrantedAuthority> getGroups() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public Set<GrantedAuthority> getDirectAuthorities() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public boolean isAnonymous() {
+      return false;
+    }
+
+    @Override
+    public boolean isRegistered() {
+      return true;
+    }
+  };
+
+  @Test
+  public void testEmptyRowHasAuditFields() {
+    MyTable row = new MyTable().getEmptyRow(USER);
+
+    assertNotNull(row.getUri());
+    assertEquals(USER_URI, row.getCreatorUriUser());
+    assertNotNull(row.getCreationDate());
+    assertEquals(row.getCreationDate(), row.getLastUpdateDate());
+    assertNull(row.getLastUpdateUriUser());
+    assertTrue(row.isNull(row.lastUpdateUriUser));
+    assertTrue(row.isNull(NAME));
+    assertTrue(row.isNull(COUNT));
+  }
+
+  @Test
+  public void testValuesRoundTrip() {
+    MyTable row = new MyTable().getEmptyRow(USER);
+    Date when = new Date(1234567890123L);
+    byte[] data = new byte[] { 1, 2, 3 };
+
+    assertTrue(row.setStringField(NAME, "abc"));
+    row.setLongField(COUNT, Long.MIN_VALUE);
+    row.setNumericField(AMOUNT, new BigDecimal("3.14159"));
+    row.setDateField(WHEN, when);
+    row.setBooleanField(FLAG, Boolean.TRUE);
+    row.setBlobField(DATA, data);
+
+    assertEquals("abc", row.getStringField(NAME));
+    assertEquals(Long.valueOf(Long.MIN_VALUE), row.getLongField(COUNT));
+    assertEquals(new BigDecimal("3.14"), row.getNumericField(AMOUNT));
+    assertEquals(when, row.getDateField(WHEN));
+    assertEquals(Boolean.TRUE, row.getBooleanField(FLAG));
+    assertArrayEquals(data, row.getBlobField(DATA));
+
+    row.setBooleanField(FLAG, Boolean.FALSE);
+    assertEquals(Boolean.FALSE, row.getBooleanField(FLAG));
+    assertFalse(row.isNull(FLAG));
+
+    row.setLongField(COUNT, null);
+    row.setDateField(WHEN, null);
+    assertNull(row.getLongField(COUNT));
+    assertNull(row.getDateField(WHEN));
+    assertTrue(row.isNull(COUNT));
+    assertTrue(row.isNull(WHEN));
+  }
+
+  @Test
+  public void testStoredDateIsNotShared() {
+    MyTable row = new MyTable().getEmptyRow(USER);
+    Date when = new Date(1000L);
+    row.setDateField(WHEN, when);
+    when.setTime(2000L);
+    row.getDateField(WHEN).setTime(3000L);
+    assertEquals(new Date(1000L), row.getDateField(WHEN));
+  }
+
+  @Test
+  public void testLongStringIsTruncated() {
+    MyTable row = new MyTable().getEmptyRow(USER);
+    assertFalse(row.setStringField(NAME, "0123456789abc"));
+    assertEquals("0123456789", row.getStringField(NAME));
+  }
+
+  @Test
+  public void testRowsDoNotShareValues() {
+    MyTable prototype = new MyTable();
+    MyTable first = prototype.getEmptyRow(USER);
+    MyTable second = prototype.getEmptyRow(USER);
+
+    first.setLongField(COUNT, 1L);
+    second.setLongField(COUNT, 2L);
+
+    assertEquals(Long.valueOf(1L), first.getLongField(COUNT));
+    assertEquals(Long.valueOf(2L), second.getLongField(COUNT));
+    assertFalse(first.getUri().equals(second.getUri()));
+  }
+
+  @Test
+  public void testFieldOfAnotherRelationIsRejected() {
+    MyTable row = new MyTable().getEmptyRow(USER);
+    DataField other = new DataField("NAME", DataField.DataType.STRING, true, 10L);
+    try {
+      row.getStringField(other);
+      fail("expected a field not in the relation to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertTrue(row.isNull(other));
+  }
+
+  @Test
+  public void testWrongTypeIsRejected() {
+    MyTable row = new MyTable().getEmptyRow(USER);
+    try {
+      row.setDateField(COUNT, new Date());
+      fail("expected the datetime value to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    row.setLongField(COUNT, 5L);
+    try {
+      row.getDateField(COUNT);
+      fail("expected an integer field to not be read as a date");
+    } catch (ClassCastException e) {
+      // expected
+    }
+    try {
+      row.setBooleanField(FLAG, null);
+      fail("expected the null value to be rejected");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPrototypeKeepsValuesWhenFieldsAreAdded() {
+    MyTable prototype = new MyTable();
+    prototype.setStringField(NAME, "proto");
+    prototype.setLongField(COUNT, 7L);
+
+    DataField added = new DataField("ADDED", DataField.DataType.INTEGER, true);
+    prototype.addField(added);
+    prototype.setLongField(added, 8L);
+
+    assertEquals("proto", prototype.getStringField(NAME));
+    assertEquals(Long.valueOf(7L), prototype.getLongField(COUNT));
+    assertEquals(Long.valueOf(8L), prototype.getLongField(added));
+
+    MyTable row = prototype.getEmptyRow(USER);
+    assertTrue(row.isNull(added));
+    row.setLongField(added, 9L);
+    assertEquals(Long.valueOf(9L), row.getLongField(added));
+  }
+}
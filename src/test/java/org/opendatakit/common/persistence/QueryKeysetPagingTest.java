@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2011 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.common.persistence.Query.Direction;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+/**
+ * Pages through a sorted query with resume and backward cursors. Many rows
+ * share each value of the dominant sort column, so most pages begin and end
+ * in the middle of a run of equal values and the continuation must resume on
+ * the primary key within that run.
+ */
+@RunWith(org.junit.runners.JUnit4.class)
+public class QueryKeysetPagingTest {
+
+	static final int ROW_COUNT = 50;
+	// number of distinct values of the dominant sort column
+	static final int GROUP_COUNT = 4;
+
+	static final int fetchSizes[] = { 1, 3, 7, 20 };
+
+	@BeforeClass
+	public static void oneTimeSetUp() throws Exception {
+
+		CallingContext cc = TestContextFactory.getCallingContext();
+		Datastore ds = cc.getDatastore();
+		User user = cc.getCurrentUser();
+
+		MyRelation rel = MyRelation.assertRelation(cc);
+		ds.dropRelation(rel, user);// drop it, in case prior test was messed up...
+		rel = MyRelation.assertRelation(cc);
+
+		for ( int i = 0 ; i < ROW_COUNT ; ++i ) {
+			MyRelation element = ds.createEntityUsingRelation(rel, user);
+			element.setLongField(MyRelation.fieldGroup, Long.valueOf(i % GROUP_COUNT));
+			element.setLongField(MyRelation.fieldSeq, Long.valueOf(i));
+			ds.putEntity(element, user);
+		}
+
+		try {
+			Thread.sleep(PersistConsts.MAX_SETTLE_MILLISECONDS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@AfterClass
+	public static void afterClass() throws Exception {
+
+		CallingContext cc = TestContextFactory.getCallingContext();
+
+		MyRelation rel = MyRelation.assertRelation(cc);
+		cc.getDatastore().dropRelation(rel, cc.getCurrentUser());
+	}
+
+	@Ignore
+	static class MyRelation extends CommonFieldsBase {
+
+		static final DataField fieldGroup = new DataField("GROUP_FIELD", DataField.DataType.INTEGER, false);
+		static final DataField fieldSeq = new DataField("SEQ_FIELD", DataField.DataType.INTEGER, false);
+
+		/**
+		 * Construct a relation prototype.
+		 *
+		 * @param databaseSchema
+		 */
+		private MyRelation(String databaseSchema) {
+			super(databaseSchema, "MY_QKP_TABLE" );
+			fieldList.add(fieldGroup);
+			fieldList.add(fieldSeq);
+		}
+
+		/**
+		 * Construct an empty entity.
+		 *
+		 * @param ref
+		 * @param user
+		 */
+		private MyRelation(MyRelation ref, User user) {
+			super(ref, user);
+		}
+
+		@Override
+		public CommonFieldsBase getEmptyRow(User user) {
+			return new MyRelation(this, user);
+		}
+
+		static synchronized final MyRelation assertRelation(CallingContext cc) throws ODKDatastoreException {
+			MyRelation relationPrototype;
+			Datastore ds = cc.getDatastore();
+			User user = cc.getUserService().getDaemonAccountUser();
+			relationPrototype = new MyRelation(ds.getDefaultSchemaName());
+		    ds.assertRelation(relationPrototype, user); // may throw exception...
+		    // at this point, the prototype has become fully populated
+		    return relationPrototype; // set static variable only upon success...
+		}
+	}
+
+	private static Query createQuery(String tag, Direction direction, CallingContext cc) throws ODKDatastoreException {
+		MyRelation rel = MyRelation.assertRelation(cc);
+		Query query = cc.getDatastore().createQuery(rel, "QueryKeysetPagingTest." + tag, cc.getCurrentUser());
+		query.addSort(MyRelation.fieldGroup, direction);
+		return query;
+	}
+
+	private static List<String> getUris(List<? extends CommonFieldsBase> rows) {
+		List<String> uris = new ArrayList<String>();
+		for ( CommonFieldsBase cb : rows ) {
+			uris.add(cb.getUri());
+		}
+		return uris;
+	}
+
+	/**
+	 * Fetch the entire result in one page.
+	 */
+	private static List<String> getAllUris(Query query, Direction direction) throws ODKDatastoreException {
+		QueryResult result = query.executeQuery(null, 0);
+		assertEquals(false, result.hasMoreResults());
+		assertEquals(ROW_COUNT, result.getResultList().size());
+
+		Long last = null;
+		for ( CommonFieldsBase cb : result.getResultList() ) {
+			Long group = cb.getLongField(MyRelation.fieldGroup);
+			if ( last != null ) {
+				assertTrue((direction == Direction.ASCENDING) ? last <= group : last >= group);
+			}
+			last = group;
+		}
+		return getUris(result.getResultList());
+	}
+
+	/**
+	 * Page through the query; the concatenated pages must equal the single-page
+	 * result, with no row repeated or skipped at the page boundaries.
+	 */
+	private static void verifyForwardPaging(Direction direction) throws ODKDatastoreException {
+		CallingContext cc = TestContextFactory.getCallingContext();
+
+		List<String> expected = getAllUris(createQuery("all", direction, cc), direction);
+
+		for ( int fetchSize : fetchSizes ) {
+			Query query = createQuery("forward", direction, cc);
+			List<String> paged = new ArrayList<String>();
+			Set<String> pkSet = new HashSet<String>();
+			QueryResumePoint startCursor = null;
+			boolean done = false;
+			while ( !done ) {
+				QueryResult result = query.executeQuery(startCursor, fetchSize);
+				done = !result.hasMoreResults();
+				if ( !done ) {
+					assertEquals(fetchSize, result.getResultList().size());
+				}
+				for ( String uri : getUris(result.getResultList()) ) {
+					assertEquals(false, pkSet.contains(uri));
+					pkSet.add(uri);
+					paged.add(uri);
+				}
+				startCursor = result.getResumeCursor();
+			}
+			assertEquals(expected, paged);
+
+			// resuming after the last row returns nothing
+			QueryResult result = query.executeQuery(startCursor, fetchSize);
+			assertEquals(false, result.hasMoreResults());
+			assertEquals(0, result.getResultList().size());
+		}
+	}
+
+	@Test
+	public void testForwardPagingAscending() throws ODKDatastoreException {
+		verifyForwardPaging(Direction.ASCENDING);
+	}
+
+	@Test
+	public void testForwardPagingDescending() throws ODKDatastoreException {
+		verifyForwardPaging(Direction.DESCENDING);
+	}
+
+	/**
+	 * The backward cursor of each forward page, applied to the reverse-sorted
+	 * query, must return the preceding rows in reverse order.
+	 */
+	private static void verifyBackwardPaging(Direction direction, Direction reverse) throws ODKDatastoreException {
+		CallingContext cc = TestContextFactory.getCallingContext();
+
+		List<String> expected = getAllUris(createQuery("all", direction, cc), direction);
+
+		for ( int fetchSize : fetchSizes ) {
+			Query query = createQuery("forward", direction, cc);
+			Query backquery = createQuery("backward", reverse, cc);
+
+			int position = 0;
+			QueryResumePoint startCursor = null;
+			QueryResult result;
+			do {
+				result = query.executeQuery(startCursor, fetchSize);
+				int pageSize = result.getResultList().size();
+				if ( pageSize == 0 ) {
+					break;
+				}
+
+				// the page immediately preceding this one, in reverse order
+				QueryResult backResult = backquery.executeQuery(result.getBackwardCursor(), fetchSize);
+				int expectedSize = Math.min(position, fetchSize);
+				assertEquals(expectedSize, backResult.getResultList().size());
+				assertEquals(position > fetchSize, backResult.hasMoreResults());
+				List<String> backUris = getUris(backResult.getResultList());
+				for ( int i = 0 ; i < expectedSize ; ++i ) {
+					assertEquals(expected.get(position - 1 - i), backUris.get(i));
+				}
+
+				position += pageSize;
+				startCursor = result.getResumeCursor();
+			} while ( result.hasMoreResults() );
+			assertEquals(ROW_COUNT, position);
+		}
+	}
+
+	@Test
+	public void testBackwardCursorAscending() throws ODKDatastoreException {
+		verifyBackwardPaging(Direction.ASCENDING, Direction.DESCENDING);
+	}
+
+	@Test
+	public void testBackwardCursorDescending() throws ODKDatastoreException {
+		verifyBackwardPaging(Direction.DESCENDING, Direction.ASCENDING);
+	}
+
+	/**
+	 * Page backward from the end of the result to its start, crossing the runs
+	 * of equal dominant sort values in reverse.
+	 */
+	@Test
+	public void testBackwardPagingToStart() throws ODKDatastoreException {
+		CallingContext cc = TestContextFactory.getCallingContext();
+
+		List<String> expected = getAllUris(createQuery("all", Direction.ASCENDING, cc), Direction.ASCENDING);
+
+		for ( int fetchSize : fetchSizes ) {
+			Query query = createQuery("forward", Direction.ASCENDING, cc);
+			Query backquery = createQuery("backward", Direction.DESCENDING, cc);
+
+			// advance to the last page
+			int position = 0;
+			QueryResumePoint startCursor = null;
+			QueryResult result;
+			do {
+				result = query.executeQuery(startCursor, fetchSize);
+				position += result.getResultList().size();
+				startCursor = result.getResumeCursor();
+			} while ( result.hasMoreResults() );
+			int lastPageSize = result.getResultList().size();
+
+			// and walk back to the start
+			List<String> backward = new ArrayList<String>();
+			QueryResumePoint backCursor = result.getBackwardCursor();
+			boolean done = false;
+			while ( !done ) {
+				QueryResult backResult = backquery.executeQuery(backCursor, fetchSize);
+				backward.addAll(getUris(backResult.getResultList()));
+				backCursor = backResult.getResumeCursor();
+				done = !backResult.hasMoreResults();
+			}
+
+			List<String> preceding = new ArrayList<String>(expected.subList(0, position - lastPageSize));
+			Collections.reverse(preceding);
+			assertEquals(preceding, backward);
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2015 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.security.spring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.opendatakit.common.utils.tomcat.TomcatHttpClientFactoryImpl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the access token cache of the Oauth2ResourceFilter against a local
+ * stand-in for the token endpoint.
+ *
+ * @author mitchellsundt@gmail.com
+ *
+ */
+@RunWith(JUnit4.class)
+public class Oauth2ResourceFilterTest {
+
+  private static final String GOOD_TOKEN = "good-token";
+  private static final String BAD_TOKEN = "bad-token";
+  private static final String EMAIL = "mailto:tester@example.com";
+
+  private HttpServer server;
+  private AtomicInteger tokenInfoCalls;
+  private AtomicInteger unavailableResponses;
+  private CountDownLatch releaseResponses;
+  private Oauth2ResourceFilter filter;
+
+  @Before
+  public void setUp() throws Exception {
+    tokenInfoCalls = new AtomicInteger(0);
+    unavailableResponses = new AtomicInteger(0);
+    releaseResponses = new CountDownLatch(0);
+
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/tokeninfo", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        tokenInfoCalls.incrementAndGet();
+        try {
+          releaseResponses.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        String query = exchange.getRequestURI().getQuery();
+        if (unavailableResponses.getAndDecrement() > 0) {
+          respond(exchange, 503, "{\"error\":\"backendError\"}");
+        } else if (query != null && query.contains("access_token=" + GOOD_TOKEN)) {
+          respond(exchange, 200, "{\"expires_in\":3600,\"email\":\"" + EMAIL + "\"}");
+        } else {
+          respond(exchange, 400, "{\"error\":\"invalid_token\"}");
+        }
+      }
+    });
+    server.start();
+
+    String base = "http://127.0.0.1:" + server.getAddress().getPort();
+    filter = new Oauth2ResourceFilter();
+    filter.setHttpClientFactory(new TomcatHttpClientFactoryImpl());
+    filter.setTokenInfoUrl(base + "/tokeninfo");
+    filter.setUserInfoUrl(base + "/userinfo");
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream os = exchange.getResponseBody();
+    os.write(bytes);
+    os.close();
+  }
+
+  @Test
+  public void testAcceptedTokenIsCached() {
+    Oauth2AuthenticationToken first = filter.assertToken(GOOD_TOKEN);
+    assertNotNull(first);
+    assertEquals(EMAIL, first.getEmail());
+
+    Oauth2AuthenticationToken second = filter.assertToken(GOOD_TOKEN);
+    assertNotNull(second);
+    assertEquals(EMAIL, second.getEmail());
+
+    Oauth2TokenCache cache = filter.getTokenCache();
+    assertEquals(1, tokenInfoCalls.get());
+    assertEquals(1L, cache.getMissCount());
+    assertEquals(1L, cache.getHitCount());
+  }
+
+  @Test
+  public void testRejectedTokenIsCached() {
+    assertNull(filter.assertToken(BAD_TOKEN));
+    assertNull(filter.assertToken(BAD_TOKEN));
+
+    Oauth2TokenCache cache = filter.getTokenCache();
+    assertEquals(1, tokenInfoCalls.get());
+    assertEquals(1L, cache.getMissCount());
+    assertEquals(1L, cache.getRejectedHitCount());
+  }
+
+  @Test
+  public void testUnreachableEndpointIsNotCached() {
+    server.stop(0);
+
+    assertNull(filter.assertToken(GOOD_TOKEN));
+    assertNull(filter.assertToken(GOOD_TOKEN));
+
+    Oauth2TokenCache cache = filter.getTokenCache();
+    assertEquals(0, cache.size());
+    assertEquals(2L, cache.getMissCount());
+    assertEquals(2L, cache.getValidationFailureCount());
+  }
+
+  @Test
+  public void testUnavailableEndpointIsNotCached() {
+    unavailableResponses.set(1);
+
+    assertNull(filter.assertToken(GOOD_TOKEN));
+    Oauth2AuthenticationToken token = filter.assertToken(GOOD_TOKEN);
+    assertNotNull(token);
+    assertEquals(EMAIL, token.getEmail());
+
+    Oauth2TokenCache cache = filter.getTokenCache();
+    assertEquals(2, tokenInfoCalls.get());
+    assertEquals(2L, cache.getMissCount());
+    assertEquals(0L, cache.getRejectedHitCount());
+    assertEquals(1L, cache.getValidationFailureCount());
+  }
+
+  @Test
+  public void testConcurrentLookupsValidateOnce() throws Exception {
+    final int threadCount = 8;
+    releaseResponses = new CountDownLatch(1);
+    final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+    final List<Oauth2AuthenticationToken> results = new ArrayList<Oauth2AuthenticationToken>();
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < threadCount; ++i) {
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            barrier.await();
+          } catch (Exception e) {
+            return;
+          }
+          Oauth2AuthenticationToken token = filter.assertToken(GOOD_TOKEN);
+          synchronized (results) {
+            results.add(token);
+          }
+        }
+      };
+      threads.add(t);
+      t.start();
+    }
+
+    // give every thread time to join the in-flight validation
+    Thread.sleep(500);
+    releaseResponses.countDown();
+    for (Thread t : threads) {
+      t.join(10000);
+    }
+
+    assertEquals(threadCount, results.size());
+    for (Oauth2AuthenticationToken token : results) {
+      assertNotNull(token);
+      assertEquals(EMAIL, token.getEmail());
+    }
+    assertEquals(1, tokenInfoCalls.get());
+    assertEquals(1L, filter.getTokenCache().getValidationCount());
+  }
+}